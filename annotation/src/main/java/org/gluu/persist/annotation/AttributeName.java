@@ -48,4 +48,18 @@ public @interface AttributeName {
      * Defaults value is false.
      */
     boolean consistency() default false;
+
+    /**
+     * (Optional) The name of shadow attribute with lower case copy of value.
+     * ORM updates it on persist/merge and uses it in lower case filters instead of LOWER(attribute)
+     * after it's listed in lowercaseAttributes.backfilled option.
+     * Backends with case insensitive search ignore it.
+     */
+    String lowercaseName() default "";
+
+    /**
+     * (Optional) Attribute has backend full text index for substring search.
+     * ORM uses it to narrow down substring filters before LIKE check.
+     */
+    boolean substringIndex() default false;
 }
@@ -6,9 +6,11 @@
 
 package org.gluu.persist;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
@@ -20,6 +22,7 @@ import org.gluu.persist.event.DeleteNotifier;
 import org.gluu.persist.exception.extension.PersistenceExtension;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.model.SortOrder;
@@ -45,12 +48,29 @@ public interface PersistenceEntryManager extends EntityManager {
 
 	Void merge(Object entry);
 
+    /**
+     * Update specified entry attributes without loading entry. Entry with Version property
+     * is checked and updated in same way as in merge
+     *
+     * @param primaryKey Entry DN
+     * @param entryClass Entry class which defines attributes mapping
+     * @param changes Property name (or attribute name) to new value map. Null or empty value removes attribute
+     */
+    <T> void updateAttributes(String primaryKey, Class<T> entryClass, Map<String, Object> changes);
+
 	@Deprecated
 	boolean contains(Object entity);
 
     <T> boolean contains(String primaryKey, Class<T> entryClass);
     <T> boolean contains(String primaryKey, Class<T> entryClass, Filter filter);
 
+    /**
+     * Check existence of many entries with few backend requests
+     *
+     * @return primary keys of existing entries
+     */
+    <T> Set<String> findExistingKeys(Class<T> entryClass, Collection<String> primaryKeys);
+
     <T> int countEntries(Object entry);
 
     <T> int countEntries(String primaryKey, Class<T> entryClass, Filter filter);
@@ -82,6 +102,27 @@ public interface PersistenceEntryManager extends EntityManager {
     <T> PagedResult<T> findPagedEntries(String primaryKey, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
                                         SortOrder sortOrder, int start, int count, int chunkSize);
 
+    /**
+     * Search page of entries
+     *
+     * @param countMode Defines how total entries count is calculated
+     * @return Result page. Total entries count is -1 if it was not calculated
+     */
+    <T> PagedResult<T> findPagedEntries(String primaryKey, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
+                                        SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode);
+
+    /**
+     * Process all entries with batch operation. Key space is split into disjoint partitions
+     * which are searched concurrently. Batch operation should be thread safe
+     *
+     * @param baseDN Search base DN
+     * @param entryClass Entry class
+     * @param filter Search filter
+     * @param batchOperation Batch operation which processes found entries
+     * @param parallelism Number of partitions and worker threads
+     */
+    <T> void findEntriesParallel(String baseDN, Class<T> entryClass, Filter filter, BatchOperation<T> batchOperation, int parallelism);
+
 	void remove(Object entry);
 
 	@Deprecated
@@ -0,0 +1,28 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.exception;
+
+/**
+ * An exception is a result of concurrent entry modification detected by entry version check.
+ */
+public class EntryVersionConflictException extends EntryPersistenceException {
+
+    private static final long serialVersionUID = 2816428720393853217L;
+
+    public EntryVersionConflictException(Throwable root) {
+        super(root);
+    }
+
+    public EntryVersionConflictException(String string, Throwable root) {
+        super(string, root);
+    }
+
+    public EntryVersionConflictException(String s) {
+        super(s);
+    }
+
+}
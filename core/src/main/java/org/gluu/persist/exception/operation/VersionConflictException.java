@@ -0,0 +1,24 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.exception.operation;
+
+/**
+ * Exception thrown when entry was modified concurrently and version check failed
+ */
+public class VersionConflictException extends PersistenceException {
+
+    private static final long serialVersionUID = -3183225217471928513L;
+
+    public VersionConflictException(String message) {
+        super(message);
+    }
+
+    public VersionConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -11,16 +11,26 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.codec.binary.Base64;
 import org.gluu.persist.PersistenceEntryManager;
@@ -34,13 +44,19 @@ import org.gluu.persist.annotation.Expiration;
 import org.gluu.persist.annotation.JsonObject;
 import org.gluu.persist.annotation.ObjectClass;
 import org.gluu.persist.annotation.SchemaEntry;
+import org.gluu.persist.annotation.Version;
 import org.gluu.persist.exception.EntryPersistenceException;
 import org.gluu.persist.exception.InvalidArgumentException;
 import org.gluu.persist.exception.MappingException;
 import org.gluu.persist.exception.extension.PersistenceExtension;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
+import org.gluu.persist.model.DefaultBatchOperation;
+import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
+import org.gluu.persist.model.SortOrder;
 import org.gluu.persist.model.AttributeDataModification.AttributeModificationType;
 import org.gluu.persist.operation.PersistenceOperationService;
 import org.gluu.persist.reflect.property.Getter;
@@ -48,6 +64,7 @@ import org.gluu.persist.reflect.property.PropertyAnnotation;
 import org.gluu.persist.reflect.property.Setter;
 import org.gluu.persist.reflect.util.ReflectHelper;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.gluu.orm.util.ArrayHelper;
 import org.gluu.orm.util.StringHelper;
 import org.slf4j.Logger;
@@ -71,10 +88,13 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 	private static final Class<?>[] LDAP_CUSTOM_OBJECT_CLASS_PROPERTY_ANNOTATION = { CustomObjectClass.class };
 	private static final Class<?>[] LDAP_DN_PROPERTY_ANNOTATION = { DN.class };
 	private static final Class<?>[] LDAP_EXPIRATION_PROPERTY_ANNOTATION = { Expiration.class };
+	private static final Class<?>[] LDAP_VERSION_PROPERTY_ANNOTATION = { Version.class };
 
 	public static final String OBJECT_CLASS = "objectClass";
 	public static final String[] EMPTY_STRING_ARRAY = new String[0];
 
+	private static final int NEGATIVE_LOOKUP_CACHE_SCAN_CHUNK_SIZE = 1000;
+
 	private static final Class<?>[] GROUP_BY_ALLOWED_DATA_TYPES = { String.class, Date.class, Integer.class,
 			AttributeEnum.class };
 	private static final Class<?>[] SUM_BY_ALLOWED_DATA_TYPES = { int.class, Integer.class, float.class, Float.class,
@@ -96,9 +116,232 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 	protected static final Comparator<String> LINE_LENGHT_COMPARATOR = new LineLenghtComparator<String>(false);
 
 	protected static final int DEFAULT_PAGINATION_SIZE = 100;
+
+	// Most of keys are generated hex strings or UUIDs. Keys with other first characters fall into last range
+	protected static final String KEY_RANGE_ALPHABET = "0123456789abcdef";
 	
 	protected PersistenceOperationService operationService = null;
 	protected PersistenceExtension persistenceExtension = null;
+	protected WriteBehindService writeBehindService = null;
+	protected TotalCountCache totalCountCache = new TotalCountCache(TotalCountCache.DEFAULT_TTL, TotalCountCache.DEFAULT_MAX_ENTRIES);
+	protected FilterOptimizer filterOptimizer = null;
+	protected IndexAdvisor indexAdvisor = null;
+	protected TtlSweeper ttlSweeper = null;
+	protected NegativeLookupCache negativeLookupCache = null;
+	protected LowercaseAttributes lowercaseAttributes = new LowercaseAttributes(Collections.<String>emptyList());
+
+	/*
+	 * Enable write-behind of merges if it's enabled in configuration
+	 */
+	public void initWriteBehind(Properties props) {
+		this.writeBehindService = WriteBehindService.create(new WriteBehindService.EntryWriter() {
+			@Override
+			public void write(Object entry) {
+				mergeImpl((PendingMerge) entry);
+			}
+		}, props);
+	}
+
+	public void initTotalCountCache(Properties props) {
+		this.totalCountCache = TotalCountCache.create(props);
+	}
+
+	/*
+	 * Enable optimization of filters before conversion if it's enabled in configuration
+	 */
+	public void initFilterOptimizer(Properties props) {
+		this.filterOptimizer = FilterOptimizer.create(props);
+		LOG.info("Option filter.optimizer.enabled: " + (this.filterOptimizer != null));
+	}
+
+	/*
+	 * Enable recording of filter shapes if it's enabled in configuration
+	 */
+	public void initIndexAdvisor(Properties props) {
+		this.indexAdvisor = IndexAdvisor.create(createIndexDefinitionBuilder(props), props);
+		LOG.info("Option indexAdvisor.enabled: " + (this.indexAdvisor != null));
+	}
+
+	/*
+	 * Backend specific index definitions builder. Index advisor only records shapes without it
+	 */
+	protected IndexAdvisor.IndexDefinitionBuilder createIndexDefinitionBuilder(Properties props) {
+		return null;
+	}
+
+	protected void destroyIndexAdvisor() {
+		if (this.indexAdvisor != null) {
+			this.indexAdvisor.destroy();
+		}
+	}
+
+	public IndexAdvisor getIndexAdvisor() {
+		return indexAdvisor;
+	}
+
+	protected void recordFilterShape(String container, Filter filter, long startTime) {
+		if (this.indexAdvisor != null) {
+			this.indexAdvisor.record(container, filter, System.nanoTime() - startTime);
+		}
+	}
+
+	/*
+	 * Enable sweeper of expired entries if it's enabled in configuration
+	 */
+	public void initExpiration(Properties props) {
+		this.ttlSweeper = TtlSweeper.create(createExpiredEntriesRemover(props), props);
+		LOG.info("Option ttl.sweeper.enabled: " + (this.ttlSweeper != null));
+	}
+
+	/*
+	 * Backend specific removal of expired entries. Backends with native expiration don't need it
+	 */
+	protected TtlSweeper.ExpiredEntriesRemover createExpiredEntriesRemover(Properties props) {
+		return null;
+	}
+
+	/*
+	 * Searches use lower case copies of attributes which were backfilled in all existing entries
+	 */
+	public void initLowercaseAttributes(Properties props) {
+		this.lowercaseAttributes = LowercaseAttributes.create(props);
+	}
+
+	/*
+	 * Enable Bloom filters of existing keys if it's enabled in configuration. Entry classes should be registered
+	 * with registerNegativeLookupCache
+	 */
+	public void initNegativeLookupCache(Properties props) {
+		this.negativeLookupCache = NegativeLookupCache.create(props);
+		LOG.info("Option negativeLookupCache.enabled: " + (this.negativeLookupCache != null));
+	}
+
+	/*
+	 * Answer contains requests for absent entries and values of unique attributes without backend request.
+	 * It's safe only if all entries under base DN are written through this entry manager
+	 */
+	public <T> void registerNegativeLookupCache(final Class<T> entryClass, final String baseDN, String... uniqueAttributes) {
+		if (this.negativeLookupCache == null) {
+			LOG.debug("Negative lookup cache is disabled. Entry class: '{}'", entryClass);
+			return;
+		}
+
+		checkEntryClass(entryClass, false);
+		final List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
+		final String[] ldapReturnAttributes = ArrayHelper.isEmpty(uniqueAttributes) ? new String[] { OBJECT_CLASS } : uniqueAttributes;
+
+		this.negativeLookupCache.register(entryClass, baseDN, uniqueAttributes, new NegativeLookupCache.Scanner() {
+			@Override
+			public void scan(final NegativeLookupCache.Registration registration) {
+				findEntries(baseDN, entryClass, null, SearchScope.SUB, ldapReturnAttributes, new DefaultBatchOperation<T>() {
+					@Override
+					public boolean collectSearchResult(int size) {
+						return false;
+					}
+
+					@Override
+					public void performAction(List<T> entries) {
+						for (T entry : entries) {
+							registration.add(getDNValue(entry, entryClass).toString(), getAttributesListForPersist(entry, propertiesAnnotations));
+						}
+					}
+				}, 0, 0, NEGATIVE_LOOKUP_CACHE_SCAN_CHUNK_SIZE);
+			}
+		});
+	}
+
+	/*
+	 * Add key and attributes values of new or updated entry before write
+	 */
+	private void addToNegativeLookupCache(Class<?> entryClass, Object dnValue, List<AttributeData> attributes) {
+		if ((this.negativeLookupCache != null) && (dnValue != null)) {
+			this.negativeLookupCache.add(entryClass, dnValue.toString(), attributes);
+		}
+	}
+
+	protected void destroyNegativeLookupCache() {
+		if (this.negativeLookupCache != null) {
+			this.negativeLookupCache.destroy();
+		}
+	}
+
+	public NegativeLookupCache getNegativeLookupCache() {
+		return negativeLookupCache;
+	}
+
+	protected void destroyTtlSweeper() {
+		if (this.ttlSweeper != null) {
+			this.ttlSweeper.destroy();
+		}
+	}
+
+	public TtlSweeper getTtlSweeper() {
+		return ttlSweeper;
+	}
+
+	protected void destroyWriteBehind() {
+		if (this.writeBehindService != null) {
+			this.writeBehindService.destroy();
+		}
+	}
+
+	public WriteBehindService getWriteBehindService() {
+		return writeBehindService;
+	}
+
+	/*
+	 * Write pending entry before operation which should see it's current state
+	 */
+	protected void flushPendingWrite(Object primaryKey) {
+		if ((this.writeBehindService != null) && (primaryKey != null) && this.writeBehindService.isPending(primaryKey.toString())) {
+			this.writeBehindService.flush(primaryKey.toString());
+		}
+	}
+
+	/*
+	 * Write pending entry before read. Failed write stays pending and it's not read error
+	 */
+	protected void flushPendingWriteBeforeRead(Object primaryKey) {
+		if ((this.writeBehindService == null) || (primaryKey == null) || !this.writeBehindService.isPending(primaryKey.toString())) {
+			return;
+		}
+
+		try {
+			this.writeBehindService.flush(primaryKey.toString());
+		} catch (RuntimeException ex) {
+			LOG.error("Failed to write pending entry '{}' before read", primaryKey, ex);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (this.writeBehindService != null) {
+			this.writeBehindService.flushAll();
+		}
+	}
+
+	@Override
+	public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
+			SortOrder sortOrder, int start, int count, int chunkSize) {
+		return findPagedEntries(baseDN, entryClass, filter, ldapReturnAttributes, sortBy, sortOrder, start, count, chunkSize, CountMode.EXACT);
+	}
+
+	/*
+	 * Returns null if count mode is not CACHED or there is no valid cached count
+	 */
+	protected <T> Integer getCachedTotalCount(CountMode countMode, String baseDN, Class<T> entryClass, Filter filter) {
+		if (CountMode.CACHED != countMode) {
+			return null;
+		}
+
+		return totalCountCache.get(baseDN, getTypeObjectClasses(entryClass), filter);
+	}
+
+	protected <T> void putCachedTotalCount(CountMode countMode, String baseDN, Class<T> entryClass, Filter filter, int totalCount) {
+		if (CountMode.CACHED == countMode) {
+			totalCountCache.put(baseDN, getTypeObjectClasses(entryClass), filter, totalCount);
+		}
+	}
 
 	@Override
 	public void persist(Object entry) {
@@ -112,9 +355,16 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
 
 		Object dnValue = getDNValue(entry, entryClass);
+		flushPendingWrite(dnValue);
 
 		Integer expirationValue = getExpirationValue(entry, entryClass, false);
 
+		// Set initial version if entry is versioned
+		PropertyAnnotation versionProperty = getVersionProperty(entryClass);
+		if ((versionProperty != null) && (getVersionValue(entry, entryClass, versionProperty) == null)) {
+			setVersionValue(entry, entryClass, versionProperty, 1L);
+		}
+
 		List<AttributeData> attributes = getAttributesListForPersist(entry, propertiesAnnotations);
 
 		// Add object classes
@@ -123,6 +373,7 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 
 		LOG.debug(String.format("LDAP attributes for persist: %s", attributes));
 
+		addToNegativeLookupCache(entryClass, dnValue, attributes);
 		persist(dnValue.toString(), objectClasses, attributes, expirationValue);
 	}
 
@@ -181,6 +432,118 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		return findEntries(baseDN, entryClass, filter, scope, ldapReturnAttributes, null, start, count, chunkSize);
 	}
 
+	@Override
+	public <T> void findEntriesParallel(String baseDN, Class<T> entryClass, Filter filter, BatchOperation<T> batchOperation, int parallelism) {
+		if (batchOperation == null) {
+			throw new MappingException("Batch operation for parallel search is null");
+		}
+
+		// Check entry class
+		checkEntryClass(entryClass, false);
+
+		Filter[] partitionFilters = null;
+		if (parallelism > 1) {
+			partitionFilters = createPartitionFilters(baseDN, entryClass, parallelism);
+		}
+
+		if (ArrayHelper.isEmpty(partitionFilters)) {
+			LOG.debug("Partitioned search is not supported. Execute search in one thread");
+			findEntries(baseDN, entryClass, filter, SearchScope.SUB, null, new PartitionBatchOperation<T>(batchOperation, 0, 1), 0, 0, DEFAULT_PAGINATION_SIZE);
+			return;
+		}
+
+		ExecutorService executorService = Executors.newFixedThreadPool(partitionFilters.length, new ThreadFactory() {
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "persistence-partition-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>(partitionFilters.length);
+			for (int i = 0; i < partitionFilters.length; i++) {
+				final Filter partitionFilter = (filter == null) ? partitionFilters[i] : Filter.createANDFilter(filter, partitionFilters[i]);
+				final PartitionBatchOperation<T> partitionBatchOperation = new PartitionBatchOperation<T>(batchOperation, i, partitionFilters.length);
+
+				futures.add(executorService.submit(new Runnable() {
+					@Override
+					public void run() {
+						findEntries(baseDN, entryClass, partitionFilter, SearchScope.SUB, null, partitionBatchOperation, 0, 0, DEFAULT_PAGINATION_SIZE);
+						LOG.info("Partition {} of {} processed, entries: {}", partitionBatchOperation.getPartition() + 1,
+								partitionBatchOperation.getPartitions(), partitionBatchOperation.getProcessedEntries());
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new EntryPersistenceException(String.format("Parallel search was interrupted. BaseDN: '%s'", baseDN), ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+
+			throw new EntryPersistenceException(String.format("Failed to execute parallel search. BaseDN: '%s'", baseDN), ex.getCause());
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+
+	/*
+	 * Returns disjoint filters which together match all entries under baseDN.
+	 * Returns null if persistence layer doesn't support partitioned search
+	 */
+	protected <T> Filter[] createPartitionFilters(String baseDN, Class<T> entryClass, int parallelism) {
+		return null;
+	}
+
+	/*
+	 * Split key space by first key character after keyPrefix. Alphabet should be ordered
+	 * in the same way as persistence layer compares keys
+	 */
+	protected Filter[] createKeyRangeFilters(String attributeName, String keyPrefix, String alphabet, int parallelism) {
+		return createKeyRangeFilters(attributeName, keyPrefix, alphabet, "", parallelism);
+	}
+
+	/*
+	 * Each bound is keyPrefix + alphabet character + keySuffix. Suffix allows to build bounds
+	 * which are valid values of attribute syntax
+	 */
+	protected Filter[] createKeyRangeFilters(String attributeName, String keyPrefix, String alphabet, String keySuffix, int parallelism) {
+		int partitions = Math.min(parallelism, alphabet.length());
+		if (partitions < 2) {
+			return null;
+		}
+
+		Filter[] filters = new Filter[partitions];
+		for (int i = 0; i < partitions; i++) {
+			List<Filter> rangeFilters = new ArrayList<Filter>(2);
+			if (i > 0) {
+				String lowerBound = keyPrefix + alphabet.charAt(i * alphabet.length() / partitions) + keySuffix;
+				rangeFilters.add(Filter.createGreaterOrEqualFilter(attributeName, lowerBound));
+			}
+			if (i < partitions - 1) {
+				String upperBound = keyPrefix + alphabet.charAt((i + 1) * alphabet.length() / partitions) + keySuffix;
+				rangeFilters.add(Filter.createNOTFilter(Filter.createGreaterOrEqualFilter(attributeName, upperBound)));
+			}
+
+			if (rangeFilters.size() == 1) {
+				filters[i] = rangeFilters.get(0);
+			} else {
+				filters[i] = Filter.createANDFilter(rangeFilters);
+			}
+		}
+
+		return filters;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T> int countEntries(Object entry) {
 		if (entry == null) {
@@ -200,12 +563,78 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		return countEntries(dnValue.toString(), entryClass, searchFilter);
 	}
 
-	@SuppressWarnings("unchecked")
 	protected Void merge(Object entry, boolean isSchemaUpdate, boolean isConfigurationUpdate, AttributeModificationType schemaModificationType) {
 		if (entry == null) {
 			throw new MappingException("Entry to persist is null");
 		}
 
+		if ((this.negativeLookupCache != null) && !isSchemaUpdate && this.negativeLookupCache.isRegistered(entry.getClass())) {
+			// Merge can add new values of unique attributes
+			Class<?> entryClass = entry.getClass();
+			addToNegativeLookupCache(entryClass, getDNValue(entry, entryClass), getAttributesListForPersist(entry, getEntryPropertyAnnotations(entryClass)));
+		}
+
+		if ((this.writeBehindService != null) && !isSchemaUpdate && !isConfigurationUpdate && enqueueMerge(entry)) {
+			return null;
+		}
+
+		return mergeImpl(entry, isSchemaUpdate, isConfigurationUpdate, schemaModificationType);
+	}
+
+	/*
+	 * Versioned entries are not deferred because caller should get version conflict immediately
+	 */
+	private boolean enqueueMerge(Object entry) {
+		Class<?> entryClass = entry.getClass();
+		checkEntryClass(entryClass, false);
+
+		if (getVersionProperty(entryClass) != null) {
+			return false;
+		}
+
+		String[] objectClasses = getObjectClasses(entry, entryClass);
+		if (!this.writeBehindService.isSupportObjectClasses(objectClasses)) {
+			return false;
+		}
+
+		Object dnValue = getDNValue(entry, entryClass);
+
+		// Caller can change entry after merge. Buffer copy of current state instead of entry
+		boolean forceUpdate = isUseEntryForceUpdate(entryClass);
+		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
+		List<String> ldapReturnAttributes = forceUpdate ? null : buildAttributesListForMerge(entry, objectClasses, propertiesAnnotations, false);
+
+		List<AttributeData> attributesToPersist = new ArrayList<AttributeData>();
+		for (AttributeData attribute : getAttributesListForPersist(entry, propertiesAnnotations)) {
+			Object[] values = (attribute.getValues() == null) ? null : attribute.getValues().clone();
+			attributesToPersist.add(new AttributeData(attribute.getName(), values, attribute.getMultiValued()));
+		}
+
+		PendingMerge pendingMerge = new PendingMerge(entryClass, dnValue.toString(), objectClasses, attributesToPersist, ldapReturnAttributes,
+				getExpirationValue(entry, entryClass, true), forceUpdate);
+
+		return this.writeBehindService.enqueue(dnValue.toString(), pendingMerge);
+	}
+
+	/*
+	 * Write buffered state of entry. Write-behind is disabled for versioned entries
+	 */
+	private Void mergeImpl(PendingMerge pendingMerge) {
+		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(pendingMerge.getEntryClass());
+
+		List<AttributeDataModification> attributeDataModifications = collectMergeModifications(pendingMerge.getDn(), pendingMerge.getEntryClass(),
+				pendingMerge.getObjectClasses(), propertiesAnnotations, pendingMerge.getAttributesToPersist(), pendingMerge.getLdapReturnAttributes(),
+				false, false, null, pendingMerge.isForceUpdate());
+
+		LOG.debug(String.format("LDAP attributes for merge: %s", attributeDataModifications));
+
+		merge(pendingMerge.getDn(), pendingMerge.getObjectClasses(), attributeDataModifications, pendingMerge.getExpirationValue(), null);
+
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected Void mergeImpl(Object entry, boolean isSchemaUpdate, boolean isConfigurationUpdate, AttributeModificationType schemaModificationType) {
 		Class<?> entryClass = entry.getClass();
 		checkEntryClass(entryClass, isSchemaUpdate);
 
@@ -215,28 +644,73 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		String[] objectClasses = getObjectClasses(entry, entryClass);
 
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
-        Map<String, PropertyAnnotation> propertiesAnnotationsMap = prepareEntryPropertiesTypes(entryClass, propertiesAnnotations);
 
 		Object dnValue = getDNValue(entry, entryClass);
 
 		Integer expirationValue = getExpirationValue(entry, entryClass, true);
 
 		List<AttributeData> attributesToPersist = getAttributesListForPersist(entry, propertiesAnnotations);
+
+		// If it's schema modification request we don't need to load attributes from LDAP
+		List<String> ldapReturnAttributes = (isSchemaUpdate || forceUpdate) ? null
+				: buildAttributesListForMerge(entry, objectClasses, propertiesAnnotations, isConfigurationUpdate);
+
+		List<AttributeDataModification> attributeDataModifications = collectMergeModifications(dnValue.toString(), entryClass, objectClasses,
+				propertiesAnnotations, attributesToPersist, ldapReturnAttributes, isSchemaUpdate, isConfigurationUpdate, schemaModificationType, forceUpdate);
+
+		// Prepare version check if entry is versioned
+		PropertyAnnotation versionProperty = isSchemaUpdate ? null : getVersionProperty(entryClass);
+		AttributeData expectedVersion = null;
+		Long nextVersion = null;
+		if (versionProperty != null) {
+			String versionAttributeName = getVersionAttributeName(versionProperty);
+			removeAttributeModifications(attributeDataModifications, versionAttributeName);
+
+			// Don't change version if there are no other changes
+			if (attributeDataModifications.size() > 0) {
+				Long currentVersion = getVersionValue(entry, entryClass, versionProperty);
+				nextVersion = (currentVersion == null) ? 1L : currentVersion + 1;
+				if (currentVersion != null) {
+					expectedVersion = new AttributeData(versionAttributeName, new Object[] { currentVersion }, false);
+				}
+				attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.FORCE_UPDATE,
+						new AttributeData(versionAttributeName, new Object[] { nextVersion }, false)));
+			}
+		}
+
+		LOG.debug(String.format("LDAP attributes for merge: %s", attributeDataModifications));
+
+		merge(dnValue.toString(), objectClasses, attributeDataModifications, expirationValue, expectedVersion);
+
+		if (nextVersion != null) {
+			setVersionValue(entry, entryClass, versionProperty, nextVersion);
+		}
+
+		return null;
+	}
+
+	private List<String> buildAttributesListForMerge(Object entry, String[] objectClasses, List<PropertyAnnotation> propertiesAnnotations,
+			boolean isConfigurationUpdate) {
+		List<String> currentLdapReturnAttributesList = buildAttributesListForUpdate(entry, objectClasses, propertiesAnnotations);
+		if (!isConfigurationUpdate) {
+			currentLdapReturnAttributesList.add("objectClass");
+		}
+
+		return currentLdapReturnAttributesList;
+	}
+
+	private List<AttributeDataModification> collectMergeModifications(String dn, Class<?> entryClass, String[] objectClasses,
+			List<PropertyAnnotation> propertiesAnnotations, List<AttributeData> attributesToPersist, List<String> ldapReturnAttributes,
+			boolean isSchemaUpdate, boolean isConfigurationUpdate, AttributeModificationType schemaModificationType, boolean forceUpdate) {
+		Map<String, PropertyAnnotation> propertiesAnnotationsMap = prepareEntryPropertiesTypes(entryClass, propertiesAnnotations);
 		Map<String, AttributeData> attributesToPersistMap = getAttributesMap(attributesToPersist);
 
 		// Load entry
 		List<AttributeData> attributesFromLdap = null;
-		if (isSchemaUpdate || forceUpdate) {
-			// If it's schema modification request we don't need to load
-			// attributes from LDAP
+		if (ldapReturnAttributes == null) {
 			attributesFromLdap = new ArrayList<AttributeData>();
 		} else {
-			List<String> currentLdapReturnAttributesList = buildAttributesListForUpdate(entry, objectClasses, propertiesAnnotations);
-			if (!isConfigurationUpdate) {
-				currentLdapReturnAttributesList.add("objectClass");
-			}
-
-			attributesFromLdap = find(dnValue.toString(), objectClasses, propertiesAnnotationsMap, currentLdapReturnAttributesList.toArray(EMPTY_STRING_ARRAY));
+			attributesFromLdap = find(dn, objectClasses, propertiesAnnotationsMap, ldapReturnAttributes.toArray(EMPTY_STRING_ARRAY));
 		}
 
 		if (LOG.isTraceEnabled()) {
@@ -246,38 +720,269 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 
 		Map<String, AttributeData> attributesFromLdapMap = getAttributesMap(attributesFromLdap);
 
-		// Prepare list of modifications
+		// Prepare list of modifications
+
+		// Process properties with Attribute annotation
+		List<AttributeDataModification> attributeDataModifications = collectAttributeModifications(
+				propertiesAnnotations, attributesToPersistMap, attributesFromLdapMap, isSchemaUpdate,
+				schemaModificationType, forceUpdate);
+
+		if (LOG.isTraceEnabled()) {
+			dumpAttributeDataModifications("attributeDataModifications before updateMergeChanges", attributeDataModifications);
+		}
+
+		updateMergeChanges(dn, objectClasses, isSchemaUpdate | isConfigurationUpdate, entryClass, attributesFromLdapMap, attributeDataModifications, forceUpdate);
+
+		if (LOG.isTraceEnabled()) {
+			dumpAttributeDataModifications("attributeDataModifications after updateMergeChanges", attributeDataModifications);
+		}
+
+		return attributeDataModifications;
+	}
+
+	private void removeAttributeModifications(List<AttributeDataModification> attributeDataModifications, String attributeName) {
+		for (Iterator<AttributeDataModification> it = attributeDataModifications.iterator(); it.hasNext();) {
+			AttributeDataModification attributeDataModification = it.next();
+			AttributeData attribute = attributeDataModification.getAttribute();
+			if (attribute == null) {
+				attribute = attributeDataModification.getOldAttribute();
+			}
+
+			if ((attribute != null) && StringHelper.equalsIgnoreCase(attributeName, attribute.getName())) {
+				it.remove();
+			}
+		}
+	}
+
+	@Override
+	public <T> void updateAttributes(String primaryKey, Class<T> entryClass, Map<String, Object> changes) {
+		if (StringHelper.isEmpty(primaryKey)) {
+			throw new MappingException("DN to update entry is null");
+		}
+
+		checkEntryClass(entryClass, false);
+
+		if ((changes == null) || changes.isEmpty()) {
+			return;
+		}
+
+		flushPendingWrite(primaryKey);
+
+		String[] objectClasses = getTypeObjectClasses(entryClass);
+		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
+
+		// Expiration is not an attribute. Mutation without it can reset entry TTL in some backends
+		Integer expirationValue = getExpirationValue(primaryKey, entryClass, changes);
+		Map<String, Object> attributeChanges = changes;
+		PropertyAnnotation expirationProperty = getExpirationProperty(entryClass);
+		if ((expirationProperty != null) && changes.containsKey(expirationProperty.getPropertyName())) {
+			attributeChanges = new HashMap<String, Object>(changes);
+			attributeChanges.remove(expirationProperty.getPropertyName());
+		}
+
+		List<AttributeDataModification> attributeDataModifications = collectAttributeUpdates(entryClass, propertiesAnnotations, attributeChanges);
+
+		if (LOG.isTraceEnabled()) {
+			dumpAttributeDataModifications("attributeDataModifications for updateAttributes", attributeDataModifications);
+		}
+
+		// Versioned entry should pass same version check as merge. Load current version and increment it
+		AttributeData expectedVersion = null;
+		PropertyAnnotation versionProperty = getVersionProperty(entryClass);
+		if (versionProperty != null) {
+			String versionAttributeName = getVersionAttributeName(versionProperty);
+			removeAttributeModifications(attributeDataModifications, versionAttributeName);
+
+			T currentEntry = find(primaryKey, entryClass, new String[] { versionAttributeName });
+			Long currentVersion = getVersionValue(currentEntry, entryClass, versionProperty);
+			long nextVersion = (currentVersion == null) ? 1L : currentVersion + 1;
+			if (currentVersion != null) {
+				expectedVersion = new AttributeData(versionAttributeName, new Object[] { currentVersion }, false);
+			}
+			attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.FORCE_UPDATE,
+					new AttributeData(versionAttributeName, new Object[] { nextVersion }, false)));
+		}
+
+		LOG.debug(String.format("Attributes for update: %s", attributeDataModifications));
+
+		merge(primaryKey, objectClasses, attributeDataModifications, expirationValue, expectedVersion);
+	}
+
+	/*
+	 * Expiration of partial update. It's value of @Expiration property from changes or null.
+	 * Backends which reset TTL on update without expiration should return current entry expiration instead of null
+	 */
+	protected <T> Integer getExpirationValue(String primaryKey, Class<T> entryClass, Map<String, Object> changes) {
+		PropertyAnnotation expirationProperty = getExpirationProperty(entryClass);
+		if ((expirationProperty == null) || !changes.containsKey(expirationProperty.getPropertyName())) {
+			return null;
+		}
+
+		Expiration expirationAnnotation = (Expiration) ReflectHelper.getAnnotationByType(expirationProperty.getAnnotations(),
+				Expiration.class);
+		Object expirationValue = changes.get(expirationProperty.getPropertyName());
+		if (expirationAnnotation.ignoreDuringUpdate() || (expirationValue == null)) {
+			return null;
+		}
+
+		if (!(expirationValue instanceof Integer)) {
+			throw new MappingException(String.format("Entry expiration property '%s' should has Integer type", expirationProperty.getPropertyName()));
+		}
+
+		// TTL can't be negative
+		return Math.max((Integer) expirationValue, 0);
+	}
+
+	protected <T> List<AttributeDataModification> collectAttributeUpdates(Class<T> entryClass,
+			List<PropertyAnnotation> propertiesAnnotations, Map<String, Object> changes) {
+		// Build map of properties which we can update
+		Map<String, PropertyAnnotation> propertiesByName = new HashMap<String, PropertyAnnotation>();
+		Map<String, PropertyAnnotation> propertiesByAttributeName = new HashMap<String, PropertyAnnotation>();
+		for (PropertyAnnotation propertiesAnnotation : propertiesAnnotations) {
+			AttributeName ldapAttribute = (AttributeName) ReflectHelper.getAnnotationByType(propertiesAnnotation.getAnnotations(),
+					AttributeName.class);
+			if (ldapAttribute != null) {
+				propertiesByName.put(propertiesAnnotation.getPropertyName(), propertiesAnnotation);
+				if (StringHelper.isNotEmpty(ldapAttribute.name())) {
+					propertiesByAttributeName.put(ldapAttribute.name().toLowerCase(), propertiesAnnotation);
+				}
+			}
+		}
+
+		List<AttributeDataModification> attributeDataModifications = new ArrayList<AttributeDataModification>(changes.size());
+		for (Entry<String, Object> change : changes.entrySet()) {
+			String changeName = change.getKey();
+			if (StringHelper.isEmpty(changeName)) {
+				throw new MappingException("Property name to update is null");
+			}
+
+			PropertyAnnotation propertiesAnnotation = propertiesByName.get(changeName);
+			if (propertiesAnnotation == null) {
+				propertiesAnnotation = propertiesByAttributeName.get(changeName.toLowerCase());
+			}
+			if (propertiesAnnotation == null) {
+				throw new MappingException(String.format("Entry '%s' has no property with AttributeName annotation '%s'", entryClass, changeName));
+			}
+
+			String propertyName = propertiesAnnotation.getPropertyName();
+			AttributeName ldapAttribute = (AttributeName) ReflectHelper.getAnnotationByType(propertiesAnnotation.getAnnotations(),
+					AttributeName.class);
+			if (ldapAttribute.ignoreDuringUpdate()) {
+				throw new MappingException(String.format("Property '%s' of entry '%s' is marked as ignoreDuringUpdate", propertyName, entryClass));
+			}
+
+			String ldapAttributeName = ldapAttribute.name();
+			if (StringHelper.isEmpty(ldapAttributeName)) {
+				ldapAttributeName = propertyName;
+			}
 
-		// Process properties with Attribute annotation
-		List<AttributeDataModification> attributeDataModifications = collectAttributeModifications(
-				propertiesAnnotations, attributesToPersistMap, attributesFromLdapMap, isSchemaUpdate,
-				schemaModificationType, forceUpdate);
+			Class<?> parameterType = getSetterPropertyType(entryClass, propertyName);
+			boolean multiValued = isMultiValued(parameterType);
 
-		if (LOG.isTraceEnabled()) {
-			dumpAttributeDataModifications("attributeDataModifications before updateMergeChanges", attributeDataModifications);
-		}
+			Annotation ldapJsonObject = ReflectHelper.getAnnotationByType(propertiesAnnotation.getAnnotations(),
+					JsonObject.class);
+			boolean jsonObject = ldapJsonObject != null;
 
-		updateMergeChanges(dnValue.toString(), entry, isSchemaUpdate | isConfigurationUpdate, entryClass, attributesFromLdapMap, attributeDataModifications, forceUpdate);
+			AttributeData attributeToPersist = getAttributeData(propertyName, ldapAttributeName, change.getValue(), multiValued, jsonObject);
+			addAttributeUpdate(attributeDataModifications, ldapAttributeName, attributeToPersist, multiValued);
 
-		if (LOG.isTraceEnabled()) {
-			dumpAttributeDataModifications("attributeDataModifications after updateMergeChanges", attributeDataModifications);
+			// Keep lower case copy in sync with changed value
+			String lowercaseAttributeName = getLowercaseAttributeName(ldapAttribute);
+			if (lowercaseAttributeName != null) {
+				addAttributeUpdate(attributeDataModifications, lowercaseAttributeName,
+						getLowercaseAttributeData(lowercaseAttributeName, attributeToPersist), multiValued);
+			}
 		}
 
-		LOG.debug(String.format("LDAP attributes for merge: %s", attributeDataModifications));
-
-		merge(dnValue.toString(), objectClasses, attributeDataModifications, expirationValue);
+		return attributeDataModifications;
+	}
 
-		return null;
+	private void addAttributeUpdate(List<AttributeDataModification> attributeDataModifications, String ldapAttributeName,
+			AttributeData attributeToPersist, boolean multiValued) {
+		if ((attributeToPersist == null) || isEmptyAttributeValues(attributeToPersist)) {
+			// Remove attribute. There is no old value, request removal of all values
+			AttributeData attributeToRemove = new AttributeData(ldapAttributeName, NO_OBJECTS, multiValued);
+			attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
+					attributeToRemove, attributeToRemove));
+		} else {
+			attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.FORCE_UPDATE,
+					attributeToPersist));
+		}
 	}
 
 	protected List<String> buildAttributesListForUpdate(Object entry, String[] objectClasses, List<PropertyAnnotation> propertiesAnnotations) {
 		return getAttributesList(entry, propertiesAnnotations, false);
 	}
 
-	protected abstract <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass,
+	protected abstract void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass,
 			Map<String, AttributeData> attributesFromLdapMap,
 			List<AttributeDataModification> attributeDataModifications, boolean forceUpdate);
 
+	private void collectAttributeModification(List<AttributeDataModification> attributeDataModifications, String ldapAttributeName,
+			AttributeName ldapAttributeAnnotation, Map<String, AttributeData> attributesToPersistMap, Map<String, AttributeData> attributesFromLdapMap,
+			boolean isSchemaUpdate, AttributeModificationType schemaModificationType, boolean forceUpdate) {
+		AttributeData attributeToPersist = attributesToPersistMap.get(ldapAttributeName);
+		AttributeData attributeFromLdap = attributesFromLdapMap.get(ldapAttributeName);
+
+		// Remove processed attributes
+		attributesToPersistMap.remove(ldapAttributeName);
+		attributesFromLdapMap.remove(ldapAttributeName);
+
+		if (ldapAttributeAnnotation.ignoreDuringUpdate()) {
+			return;
+		}
+
+		if (attributeFromLdap != null && attributeToPersist != null) {
+			// Modify DN entry attribute in DS
+			if (!attributeFromLdap.equals(attributeToPersist)) {
+				if (isEmptyAttributeValues(attributeToPersist) && !ldapAttributeAnnotation.updateOnly()) {
+					attributeDataModifications.add(new AttributeDataModification(
+							AttributeModificationType.REMOVE, null, attributeFromLdap));
+				} else {
+					attributeDataModifications.add(new AttributeDataModification(
+							AttributeModificationType.REPLACE, attributeToPersist, attributeFromLdap));
+				}
+			}
+		} else if ((attributeFromLdap == null) && (attributeToPersist != null)) {
+			// Add entry attribute or change schema
+			if (isSchemaUpdate && (attributeToPersist.getValue() == null
+					&& Arrays.equals(attributeToPersist.getValues(), new Object[] {}))) {
+				return;
+			}
+			AttributeModificationType modType = isSchemaUpdate ? schemaModificationType
+					: AttributeModificationType.ADD;
+			if (AttributeModificationType.ADD == modType) {
+				if (isEmptyAttributeValues(attributeToPersist)) {
+					if (forceUpdate) {
+						attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
+								null, attributeToPersist));
+					}
+				} else {
+					modType = forceUpdate ? AttributeModificationType.FORCE_UPDATE : modType;
+					attributeDataModifications.add(
+							new AttributeDataModification(modType, attributeToPersist));
+				}
+			} else {
+				attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
+						null, attributeToPersist));
+			}
+		} else if ((attributeFromLdap != null) && (attributeToPersist == null)) {
+			// Remove if attribute not marked as ignoreDuringRead = true
+			// or updateOnly = true
+			if (!ldapAttributeAnnotation.ignoreDuringRead() && !ldapAttributeAnnotation.updateOnly()) {
+				if (isEmptyAttributeValues(attributeFromLdap) && isStoreFullEntry()) {
+					// It's RDBS case. We don't need to set null to already empty table cell
+					return;
+				}
+				attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
+						null, attributeFromLdap));
+			}
+		} else if (forceUpdate && (attributeFromLdap == null) && (attributeToPersist == null)) {
+			attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
+					null, new AttributeData(ldapAttributeName, null)));
+		}
+	}
+
 	protected List<AttributeDataModification> collectAttributeModifications(
 			List<PropertyAnnotation> propertiesAnnotations, Map<String, AttributeData> attributesToPersistMap,
 			Map<String, AttributeData> attributesFromLdapMap, boolean isSchemaUpdate,
@@ -295,68 +1000,14 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 				if (StringHelper.isEmpty(ldapAttributeName)) {
 					ldapAttributeName = propertyName;
 				}
-				ldapAttributeName = ldapAttributeName.toLowerCase();
 
-				AttributeData attributeToPersist = attributesToPersistMap.get(ldapAttributeName);
-				AttributeData attributeFromLdap = attributesFromLdapMap.get(ldapAttributeName);
+				collectAttributeModification(attributeDataModifications, ldapAttributeName.toLowerCase(), (AttributeName) ldapAttribute,
+						attributesToPersistMap, attributesFromLdapMap, isSchemaUpdate, schemaModificationType, forceUpdate);
 
-				// Remove processed attributes
-				attributesToPersistMap.remove(ldapAttributeName);
-				attributesFromLdapMap.remove(ldapAttributeName);
-
-				AttributeName ldapAttributeAnnotation = (AttributeName) ldapAttribute;
-				if (ldapAttributeAnnotation.ignoreDuringUpdate()) {
-					continue;
-				}
-
-				if (attributeFromLdap != null && attributeToPersist != null) {
-					// Modify DN entry attribute in DS
-					if (!attributeFromLdap.equals(attributeToPersist)) {
-						if (isEmptyAttributeValues(attributeToPersist) && !ldapAttributeAnnotation.updateOnly()) {
-							attributeDataModifications.add(new AttributeDataModification(
-									AttributeModificationType.REMOVE, null, attributeFromLdap));
-						} else {
-							attributeDataModifications.add(new AttributeDataModification(
-									AttributeModificationType.REPLACE, attributeToPersist, attributeFromLdap));
-						}
-					}
-				} else if ((attributeFromLdap == null) && (attributeToPersist != null)) {
-					// Add entry attribute or change schema
-					if (isSchemaUpdate && (attributeToPersist.getValue() == null
-							&& Arrays.equals(attributeToPersist.getValues(), new Object[] {}))) {
-						continue;
-					}
-					AttributeModificationType modType = isSchemaUpdate ? schemaModificationType
-							: AttributeModificationType.ADD;
-					if (AttributeModificationType.ADD == modType) {
-						if (isEmptyAttributeValues(attributeToPersist)) {
-							if (forceUpdate) {
-								attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
-										null, attributeToPersist));
-							}
-						} else {
-							modType = forceUpdate ? AttributeModificationType.FORCE_UPDATE : modType;
-							attributeDataModifications.add(
-									new AttributeDataModification(modType, attributeToPersist));
-						}
-					} else {
-						attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
-								null, attributeToPersist));
-					}
-				} else if ((attributeFromLdap != null) && (attributeToPersist == null)) {
-					// Remove if attribute not marked as ignoreDuringRead = true
-					// or updateOnly = true
-					if (!ldapAttributeAnnotation.ignoreDuringRead() && !ldapAttributeAnnotation.updateOnly()) {
-						if (isEmptyAttributeValues(attributeFromLdap) && isStoreFullEntry()) {
-							// It's RDBS case. We don't need to set null to already empty table cell
-							continue;
-						}
-						attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
-								null, attributeFromLdap));
-					}
-				} else if (forceUpdate && (attributeFromLdap == null) && (attributeToPersist == null)) {
-					attributeDataModifications.add(new AttributeDataModification(AttributeModificationType.REMOVE,
-							null, new AttributeData(ldapAttributeName, null)));
+				String lowercaseAttributeName = getLowercaseAttributeName((AttributeName) ldapAttribute);
+				if (lowercaseAttributeName != null) {
+					collectAttributeModification(attributeDataModifications, lowercaseAttributeName.toLowerCase(), (AttributeName) ldapAttribute,
+							attributesToPersistMap, attributesFromLdapMap, isSchemaUpdate, schemaModificationType, forceUpdate);
 				}
 			}
 		}
@@ -462,12 +1113,88 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 				|| ((attributeToPersistValues.length == 1) && StringHelper.isEmpty(String.valueOf(attributeToPersistValues[0])));
 	}
 
-	protected abstract void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration);
+	protected void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration) {
+		merge(dn, objectClasses, attributeDataModifications, expiration, null);
+	}
+
+	/*
+	 * Backends with case insensitive matching rules should override it to not store lower case copies
+	 */
+	protected boolean isSupportLowercaseAttributes() {
+		return true;
+	}
+
+	protected String getLowercaseAttributeName(AttributeName ldapAttribute) {
+		if (!isSupportLowercaseAttributes() || StringHelper.isEmpty(ldapAttribute.lowercaseName())) {
+			return null;
+		}
+
+		return ldapAttribute.lowercaseName();
+	}
+
+	protected AttributeData getLowercaseAttributeData(String lowercaseAttributeName, AttributeData attributeData) {
+		return LowercaseAttributes.getLowercaseAttributeData(lowercaseAttributeName, attributeData);
+	}
+
+	/*
+	 * Replace LOWER(attribute) expressions with lower case copies declared in @AttributeName(lowercaseName).
+	 * Until copy is backfilled in existing entries search uses LOWER(attribute).
+	 * Returns original filter if there are no such expressions
+	 */
+	protected Filter replaceLowercaseFilters(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if ((genericFilter == null) || (propertiesAnnotationsMap == null) || !isSupportLowercaseAttributes()) {
+			return genericFilter;
+		}
+
+		return lowercaseAttributes.replaceLowercaseFilters(genericFilter, attributeName -> findLowercaseAttributeName(attributeName, propertiesAnnotationsMap));
+	}
+
+	private String findLowercaseAttributeName(String attributeName, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if (attributeName == null) {
+			return null;
+		}
+
+		PropertyAnnotation propertyAnnotation = propertiesAnnotationsMap.get(attributeName);
+		if (propertyAnnotation == null) {
+			for (Entry<String, PropertyAnnotation> propertiesAnnotationEntry : propertiesAnnotationsMap.entrySet()) {
+				if (attributeName.equalsIgnoreCase(propertiesAnnotationEntry.getKey())) {
+					propertyAnnotation = propertiesAnnotationEntry.getValue();
+					break;
+				}
+			}
+		}
+
+		if (propertyAnnotation == null) {
+			return null;
+		}
+
+		AttributeName ldapAttribute = (AttributeName) ReflectHelper.getAnnotationByType(propertyAnnotation.getAnnotations(),
+				AttributeName.class);
+		if (ldapAttribute == null) {
+			return null;
+		}
+
+		String lowercaseAttributeName = getLowercaseAttributeName(ldapAttribute);
+		if ((lowercaseAttributeName == null) || lowercaseAttributeName.equalsIgnoreCase(attributeName)) {
+			// Filter already uses lower case copy
+			return null;
+		}
+
+		return lowercaseAttributeName;
+	}
+
+	/*
+	 * If expectedVersion is not null implementation should apply modifications only if entry has specified version.
+	 * Otherwise it should throw EntryVersionConflictException
+	 */
+	protected abstract void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration,
+			AttributeData expectedVersion);
 
 	protected abstract <T> void removeByDn(String dn, String[] objectClasses);
 
 	@Deprecated
 	public void remove(String primaryKey) {
+		flushPendingWrite(primaryKey);
 		removeByDn(primaryKey, null);
 	}
 
@@ -481,6 +1208,7 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 			objectClasses = getTypeObjectClasses(entryClass);
 		}
 
+		flushPendingWrite(primaryKey);
 		removeByDn(primaryKey, objectClasses);
 	}
 
@@ -488,6 +1216,7 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 
 	@Deprecated
 	public void removeRecursively(String primaryKey) {
+		flushPendingWrite(primaryKey);
 		removeRecursivelyFromDn(primaryKey, null);
 	}
 
@@ -501,6 +1230,7 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 			objectClasses = getTypeObjectClasses(entryClass);
 		}
 
+		flushPendingWrite(primaryKey);
 		removeRecursivelyFromDn(primaryKey, objectClasses);
 	}
 
@@ -517,6 +1247,11 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
 
 		Object dnValue = getDNValue(entry, entryClass);
+		if ((this.negativeLookupCache != null) && this.negativeLookupCache.isAbsent(entryClass, dnValue.toString())) {
+			return false;
+		}
+
+		flushPendingWriteBeforeRead(dnValue);
 
 		List<AttributeData> attributes = getAttributesListForPersist(entry, propertiesAnnotations);
 
@@ -531,11 +1266,16 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		}
 
 		checkEntryClass(entryClass, true);
+		if ((this.negativeLookupCache != null) && this.negativeLookupCache.isAbsent(entryClass, primaryKey)) {
+			return false;
+		}
+
 		String[] objectClasses = getTypeObjectClasses(entryClass);
 
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
         Map<String, PropertyAnnotation> propertiesAnnotationsMap = prepareEntryPropertiesTypes(entryClass, propertiesAnnotations);
 
+        flushPendingWriteBeforeRead(primaryKey);
         try {
 			List<AttributeData> results = find(primaryKey, objectClasses, propertiesAnnotationsMap, ldapReturnAttributes);
 			return (results != null) && (results.size() > 0);
@@ -548,6 +1288,10 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 	public <T> boolean contains(String baseDN, Class<T> entryClass, Filter filter) {
 		// Check entry class
 		checkEntryClass(entryClass, false);
+		if ((this.negativeLookupCache != null) && this.negativeLookupCache.isAbsent(entryClass, baseDN, filter)) {
+			return false;
+		}
+
 		String[] objectClasses = getTypeObjectClasses(entryClass);
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
 		String[] ldapReturnAttributes = getAttributes(null, propertiesAnnotations, false);
@@ -574,6 +1318,50 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		return contains(entryClass, primaryKey, (String[]) null);
 	}
 
+	@Override
+	public <T> Set<String> findExistingKeys(Class<T> entryClass, Collection<String> primaryKeys) {
+		checkEntryClass(entryClass, true);
+
+		Set<String> result = new HashSet<String>();
+		if ((primaryKeys == null) || primaryKeys.isEmpty()) {
+			return result;
+		}
+
+		List<String> candidatePrimaryKeys = new ArrayList<String>(primaryKeys.size());
+		for (String primaryKey : primaryKeys) {
+			if (StringHelper.isEmpty(primaryKey)) {
+				continue;
+			}
+
+			if ((this.negativeLookupCache != null) && this.negativeLookupCache.isAbsent(entryClass, primaryKey)) {
+				continue;
+			}
+
+			flushPendingWriteBeforeRead(primaryKey);
+			candidatePrimaryKeys.add(primaryKey);
+		}
+
+		if (candidatePrimaryKeys.isEmpty()) {
+			return result;
+		}
+
+		return findExistingKeys(entryClass, getTypeObjectClasses(entryClass), candidatePrimaryKeys);
+	}
+
+	/*
+	 * Backends should check keys with batch requests. Default implementation checks keys one by one
+	 */
+	protected <T> Set<String> findExistingKeys(Class<T> entryClass, String[] objectClasses, List<String> primaryKeys) {
+		Set<String> result = new HashSet<String>();
+		for (String primaryKey : primaryKeys) {
+			if (contains(entryClass, primaryKey, (String[]) null)) {
+				result.add(primaryKey);
+			}
+		}
+
+		return result;
+	}
+
 	@Override
 	public <T> T find(Class<T> entryClass, Object primaryKey) {
 		return find(primaryKey, entryClass, null);
@@ -589,6 +1377,8 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
         Map<String, PropertyAnnotation> propertiesAnnotationsMap = prepareEntryPropertiesTypes(entryClass, propertiesAnnotations);
 
+		flushPendingWriteBeforeRead(primaryKey);
+
 		return find(entryClass, primaryKey, ldapReturnAttributes, propertiesAnnotations, propertiesAnnotationsMap);
 	}
 
@@ -660,6 +1450,12 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 				if (!attributes.containsKey(ldapAttributeName)) {
 					attributes.put(ldapAttributeName, propertiesAnnotation);
 				}
+
+				// Lower case copy has the same type as source property
+				String lowercaseAttributeName = getLowercaseAttributeName((AttributeName) ldapAttribute);
+				if ((lowercaseAttributeName != null) && !attributes.containsKey(lowercaseAttributeName)) {
+					attributes.put(lowercaseAttributeName, propertiesAnnotation);
+				}
 			}
 		}
 
@@ -930,6 +1726,83 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		return propertiesAnnotations.get(0);
 	}
 
+	protected PropertyAnnotation getVersionProperty(Class<?> entryClass) {
+		List<PropertyAnnotation> propertiesAnnotations = getEntryVersionAnnotations(entryClass);
+		if (propertiesAnnotations.size() == 0) {
+			return null;
+		}
+
+		if (propertiesAnnotations.size() > 1) {
+			throw new MappingException("Entry should has only one property with annotation Version");
+		}
+
+		// Return full property annotations list to get access to AttributeName annotation
+		String versionPropertyName = propertiesAnnotations.get(0).getPropertyName();
+		for (PropertyAnnotation propertiesAnnotation : getEntryPropertyAnnotations(entryClass)) {
+			if (versionPropertyName.equals(propertiesAnnotation.getPropertyName())) {
+				return propertiesAnnotation;
+			}
+		}
+
+		throw new MappingException("Entry version property should has AttributeName annotation. Property: '" + versionPropertyName + "'");
+	}
+
+	protected String getVersionAttributeName(PropertyAnnotation versionProperty) {
+		AttributeName ldapAttribute = (AttributeName) ReflectHelper.getAnnotationByType(versionProperty.getAnnotations(),
+				AttributeName.class);
+		if (ldapAttribute == null) {
+			throw new MappingException("Entry version property should has AttributeName annotation. Property: '"
+					+ versionProperty.getPropertyName() + "'");
+		}
+
+		String ldapAttributeName = ldapAttribute.name();
+		if (StringHelper.isEmpty(ldapAttributeName)) {
+			ldapAttributeName = versionProperty.getPropertyName();
+		}
+
+		return ldapAttributeName;
+	}
+
+	protected <T> Long getVersionValue(Object entry, Class<T> entryClass, PropertyAnnotation versionProperty) {
+		String versionPropertyName = versionProperty.getPropertyName();
+
+		Getter versionGetter = getGetter(entryClass, versionPropertyName);
+		if (versionGetter == null) {
+			throw new MappingException("Entry should has getter for property " + versionPropertyName);
+		}
+
+		Object versionValue = versionGetter.get(entry);
+		if (versionValue == null) {
+			return null;
+		}
+
+		if (versionValue instanceof Number) {
+			return ((Number) versionValue).longValue();
+		}
+
+		throw new MappingException("Entry version property should has Integer or Long type. Property: '"
+				+ versionPropertyName + "'");
+	}
+
+	protected <T> void setVersionValue(Object entry, Class<T> entryClass, PropertyAnnotation versionProperty, long version) {
+		String versionPropertyName = versionProperty.getPropertyName();
+
+		Setter versionSetter = getSetter(entryClass, versionPropertyName);
+		if (versionSetter == null) {
+			throw new MappingException("Entry should has setter for property " + versionPropertyName);
+		}
+
+		Class<?> parameterType = ReflectHelper.getSetterType(versionSetter);
+		if ((parameterType == Integer.class) || (parameterType == Integer.TYPE)) {
+			versionSetter.set(entry, Integer.valueOf((int) version));
+		} else if ((parameterType == Long.class) || (parameterType == Long.TYPE)) {
+			versionSetter.set(entry, Long.valueOf(version));
+		} else {
+			throw new MappingException("Entry version property should has Integer or Long type. Property: '"
+					+ versionPropertyName + "'");
+		}
+	}
+
 	protected <T> List<T> createEntities(Class<T> entryClass, List<PropertyAnnotation> propertiesAnnotations,
 			Map<String, List<AttributeData>> entriesAttributes) {
 		return createEntities(entryClass, propertiesAnnotations, entriesAttributes, true);
@@ -991,6 +1864,11 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 					// Remove processed attributes
 					attributesMap.remove(ldapAttributeName);
 
+					String lowercaseAttributeName = getLowercaseAttributeName((AttributeName) ldapAttribute);
+					if (lowercaseAttributeName != null) {
+						attributesMap.remove(lowercaseAttributeName.toLowerCase());
+					}
+
 					if (((AttributeName) ldapAttribute).ignoreDuringRead()) {
 						continue;
 					}
@@ -1166,6 +2044,11 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 			return;
 		}
 
+		Comparator<T> comparator = getPropertyComparator(entryClass, caseSensetive, sortByProperties);
+		Collections.sort(entries, comparator);
+	}
+
+	protected <T> Comparator<T> getPropertyComparator(Class<T> entryClass, boolean caseSensetive, String... sortByProperties) {
 		if ((sortByProperties == null) || (sortByProperties.length == 0)) {
 			throw new InvalidArgumentException(
 					"Invalid list of sortBy properties " + Arrays.toString(sortByProperties));
@@ -1196,8 +2079,32 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 			}
 		}
 
-		PropertyComparator<T> comparator = new PropertyComparator<T>(propertyGetters, caseSensetive);
-		Collections.sort(entries, comparator);
+		return new PropertyComparator<T>(propertyGetters, caseSensetive);
+	}
+
+	/*
+	 * Returns null if entry has no property mapped to specified attribute
+	 */
+	protected <T> String getPropertyNameByAttributeName(Class<T> entryClass, String attributeName) {
+		List<PropertyAnnotation> propertiesAnnotations = getEntryPropertyAnnotations(entryClass);
+		for (PropertyAnnotation propertiesAnnotation : propertiesAnnotations) {
+			AttributeName ldapAttribute = (AttributeName) ReflectHelper.getAnnotationByType(propertiesAnnotation.getAnnotations(),
+					AttributeName.class);
+			if (ldapAttribute == null) {
+				continue;
+			}
+
+			String ldapAttributeName = ldapAttribute.name();
+			if (StringHelper.isEmpty(ldapAttributeName)) {
+				ldapAttributeName = propertiesAnnotation.getPropertyName();
+			}
+
+			if (StringHelper.equalsIgnoreCase(ldapAttributeName, attributeName)) {
+				return propertiesAnnotation.getPropertyName();
+			}
+		}
+
+		return null;
 	}
 
 	protected <T> void sortListByProperties(Class<T> entryClass, List<T> entries, String... sortByProperties) {
@@ -1358,6 +2265,12 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 	private AttributeData getAttributeData(String propertyName, String ldapAttributeName, Getter propertyValueGetter,
 			Object entry, boolean multiValued, boolean jsonObject) {
 		Object propertyValue = propertyValueGetter.get(entry);
+
+		return getAttributeData(propertyName, ldapAttributeName, propertyValue, multiValued, jsonObject);
+	}
+
+	private AttributeData getAttributeData(String propertyName, String ldapAttributeName, Object propertyValue,
+			boolean multiValued, boolean jsonObject) {
 		if (propertyValue == null) {
 			return null;
 		}
@@ -1491,6 +2404,11 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 						propertyName);
 				if (attribute != null) {
 					attributes.add(attribute);
+
+					String lowercaseAttributeName = getLowercaseAttributeName((AttributeName) ldapAttribute);
+					if (lowercaseAttributeName != null) {
+						attributes.add(getLowercaseAttributeData(lowercaseAttributeName, attribute));
+					}
 				}
 
 				continue;
@@ -1622,6 +2540,10 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		return getEntryClassAnnotations(entryClass, "exp_", LDAP_EXPIRATION_PROPERTY_ANNOTATION);
 	}
 
+	protected <T> List<PropertyAnnotation> getEntryVersionAnnotations(Class<T> entryClass) {
+		return getEntryClassAnnotations(entryClass, "version_", LDAP_VERSION_PROPERTY_ANNOTATION);
+	}
+
 	protected <T> List<PropertyAnnotation> getEntryCustomObjectClassAnnotations(Class<T> entryClass) {
 		return getEntryClassAnnotations(entryClass, "custom_", LDAP_CUSTOM_OBJECT_CLASS_PROPERTY_ANNOTATION);
 	}
@@ -2151,6 +3073,97 @@ public abstract class BaseEntryManager implements PersistenceEntryManager {
 		}
 	}
 
+	private static final class PartitionBatchOperation<T> implements BatchOperation<T> {
+
+		private final BatchOperation<T> batchOperation;
+		private final int partition;
+		private final int partitions;
+		private final AtomicLong processedEntries = new AtomicLong();
+
+		private PartitionBatchOperation(BatchOperation<T> batchOperation, int partition, int partitions) {
+			this.batchOperation = batchOperation;
+			this.partition = partition;
+			this.partitions = partitions;
+		}
+
+		@Override
+		public boolean collectSearchResult(int size) {
+			return batchOperation.collectSearchResult(size);
+		}
+
+		@Override
+		public void performAction(List<T> entries) {
+			batchOperation.performAction(entries);
+
+			long processed = processedEntries.addAndGet(entries.size());
+			LOG.debug("Partition {} of {} progress, processed entries: {}", partition + 1, partitions, processed);
+		}
+
+		public int getPartition() {
+			return partition;
+		}
+
+		public int getPartitions() {
+			return partitions;
+		}
+
+		public long getProcessedEntries() {
+			return processedEntries.get();
+		}
+
+	}
+
+	private static final class PendingMerge {
+
+		private final Class<?> entryClass;
+		private final String dn;
+		private final String[] objectClasses;
+		private final List<AttributeData> attributesToPersist;
+		private final List<String> ldapReturnAttributes;
+		private final Integer expirationValue;
+		private final boolean forceUpdate;
+
+		private PendingMerge(Class<?> entryClass, String dn, String[] objectClasses, List<AttributeData> attributesToPersist,
+				List<String> ldapReturnAttributes, Integer expirationValue, boolean forceUpdate) {
+			this.entryClass = entryClass;
+			this.dn = dn;
+			this.objectClasses = objectClasses;
+			this.attributesToPersist = attributesToPersist;
+			this.ldapReturnAttributes = ldapReturnAttributes;
+			this.expirationValue = expirationValue;
+			this.forceUpdate = forceUpdate;
+		}
+
+		public Class<?> getEntryClass() {
+			return entryClass;
+		}
+
+		public String getDn() {
+			return dn;
+		}
+
+		public String[] getObjectClasses() {
+			return objectClasses;
+		}
+
+		public List<AttributeData> getAttributesToPersist() {
+			return attributesToPersist;
+		}
+
+		public List<String> getLdapReturnAttributes() {
+			return ldapReturnAttributes;
+		}
+
+		public Integer getExpirationValue() {
+			return expirationValue;
+		}
+
+		public boolean isForceUpdate() {
+			return forceUpdate;
+		}
+
+	}
+
 	protected static final class PropertyComparator<T> implements Comparator<T>, Serializable {
 
 		private static final long serialVersionUID = 574848841116711467L;
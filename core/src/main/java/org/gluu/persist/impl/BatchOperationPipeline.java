@@ -0,0 +1,141 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.PrefetchBatchOperation;
+
+/**
+ * Bounded handoff of loaded search pages to batch operation workers. Search loop continues
+ * to load next page while previous pages are processing
+ */
+public class BatchOperationPipeline<P> implements AutoCloseable {
+
+	private final PageProcessor<P> pageProcessor;
+	private final int prefetchDepth;
+	private final ExecutorService workerPool;
+	private final boolean ownWorkerPool;
+
+	private final Semaphore permits;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	public BatchOperationPipeline(PageProcessor<P> pageProcessor, int prefetchDepth, ExecutorService workerPool) {
+		this.pageProcessor = pageProcessor;
+		this.prefetchDepth = prefetchDepth;
+		this.permits = new Semaphore(prefetchDepth);
+
+		if (workerPool == null) {
+			this.workerPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "persistence-batch-operation");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.ownWorkerPool = true;
+		} else {
+			this.workerPool = workerPool;
+			this.ownWorkerPool = false;
+		}
+	}
+
+	/*
+	 * Returns null if batch operation not requested pipelined processing
+	 */
+	public static <P> BatchOperationPipeline<P> create(BatchOperation<?> batchOperation, PageProcessor<P> pageProcessor) {
+		if (!(batchOperation instanceof PrefetchBatchOperation)) {
+			return null;
+		}
+
+		PrefetchBatchOperation<?> prefetchBatchOperation = (PrefetchBatchOperation<?>) batchOperation;
+		if (prefetchBatchOperation.getPrefetchDepth() <= 0) {
+			return null;
+		}
+
+		return new BatchOperationPipeline<P>(pageProcessor, prefetchBatchOperation.getPrefetchDepth(), prefetchBatchOperation.getWorkerPool());
+	}
+
+	/*
+	 * Blocks caller if there are prefetchDepth pages in queue already
+	 */
+	public void submit(final P page) {
+		throwFailure();
+
+		permits.acquireUninterruptibly();
+		try {
+			workerPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (failure.get() == null) {
+							pageProcessor.process(page);
+						}
+					} catch (Throwable ex) {
+						failure.compareAndSet(null, ex);
+					} finally {
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			permits.release();
+			throw ex;
+		}
+	}
+
+	/*
+	 * Waits till all submitted pages are processed and throws first processing exception
+	 */
+	public void finish() {
+		awaitCompletion();
+		throwFailure();
+	}
+
+	@Override
+	public void close() {
+		awaitCompletion();
+		if (ownWorkerPool) {
+			workerPool.shutdown();
+		}
+	}
+
+	private void awaitCompletion() {
+		permits.acquireUninterruptibly(prefetchDepth);
+		permits.release(prefetchDepth);
+	}
+
+	private void throwFailure() {
+		Throwable ex = failure.get();
+		if (ex == null) {
+			return;
+		}
+
+		if (ex instanceof RuntimeException) {
+			throw (RuntimeException) ex;
+		}
+		if (ex instanceof Error) {
+			throw (Error) ex;
+		}
+
+		throw new IllegalStateException("Failed to process batch operation page", ex);
+	}
+
+	public interface PageProcessor<P> {
+
+		void process(P page);
+
+	}
+
+}
@@ -0,0 +1,520 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gluu.orm.util.ArrayHelper;
+import org.gluu.orm.util.StringHelper;
+import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index advisor. It records normalized filter shapes of searches with their frequency and latency
+ * per table, bucket or branch and builds backend specific index definitions for them
+ */
+public class IndexAdvisor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(IndexAdvisor.class);
+
+	public static final int DEFAULT_MAX_SHAPES = 1000;
+
+	private final IndexDefinitionBuilder indexDefinitionBuilder;
+	private final int maxShapes;
+	private final String dumpFile;
+
+	private final ConcurrentHashMap<String, FilterShape> filterShapes;
+	private final LongAdder droppedRecords = new LongAdder();
+
+	private ScheduledExecutorService scheduler;
+
+	public IndexAdvisor(IndexDefinitionBuilder indexDefinitionBuilder, int maxShapes, String dumpFile, long dumpInterval) {
+		this.indexDefinitionBuilder = indexDefinitionBuilder;
+		this.maxShapes = maxShapes;
+		this.dumpFile = dumpFile;
+		this.filterShapes = new ConcurrentHashMap<String, FilterShape>();
+
+		if ((dumpFile != null) && (dumpInterval > 0)) {
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "persistence-index-advisor");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					dump();
+				}
+			}, dumpInterval, dumpInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	/*
+	 * Returns null if index advisor is not enabled in configuration
+	 */
+	public static IndexAdvisor create(IndexDefinitionBuilder indexDefinitionBuilder, Properties props) {
+		if (!StringHelper.toBoolean(props.getProperty("indexAdvisor.enabled"), false)) {
+			return null;
+		}
+
+		int maxShapes = DEFAULT_MAX_SHAPES;
+		if (props.containsKey("indexAdvisor.maxShapes")) {
+			maxShapes = StringHelper.toInteger(props.getProperty("indexAdvisor.maxShapes"), DEFAULT_MAX_SHAPES);
+		}
+
+		String dumpFile = StringHelper.isEmpty(props.getProperty("indexAdvisor.dumpFile")) ? null : props.getProperty("indexAdvisor.dumpFile");
+
+		long dumpInterval = 0;
+		if (props.containsKey("indexAdvisor.dumpInterval")) {
+			dumpInterval = StringHelper.toLong(props.getProperty("indexAdvisor.dumpInterval"), 0);
+		}
+
+		LOG.info("Option indexAdvisor.maxShapes: " + maxShapes);
+		LOG.info("Option indexAdvisor.dumpFile: " + dumpFile);
+		LOG.info("Option indexAdvisor.dumpInterval: " + dumpInterval);
+
+		return new IndexAdvisor(indexDefinitionBuilder, maxShapes, dumpFile, dumpInterval);
+	}
+
+	public void record(String container, Filter filter, long durationNanos) {
+		if ((container == null) || (filter == null)) {
+			return;
+		}
+
+		String shape = toShape(filter);
+		String key = StringHelper.toLowerCase(container) + "|" + shape;
+
+		FilterShape filterShape = filterShapes.get(key);
+		if (filterShape == null) {
+			if (filterShapes.size() >= maxShapes) {
+				// Don't keep unbounded number of shapes
+				droppedRecords.increment();
+				return;
+			}
+			filterShape = filterShapes.computeIfAbsent(key, k -> new FilterShape(container, shape, filter));
+		}
+
+		filterShape.record(durationNanos);
+	}
+
+	/*
+	 * Returns shapes ordered by total search time
+	 */
+	public List<FilterShape> getFilterShapes() {
+		List<FilterShape> result = new ArrayList<FilterShape>(filterShapes.values());
+		Collections.sort(result, (shape1, shape2) -> Long.compare(shape2.getTotalTimeNanos(), shape1.getTotalTimeNanos()));
+
+		return result;
+	}
+
+	public List<String> getIndexDefinitions(FilterShape filterShape) {
+		if (indexDefinitionBuilder == null) {
+			return Collections.emptyList();
+		}
+
+		try {
+			return indexDefinitionBuilder.buildIndexDefinitions(filterShape);
+		} catch (RuntimeException ex) {
+			LOG.warn("Failed to build index definitions for shape '{}' of '{}'", filterShape.getShape(), filterShape.getContainer(), ex);
+			return Collections.emptyList();
+		}
+	}
+
+	/*
+	 * Returns unique index definitions ordered by total search time of shapes which need them
+	 */
+	public List<String> getIndexDefinitions() {
+		Set<String> result = new LinkedHashSet<String>();
+		for (FilterShape filterShape : getFilterShapes()) {
+			result.addAll(getIndexDefinitions(filterShape));
+		}
+
+		return new ArrayList<String>(result);
+	}
+
+	public long getDroppedRecords() {
+		return droppedRecords.sum();
+	}
+
+	public void reset() {
+		filterShapes.clear();
+		droppedRecords.reset();
+	}
+
+	/*
+	 * Writes report into configured dump file
+	 */
+	public boolean dump() {
+		if (dumpFile == null) {
+			return false;
+		}
+
+		try (Writer writer = Files.newBufferedWriter(Paths.get(dumpFile), StandardCharsets.UTF_8)) {
+			dump(writer);
+			return true;
+		} catch (Exception ex) {
+			LOG.error("Failed to write index advisor report to file '{}'", dumpFile, ex);
+			return false;
+		}
+	}
+
+	public void dump(Writer writer) throws IOException {
+		writer.write("# Index advisor report: " + new Date() + "\n");
+		writer.write("# Dropped records: " + getDroppedRecords() + "\n");
+
+		Set<String> writtenDefinitions = new HashSet<String>();
+		for (FilterShape filterShape : getFilterShapes()) {
+			writer.write("\n");
+			writer.write(String.format("# container: %s, count: %d, avg: %.3f ms, max: %.3f ms, total: %.3f ms\n", filterShape.getContainer(),
+					filterShape.getCount(), filterShape.getAverageTimeMillis(), filterShape.getMaxTimeMillis(), filterShape.getTotalTimeNanos() / 1000000.0));
+			writer.write("# shape: " + filterShape.getShape() + "\n");
+
+			for (String indexDefinition : getIndexDefinitions(filterShape)) {
+				if (writtenDefinitions.add(indexDefinition)) {
+					writer.write(indexDefinition + "\n");
+				}
+			}
+		}
+		writer.flush();
+	}
+
+	public void destroy() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		dump();
+	}
+
+	/*
+	 * Filter without values. Terms of AND/OR are sorted to get same shape for same terms in different order
+	 */
+	public static String toShape(Filter filter) {
+		FilterType type = filter.getType();
+		if ((FilterType.AND == type) || (FilterType.OR == type) || (FilterType.NOT == type)) {
+			List<String> childShapes = new ArrayList<String>();
+			if (filter.getFilters() != null) {
+				for (Filter childFilter : filter.getFilters()) {
+					childShapes.add(toShape(childFilter));
+				}
+			}
+			if (FilterType.NOT != type) {
+				Collections.sort(childShapes);
+			}
+
+			StringBuilder shape = new StringBuilder("(").append(type.getSign());
+			for (String childShape : childShapes) {
+				shape.append(childShape);
+			}
+
+			return shape.append(")").toString();
+		}
+
+		if (FilterType.RAW == type) {
+			return "(raw)";
+		}
+
+		String attribute = toAttributeShape(filter);
+		if (FilterType.LOWERCASE == type) {
+			return attribute;
+		}
+
+		if (FilterType.PRESENCE == type) {
+			return "(" + attribute + "=*)";
+		}
+
+		if (FilterType.SUBSTRING == type) {
+			StringBuilder shape = new StringBuilder("(").append(attribute).append("=");
+			if (filter.getSubInitial() != null) {
+				shape.append("?");
+			}
+			shape.append("*");
+			if (filter.getSubAny() != null) {
+				for (int i = 0; i < filter.getSubAny().length; i++) {
+					shape.append("?*");
+				}
+			}
+			if (filter.getSubFinal() != null) {
+				shape.append("?");
+			}
+
+			return shape.append(")").toString();
+		}
+
+		return "(" + attribute + type.getSign() + "?)";
+	}
+
+	private static String toAttributeShape(Filter filter) {
+		if (FilterType.LOWERCASE == filter.getType()) {
+			return "lower(" + StringHelper.toLowerCase(filter.getAttributeName()) + ")";
+		}
+
+		String attribute;
+		if ((filter.getAttributeName() == null) && ArrayHelper.isNotEmpty(filter.getFilters())) {
+			attribute = toAttributeShape(filter.getFilters()[0]);
+		} else {
+			attribute = StringHelper.toLowerCase(filter.getAttributeName());
+		}
+
+		if (Boolean.TRUE.equals(filter.getMultiValued())) {
+			attribute += "[]";
+		}
+
+		return attribute;
+	}
+
+	/**
+	 * Backend specific index definitions builder
+	 */
+	public interface IndexDefinitionBuilder {
+
+		List<String> buildIndexDefinitions(FilterShape filterShape);
+
+	}
+
+	/**
+	 * Filter shape statistics and attributes which it uses
+	 */
+	public static final class FilterShape {
+
+		private final String container;
+		private final String shape;
+
+		// Lower case attribute name -> attribute name
+		private final Map<String, String> equalityAttributes = new LinkedHashMap<String, String>();
+		private final Map<String, String> rangeAttributes = new LinkedHashMap<String, String>();
+		private final Map<String, String> prefixAttributes = new LinkedHashMap<String, String>();
+		private final Map<String, String> substringAttributes = new LinkedHashMap<String, String>();
+		private final Map<String, String> presenceAttributes = new LinkedHashMap<String, String>();
+		private final Map<String, String> approximateAttributes = new LinkedHashMap<String, String>();
+		private final Set<String> multiValuedAttributes = new HashSet<String>();
+		private final Set<String> lowercaseAttributes = new HashSet<String>();
+		private boolean disjunctive;
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalTimeNanos = new LongAdder();
+		private final AtomicLong maxTimeNanos = new AtomicLong();
+
+		private FilterShape(String container, String shape, Filter filter) {
+			this.container = container;
+			this.shape = shape;
+			collectAttributes(filter, false);
+		}
+
+		private void collectAttributes(Filter filter, boolean negated) {
+			FilterType type = filter.getType();
+			if ((FilterType.AND == type) || (FilterType.OR == type) || (FilterType.NOT == type)) {
+				if (filter.getFilters() == null) {
+					return;
+				}
+
+				if (FilterType.OR == type) {
+					this.disjunctive = true;
+				}
+
+				for (Filter childFilter : filter.getFilters()) {
+					collectAttributes(childFilter, negated || (FilterType.NOT == type));
+				}
+				return;
+			}
+
+			if (negated || (FilterType.RAW == type)) {
+				// Negated terms can't use index
+				return;
+			}
+
+			String attributeName = filter.getAttributeName();
+			boolean lowercase = false;
+			if ((attributeName == null) && ArrayHelper.isNotEmpty(filter.getFilters())) {
+				Filter attributeFilter = filter.getFilters()[0];
+				attributeName = attributeFilter.getAttributeName();
+				lowercase = FilterType.LOWERCASE == attributeFilter.getType();
+			}
+
+			if (attributeName == null) {
+				return;
+			}
+
+			String key = StringHelper.toLowerCase(attributeName);
+			if (lowercase) {
+				lowercaseAttributes.add(key);
+			}
+			if (Boolean.TRUE.equals(filter.getMultiValued())) {
+				multiValuedAttributes.add(key);
+			}
+
+			if (FilterType.EQUALITY == type) {
+				equalityAttributes.put(key, attributeName);
+			} else if ((FilterType.LESS_OR_EQUAL == type) || (FilterType.GREATER_OR_EQUAL == type)) {
+				rangeAttributes.put(key, attributeName);
+			} else if (FilterType.SUBSTRING == type) {
+				if (filter.getSubInitial() != null) {
+					prefixAttributes.put(key, attributeName);
+				} else {
+					substringAttributes.put(key, attributeName);
+				}
+			} else if (FilterType.PRESENCE == type) {
+				presenceAttributes.put(key, attributeName);
+			} else if (FilterType.APPROXIMATE_MATCH == type) {
+				approximateAttributes.put(key, attributeName);
+			}
+		}
+
+		private void record(long durationNanos) {
+			count.increment();
+			totalTimeNanos.add(durationNanos);
+			maxTimeNanos.accumulateAndGet(durationNanos, Math::max);
+		}
+
+		/*
+		 * Key attributes of index for this shape: equality attributes first and then one range or prefix attribute.
+		 * Disjunctive shapes need separate index per attribute, in this case each attribute is separate key
+		 */
+		public List<List<String>> getIndexKeys(Set<String> excludedAttributes) {
+			List<String> keyAttributes = new ArrayList<String>();
+			for (Map<String, String> attributes : Arrays.asList(equalityAttributes, rangeAttributes, prefixAttributes)) {
+				for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+					if (!excludedAttributes.contains(attribute.getKey()) && !multiValuedAttributes.contains(attribute.getKey())
+							&& !keyAttributes.contains(attribute.getValue())) {
+						keyAttributes.add(attribute.getValue());
+					}
+				}
+			}
+
+			List<List<String>> result = new ArrayList<List<String>>();
+			if (disjunctive) {
+				for (String keyAttribute : keyAttributes) {
+					result.add(Collections.singletonList(keyAttribute));
+				}
+				return result;
+			}
+
+			// Only one range attribute can be used by index
+			int keySize = 0;
+			for (String keyAttribute : keyAttributes) {
+				keySize++;
+				if (!equalityAttributes.containsKey(StringHelper.toLowerCase(keyAttribute))) {
+					break;
+				}
+			}
+
+			if (keySize > 0) {
+				result.add(keyAttributes.subList(0, keySize));
+			}
+
+			return result;
+		}
+
+		public String getContainer() {
+			return container;
+		}
+
+		public String getShape() {
+			return shape;
+		}
+
+		public List<String> getEqualityAttributes() {
+			return new ArrayList<String>(equalityAttributes.values());
+		}
+
+		public List<String> getRangeAttributes() {
+			return new ArrayList<String>(rangeAttributes.values());
+		}
+
+		public List<String> getPrefixAttributes() {
+			return new ArrayList<String>(prefixAttributes.values());
+		}
+
+		public List<String> getSubstringAttributes() {
+			return new ArrayList<String>(substringAttributes.values());
+		}
+
+		public List<String> getPresenceAttributes() {
+			return new ArrayList<String>(presenceAttributes.values());
+		}
+
+		public List<String> getApproximateAttributes() {
+			return new ArrayList<String>(approximateAttributes.values());
+		}
+
+		/*
+		 * All attributes which shape uses in not negated terms
+		 */
+		public List<String> getAttributes() {
+			Map<String, String> result = new LinkedHashMap<String, String>();
+			for (Map<String, String> attributes : Arrays.asList(equalityAttributes, rangeAttributes, prefixAttributes, substringAttributes,
+					presenceAttributes, approximateAttributes)) {
+				for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+					result.putIfAbsent(attribute.getKey(), attribute.getValue());
+				}
+			}
+
+			return new ArrayList<String>(result.values());
+		}
+
+		public boolean isMultiValued(String attributeName) {
+			return multiValuedAttributes.contains(StringHelper.toLowerCase(attributeName));
+		}
+
+		public boolean isLowercase(String attributeName) {
+			return lowercaseAttributes.contains(StringHelper.toLowerCase(attributeName));
+		}
+
+		public boolean isDisjunctive() {
+			return disjunctive;
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public long getTotalTimeNanos() {
+			return totalTimeNanos.sum();
+		}
+
+		public double getAverageTimeMillis() {
+			long currentCount = count.sum();
+			if (currentCount == 0) {
+				return 0;
+			}
+
+			return totalTimeNanos.sum() / 1000000.0 / currentCount;
+		}
+
+		public double getMaxTimeMillis() {
+			return maxTimeNanos.get() / 1000000.0;
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.gluu.orm.util.ArrayHelper;
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.model.AttributeData;
+import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lower case copies of attributes declared with @AttributeName(lowercaseName). Copies are written on
+ * every persist and update. Entries stored before copy was declared don't have it, so searches use
+ * copy instead of LOWER(attribute) only after copy is listed in lowercaseAttributes.backfilled
+ */
+public class LowercaseAttributes {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LowercaseAttributes.class);
+
+	private final Set<String> backfilledAttributes;
+
+	public LowercaseAttributes(Collection<String> backfilledAttributes) {
+		this.backfilledAttributes = new HashSet<String>();
+		for (String backfilledAttribute : backfilledAttributes) {
+			this.backfilledAttributes.add(StringHelper.toLowerCase(backfilledAttribute));
+		}
+	}
+
+	public static LowercaseAttributes create(Properties props) {
+		String backfilledAttributes = props.getProperty("lowercaseAttributes.backfilled");
+		LOG.info("Option lowercaseAttributes.backfilled: " + backfilledAttributes);
+		if (StringHelper.isEmpty(backfilledAttributes)) {
+			return new LowercaseAttributes(Collections.<String>emptyList());
+		}
+
+		return new LowercaseAttributes(Arrays.asList(StringHelper.split(backfilledAttributes, ",")));
+	}
+
+	/*
+	 * All existing entries have lower case copy of attribute
+	 */
+	public boolean isBackfilled(String lowercaseAttributeName) {
+		return (lowercaseAttributeName != null) && backfilledAttributes.contains(StringHelper.toLowerCase(lowercaseAttributeName));
+	}
+
+	/*
+	 * Replace LOWER(attribute) expressions with backfilled lower case copies. Resolver returns name of lower
+	 * case copy of attribute or null. Returns original filter if there are no such expressions
+	 */
+	public Filter replaceLowercaseFilters(Filter genericFilter, Function<String, String> lowercaseAttributeResolver) {
+		if (genericFilter == null) {
+			return null;
+		}
+
+		Filter[] filters = genericFilter.getFilters();
+		if (ArrayHelper.isEmpty(filters)) {
+			return genericFilter;
+		}
+
+		if ((genericFilter.getAttributeName() == null) && (filters.length == 1) && (filters[0] != null)
+				&& (FilterType.LOWERCASE == filters[0].getType())) {
+			String lowercaseAttributeName = lowercaseAttributeResolver.apply(filters[0].getAttributeName());
+			if (!isBackfilled(lowercaseAttributeName)) {
+				return genericFilter;
+			}
+
+			Filter resultFilter = genericFilter.clone();
+			resultFilter.setFilters(null);
+			resultFilter.setAttributeName(lowercaseAttributeName);
+
+			return resultFilter;
+		}
+
+		Filter[] resultFilters = null;
+		for (int i = 0; i < filters.length; i++) {
+			Filter resultFilter = replaceLowercaseFilters(filters[i], lowercaseAttributeResolver);
+			if (resultFilter != filters[i]) {
+				if (resultFilters == null) {
+					resultFilters = Arrays.copyOf(filters, filters.length);
+				}
+				resultFilters[i] = resultFilter;
+			}
+		}
+
+		if (resultFilters == null) {
+			return genericFilter;
+		}
+
+		Filter resultFilter = genericFilter.clone();
+		resultFilter.setFilters(resultFilters);
+
+		return resultFilter;
+	}
+
+	public static AttributeData getLowercaseAttributeData(String lowercaseAttributeName, AttributeData attributeData) {
+		if (attributeData == null) {
+			return null;
+		}
+
+		Object[] values = attributeData.getValues();
+		Object[] lowercaseValues = null;
+		if (values != null) {
+			// Keep array type to allow backend to detect attribute type
+			lowercaseValues = Arrays.copyOf(values, values.length);
+			for (int i = 0; i < lowercaseValues.length; i++) {
+				if (lowercaseValues[i] instanceof String) {
+					lowercaseValues[i] = StringHelper.toLowerCase((String) lowercaseValues[i]);
+				}
+			}
+		}
+
+		return new AttributeData(lowercaseAttributeName, lowercaseValues, attributeData.getMultiValued());
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.model.AttributeData;
+import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bloom filters of existing keys and unique attribute values per entry class. Lookups of absent
+ * entries are answered without backend request. Filters are populated by background scan and
+ * updated on persist and merge. Removed entries stay in filters until next scan
+ */
+public class NegativeLookupCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NegativeLookupCache.class);
+
+	public static final int DEFAULT_EXPECTED_ENTRIES = 1000000;
+	public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private final int expectedEntries;
+	private final double falsePositiveProbability;
+
+	private final ConcurrentHashMap<Class<?>, Registration> registrations;
+	private final ExecutorService scanExecutor;
+
+	private final LongAdder negativeLookups = new LongAdder();
+	private final LongAdder backendLookups = new LongAdder();
+
+	public NegativeLookupCache(int expectedEntries, double falsePositiveProbability) {
+		this.expectedEntries = expectedEntries;
+		this.falsePositiveProbability = falsePositiveProbability;
+		this.registrations = new ConcurrentHashMap<Class<?>, Registration>();
+
+		this.scanExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "persistence-negative-lookup-scan");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Returns null if cache is not enabled in configuration
+	 */
+	public static NegativeLookupCache create(Properties props) {
+		if (!StringHelper.toBoolean(props.getProperty("negativeLookupCache.enabled"), false)) {
+			return null;
+		}
+
+		int expectedEntries = StringHelper.toInteger(props.getProperty("negativeLookupCache.expectedEntries"), DEFAULT_EXPECTED_ENTRIES);
+		double falsePositiveProbability = DEFAULT_FALSE_POSITIVE_PROBABILITY;
+		if (props.containsKey("negativeLookupCache.falsePositiveProbability")) {
+			try {
+				falsePositiveProbability = Double.parseDouble(props.getProperty("negativeLookupCache.falsePositiveProbability"));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Failed to parse option negativeLookupCache.falsePositiveProbability", ex);
+			}
+		}
+
+		LOG.info("Option negativeLookupCache.expectedEntries: " + expectedEntries);
+		LOG.info("Option negativeLookupCache.falsePositiveProbability: " + falsePositiveProbability);
+
+		return new NegativeLookupCache(expectedEntries, falsePositiveProbability);
+	}
+
+	/*
+	 * Start tracking keys and values of unique attributes of entries under base DN. Cache answers
+	 * lookups only after scanner loads all existing entries
+	 */
+	public void register(Class<?> entryClass, String baseDN, String[] uniqueAttributes, Scanner scanner) {
+		final Registration registration = new Registration(baseDN, uniqueAttributes, expectedEntries, falsePositiveProbability);
+		registrations.put(entryClass, registration);
+
+		scanExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				long takes = System.currentTimeMillis();
+				try {
+					scanner.scan(registration);
+					registration.ready = true;
+					LOG.info("Loaded negative lookup cache of '{}' in {} milliseconds", entryClass.getName(), System.currentTimeMillis() - takes);
+				} catch (Exception ex) {
+					// Registration stays not ready and all lookups go to backend
+					LOG.error("Failed to load negative lookup cache of '{}'", entryClass.getName(), ex);
+				}
+			}
+		});
+	}
+
+	public boolean isRegistered(Class<?> entryClass) {
+		return registrations.containsKey(entryClass);
+	}
+
+	/*
+	 * Returns true if there is definitely no entry with this key
+	 */
+	public boolean isAbsent(Class<?> entryClass, String key) {
+		Registration registration = getReadyRegistration(entryClass, key);
+		if (registration == null) {
+			return false;
+		}
+
+		return countLookup(!registration.keys.mightContain(normalize(key)));
+	}
+
+	/*
+	 * Returns true if there is definitely no entry which matches filter
+	 */
+	public boolean isAbsent(Class<?> entryClass, String baseDN, Filter filter) {
+		if (filter == null) {
+			return false;
+		}
+
+		Registration registration = getReadyRegistration(entryClass, baseDN);
+		if (registration == null) {
+			return false;
+		}
+
+		return countLookup(isAbsent(registration, filter));
+	}
+
+	private boolean isAbsent(Registration registration, Filter filter) {
+		if (FilterType.AND == filter.getType()) {
+			for (Filter andFilter : filter.getFilters()) {
+				if (isAbsent(registration, andFilter)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		if ((FilterType.EQUALITY != filter.getType()) || (filter.getAttributeName() == null)) {
+			return false;
+		}
+
+		// Only string values are stored in the same form as persisted. Other values might be there
+		if (!(filter.getAssertionValue() instanceof String)) {
+			return false;
+		}
+
+		BloomFilter values = registration.attributeValues.get(normalize(filter.getAttributeName()));
+		if (values == null) {
+			return false;
+		}
+
+		return !values.mightContain(normalize((String) filter.getAssertionValue()));
+	}
+
+	private Registration getReadyRegistration(Class<?> entryClass, String dn) {
+		Registration registration = registrations.get(entryClass);
+		if ((registration == null) || !registration.ready || (dn == null)) {
+			return null;
+		}
+
+		String normalizedDn = normalize(dn);
+		if (!normalizedDn.equals(registration.baseDN) && !normalizedDn.endsWith("," + registration.baseDN)) {
+			return null;
+		}
+
+		return registration;
+	}
+
+	private boolean countLookup(boolean absent) {
+		if (absent) {
+			negativeLookups.increment();
+		} else {
+			backendLookups.increment();
+		}
+
+		return absent;
+	}
+
+	/*
+	 * Should be called before entry write to avoid false negative answers
+	 */
+	public void add(Class<?> entryClass, String key, List<AttributeData> attributes) {
+		Registration registration = registrations.get(entryClass);
+		if (registration != null) {
+			registration.add(key, attributes);
+		}
+	}
+
+	public void destroy() {
+		scanExecutor.shutdownNow();
+	}
+
+	public long getNegativeLookups() {
+		return negativeLookups.sum();
+	}
+
+	public long getBackendLookups() {
+		return backendLookups.sum();
+	}
+
+	private static String normalize(String value) {
+		return StringHelper.toLowerCase(value);
+	}
+
+	/**
+	 * Backend specific load of existing entries
+	 */
+	public interface Scanner {
+
+		void scan(Registration registration) throws Exception;
+
+	}
+
+	public static class Registration {
+
+		private final String baseDN;
+		private final BloomFilter keys;
+		private final Map<String, BloomFilter> attributeValues;
+
+		private volatile boolean ready = false;
+
+		private Registration(String baseDN, String[] uniqueAttributes, int expectedEntries, double falsePositiveProbability) {
+			this.baseDN = normalize(baseDN);
+			this.keys = new BloomFilter(expectedEntries, falsePositiveProbability);
+			this.attributeValues = new HashMap<String, BloomFilter>();
+			if (uniqueAttributes != null) {
+				for (String uniqueAttribute : uniqueAttributes) {
+					attributeValues.put(normalize(uniqueAttribute), new BloomFilter(expectedEntries, falsePositiveProbability));
+				}
+			}
+		}
+
+		public void add(String key, List<AttributeData> attributes) {
+			keys.put(normalize(key));
+			if ((attributes == null) || attributeValues.isEmpty()) {
+				return;
+			}
+
+			for (AttributeData attribute : attributes) {
+				BloomFilter values = attributeValues.get(normalize(attribute.getName()));
+				if ((values == null) || (attribute.getValues() == null)) {
+					continue;
+				}
+
+				for (Object value : attribute.getValues()) {
+					if (value != null) {
+						values.put(normalize(String.valueOf(value)));
+					}
+				}
+			}
+		}
+
+		public boolean isReady() {
+			return ready;
+		}
+
+	}
+
+	/*
+	 * Thread safe Bloom filter with double hashing of 64 bit FNV-1a hash
+	 */
+	static class BloomFilter {
+
+		private final AtomicLongArray bits;
+		private final long numBits;
+		private final int numHashes;
+
+		BloomFilter(int expectedEntries, double falsePositiveProbability) {
+			long optimalNumBits = (long) (-expectedEntries * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+			this.numBits = Math.max(64, optimalNumBits);
+			this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedEntries * Math.log(2)));
+			this.bits = new AtomicLongArray((int) ((numBits + 63) / 64));
+		}
+
+		void put(String value) {
+			long hash = hash(value);
+			int hash1 = (int) hash;
+			int hash2 = (int) (hash >>> 32);
+			for (int i = 1; i <= numHashes; i++) {
+				long bitIndex = toBitIndex(hash1 + i * hash2);
+				int wordIndex = (int) (bitIndex >>> 6);
+				long mask = 1L << bitIndex;
+
+				long word;
+				do {
+					word = bits.get(wordIndex);
+					if ((word & mask) != 0) {
+						break;
+					}
+				} while (!bits.compareAndSet(wordIndex, word, word | mask));
+			}
+		}
+
+		boolean mightContain(String value) {
+			long hash = hash(value);
+			int hash1 = (int) hash;
+			int hash2 = (int) (hash >>> 32);
+			for (int i = 1; i <= numHashes; i++) {
+				long bitIndex = toBitIndex(hash1 + i * hash2);
+				if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		private long toBitIndex(int combinedHash) {
+			return (combinedHash & Integer.MAX_VALUE) % numBits;
+		}
+
+		private static long hash(String value) {
+			long hash = 0xcbf29ce484222325L;
+			for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+				hash ^= b & 0xff;
+				hash *= 0x100000001b3L;
+			}
+
+			return hash;
+		}
+
+	}
+
+}
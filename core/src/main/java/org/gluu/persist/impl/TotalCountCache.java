@@ -0,0 +1,183 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.gluu.orm.util.StringHelper;
+import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Short-lived cache of paged search total entries count. Counts are cached by base DN, object classes
+ * and normalized filter. Least recently used count is evicted if cache is full
+ */
+public class TotalCountCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TotalCountCache.class);
+
+	public static final long DEFAULT_TTL = 30 * 1000L;
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private final long ttl;
+	private final int maxEntries;
+
+	private final Map<String, CachedCount> counts;
+
+	public TotalCountCache(long ttl, int maxEntries) {
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+		this.counts = Collections.synchronizedMap(new LinkedHashMap<String, CachedCount>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = -1856417520328839416L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+				return size() > TotalCountCache.this.maxEntries;
+			}
+
+		});
+	}
+
+	public static TotalCountCache create(Properties props) {
+		long ttl = DEFAULT_TTL;
+		if (props.containsKey("countCache.ttl")) {
+			ttl = StringHelper.toLong(props.getProperty("countCache.ttl"), DEFAULT_TTL);
+		}
+
+		int maxEntries = DEFAULT_MAX_ENTRIES;
+		if (props.containsKey("countCache.maxEntries")) {
+			maxEntries = StringHelper.toInteger(props.getProperty("countCache.maxEntries"), DEFAULT_MAX_ENTRIES);
+		}
+
+		LOG.info("Option countCache.ttl: " + ttl);
+		LOG.info("Option countCache.maxEntries: " + maxEntries);
+
+		return new TotalCountCache(ttl, maxEntries);
+	}
+
+	public Integer get(String baseDN, String[] objectClasses, Filter filter) {
+		String key = createKey(baseDN, objectClasses, filter);
+		CachedCount cachedCount = counts.get(key);
+		if (cachedCount == null) {
+			return null;
+		}
+
+		if (cachedCount.isExpired(System.currentTimeMillis())) {
+			counts.remove(key, cachedCount);
+			return null;
+		}
+
+		return cachedCount.getCount();
+	}
+
+	public void put(String baseDN, String[] objectClasses, Filter filter, int count) {
+		counts.put(createKey(baseDN, objectClasses, filter), new CachedCount(count, System.currentTimeMillis() + ttl));
+	}
+
+	public void clear() {
+		counts.clear();
+	}
+
+	public int size() {
+		return counts.size();
+	}
+
+	private String createKey(String baseDN, String[] objectClasses, Filter filter) {
+		StringBuilder key = new StringBuilder(StringHelper.toLowerCase(baseDN)).append('|');
+		if (objectClasses != null) {
+			String[] sortedObjectClasses = new String[objectClasses.length];
+			for (int i = 0; i < objectClasses.length; i++) {
+				sortedObjectClasses[i] = StringHelper.toLowerCase(objectClasses[i]);
+			}
+			Arrays.sort(sortedObjectClasses);
+			key.append(String.join(",", sortedObjectClasses));
+		}
+		key.append('|').append(normalizeFilter(filter));
+
+		return key.toString();
+	}
+
+	/*
+	 * Filter representation which doesn't depend on order of AND/OR components and case of attribute names.
+	 * Unlike Filter.toString it includes type of assertion value and multi-valued flag
+	 */
+	private static String normalizeFilter(Filter filter) {
+		if (filter == null) {
+			return "";
+		}
+
+		FilterType type = filter.getType();
+		if (FilterType.RAW == type) {
+			return "raw:" + filter.getFilterString();
+		}
+
+		StringBuilder sb = new StringBuilder("(").append(type.name());
+		if ((FilterType.AND == type) || (FilterType.OR == type) || (FilterType.NOT == type)) {
+			List<String> components = new ArrayList<String>();
+			if (filter.getFilters() != null) {
+				for (Filter component : filter.getFilters()) {
+					components.add(normalizeFilter(component));
+				}
+			}
+			if (FilterType.NOT != type) {
+				Collections.sort(components);
+			}
+			for (String component : components) {
+				sb.append(component);
+			}
+
+			return sb.append(')').toString();
+		}
+
+		if ((filter.getFilters() != null) && (filter.getFilters().length > 0)) {
+			sb.append(':').append(normalizeFilter(filter.getFilters()[0]));
+		} else {
+			sb.append(':').append(StringHelper.toLowerCase(filter.getAttributeName()));
+		}
+		if (filter.getAssertionValue() != null) {
+			sb.append(':').append(filter.getAssertionValue().getClass().getSimpleName()).append('=').append(filter.getAssertionValue());
+		}
+		if (FilterType.SUBSTRING == type) {
+			sb.append(":").append(filter.getSubInitial()).append('*').append(Arrays.toString(filter.getSubAny())).append('*').append(filter.getSubFinal());
+		}
+		if (Boolean.TRUE.equals(filter.getMultiValued())) {
+			sb.append(":multiValued=").append(filter.getMultiValuedCount());
+		}
+
+		return sb.append(')').toString();
+	}
+
+	private static final class CachedCount {
+
+		private final int count;
+		private final long expiresAt;
+
+		private CachedCount(int count, long expiresAt) {
+			this.count = count;
+			this.expiresAt = expiresAt;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+
+	}
+
+}
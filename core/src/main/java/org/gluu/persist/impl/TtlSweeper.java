@@ -0,0 +1,276 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gluu.orm.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental sweeper of expired entries for backends without native expiration. It removes
+ * expired entries with small batches and increases pause between batches when backend is slow
+ */
+public class TtlSweeper {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TtlSweeper.class);
+
+	public static final String DEFAULT_EXPIRATION_ATTRIBUTE = "exp";
+	public static final String DEFAULT_DELETABLE_ATTRIBUTE = "del";
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_INTERVAL = 60;
+	public static final long DEFAULT_MAX_BATCH_LATENCY = 100;
+	public static final long DEFAULT_MAX_PAUSE = 5000;
+
+	public static final String BRANCH_OPTION_PREFIX = "ttl.branch.";
+
+	private final ExpiredEntriesRemover expiredEntriesRemover;
+	private final List<String> containers;
+	private final String expirationAttribute;
+	private final String deletableAttribute;
+	private final int batchSize;
+	private final long maxBatchLatency;
+	private final long maxPause;
+
+	private final LongAdder removedEntries = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final AtomicLong lastSweepTime = new AtomicLong();
+	private final AtomicLong lastPause = new AtomicLong();
+
+	private final ScheduledExecutorService scheduler;
+
+	public TtlSweeper(ExpiredEntriesRemover expiredEntriesRemover, List<String> containers, String expirationAttribute, String deletableAttribute,
+			int batchSize, long interval, long maxBatchLatency, long maxPause) {
+		this.expiredEntriesRemover = expiredEntriesRemover;
+		this.containers = Collections.unmodifiableList(containers);
+		this.expirationAttribute = expirationAttribute;
+		this.deletableAttribute = deletableAttribute;
+		this.batchSize = batchSize;
+		this.maxBatchLatency = maxBatchLatency;
+		this.maxPause = maxPause;
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "persistence-ttl-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sweep();
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Returns null if sweeper is not enabled in configuration or backend has no remover
+	 */
+	public static TtlSweeper create(ExpiredEntriesRemover expiredEntriesRemover, Properties props) {
+		if ((expiredEntriesRemover == null) || !StringHelper.toBoolean(props.getProperty("ttl.sweeper.enabled"), false)) {
+			return null;
+		}
+
+		List<String> containers = getContainers(props);
+		if (containers.isEmpty()) {
+			LOG.warn("TTL sweeper is enabled but there are no containers in option ttl.containers");
+			return null;
+		}
+
+		int batchSize = StringHelper.toInteger(props.getProperty("ttl.sweeper.batchSize"), DEFAULT_BATCH_SIZE);
+		long interval = StringHelper.toLong(props.getProperty("ttl.sweeper.interval"), DEFAULT_INTERVAL);
+		long maxBatchLatency = StringHelper.toLong(props.getProperty("ttl.sweeper.maxBatchLatency"), DEFAULT_MAX_BATCH_LATENCY);
+		long maxPause = StringHelper.toLong(props.getProperty("ttl.sweeper.maxPause"), DEFAULT_MAX_PAUSE);
+
+		LOG.info("Option ttl.containers: " + containers);
+		LOG.info("Option ttl.expirationAttribute: " + getExpirationAttribute(props));
+		LOG.info("Option ttl.deletableAttribute: " + getDeletableAttribute(props));
+		LOG.info("Option ttl.sweeper.batchSize: " + batchSize);
+		LOG.info("Option ttl.sweeper.interval: " + interval);
+		LOG.info("Option ttl.sweeper.maxBatchLatency: " + maxBatchLatency);
+		LOG.info("Option ttl.sweeper.maxPause: " + maxPause);
+
+		return new TtlSweeper(expiredEntriesRemover, containers, getExpirationAttribute(props), getDeletableAttribute(props),
+				batchSize, interval, maxBatchLatency, maxPause);
+	}
+
+	/*
+	 * Tables, buckets or branches with expiring entries
+	 */
+	public static List<String> getContainers(Properties props) {
+		String containers = props.getProperty("ttl.containers");
+		if (StringHelper.isEmpty(containers)) {
+			return Collections.emptyList();
+		}
+
+		return Arrays.asList(StringHelper.split(containers, ",", true, false));
+	}
+
+	/*
+	 * Base DN of entries stored in container. It's needed for backends where container is table
+	 */
+	public static String getBranch(Properties props, String container) {
+		String branch = props.getProperty(BRANCH_OPTION_PREFIX + container);
+		LOG.info("Option " + BRANCH_OPTION_PREFIX + container + ": " + branch);
+
+		return StringHelper.isEmpty(branch) ? null : branch;
+	}
+
+	/*
+	 * Returns true if DN is one of branches or entry under it
+	 */
+	public static boolean isInBranches(String dn, Collection<String> branches) {
+		if (dn == null) {
+			return false;
+		}
+
+		String normalizedDn = normalizeDn(dn);
+		for (String branch : branches) {
+			String normalizedBranch = normalizeDn(branch);
+			if (normalizedDn.equals(normalizedBranch) || normalizedDn.endsWith("," + normalizedBranch)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String normalizeDn(String dn) {
+		return StringHelper.toLowerCase(dn).replaceAll("\\s*,\\s*", ",").trim();
+	}
+
+	public static String getExpirationAttribute(Properties props) {
+		String expirationAttribute = props.getProperty("ttl.expirationAttribute");
+
+		return StringHelper.isEmpty(expirationAttribute) ? DEFAULT_EXPIRATION_ATTRIBUTE : expirationAttribute;
+	}
+
+	/*
+	 * Entries without deletable = true are not removed. Empty value disables this check
+	 */
+	public static String getDeletableAttribute(Properties props) {
+		if (!props.containsKey("ttl.deletableAttribute")) {
+			return DEFAULT_DELETABLE_ATTRIBUTE;
+		}
+
+		String deletableAttribute = props.getProperty("ttl.deletableAttribute");
+
+		return StringHelper.isEmpty(deletableAttribute) ? null : deletableAttribute;
+	}
+
+	public void sweep() {
+		long start = System.currentTimeMillis();
+		for (String container : containers) {
+			if (!sweepContainer(container)) {
+				break;
+			}
+		}
+		lastSweepTime.set(System.currentTimeMillis() - start);
+	}
+
+	/*
+	 * Returns false if sweeper was interrupted
+	 */
+	private boolean sweepContainer(String container) {
+		long pause = 0;
+		while (true) {
+			long batchStart = System.nanoTime();
+			int removed;
+			try {
+				removed = expiredEntriesRemover.removeExpired(container, expirationAttribute, deletableAttribute, new Date(), batchSize);
+			} catch (Exception ex) {
+				failures.increment();
+				LOG.error("Failed to remove expired entries from '{}'", container, ex);
+				return true;
+			}
+			long batchLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+
+			batches.increment();
+			removedEntries.add(removed);
+
+			if (removed < batchSize) {
+				// There are no more expired entries
+				return true;
+			}
+
+			// Back off when backend is slow and speed up when it's fast again
+			if (batchLatency > maxBatchLatency) {
+				pause = Math.min(Math.max(pause * 2, batchLatency), maxPause);
+			} else {
+				pause = pause / 2;
+			}
+			lastPause.set(pause);
+
+			if (pause > 0) {
+				try {
+					Thread.sleep(pause);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+	}
+
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+
+	public List<String> getContainers() {
+		return containers;
+	}
+
+	public long getRemovedEntries() {
+		return removedEntries.sum();
+	}
+
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public long getLastSweepTime() {
+		return lastSweepTime.get();
+	}
+
+	public long getLastPause() {
+		return lastPause.get();
+	}
+
+	/**
+	 * Backend specific removal of expired entries
+	 */
+	public interface ExpiredEntriesRemover {
+
+		/*
+		 * Remove up to count entries from container with expiration attribute value before now.
+		 * Returns number of removed entries
+		 */
+		int removeExpired(String container, String expirationAttribute, String deletableAttribute, Date now, int count) throws Exception;
+
+	}
+
+}
@@ -0,0 +1,308 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gluu.orm.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind buffer for entry merges. It keeps only last merged state of each pending entry
+ * and writes it once when coalescing window expires. Pending entry is removed only after
+ * successful write. Writes of one entry are serialized, failed writes are repeated in next window
+ */
+public class WriteBehindService {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteBehindService.class);
+
+	public static final long DEFAULT_WINDOW = 200;
+	public static final int DEFAULT_MAX_PENDING_ENTRIES = 10000;
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final EntryWriter entryWriter;
+	private final long window;
+	private final int maxPendingEntries;
+	private final int maxAttempts;
+	private final Set<String> objectClasses;
+
+	private final ConcurrentHashMap<String, PendingWrite> pendingWrites;
+	private final Object[] writeLocks;
+	private final ScheduledExecutorService scheduler;
+
+	private final AtomicLong requestedWrites = new AtomicLong();
+	private final AtomicLong executedWrites = new AtomicLong();
+	private final AtomicLong rejectedWrites = new AtomicLong();
+	private final AtomicLong failedWrites = new AtomicLong();
+	private final AtomicLong droppedWrites = new AtomicLong();
+
+	public WriteBehindService(EntryWriter entryWriter, long window, int maxPendingEntries, String[] objectClasses) {
+		this(entryWriter, window, maxPendingEntries, DEFAULT_MAX_ATTEMPTS, objectClasses);
+	}
+
+	public WriteBehindService(EntryWriter entryWriter, long window, int maxPendingEntries, int maxAttempts, String[] objectClasses) {
+		this.entryWriter = entryWriter;
+		this.window = window;
+		this.maxPendingEntries = maxPendingEntries;
+		this.maxAttempts = Math.max(1, maxAttempts);
+
+		this.objectClasses = new HashSet<String>();
+		for (String objectClass : objectClasses) {
+			this.objectClasses.add(objectClass.toLowerCase());
+		}
+
+		this.pendingWrites = new ConcurrentHashMap<String, PendingWrite>();
+		this.writeLocks = new Object[LOCK_STRIPES];
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			this.writeLocks[i] = new Object();
+		}
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "persistence-write-behind");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Returns null if write-behind is not enabled in configuration
+	 */
+	public static WriteBehindService create(EntryWriter entryWriter, Properties props) {
+		if (!props.containsKey("writeBehind.enabled") || !StringHelper.toBoolean(props.getProperty("writeBehind.enabled"), false)) {
+			return null;
+		}
+
+		String[] objectClasses = StringHelper.split(props.getProperty("writeBehind.objectClasses", ""), ",");
+		if (objectClasses.length == 0) {
+			LOG.warn("Write-behind is enabled but property 'writeBehind.objectClasses' is empty");
+			return null;
+		}
+
+		long window = DEFAULT_WINDOW;
+		if (props.containsKey("writeBehind.window")) {
+			window = StringHelper.toLong(props.getProperty("writeBehind.window"), DEFAULT_WINDOW);
+		}
+
+		int maxPendingEntries = DEFAULT_MAX_PENDING_ENTRIES;
+		if (props.containsKey("writeBehind.maxPendingEntries")) {
+			maxPendingEntries = StringHelper.toInteger(props.getProperty("writeBehind.maxPendingEntries"), DEFAULT_MAX_PENDING_ENTRIES);
+		}
+
+		int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+		if (props.containsKey("writeBehind.maxAttempts")) {
+			maxAttempts = StringHelper.toInteger(props.getProperty("writeBehind.maxAttempts"), DEFAULT_MAX_ATTEMPTS);
+		}
+
+		LOG.info("Option writeBehind.window: " + window);
+		LOG.info("Option writeBehind.maxPendingEntries: " + maxPendingEntries);
+		LOG.info("Option writeBehind.maxAttempts: " + maxAttempts);
+		LOG.info("Option writeBehind.objectClasses: " + Arrays.toString(objectClasses));
+
+		return new WriteBehindService(entryWriter, window, maxPendingEntries, maxAttempts, objectClasses);
+	}
+
+	public boolean isSupportObjectClasses(String[] entryObjectClasses) {
+		for (String objectClass : entryObjectClasses) {
+			if (objectClasses.contains(objectClass.toLowerCase())) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Returns false if buffer is full. In this case caller should write entry synchronously.
+	 * Entry should be copy of state which caller can't change after enqueue
+	 */
+	public boolean enqueue(String dn, Object entry) {
+		String key = dn.toLowerCase();
+		while (true) {
+			// Replace state of already pending entry. Flush which writes previous state at same time
+			// will not remove new state
+			PendingWrite pendingWrite = pendingWrites.computeIfPresent(key, (k, existing) -> new PendingWrite(entry));
+			if (pendingWrite != null) {
+				requestedWrites.incrementAndGet();
+				return true;
+			}
+
+			if (pendingWrites.size() >= maxPendingEntries) {
+				rejectedWrites.incrementAndGet();
+				return false;
+			}
+
+			if (pendingWrites.putIfAbsent(key, new PendingWrite(entry)) == null) {
+				requestedWrites.incrementAndGet();
+				break;
+			}
+			// Other thread added entry concurrently. Try again
+		}
+
+		scheduleFlush(dn);
+
+		return true;
+	}
+
+	private void scheduleFlush(String dn) {
+		if (scheduler.isShutdown()) {
+			return;
+		}
+
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush(dn, true);
+				} catch (Exception ex) {
+					LOG.error("Failed to write pending entry '{}'", dn, ex);
+				}
+			}
+		}, window, TimeUnit.MILLISECONDS);
+	}
+
+	public boolean isPending(String dn) {
+		return pendingWrites.containsKey(dn.toLowerCase());
+	}
+
+	/*
+	 * Writes pending entry synchronously. Caller is blocked if write of this entry is in progress
+	 */
+	public void flush(String dn) {
+		flush(dn, false);
+	}
+
+	private void flush(String dn, boolean scheduled) {
+		String key = dn.toLowerCase();
+		synchronized (getWriteLock(key)) {
+			PendingWrite pendingWrite = pendingWrites.get(key);
+			if (pendingWrite == null) {
+				// Other thread wrote it already
+				return;
+			}
+
+			try {
+				entryWriter.write(pendingWrite.getEntry());
+				executedWrites.incrementAndGet();
+			} catch (RuntimeException ex) {
+				failedWrites.incrementAndGet();
+				if ((pendingWrite.incrementAttempts() >= maxAttempts) && pendingWrites.remove(key, pendingWrite)) {
+					droppedWrites.incrementAndGet();
+					LOG.error("Dropped pending entry '{}' after {} failed attempts", dn, maxAttempts);
+				} else if (scheduled) {
+					// Entry stays pending. Scheduled flush is only one which repeats write
+					scheduleFlush(dn);
+				}
+				throw ex;
+			}
+
+			if (!pendingWrites.remove(key, pendingWrite)) {
+				// Entry was merged again during write. Write new state in next window
+				scheduleFlush(dn);
+			}
+		}
+	}
+
+	private Object getWriteLock(String key) {
+		return writeLocks[(key.hashCode() & Integer.MAX_VALUE) % writeLocks.length];
+	}
+
+	public void flushAll() {
+		List<String> keys = new ArrayList<String>(pendingWrites.keySet());
+		for (String key : keys) {
+			try {
+				flush(key);
+			} catch (Exception ex) {
+				LOG.error("Failed to write pending entry '{}'", key, ex);
+			}
+		}
+	}
+
+	public void destroy() {
+		scheduler.shutdownNow();
+		flushAll();
+	}
+
+	public int getPendingCount() {
+		return pendingWrites.size();
+	}
+
+	public long getRequestedWrites() {
+		return requestedWrites.get();
+	}
+
+	public long getExecutedWrites() {
+		return executedWrites.get();
+	}
+
+	public long getRejectedWrites() {
+		return rejectedWrites.get();
+	}
+
+	public long getFailedWrites() {
+		return failedWrites.get();
+	}
+
+	public long getDroppedWrites() {
+		return droppedWrites.get();
+	}
+
+	/*
+	 * Number of requested merges per one executed write
+	 */
+	public double getCoalescingRatio() {
+		long executed = executedWrites.get();
+		if (executed == 0) {
+			return 0;
+		}
+
+		return (double) (requestedWrites.get() - pendingWrites.size()) / executed;
+	}
+
+	public interface EntryWriter {
+
+		void write(Object entry);
+
+	}
+
+	private static final class PendingWrite {
+
+		private final Object entry;
+		private int attempts;
+
+		private PendingWrite(Object entry) {
+			this.entry = entry;
+		}
+
+		public Object getEntry() {
+			return entry;
+		}
+
+		// Called under write lock of entry
+		public int incrementAttempts() {
+			return ++attempts;
+		}
+
+	}
+
+}
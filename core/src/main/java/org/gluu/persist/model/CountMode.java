@@ -0,0 +1,55 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gluu.persist.annotation.AttributeEnum;
+
+/**
+ * Defines how paged search calculates total entries count
+ */
+public enum CountMode implements AttributeEnum {
+
+    // Exact count on every request
+    EXACT("exact"),
+    // Exact count which is kept in short-lived cache by base DN, entry class and filter
+    CACHED("cached"),
+    // Estimation based on backend statistics. Backends without statistics calculate exact count
+    APPROXIMATE("approximate"),
+    // Total entries count is not calculated. Paged result has -1 total entries count
+    NONE("none");
+
+    private String value;
+
+    private static Map<String, CountMode> MAP_BY_VALUES = new HashMap<String, CountMode>();
+
+    static {
+        for (CountMode enumType : values()) {
+            MAP_BY_VALUES.put(enumType.getValue(), enumType);
+        }
+    }
+
+    CountMode(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public String getValue() {
+        return value;
+    }
+
+    public static CountMode getByValue(String value) {
+        return MAP_BY_VALUES.get(value);
+    }
+
+    @Override
+    public CountMode resolveByValue(String value) {
+        return getByValue(value);
+    }
+}
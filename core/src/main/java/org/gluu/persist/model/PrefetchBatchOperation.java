@@ -0,0 +1,51 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.model;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Batch operation which allows to load next pages while current page is processing.
+ * performAction is called from worker thread. If worker pool has more than one thread
+ * pages can be processed concurrently and in any order
+ *
+ * Pages are loaded by offset or cookie. Because of this performAction should not change
+ * entries in the way which affects next pages of search result
+ */
+public abstract class PrefetchBatchOperation<T> extends ProcessBatchOperation<T> {
+
+    public static final int DEFAULT_PREFETCH_DEPTH = 2;
+
+    private final int prefetchDepth;
+    private final ExecutorService workerPool;
+
+    public PrefetchBatchOperation() {
+        this(DEFAULT_PREFETCH_DEPTH, null);
+    }
+
+    public PrefetchBatchOperation(int prefetchDepth) {
+        this(prefetchDepth, null);
+    }
+
+    /*
+     * prefetchDepth is maximum number of loaded pages which are waiting for processing or in progress.
+     * If workerPool is null pages are processed one by one in dedicated thread
+     */
+    public PrefetchBatchOperation(int prefetchDepth, ExecutorService workerPool) {
+        this.prefetchDepth = prefetchDepth;
+        this.workerPool = workerPool;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public ExecutorService getWorkerPool() {
+        return workerPool;
+    }
+
+}
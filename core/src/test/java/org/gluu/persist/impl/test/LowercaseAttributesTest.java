@@ -0,0 +1,95 @@
+package org.gluu.persist.impl.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.gluu.persist.impl.LowercaseAttributes;
+import org.gluu.persist.model.AttributeData;
+import org.gluu.search.filter.Filter;
+import org.testng.annotations.Test;
+
+public class LowercaseAttributesTest {
+
+	private static final Function<String, String> RESOLVER = attributeName -> "mail".equalsIgnoreCase(attributeName) ? "mailLc" : null;
+
+	@Test
+	public void checkReplaceBackfilledAttribute() {
+		LowercaseAttributes lowercaseAttributes = new LowercaseAttributes(Arrays.asList("maillc"));
+		Filter filter = Filter.createEqualityFilter(Filter.createLowercaseFilter("mail"), "test@example.com");
+		String filterString = filter.toString();
+
+		Filter resultFilter = lowercaseAttributes.replaceLowercaseFilters(filter, RESOLVER);
+		assertEquals(resultFilter.toString(), "(mailLc=test@example.com)");
+
+		// Input filter is not modified
+		assertEquals(filter.toString(), filterString);
+	}
+
+	@Test
+	public void checkKeepLowercaseFilterBeforeBackfill() {
+		LowercaseAttributes lowercaseAttributes = LowercaseAttributes.create(new Properties());
+		Filter filter = Filter.createEqualityFilter(Filter.createLowercaseFilter("mail"), "test@example.com");
+
+		assertSame(lowercaseAttributes.replaceLowercaseFilters(filter, RESOLVER), filter);
+		assertFalse(lowercaseAttributes.isBackfilled("mailLc"));
+	}
+
+	@Test
+	public void checkReplaceNestedFilters() {
+		Properties props = new Properties();
+		props.setProperty("lowercaseAttributes.backfilled", "uidLc, mailLc");
+		LowercaseAttributes lowercaseAttributes = LowercaseAttributes.create(props);
+		assertTrue(lowercaseAttributes.isBackfilled("MAILLC"));
+
+		Filter uidFilter = Filter.createEqualityFilter("uid", "test");
+		Filter filter = Filter.createANDFilter(uidFilter,
+				Filter.createORFilter(Filter.createSubstringFilter(Filter.createLowercaseFilter("mail"), "test", null, null),
+						Filter.createEqualityFilter(Filter.createLowercaseFilter("displayName"), "test")));
+
+		Filter resultFilter = lowercaseAttributes.replaceLowercaseFilters(filter, RESOLVER);
+		assertSame(resultFilter.getFilters()[0], uidFilter);
+		assertEquals(resultFilter.getFilters()[1].getFilters()[0].toString(), "(mailLc=test*)");
+
+		// Attribute without lower case copy
+		assertSame(resultFilter.getFilters()[1].getFilters()[1], filter.getFilters()[1].getFilters()[1]);
+	}
+
+	@Test
+	public void checkKeepFilterWithoutLowercaseExpressions() {
+		LowercaseAttributes lowercaseAttributes = new LowercaseAttributes(Arrays.asList("mailLc"));
+		Filter filter = Filter.createANDFilter(Filter.createEqualityFilter("mail", "Test@example.com"), Filter.createPresenceFilter("uid"));
+
+		assertSame(lowercaseAttributes.replaceLowercaseFilters(filter, RESOLVER), filter);
+	}
+
+	@Test
+	public void checkLowercaseAttributeData() {
+		AttributeData attributeData = new AttributeData("mail", new String[] { "Test@Example.com", "OTHER@example.com" }, Boolean.TRUE);
+
+		AttributeData lowercaseAttributeData = LowercaseAttributes.getLowercaseAttributeData("mailLc", attributeData);
+		assertEquals(lowercaseAttributeData.getName(), "mailLc");
+		assertEquals(Arrays.asList(lowercaseAttributeData.getValues()), Arrays.asList("test@example.com", "other@example.com"));
+		assertEquals(lowercaseAttributeData.getValues().getClass(), String[].class);
+		assertEquals(lowercaseAttributeData.getMultiValued(), Boolean.TRUE);
+
+		// Source values are not modified
+		assertEquals(attributeData.getValues()[0], "Test@Example.com");
+	}
+
+	@Test
+	public void checkLowercaseAttributeDataWithoutStrings() {
+		AttributeData attributeData = new AttributeData("age", new Object[] { 23, null });
+
+		AttributeData lowercaseAttributeData = LowercaseAttributes.getLowercaseAttributeData("ageLc", attributeData);
+		assertEquals(Arrays.asList(lowercaseAttributeData.getValues()), Arrays.asList(23, null));
+		assertNull(LowercaseAttributes.getLowercaseAttributeData("ageLc", null));
+	}
+
+}
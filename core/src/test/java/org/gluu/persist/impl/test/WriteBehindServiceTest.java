@@ -0,0 +1,147 @@
+package org.gluu.persist.impl.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gluu.persist.impl.WriteBehindService;
+import org.testng.annotations.Test;
+
+public class WriteBehindServiceTest {
+
+	private static final String DN = "uid=test,ou=people,o=gluu";
+
+	// Big enough window to avoid scheduled flushes during test
+	private static final long WINDOW = 60000;
+
+	@Test
+	public void checkConcurrentFlushOfSameEntry() throws Exception {
+		final List<Object> writtenEntries = new CopyOnWriteArrayList<Object>();
+		final AtomicInteger activeWrites = new AtomicInteger();
+		final AtomicInteger maxActiveWrites = new AtomicInteger();
+		final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+		final CountDownLatch firstWriteRelease = new CountDownLatch(1);
+
+		WriteBehindService writeBehindService = new WriteBehindService(new WriteBehindService.EntryWriter() {
+			@Override
+			public void write(Object entry) {
+				int active = activeWrites.incrementAndGet();
+				maxActiveWrites.accumulateAndGet(active, Math::max);
+				try {
+					if ("v1".equals(entry)) {
+						firstWriteStarted.countDown();
+						firstWriteRelease.await(10, TimeUnit.SECONDS);
+					}
+					writtenEntries.add(entry);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} finally {
+					activeWrites.decrementAndGet();
+				}
+			}
+		}, WINDOW, 100, new String[] { "gluuPerson" });
+
+		try {
+			assertTrue(writeBehindService.enqueue(DN, "v1"));
+
+			Thread firstFlush = new Thread(() -> writeBehindService.flush(DN));
+			firstFlush.start();
+			assertTrue(firstWriteStarted.await(10, TimeUnit.SECONDS));
+
+			// New state arrives while previous state is being written
+			assertTrue(writeBehindService.enqueue(DN, "v2"));
+			assertTrue(writeBehindService.isPending(DN));
+
+			Thread secondFlush = new Thread(() -> writeBehindService.flush(DN));
+			secondFlush.start();
+			waitForBlocked(secondFlush);
+
+			firstWriteRelease.countDown();
+			firstFlush.join(10000);
+			secondFlush.join(10000);
+
+			assertEquals(writtenEntries, Arrays.asList("v1", "v2"));
+			assertEquals(maxActiveWrites.get(), 1);
+			assertFalse(writeBehindService.isPending(DN));
+			assertEquals(writeBehindService.getPendingCount(), 0);
+		} finally {
+			firstWriteRelease.countDown();
+			writeBehindService.destroy();
+		}
+	}
+
+	@Test
+	public void checkFailedWriteStaysPending() {
+		final AtomicInteger attempts = new AtomicInteger();
+		WriteBehindService writeBehindService = new WriteBehindService(new WriteBehindService.EntryWriter() {
+			@Override
+			public void write(Object entry) {
+				if (attempts.incrementAndGet() == 1) {
+					throw new IllegalStateException("Backend is unavailable");
+				}
+			}
+		}, WINDOW, 100, new String[] { "gluuPerson" });
+
+		try {
+			assertTrue(writeBehindService.enqueue(DN, "v1"));
+			try {
+				writeBehindService.flush(DN);
+				fail("Write should fail");
+			} catch (IllegalStateException ex) {
+				// Expected
+			}
+			assertTrue(writeBehindService.isPending(DN));
+
+			writeBehindService.flush(DN);
+			assertFalse(writeBehindService.isPending(DN));
+			assertEquals(writeBehindService.getFailedWrites(), 1);
+			assertEquals(writeBehindService.getExecutedWrites(), 1);
+		} finally {
+			writeBehindService.destroy();
+		}
+	}
+
+	@Test
+	public void checkFailedWriteIsDroppedAfterMaxAttempts() {
+		WriteBehindService writeBehindService = new WriteBehindService(new WriteBehindService.EntryWriter() {
+			@Override
+			public void write(Object entry) {
+				throw new IllegalStateException("Backend is unavailable");
+			}
+		}, WINDOW, 100, 2, new String[] { "gluuPerson" });
+
+		try {
+			assertTrue(writeBehindService.enqueue(DN, "v1"));
+			for (int i = 0; i < 2; i++) {
+				try {
+					writeBehindService.flush(DN);
+					fail("Write should fail");
+				} catch (IllegalStateException ex) {
+					// Expected
+				}
+			}
+
+			assertFalse(writeBehindService.isPending(DN));
+			assertEquals(writeBehindService.getFailedWrites(), 2);
+			assertEquals(writeBehindService.getDroppedWrites(), 1);
+		} finally {
+			writeBehindService.destroy();
+		}
+	}
+
+	private void waitForBlocked(Thread thread) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((thread.getState() != Thread.State.BLOCKED) && (System.currentTimeMillis() < deadline)) {
+			Thread.sleep(10);
+		}
+	}
+
+}
@@ -12,6 +12,7 @@ import com.couchbase.client.java.query.N1qlQueryRow;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.BatchOperation;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
 
@@ -59,4 +60,16 @@ public class CouchbaseBatchOperationWraper<T> {
         return couchbaseEntryManager.createEntities(entryClass, propertiesAnnotations, null, resultObjects);
     }
 
+    /*
+     * Returns null if batch operation should be processed synchronously
+     */
+    public BatchOperationPipeline<List<N1qlQueryRow>> createBatchOperationPipeline() {
+        return BatchOperationPipeline.create(batchOperation, new BatchOperationPipeline.PageProcessor<List<N1qlQueryRow>>() {
+            @Override
+            public void process(List<N1qlQueryRow> page) {
+                batchOperation.performAction(createEntities(page));
+            }
+        });
+    }
+
 }
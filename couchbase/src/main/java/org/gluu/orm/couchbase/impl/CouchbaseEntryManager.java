@@ -14,15 +14,20 @@ import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.inject.Inject;
 
+import org.gluu.orm.couchbase.model.BucketMapping;
 import org.gluu.orm.couchbase.model.ConvertedExpression;
 import org.gluu.orm.couchbase.model.SearchReturnDataType;
 import org.gluu.orm.couchbase.operation.CouchbaseOperationService;
@@ -33,14 +38,19 @@ import org.gluu.persist.event.DeleteNotifier;
 import org.gluu.persist.exception.AuthenticationException;
 import org.gluu.persist.exception.EntryDeleteException;
 import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.exception.EntryVersionConflictException;
 import org.gluu.persist.exception.MappingException;
+import org.gluu.persist.exception.operation.EntryNotFoundException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.impl.BaseEntryManager;
+import org.gluu.persist.impl.IndexAdvisor;
 import org.gluu.persist.impl.GenericKeyConverter;
 import org.gluu.persist.impl.model.ParsedKey;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.DefaultBatchOperation;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
@@ -89,10 +99,54 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
         subscribers = new LinkedList<DeleteNotifier>();
     }
 
+    @Override
+    public void initFilterOptimizer(Properties props) {
+    	super.initFilterOptimizer(props);
+    	FILTER_CONVERTER.setFilterOptimizer(filterOptimizer);
+    }
+
+    /*
+     * SEARCH() is added to substring filters only if FTS index of substringIndex attributes is configured
+     */
+    public void initSubstringSearch(Properties props) {
+    	String substringSearchIndex = props.getProperty("connection.substring-search-index");
+    	LOG.info("Option connection.substring-search-index: " + substringSearchIndex);
+
+    	FILTER_CONVERTER.setSubstringSearchIndex(substringSearchIndex);
+    }
+
+    @Override
+    protected IndexAdvisor.IndexDefinitionBuilder createIndexDefinitionBuilder(Properties props) {
+    	boolean keyRangeScope = StringHelper.toBoolean(props.getProperty("connection.enable-scope-support"), false);
+
+    	return new CouchbaseIndexDefinitionBuilder(keyRangeScope);
+    }
+
     @Override
     protected <T> Integer getExpirationValue(Object entry, Class<T> entryClass, boolean merge) {
         Integer value = super.getExpirationValue(entry, entryClass, merge);
 
+        return toAbsoluteExpiration(value);
+    }
+
+    /*
+     * Sub-document mutation without expiry removes document TTL. Keep current expiration if changes don't have new one
+     */
+    @Override
+    protected <T> Integer getExpirationValue(String primaryKey, Class<T> entryClass, Map<String, Object> changes) {
+        Integer value = super.getExpirationValue(primaryKey, entryClass, changes);
+        if ((value != null) || (getExpirationProperty(entryClass) == null)) {
+            return toAbsoluteExpiration(value);
+        }
+
+        try {
+            return getOperationService().getExpiration(toCouchbaseKey(primaryKey).getKey());
+        } catch (EntryNotFoundException ex) {
+            throw new EntryPersistenceException(String.format("Failed to update entry: %s", primaryKey), ex);
+        }
+    }
+
+    private Integer toAbsoluteExpiration(Integer value) {
         // if expiration is more then 30 days we must convert it to absolute Unit time stamp to avoid immediate expiration https://docs.couchbase.com/java-sdk/current/concept-docs/documents.html#setting-document-expiration
         if (value != null && value >= EXPIRATION_30_DAYS) {
             final int now = (int) (System.currentTimeMillis() / 1000);
@@ -108,6 +162,10 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
             return true;
         }
 
+        destroyWriteBehind();
+        destroyIndexAdvisor();
+        destroyNegativeLookupCache();
+
         return ((CouchbaseOperationService) this.operationService).destroy();
     }
 
@@ -137,23 +195,22 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
     }
 
     @Override
-    protected <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
+    protected void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
             List<AttributeDataModification> attributeDataModifications, boolean forceUpdate) {
         // Update object classes if entry contains custom object classes
         if (!isConfigurationUpdate) {
-            String[] objectClasses = getObjectClasses(entry, entryClass);
             if (ArrayHelper.isEmpty(objectClasses)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", baseDn));
             }
 
             AttributeData objectClassAttributeData = attributesFromDbMap.get(OBJECT_CLASS.toLowerCase());
             if (objectClassAttributeData == null) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
 
             String[] objectClassesFromDb = objectClassAttributeData.getStringValues();
             if (ArrayHelper.isEmpty(objectClassesFromDb)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
             
             // We need to check only first element of each array because objectCLass in Couchbase is single value attribute
@@ -227,7 +284,8 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
     }
 
     @Override
-    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue) {
+    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue,
+    		AttributeData expectedVersion) {
         // Update entry
         try {
             List<MutationSpec> modifications = new ArrayList<MutationSpec>(attributeDataModifications.size());
@@ -254,6 +312,8 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
                 MutationSpec modification = null;
                 if (AttributeModificationType.ADD.equals(attributeDataModification.getModificationType())) {
                     modification = createModification(Mutation.DICT_ADD, toInternalAttribute(attributeName), multiValued, attributeValues);
+                } else if (AttributeModificationType.FORCE_UPDATE.equals(attributeDataModification.getModificationType())) {
+                    modification = createModification(Mutation.DICT_UPSERT, toInternalAttribute(attributeName), multiValued, attributeValues);
                 } else {
                     if (AttributeModificationType.REMOVE.equals(attributeDataModification.getModificationType())) {
                         modification = createModification(Mutation.DELETE, toInternalAttribute(oldAttributeName), multiValued, oldAttributeValues);
@@ -268,11 +328,18 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
             }
 
             if (modifications.size() > 0) {
-                boolean result = getOperationService().updateEntry(toCouchbaseKey(dn).getKey(), modifications, expirationValue);
+                AttributeData expectedInternalVersion = null;
+                if (expectedVersion != null) {
+                	expectedInternalVersion = new AttributeData(toInternalAttribute(expectedVersion.getName()), expectedVersion.getValues());
+                }
+
+                boolean result = getOperationService().updateEntry(toCouchbaseKey(dn).getKey(), modifications, expirationValue, expectedInternalVersion);
                 if (!result) {
                     throw new EntryPersistenceException(String.format("Failed to update entry: %s", dn));
                 }
             }
+        } catch (VersionConflictException ex) {
+            throw new EntryVersionConflictException(String.format("Failed to update entry: %s", dn), ex);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to update entry: %s", dn), ex);
         }
@@ -309,6 +376,32 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
         }
     }
 
+    @Override
+    protected <T> Set<String> findExistingKeys(Class<T> entryClass, String[] objectClasses, List<String> primaryKeys) {
+        // Document key -> DNs
+        Map<String, List<String>> keys = new HashMap<String, List<String>>();
+        for (String primaryKey : primaryKeys) {
+            String key = toCouchbaseKey(primaryKey).getKey();
+            List<String> keyPrimaryKeys = keys.get(key);
+            if (keyPrimaryKeys == null) {
+                keyPrimaryKeys = new ArrayList<String>(1);
+                keys.put(key, keyPrimaryKeys);
+            }
+            keyPrimaryKeys.add(primaryKey);
+        }
+
+        Set<String> result = new HashSet<String>();
+        try {
+            for (String existingKey : getOperationService().findExistingKeys(keys.keySet())) {
+                result.addAll(keys.get(existingKey));
+            }
+        } catch (Exception ex) {
+            throw new EntryPersistenceException(String.format("Failed to find existing entries: '%s'", primaryKeys), ex);
+        }
+
+        return result;
+    }
+
     @Override
 	public <T> int remove(String dn, Class<T> entryClass, Filter filter, int count) {
 		if (StringHelper.isEmptyString(dn)) {
@@ -353,7 +446,7 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
 		}
         
         try {
-        	int processed = getOperationService().delete(keyWithInum.getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(), count);
+        	int processed = getOperationService().delete(keyWithInum.getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(), convertedExpression.queryParameters(), count);
         	
         	return processed;
         } catch (Exception ex) {
@@ -399,18 +492,35 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
 
     @Override
     public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
-            SortOrder sortOrder, int start, int count, int chunkSize) {
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
         if (StringHelper.isEmptyString(baseDN)) {
             throw new MappingException("Base DN to find entries is null");
         }
 
+        Integer cachedTotalCount = getCachedTotalCount(countMode, baseDN, entryClass, filter);
+
+        // N1QL has no row estimation for filtered queries. APPROXIMATE mode calculates exact count
+        SearchReturnDataType returnDataType;
+        if ((cachedTotalCount != null) || (CountMode.NONE == countMode)) {
+        	returnDataType = SearchReturnDataType.SEARCH;
+        } else {
+        	returnDataType = SearchReturnDataType.SEARCH_COUNT_COMBINED;
+        }
+
         PagedResult<JsonObject> searchResult = findEntriesImpl(baseDN, entryClass, filter, SearchScope.SUB, ldapReturnAttributes, sortBy, sortOrder,
-                null, SearchReturnDataType.SEARCH_COUNT, start, count, chunkSize);
+                null, returnDataType, start, count, chunkSize);
 
         PagedResult<T> result = new PagedResult<T>();
         result.setEntriesCount(searchResult.getEntriesCount());
         result.setStart(searchResult.getStart());
-        result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        if (cachedTotalCount != null) {
+        	result.setTotalEntriesCount(cachedTotalCount);
+        } else if (CountMode.NONE == countMode) {
+        	result.setTotalEntriesCount(-1);
+        } else {
+        	result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        	putCachedTotalCount(countMode, baseDN, entryClass, filter, searchResult.getTotalEntriesCount());
+        }
 
         if (searchResult.getEntriesCount() == 0) {
             result.setEntries(new ArrayList<T>(0));
@@ -480,7 +590,7 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
             if (batchOperation != null) {
                 batchOperationWraper = new CouchbaseBatchOperationWraper<T>(batchOperation, this, entryClass, propertiesAnnotations);
             }
-            searchResult = searchImpl(keyWithInum.getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(), scope, currentLdapReturnAttributes,
+            searchResult = searchImpl(keyWithInum.getKey(), searchFilter, getScanConsistency(convertedExpression), convertedExpression.expression(), convertedExpression.queryParameters(), scope, currentLdapReturnAttributes,
                     defaultSort, batchOperationWraper, returnDataType, start, count, chunkSize);
 
             if (searchResult == null) {
@@ -520,7 +630,7 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
         PagedResult<JsonObject> searchResult = null;
         try {
             ParsedKey keyWithInum = toCouchbaseKey(baseDN);
-            searchResult = searchImpl(keyWithInum.getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(), SearchScope.SUB, ldapReturnAttributes, null,
+            searchResult = searchImpl(keyWithInum.getKey(), searchFilter, getScanConsistency(convertedExpression), convertedExpression.expression(), convertedExpression.queryParameters(), SearchScope.SUB, ldapReturnAttributes, null,
                     null, SearchReturnDataType.SEARCH, 1, 1, 0);
             if (searchResult == null) {
                 throw new EntryPersistenceException(String.format("Failed to find entry with baseDN: %s, filter: %s", baseDN, searchFilter));
@@ -532,9 +642,16 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
         return (searchResult != null) && (searchResult.getEntriesCount() > 0);
     }
 
-	private <O> PagedResult<JsonObject> searchImpl(String key, ScanConsistency scanConsistency, Expression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
+	private <O> PagedResult<JsonObject> searchImpl(String key, Filter searchFilter, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, SearchScope scope, String[] attributes, Sort[] orderBy,
             CouchbaseBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
-		return getOperationService().search(key, scanConsistency, expression, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		long startTime = System.nanoTime();
+		PagedResult<JsonObject> searchResult = getOperationService().search(key, scanConsistency, expression, queryParameters, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		if (indexAdvisor != null) {
+			BucketMapping bucketMapping = getOperationService().getConnectionProvider().getBucketMappingByKey(key);
+			recordFilterShape(bucketMapping == null ? key : bucketMapping.getBucketName(), searchFilter, startTime);
+		}
+
+		return searchResult;
 	}
 
     protected <T> List<T> createEntities(String baseDN, Class<T> entryClass, PagedResult<JsonObject> searchResult) {
@@ -658,7 +775,7 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
 		}
 
 		try {
-            PagedResult<JsonObject> searchResult = searchImpl(toCouchbaseKey(baseDN).getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(),
+            PagedResult<JsonObject> searchResult = searchImpl(toCouchbaseKey(baseDN).getKey(), searchFilter, getScanConsistency(convertedExpression), convertedExpression.expression(), convertedExpression.queryParameters(),
                     SearchScope.SUB, CouchbaseOperationService.UID_ARRAY, null, null, SearchReturnDataType.SEARCH, 0, 1, 1);
             if ((searchResult == null) || (searchResult.getEntriesCount() != 1)) {
                 return false;
@@ -725,7 +842,7 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
 
         PagedResult<JsonObject> searchResult;
         try {
-            searchResult = searchImpl(toCouchbaseKey(baseDN).getKey(), getScanConsistency(convertedExpression), convertedExpression.expression(), scope, null, null,
+            searchResult = searchImpl(toCouchbaseKey(baseDN).getKey(), searchFilter, getScanConsistency(convertedExpression), convertedExpression.expression(), convertedExpression.queryParameters(), scope, null, null,
                     null, SearchReturnDataType.COUNT, 0, 0, 0);
         } catch (Exception ex) {
             throw new EntryPersistenceException(
@@ -745,7 +862,9 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
 
         escapeValues(realValues);
         
-        if ((multiValued == null) || !multiValued) {
+        if (ArrayHelper.isEmpty(realValues)) {
+            return new MutationSpec(type, realAttributeName, null);
+        } else if ((multiValued == null) || !multiValued) {
             return new MutationSpec(type, realAttributeName, realValues[0]);
         } else {
             return new MutationSpec(type, realAttributeName, realValues);
@@ -802,11 +921,17 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
     }
 
     private ConvertedExpression toCouchbaseFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
-        return FILTER_CONVERTER.convertToCouchbaseFilter(genericFilter, propertiesAnnotationsMap);
+        return toCouchbaseFilter(genericFilter, propertiesAnnotationsMap, null);
     }
 
     private ConvertedExpression toCouchbaseFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor) throws SearchException {
-        return FILTER_CONVERTER.convertToCouchbaseFilter(genericFilter, propertiesAnnotationsMap, processor);
+    	// Use named parameters to allow reuse prepared statements
+    	JsonObject queryParameters = null;
+    	if (getOperationService().isUsePreparedStatements()) {
+    		queryParameters = JsonObject.create();
+    	}
+
+        return FILTER_CONVERTER.convertToCouchbaseFilter(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap), propertiesAnnotationsMap, processor, queryParameters);
     }
 
     private ParsedKey toCouchbaseKey(String dn) {
@@ -943,6 +1068,15 @@ public class CouchbaseEntryManager extends BaseEntryManager implements Serializa
     	return super.convertJsonToValue(parameterType, jsonStringPropertyValue);
 	}
 
+    @Override
+	protected <T> Filter[] createPartitionFilters(String baseDN, Class<T> entryClass, int parallelism) {
+		// Entry keys under base DN start with base key and '_'
+		String baseKey = toCouchbaseKey(baseDN).getKey();
+		String keyPrefix = "_".equals(baseKey) ? "" : baseKey + "_";
+
+		return createKeyRangeFilters("META().id", keyPrefix, KEY_RANGE_ALPHABET, parallelism);
+	}
+
     @Override
 	protected Object getNativeDateAttributeValue(Date dateValue) {
 		return encodeTime(dateValue);
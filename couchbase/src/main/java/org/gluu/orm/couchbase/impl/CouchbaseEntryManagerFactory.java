@@ -6,6 +6,9 @@
 
 package org.gluu.orm.couchbase.impl;
 
+import com.couchbase.client.core.env.QueryServiceConfig;
+import com.couchbase.client.core.retry.BestEffortRetryStrategy;
+import com.couchbase.client.core.retry.FailFastRetryStrategy;
 import com.couchbase.client.java.env.CouchbaseEnvironment;
 import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
 
@@ -30,6 +33,20 @@ import java.util.Properties;
 /**
  * Couchbase Entry Manager Factory
  *
+ * Supported environment tuning properties. If property is not specified Couchbase client default is used:
+ * <ul>
+ * <li>connection.kv-endpoints - number of KV connections per node (default: 1)</li>
+ * <li>connection.query-endpoints - number of query connections per node (default: dynamic pool from 0 to 12)</li>
+ * <li>connection.io-pool-size - number of IO threads (default: number of processors)</li>
+ * <li>connection.computation-pool-size - number of computation threads (default: number of processors)</li>
+ * <li>connection.request-buffer-size - size of request ring buffer, power of 2 (default: 16384)</li>
+ * <li>connection.compression-enabled - Snappy compression of KV documents (default: true)</li>
+ * <li>connection.compression-min-size - minimum document size in bytes to compress (default: 32)</li>
+ * <li>connection.kv-timeout - KV operations timeout in milliseconds (default: 2500)</li>
+ * <li>connection.query-timeout - N1QL queries timeout in milliseconds (default: 75000)</li>
+ * <li>connection.retry-strategy - best-effort or fail-fast (default: best-effort)</li>
+ * </ul>
+ *
  * @author Yuriy Movchan Date: 05/31/2018
  */
 @ApplicationScoped
@@ -102,6 +119,74 @@ public class CouchbaseEntryManagerFactory extends Initializable implements Persi
         	LOG.info("Configuring builder to override computationPoolSize from properties");
         }
 
+        String kvEndpointsString = couchbaseConnectionProperties.getProperty("connection.kv-endpoints");
+        if (StringHelper.isNotEmpty(kvEndpointsString)) {
+        	int kvEndpoints = Integer.valueOf(kvEndpointsString);
+        	builder.kvEndpoints(kvEndpoints);
+        	LOG.info("Configuring builder to override kvEndpoints from properties");
+        }
+
+        String queryEndpointsString = couchbaseConnectionProperties.getProperty("connection.query-endpoints");
+        if (StringHelper.isNotEmpty(queryEndpointsString)) {
+        	int queryEndpoints = Integer.valueOf(queryEndpointsString);
+        	builder.queryServiceConfig(QueryServiceConfig.create(queryEndpoints, queryEndpoints));
+        	LOG.info("Configuring builder to override queryEndpoints from properties");
+        }
+
+        String ioPoolSizeString = couchbaseConnectionProperties.getProperty("connection.io-pool-size");
+        if (StringHelper.isNotEmpty(ioPoolSizeString)) {
+        	int ioPoolSize = Integer.valueOf(ioPoolSizeString);
+        	builder.ioPoolSize(ioPoolSize);
+        	LOG.info("Configuring builder to override ioPoolSize from properties");
+        }
+
+        String requestBufferSizeString = couchbaseConnectionProperties.getProperty("connection.request-buffer-size");
+        if (StringHelper.isNotEmpty(requestBufferSizeString)) {
+        	int requestBufferSize = Integer.valueOf(requestBufferSizeString);
+        	builder.requestBufferSize(requestBufferSize);
+        	LOG.info("Configuring builder to override requestBufferSize from properties");
+        }
+
+        String compressionEnabledString = couchbaseConnectionProperties.getProperty("connection.compression-enabled");
+        if (StringHelper.isNotEmpty(compressionEnabledString)) {
+        	boolean compressionEnabled = Boolean.valueOf(compressionEnabledString);
+        	builder.compressionEnabled(compressionEnabled);
+        	LOG.info("Configuring builder to override compressionEnabled from properties");
+        }
+
+        String compressionMinSizeString = couchbaseConnectionProperties.getProperty("connection.compression-min-size");
+        if (StringHelper.isNotEmpty(compressionMinSizeString)) {
+        	int compressionMinSize = Integer.valueOf(compressionMinSizeString);
+        	builder.compressionMinSize(compressionMinSize);
+        	LOG.info("Configuring builder to override compressionMinSize from properties");
+        }
+
+        String kvTimeoutString = couchbaseConnectionProperties.getProperty("connection.kv-timeout");
+        if (StringHelper.isNotEmpty(kvTimeoutString)) {
+        	long kvTimeout = Long.valueOf(kvTimeoutString);
+        	builder.kvTimeout(kvTimeout);
+        	LOG.info("Configuring builder to override kvTimeout from properties");
+        }
+
+        String queryTimeoutString = couchbaseConnectionProperties.getProperty("connection.query-timeout");
+        if (StringHelper.isNotEmpty(queryTimeoutString)) {
+        	long queryTimeout = Long.valueOf(queryTimeoutString);
+        	builder.queryTimeout(queryTimeout);
+        	LOG.info("Configuring builder to override queryTimeout from properties");
+        }
+
+        String retryStrategyString = couchbaseConnectionProperties.getProperty("connection.retry-strategy");
+        if (StringHelper.isNotEmpty(retryStrategyString)) {
+        	if (StringHelper.equalsIgnoreCase("fail-fast", retryStrategyString)) {
+        		builder.retryStrategy(FailFastRetryStrategy.INSTANCE);
+        	} else if (StringHelper.equalsIgnoreCase("best-effort", retryStrategyString)) {
+        		builder.retryStrategy(BestEffortRetryStrategy.INSTANCE);
+        	} else {
+        		throw new ConfigurationException(String.format("Unsupported retry strategy '%s'", retryStrategyString));
+        	}
+        	LOG.info("Configuring builder to override retryStrategy from properties");
+        }
+
         String keepAliveTimeoutString = couchbaseConnectionProperties.getProperty("connection.keep-alive-timeout");
         if (StringHelper.isNotEmpty(keepAliveTimeoutString)) {
         	long keepAliveTimeout = Integer.valueOf(keepAliveTimeoutString);
@@ -117,6 +202,7 @@ public class CouchbaseEntryManagerFactory extends Initializable implements Persi
         }
 
         this.couchbaseEnvironment = builder.build();
+        LOG.info("Couchbase environment effective configuration: {}", couchbaseEnvironment);
 
         this.builder = null;
 	}
@@ -165,6 +251,13 @@ public class CouchbaseEntryManagerFactory extends Initializable implements Persi
         LOG.debug("Created connectionProvider '{}' with code '{}'", connectionProvider, connectionProvider.getCreationResultCode());
 
         CouchbaseEntryManager couchbaseEntryManager = new CouchbaseEntryManager(new CouchbaseOperationServiceImpl(entryManagerConf, connectionProvider));
+        couchbaseEntryManager.initWriteBehind(entryManagerConf);
+        couchbaseEntryManager.initTotalCountCache(entryManagerConf);
+        couchbaseEntryManager.initFilterOptimizer(entryManagerConf);
+        couchbaseEntryManager.initSubstringSearch(entryManagerConf);
+        couchbaseEntryManager.initIndexAdvisor(entryManagerConf);
+        couchbaseEntryManager.initNegativeLookupCache(entryManagerConf);
+        couchbaseEntryManager.initLowercaseAttributes(entryManagerConf);
         LOG.info("Created CouchbaseEntryManager: {}", couchbaseEntryManager.getOperationService());
 
         return couchbaseEntryManager;
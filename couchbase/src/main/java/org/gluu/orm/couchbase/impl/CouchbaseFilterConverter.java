@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.function.Function;
 
 import org.gluu.orm.couchbase.model.ConvertedExpression;
+import org.gluu.orm.couchbase.operation.CouchbaseOperationService;
 import org.gluu.persist.annotation.AttributeEnum;
 import org.gluu.persist.annotation.AttributeName;
 import org.gluu.persist.exception.operation.SearchException;
@@ -19,6 +20,7 @@ import org.gluu.persist.ldap.impl.LdapFilterConverter;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
 import org.gluu.persist.reflect.util.ReflectHelper;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.gluu.search.filter.FilterType;
 import org.gluu.orm.util.ArrayHelper;
 import org.gluu.orm.util.Pair;
@@ -27,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.query.dsl.Expression;
 import com.couchbase.client.java.query.dsl.functions.Collections;
 import com.couchbase.client.java.query.dsl.functions.Collections.SatisfiesBuilder;
@@ -45,15 +48,48 @@ public class CouchbaseFilterConverter {
 
 	private CouchbaseEntryManager couchbaseEntryManager;
 
+	private FilterOptimizer filterOptimizer;
+
+	private String substringSearchIndex;
+
     public CouchbaseFilterConverter(CouchbaseEntryManager couchbaseEntryManager) {
     	this.couchbaseEntryManager = couchbaseEntryManager;
 	}
 
+	public void setFilterOptimizer(FilterOptimizer filterOptimizer) {
+		this.filterOptimizer = filterOptimizer;
+	}
+
+	/*
+	 * Name of FTS index of attributes with @AttributeName(substringIndex = true). SEARCH() is not used without it
+	 */
+	public void setSubstringSearchIndex(String substringSearchIndex) {
+		this.substringSearchIndex = substringSearchIndex;
+	}
+
 	public ConvertedExpression convertToCouchbaseFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
     	return convertToCouchbaseFilter(genericFilter, propertiesAnnotationsMap, null);
     }
 
     public ConvertedExpression convertToCouchbaseFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor) throws SearchException {
+    	return convertToCouchbaseFilter(genericFilter, propertiesAnnotationsMap, processor, null);
+    }
+
+    /*
+     * If queryParameters is not null values are added to it as named parameters instead of inlining them into expression.
+     * This allows to reuse prepared statement for all queries with same shape
+     */
+    public ConvertedExpression convertToCouchbaseFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor,
+    		JsonObject queryParameters) throws SearchException {
+    	Filter optimizedFilter = filterOptimizer == null ? genericFilter : filterOptimizer.optimize(genericFilter);
+    	ConvertedExpression convertedExpression = convertToCouchbaseFilterImpl(optimizedFilter, propertiesAnnotationsMap, processor, queryParameters);
+    	convertedExpression.queryParameters(queryParameters);
+
+    	return convertedExpression;
+    }
+
+    private ConvertedExpression convertToCouchbaseFilterImpl(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor,
+    		JsonObject queryParameters) throws SearchException {
         Filter currentGenericFilter = genericFilter;
 
         FilterType type = currentGenericFilter.getType();
@@ -79,7 +115,7 @@ public class CouchbaseFilterConverter {
             	String joinOrAttributeName = null;
                 for (int i = 0; i < genericFilters.length; i++) {
                 	Filter tmpFilter = genericFilters[i];
-                    expFilters[i] = convertToCouchbaseFilter(tmpFilter, propertiesAnnotationsMap, processor);
+                    expFilters[i] = convertToCouchbaseFilterImpl(tmpFilter, propertiesAnnotationsMap, processor, queryParameters);
 
                     // Check if we can replace OR with IN
                 	if (!canJoinOrFilters) {
@@ -141,7 +177,7 @@ public class CouchbaseFilterConverter {
             			}
 
                 		Expression exp = Expression
-                                .par(buildPath(lastEqFilter, propertiesAnnotationsMap, processor).getFirst().in(jsonArrayValues));
+                                .par(buildPath(lastEqFilter, propertiesAnnotationsMap, processor, queryParameters).getFirst().in(buildValueExpression(jsonArrayValues, queryParameters)));
                         return ConvertedExpression.build(exp, requiredConsistency);
                 	} else {
 	                    Expression result = expFilters[0].expression();
@@ -160,54 +196,54 @@ public class CouchbaseFilterConverter {
         	Boolean isMultiValuedDetected = determineMultiValuedByType(currentGenericFilter.getAttributeName(), propertiesAnnotationsMap);
 
         	String internalAttribute = toInternalAttribute(currentGenericFilter);
-			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor);
+			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor, queryParameters);
     		if (Boolean.TRUE.equals(currentGenericFilter.getMultiValued()) || Boolean.TRUE.equals(isMultiValuedDetected)) {
             	return ConvertedExpression.build(
             			Collections.anyIn(internalAttribute + "_", pairExpression.getFirst()).
-            			satisfies(pairExpression.getSecond().eq(buildTypedExpression(currentGenericFilter))),
+            			satisfies(pairExpression.getSecond().eq(buildTypedExpression(currentGenericFilter, queryParameters))),
             			requiredConsistency);
             } else if (Boolean.FALSE.equals(currentGenericFilter.getMultiValued()) || Boolean.FALSE.equals(isMultiValuedDetected) ||
             			(hasSubFilters && (isMultiValuedDetected == null))) {
-            	return ConvertedExpression.build(pairExpression.getSecond().eq(buildTypedExpression(currentGenericFilter)), requiredConsistency);
+            	return ConvertedExpression.build(pairExpression.getSecond().eq(buildTypedExpression(currentGenericFilter, queryParameters)), requiredConsistency);
             } else {
             	Expression nameExpression = pairExpression.getSecond();
                 Expression exp1 = Expression
-                        .par(Expression.path(nameExpression).eq(buildTypedExpression(currentGenericFilter)));
+                        .par(Expression.path(nameExpression).eq(buildTypedExpression(currentGenericFilter, queryParameters)));
                 Expression exp2 = Expression
-                        .par(Expression.path(buildTypedExpression(currentGenericFilter)).in(nameExpression));
+                        .par(Expression.path(buildTypedExpression(currentGenericFilter, queryParameters)).in(nameExpression));
                 return ConvertedExpression.build(Expression.par(exp1.or(exp2)), requiredConsistency);
             }
         }
 
         if (FilterType.LESS_OR_EQUAL == type) {
         	String internalAttribute = toInternalAttribute(currentGenericFilter);
-			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor);
+			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor, queryParameters);
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
             	return ConvertedExpression.build(
             			Collections.anyIn(internalAttribute + "_", pairExpression.getFirst()).
-            			satisfies(pairExpression.getSecond().lte(buildTypedExpression(currentGenericFilter))),
+            			satisfies(pairExpression.getSecond().lte(buildTypedExpression(currentGenericFilter, queryParameters))),
             			requiredConsistency);
             } else {
-            	return ConvertedExpression.build(pairExpression.getSecond().lte(buildTypedExpression(currentGenericFilter)), requiredConsistency);
+            	return ConvertedExpression.build(pairExpression.getSecond().lte(buildTypedExpression(currentGenericFilter, queryParameters)), requiredConsistency);
             }
         }
 
         if (FilterType.GREATER_OR_EQUAL == type) {
         	String internalAttribute = toInternalAttribute(currentGenericFilter);
-			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor);
+			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor, queryParameters);
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
             	return ConvertedExpression.build(
             			Collections.anyIn(internalAttribute + "_", pairExpression.getFirst()).
-            			satisfies(pairExpression.getSecond().gte(buildTypedExpression(currentGenericFilter))),
+            			satisfies(pairExpression.getSecond().gte(buildTypedExpression(currentGenericFilter, queryParameters))),
             			requiredConsistency);
             } else {
-            	return ConvertedExpression.build(pairExpression.getSecond().gte(buildTypedExpression(currentGenericFilter)), requiredConsistency);
+            	return ConvertedExpression.build(pairExpression.getSecond().gte(buildTypedExpression(currentGenericFilter, queryParameters)), requiredConsistency);
             }
         }
 
         if (FilterType.PRESENCE == type) {
         	String internalAttribute = toInternalAttribute(currentGenericFilter);
-			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor);
+			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor, queryParameters);
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
             	return ConvertedExpression.build(
             			Collections.anyIn(internalAttribute + "_", pairExpression.getFirst()).
@@ -241,14 +277,23 @@ public class CouchbaseFilterConverter {
                 like.append(currentGenericFilter.getSubFinal());
             }
         	String internalAttribute = toInternalAttribute(currentGenericFilter);
-			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor);
+			Pair<Expression, Expression> pairExpression = buildPath(currentGenericFilter, propertiesAnnotationsMap, processor, queryParameters);
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
             	return ConvertedExpression.build(
             			Collections.anyIn(internalAttribute + "_", pairExpression.getFirst()).
-            			satisfies(pairExpression.getSecond().like(Expression.s(escapeValue(like.toString())))),
+            			satisfies(pairExpression.getSecond().like(buildValueExpression(like.toString(), queryParameters))),
             			requiredConsistency);
             } else {
-            	return ConvertedExpression.build(pairExpression.getSecond().like(Expression.s(escapeValue(like.toString()))), requiredConsistency);
+            	Expression expression = pairExpression.getSecond().like(buildValueExpression(like.toString(), queryParameters));
+            	if (StringHelper.isNotEmpty(substringSearchIndex) && isSubstringIndex(currentGenericFilter, propertiesAnnotationsMap)) {
+            		// FTS index narrows down documents, LIKE keeps exact substring semantic. SEARCH() needs path qualified with keyspace alias
+            		Expression searchExpression = Expression.x("SEARCH(" + Expression.path(CouchbaseOperationService.DOC_ALIAS, internalAttribute).toString() + ", "
+            				+ buildValueExpression(buildSearchWildcardQuery(currentGenericFilter), queryParameters).toString() + ", "
+            				+ JsonObject.create().put("index", substringSearchIndex).toString() + ")");
+            		expression = Expression.par(searchExpression.and(expression));
+            	}
+
+            	return ConvertedExpression.build(expression, requiredConsistency);
             }
         }
 
@@ -292,7 +337,16 @@ public class CouchbaseFilterConverter {
 		return couchbaseEntryManager.toInternalAttribute(attributeName);
 	}
 
-	private Expression buildTypedExpression(Filter currentGenericFilter) {
+	private Expression buildTypedExpression(Filter currentGenericFilter, JsonObject queryParameters) {
+		Object assertionValue = currentGenericFilter.getAssertionValue();
+		if ((queryParameters != null) && (assertionValue != null)) {
+			if ((assertionValue instanceof Boolean) || (assertionValue instanceof Integer) || (assertionValue instanceof Long)) {
+				return addQueryParameter(assertionValue, queryParameters);
+			}
+
+			return addQueryParameter(assertionValue.toString(), queryParameters);
+		}
+
 		if (currentGenericFilter.getAssertionValue() instanceof Boolean) {
 			return Expression.x((Boolean) currentGenericFilter.getAssertionValue());
 		} else if (currentGenericFilter.getAssertionValue() instanceof Integer) {
@@ -304,7 +358,31 @@ public class CouchbaseFilterConverter {
 		return Expression.s(escapeValue(currentGenericFilter.getAssertionValue()));
 	}
 
-	private Pair<Expression, Expression> buildPath(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor) throws SearchException {
+	private Expression buildValueExpression(String value, JsonObject queryParameters) {
+		if (queryParameters == null) {
+			return Expression.s(escapeValue(value));
+		}
+
+		return addQueryParameter(value, queryParameters);
+	}
+
+	private Expression buildValueExpression(JsonArray values, JsonObject queryParameters) {
+		if (queryParameters == null) {
+			return Expression.x(values);
+		}
+
+		return addQueryParameter(values, queryParameters);
+	}
+
+	private Expression addQueryParameter(Object value, JsonObject queryParameters) {
+		String parameterName = "p" + (queryParameters.size() + 1);
+		queryParameters.put(parameterName, value);
+
+		return Expression.x("$" + parameterName);
+	}
+
+	private Pair<Expression, Expression> buildPath(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor,
+			JsonObject queryParameters) throws SearchException {
 		boolean hasSubFilters = ArrayHelper.isNotEmpty(genericFilter.getFilters());
 		boolean isMultiValue = isMultiValue(genericFilter, propertiesAnnotationsMap);
 		String internalAttribute = toInternalAttribute(genericFilter);
@@ -318,13 +396,13 @@ public class CouchbaseFilterConverter {
 	    		Filter clonedFilter = genericFilter.getFilters()[0].clone();
 	    		clonedFilter.setAttributeName(internalAttribute + "_");
 	
-	    		innerExpression = convertToCouchbaseFilter(clonedFilter, propertiesAnnotationsMap, processor).expression();
+	    		innerExpression = convertToCouchbaseFilterImpl(clonedFilter, propertiesAnnotationsMap, processor, queryParameters).expression();
 			} else {
 				innerExpression = Expression.path(Expression.path(internalAttribute + "_"));
 			}
 		} else {
 			if (hasSubFilters) {
-				innerExpression = convertToCouchbaseFilter(genericFilter.getFilters()[0], propertiesAnnotationsMap, processor).expression();
+				innerExpression = convertToCouchbaseFilterImpl(genericFilter.getFilters()[0], propertiesAnnotationsMap, processor, queryParameters).expression();
 			} else {
 				innerExpression = Expression.path(Expression.path(internalAttribute));
 			}
@@ -374,6 +452,58 @@ public class CouchbaseFilterConverter {
 		return false;
 	}
 
+	/*
+	 * Query string wildcard query. It expects FTS index with keyword analyzer for attribute
+	 */
+	private String buildSearchWildcardQuery(Filter filter) {
+		StringBuilder query = new StringBuilder();
+		if (filter.getSubInitial() != null) {
+			query.append(escapeSearchQueryString(filter.getSubInitial()));
+		}
+		query.append('*');
+
+		String[] subAny = filter.getSubAny();
+		if (subAny != null) {
+			for (String any : subAny) {
+				query.append(escapeSearchQueryString(any)).append('*');
+			}
+		}
+
+		if (filter.getSubFinal() != null) {
+			query.append(escapeSearchQueryString(filter.getSubFinal()));
+		}
+
+		return query.toString();
+	}
+
+	private String escapeSearchQueryString(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for (char ch : value.toCharArray()) {
+			if ("+-=&|><!(){}[]^\"~*?:\\/ ".indexOf(ch) != -1) {
+				result.append('\\');
+			}
+			result.append(ch);
+		}
+
+		return result.toString();
+	}
+
+	private boolean isSubstringIndex(Filter filter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if ((propertiesAnnotationsMap == null) || (filter.getAttributeName() == null)) {
+			return false;
+		}
+
+		PropertyAnnotation propertyAnnotation = propertiesAnnotationsMap.get(filter.getAttributeName());
+		if (propertyAnnotation == null) {
+			return false;
+		}
+
+		AttributeName attributeNameAnnotation = (AttributeName) ReflectHelper.getAnnotationByType(propertyAnnotation.getAnnotations(),
+				AttributeName.class);
+
+		return (attributeNameAnnotation != null) && attributeNameAnnotation.substringIndex();
+	}
+
 	public static String escapeValue(Object str) {
 		String result = StringHelper.escapeJson(str);
 		
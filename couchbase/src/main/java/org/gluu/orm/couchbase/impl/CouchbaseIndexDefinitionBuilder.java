@@ -0,0 +1,104 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.orm.couchbase.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.gluu.orm.couchbase.operation.CouchbaseOperationService;
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.IndexAdvisor.FilterShape;
+
+/**
+ * Builds Couchbase GSI definitions for index advisor. Index keys are followed by other attributes
+ * of filter to allow query service to evaluate whole predicate with index only. If scope support
+ * is enabled searches have META().id range predicate and it follows equality keys in index
+ */
+public class CouchbaseIndexDefinitionBuilder implements IndexAdvisor.IndexDefinitionBuilder {
+
+	private final boolean keyRangeScope;
+
+	public CouchbaseIndexDefinitionBuilder() {
+		this(false);
+	}
+
+	public CouchbaseIndexDefinitionBuilder(boolean keyRangeScope) {
+		this.keyRangeScope = keyRangeScope;
+	}
+
+	@Override
+	public List<String> buildIndexDefinitions(FilterShape filterShape) {
+		String bucketName = filterShape.getContainer();
+
+		List<String> result = new ArrayList<String>();
+		// objectClass is not selective. It's covering field only
+		for (List<String> indexKey : filterShape.getIndexKeys(Collections.singleton(StringHelper.toLowerCase(CouchbaseOperationService.OBJECT_CLASS)))) {
+			List<String> keyParts = new ArrayList<String>();
+			List<String> names = new ArrayList<String>();
+			for (String attributeName : indexKey) {
+				keyParts.add(buildKeyPart(filterShape, attributeName));
+				names.add(attributeName);
+			}
+			if (keyRangeScope) {
+				keyParts.add("META().id");
+			}
+
+			// Covering fields
+			for (String attributeName : filterShape.getAttributes()) {
+				if (!indexKey.contains(attributeName) && !filterShape.isMultiValued(attributeName)) {
+					keyParts.add(buildKeyPart(filterShape, attributeName));
+				}
+			}
+
+			result.add(String.format("CREATE INDEX %s ON %s(%s) USING GSI;", quote(buildIndexName(bucketName, names)), quote(bucketName),
+					String.join(", ", keyParts)));
+		}
+
+		// Array index per multi-valued attribute
+		for (String attributeName : filterShape.getAttributes()) {
+			if (filterShape.isMultiValued(attributeName)) {
+				String value = filterShape.isLowercase(attributeName) ? "LOWER(v)" : "v";
+				result.add(String.format("CREATE INDEX %s ON %s(DISTINCT ARRAY %s FOR v IN %s END) USING GSI;", quote(buildIndexName(bucketName, Collections.singletonList(attributeName))),
+						quote(bucketName), value, quote(attributeName)));
+			}
+		}
+
+		// FTS indexes are defined with Search service REST API
+		for (String attributeName : filterShape.getSubstringAttributes()) {
+			if (!filterShape.isMultiValued(attributeName)) {
+				result.add(String.format("-- Substring search by %s of %s needs FTS index with keyword analyzer, @AttributeName(substringIndex = true) and connection.substring-search-index",
+						attributeName, bucketName));
+			}
+		}
+
+		return result;
+	}
+
+	private String buildKeyPart(FilterShape filterShape, String attributeName) {
+		if (filterShape.isLowercase(attributeName)) {
+			return "LOWER(" + quote(attributeName) + ")";
+		}
+
+		return quote(attributeName);
+	}
+
+	private String buildIndexName(String bucketName, List<String> attributeNames) {
+		StringBuilder indexName = new StringBuilder("def_").append(bucketName);
+		for (String attributeName : attributeNames) {
+			indexName.append("_").append(attributeName);
+		}
+
+		return indexName.toString();
+	}
+
+	private String quote(String name) {
+		return "`" + name + "`";
+	}
+
+}
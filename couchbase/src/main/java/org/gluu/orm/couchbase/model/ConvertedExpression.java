@@ -6,6 +6,7 @@
 
 package org.gluu.orm.couchbase.model;
 
+import com.couchbase.client.java.document.json.JsonObject;
 import com.couchbase.client.java.query.dsl.Expression;
 
 /**
@@ -17,6 +18,7 @@ public class ConvertedExpression {
 	
 	private Expression expression;
 	private boolean consistency;
+	private JsonObject queryParameters;
 
 	private ConvertedExpression(Expression expression) {
 		this.expression = expression;
@@ -43,9 +45,17 @@ public class ConvertedExpression {
 		this.consistency = consistency;
 	}
 
+	public JsonObject queryParameters() {
+		return queryParameters;
+	}
+
+	public void queryParameters(JsonObject queryParameters) {
+		this.queryParameters = queryParameters;
+	}
+
 	@Override
 	public String toString() {
-		return "ConvertedExpression [expression=" + expression + ", consistency=" + consistency + "]";
+		return "ConvertedExpression [expression=" + expression + ", consistency=" + consistency + ", queryParameters=" + queryParameters + "]";
 	}
 
 }
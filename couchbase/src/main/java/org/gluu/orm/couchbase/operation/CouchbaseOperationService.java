@@ -6,7 +6,9 @@
 
 package org.gluu.orm.couchbase.operation;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import org.gluu.orm.couchbase.impl.CouchbaseBatchOperationWraper;
 import org.gluu.orm.couchbase.model.SearchReturnDataType;
@@ -16,6 +18,7 @@ import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.exception.operation.EntryNotFoundException;
 import org.gluu.persist.exception.operation.PersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.operation.PersistenceOperationService;
@@ -34,6 +37,7 @@ import com.couchbase.client.java.subdoc.MutationSpec;
 public interface CouchbaseOperationService extends PersistenceOperationService {
 
     static String DN = "dn";
+    static String DOC_ALIAS = "gluu_doc";
     static String UID = "uid";
     static String[] UID_ARRAY = new String[] { "uid" };
     static String USER_PASSWORD = "userPassword";
@@ -47,19 +51,36 @@ public interface CouchbaseOperationService extends PersistenceOperationService {
 	boolean addEntry(String key, JsonObject jsonObject, Integer expiration) throws DuplicateEntryException, PersistenceException;
 
     boolean updateEntry(String key, List<MutationSpec> mods, Integer expiration) throws UnsupportedOperationException, PersistenceException;
+    boolean updateEntry(String key, List<MutationSpec> mods, Integer expiration, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException;
+
+    /*
+     * Returns document expiration as absolute Unix time stamp or 0 if document doesn't expire
+     */
+    int getExpiration(String key) throws EntryNotFoundException;
 
     boolean delete(String key) throws EntryNotFoundException;
-	int delete(String key, ScanConsistency scanConsistency, Expression expression, int count) throws DeleteException;
+	int delete(String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, int count) throws DeleteException;
     boolean deleteRecursively(String key) throws EntryNotFoundException, SearchException;
 
     JsonObject lookup(String key, ScanConsistency scanConsistency, String... attributes) throws SearchException;
 
-    <O> PagedResult<JsonObject> search(String key, ScanConsistency scanConsistency, Expression expression, SearchScope scope,
+    Set<String> findExistingKeys(Collection<String> keys) throws SearchException;
+
+    <O> PagedResult<JsonObject> search(String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, SearchScope scope,
             String[] attributes, Sort[] orderBy, CouchbaseBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType,
             int start, int count, int pageSize) throws SearchException;
 
     String[] createStoragePassword(String[] passwords);
 
+    boolean isUsePreparedStatements();
+
+    boolean isReadYourWrites();
+
+    /**
+     * Forget mutation tokens collected by current thread. Should be called at the end of request
+     */
+    void resetMutationState();
+
     boolean isBinaryAttribute(String attribute);
     boolean isCertificateAttribute(String attribute);
 
@@ -10,12 +10,23 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.gluu.persist.exception.AuthenticationException;
 import org.gluu.persist.exception.extension.PersistenceExtension;
@@ -25,6 +36,9 @@ import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.exception.operation.EntryNotFoundException;
 import org.gluu.persist.exception.operation.PersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
+import org.gluu.persist.impl.BatchOperationPipeline;
+import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.BatchOperation;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
@@ -40,11 +54,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.message.ResponseStatus;
 import com.couchbase.client.core.message.kv.subdoc.multi.Mutation;
+import com.couchbase.client.java.AsyncBucket;
 import com.couchbase.client.java.Bucket;
 import com.couchbase.client.java.document.JsonDocument;
+import com.couchbase.client.java.document.MutationState;
 import com.couchbase.client.java.document.json.JsonArray;
 import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.CASMismatchException;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.error.subdoc.MultiMutationException;
+import com.couchbase.client.java.error.subdoc.PathNotFoundException;
 import com.couchbase.client.java.query.Delete;
 import com.couchbase.client.java.query.N1qlParams;
 import com.couchbase.client.java.query.N1qlQuery;
@@ -61,8 +82,13 @@ import com.couchbase.client.java.query.dsl.path.MutateLimitPath;
 import com.couchbase.client.java.query.dsl.path.OffsetPath;
 import com.couchbase.client.java.query.dsl.path.ReturningPath;
 import com.couchbase.client.java.subdoc.DocumentFragment;
+import com.couchbase.client.java.subdoc.Lookup;
 import com.couchbase.client.java.subdoc.MutateInBuilder;
 import com.couchbase.client.java.subdoc.MutationSpec;
+import com.couchbase.client.java.subdoc.SubdocOptionsBuilder;
+
+import rx.Observable;
+import rx.functions.Func1;
 
 /**
  * Base service which performs all supported Couchbase operations
@@ -73,6 +99,20 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 
     private static final Logger LOG = LoggerFactory.getLogger(CouchbaseOperationServiceImpl.class);
 
+    private static final String KEY_RANGE_END = "\uffff";
+
+    private static final String KEY_PARAMETER = "scopeKey";
+    private static final String KEY_RANGE_START_PARAMETER = "scopeKeyStart";
+    private static final String KEY_RANGE_END_PARAMETER = "scopeKeyEnd";
+    private static final String KEY_SUB_TREE_PATTERN_PARAMETER = "scopeKeySubTreePattern";
+
+    private static final int MAX_PARALLEL_EXISTS_REQUESTS = 128;
+
+    public static final int DEFAULT_COUNT_THREADS = 8;
+
+    // Virtual extended attribute with document expiration
+    private static final String DOCUMENT_EXPIRATION_XATTR = "$document.exptime";
+
     private Properties props;
     private CouchbaseConnectionProvider connectionProvider;
 
@@ -81,7 +121,14 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
     private boolean ignoreAttributeScanConsistency = false;
 	private boolean attemptWithoutAttributeScanConsistency = true;
 	private boolean enableScopeSupport = false;
+	private boolean enableBaseScopeKeyLookup = false;
 	private boolean disableAttributeMapping = false;
+	private boolean usePreparedStatements = true;
+	private boolean readYourWrites = false;
+
+	private final MutationStateTracker mutationStateTracker = new MutationStateTracker();
+
+	private ExecutorService countExecutor;
 
 	private PersistenceExtension persistenceExtension;
 
@@ -114,14 +161,48 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         	this.enableScopeSupport = StringHelper.toBoolean(props.get("connection.enable-scope-support").toString(), this.enableScopeSupport);
         }
 
+        if (props.containsKey("connection.enable-base-scope-key-lookup")) {
+        	this.enableBaseScopeKeyLookup = StringHelper.toBoolean(props.get("connection.enable-base-scope-key-lookup").toString(), this.enableBaseScopeKeyLookup);
+        }
+
         if (props.containsKey("connection.disable-attribute-mapping")) {
         	this.disableAttributeMapping = StringHelper.toBoolean(props.get("connection.disable-attribute-mapping").toString(), this.disableAttributeMapping);
         }
 
+        if (props.containsKey("connection.use-prepared-statements")) {
+        	this.usePreparedStatements = StringHelper.toBoolean(props.get("connection.use-prepared-statements").toString(), this.usePreparedStatements);
+        }
+
+        if (props.containsKey("connection.read-your-writes")) {
+        	this.readYourWrites = StringHelper.toBoolean(props.get("connection.read-your-writes").toString(), this.readYourWrites);
+        }
+
         LOG.info("Option scanConsistency: " + scanConsistency);
         LOG.info("Option ignoreAttributeScanConsistency: " + ignoreAttributeScanConsistency);
         LOG.info("Option enableScopeSupport: " + enableScopeSupport);
+        LOG.info("Option enableBaseScopeKeyLookup: " + enableBaseScopeKeyLookup);
         LOG.info("Option disableAttributeMapping: " + disableAttributeMapping);
+        LOG.info("Option usePreparedStatements: " + usePreparedStatements);
+        LOG.info("Option readYourWrites: " + readYourWrites);
+
+        int countThreads = DEFAULT_COUNT_THREADS;
+        if (props.containsKey("connection.count-threads")) {
+        	countThreads = StringHelper.toInteger(props.get("connection.count-threads").toString(), DEFAULT_COUNT_THREADS);
+        }
+        LOG.info("Option countThreads: " + countThreads);
+
+        // Count query is executed in caller thread before search query if all count threads are busy
+        ThreadPoolExecutor countThreadPool = new ThreadPoolExecutor(countThreads, countThreads, 60, TimeUnit.SECONDS,
+        		new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "couchbase-search-count");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+        countThreadPool.allowCoreThreadTimeOut(true);
+        this.countExecutor = countThreadPool;
     }
 
     @Override
@@ -195,6 +276,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 
 			JsonDocument result = bucketMapping.getBucket().upsert(jsonDocument);
             if (result != null) {
+            	trackMutation(result);
                 return true;
             }
 
@@ -227,10 +309,15 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 
     @Override
     public boolean updateEntry(String key, List<MutationSpec> mods, Integer expiration) throws UnsupportedOperationException, PersistenceException {
+    	return updateEntry(key, mods, expiration, null);
+    }
+
+    @Override
+    public boolean updateEntry(String key, List<MutationSpec> mods, Integer expiration, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException {
         Instant startTime = OperationDurationUtil.instance().now();
         
         BucketMapping bucketMapping = connectionProvider.getBucketMappingByKey(key);
-        boolean result = updateEntryImpl(bucketMapping, key, mods, expiration);
+        boolean result = updateEntryImpl(bucketMapping, key, mods, expiration, expectedVersion);
 
         Duration duration = OperationDurationUtil.instance().duration(startTime);
         OperationDurationUtil.instance().logDebug("Couchbase operation: modify, duration: {}, bucket: {}, key: {}, mods: {}", duration, bucketMapping.getBucketName(), key, mods);
@@ -238,19 +325,80 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         return result;
     }
 
-	private boolean updateEntryImpl(BucketMapping bucketMapping, String key, List<MutationSpec> mods, Integer expiration) throws PersistenceException {
+	private boolean updateEntryImpl(BucketMapping bucketMapping, String key, List<MutationSpec> mods, Integer expiration, AttributeData expectedVersion) throws PersistenceException {
 		try {
-            MutateInBuilder builder = bucketMapping.getBucket().mutateIn(key);
-            if (expiration != null) {
-            	builder = builder.withExpiry(expiration);
+            Long cas = null;
+            if (expectedVersion != null) {
+            	// Optimistic lock: check version and use document CAS to detect concurrent modifications
+            	cas = getCasOfVersion(bucketMapping.getBucket(), key, expectedVersion);
             }
 
-            return modifyEntry(builder, mods);
+            List<MutationSpec> pendingMods = new ArrayList<MutationSpec>(mods);
+            while (true) {
+                MutateInBuilder builder = bucketMapping.getBucket().mutateIn(key);
+                if (expiration != null) {
+                	builder = builder.withExpiry(expiration);
+                }
+                if (cas != null) {
+                	builder = builder.withCas(cas);
+                }
+
+                try {
+                    return modifyEntry(builder, pendingMods);
+                } catch (PersistenceException ex) {
+                    // Removal of absent attribute is no-op. Sub-document mutations are atomic, hence we can repeat them without it
+                    int absentIndex = getAbsentRemovalIndex(ex.getCause(), pendingMods);
+                    if (absentIndex < 0) {
+                        throw ex;
+                    }
+
+                    pendingMods.remove(absentIndex);
+                    if (pendingMods.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
         } catch (final CouchbaseException ex) {
             throw new PersistenceException("Failed to update entry", ex);
         }
 	}
 
+    private int getAbsentRemovalIndex(Throwable cause, List<MutationSpec> mods) {
+        int index = -1;
+        if (cause instanceof MultiMutationException) {
+            MultiMutationException multiMutationException = (MultiMutationException) cause;
+            if (ResponseStatus.SUBDOC_PATH_NOT_FOUND == multiMutationException.firstFailureStatus()) {
+                index = multiMutationException.firstFailureIndex();
+            }
+        } else if ((cause instanceof PathNotFoundException) && (mods.size() == 1)) {
+            index = 0;
+        }
+
+        if ((index < 0) || (index >= mods.size()) || (Mutation.DELETE != mods.get(index).type())) {
+            return -1;
+        }
+
+        return index;
+    }
+
+    private long getCasOfVersion(Bucket bucket, String key, AttributeData expectedVersion) throws VersionConflictException, EntryNotFoundException {
+        String versionPath = expectedVersion.getName();
+        DocumentFragment<Lookup> result;
+        try {
+            result = bucket.lookupIn(key).get(versionPath).execute();
+        } catch (final DocumentDoesNotExistException ex) {
+            throw new EntryNotFoundException(String.format("Failed to find entry '%s'", key));
+        }
+
+        Object currentVersion = result.exists(versionPath) ? result.content(versionPath) : null;
+        if ((currentVersion == null) || !StringHelper.equals(String.valueOf(currentVersion), String.valueOf(expectedVersion.getValue()))) {
+            throw new VersionConflictException(String.format("Entry '%s' was modified concurrently. Expected version: '%s', current version: '%s'",
+                    key, expectedVersion.getValue(), currentVersion));
+        }
+
+        return result.cas();
+    }
+
     protected boolean modifyEntry(MutateInBuilder builder, List<MutationSpec> mods) throws UnsupportedOperationException, PersistenceException {
         try {
             for (MutationSpec mod : mods) {
@@ -259,6 +407,8 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
                     builder.insert(mod.path(), mod.fragment());
                 } else if (Mutation.REPLACE == type) {
                     builder.replace(mod.path(), mod.fragment());
+                } else if (Mutation.DICT_UPSERT == type) {
+                    builder.upsert(mod.path(), mod.fragment());
                 } else if (Mutation.DELETE == type) {
                     builder.remove(mod.path());
                 } else {
@@ -267,16 +417,51 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
             }
 
             DocumentFragment<Mutation> result = builder.execute();
+            if (readYourWrites) {
+            	mutationStateTracker.add(result);
+            }
+
             if (result.size() > 0) {
                 return result.status(0).isSuccess();
             }
 
             return false;
+        } catch (final CASMismatchException ex) {
+            throw new VersionConflictException("Entry was modified concurrently", ex);
         } catch (final CouchbaseException ex) {
             throw new PersistenceException("Failed to update entry", ex);
         }
     }
 
+    @Override
+    public int getExpiration(String key) throws EntryNotFoundException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        BucketMapping bucketMapping = connectionProvider.getBucketMappingByKey(key);
+        int result = getExpirationImpl(bucketMapping, key);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("Couchbase operation: get_expiration, duration: {}, bucket: {}, key: {}", duration, bucketMapping.getBucketName(), key);
+
+        return result;
+    }
+
+    private int getExpirationImpl(BucketMapping bucketMapping, String key) throws EntryNotFoundException {
+        DocumentFragment<Lookup> result;
+        try {
+            result = bucketMapping.getBucket().lookupIn(key).get(DOCUMENT_EXPIRATION_XATTR, new SubdocOptionsBuilder().xattr(true)).execute();
+        } catch (final DocumentDoesNotExistException ex) {
+            throw new EntryNotFoundException(String.format("Failed to find entry '%s'", key));
+        }
+
+        Object expiration = result.exists(DOCUMENT_EXPIRATION_XATTR) ? result.content(DOCUMENT_EXPIRATION_XATTR) : null;
+        if (expiration instanceof Number) {
+            return ((Number) expiration).intValue();
+        }
+
+        return 0;
+    }
+
     @Override
     public boolean delete(String key) throws EntryNotFoundException {
         Instant startTime = OperationDurationUtil.instance().now();
@@ -293,6 +478,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 	private boolean deleteImpl(BucketMapping bucketMapping, String key) throws EntryNotFoundException {
 		try {
             JsonDocument result = bucketMapping.getBucket().remove(key);
+            trackMutation(result);
 
             return (result != null) && (result.id() != null);
         } catch (CouchbaseException ex) {
@@ -301,13 +487,13 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 	}
 
     @Override
-    public int delete(String key, ScanConsistency scanConsistency, Expression expression, int count) throws DeleteException {
+    public int delete(String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, int count) throws DeleteException {
         Instant startTime = OperationDurationUtil.instance().now();
 
         BucketMapping bucketMapping = connectionProvider.getBucketMappingByKey(key);
     	ScanConsistency useScanConsistency = getScanConsistency(scanConsistency, false);
 
-    	int result = deleteImpl(bucketMapping, key, useScanConsistency, expression, count);
+    	int result = deleteImpl(bucketMapping, key, useScanConsistency, expression, queryParameters, count);
 
         String attemptInfo = getScanAttemptLogInfo(scanConsistency, useScanConsistency, false);
 
@@ -317,20 +503,22 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         return result;
     }
 
-    private int deleteImpl(BucketMapping bucketMapping, String key, ScanConsistency scanConsistency, Expression expression, int count) throws DeleteException {
+    private int deleteImpl(BucketMapping bucketMapping, String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, int count) throws DeleteException {
         Bucket bucket = bucketMapping.getBucket();
 
         Expression finalExpression = expression;
+        JsonObject deleteParameters = queryParameters;
         if (enableScopeSupport) { 
-			Expression scopeExpression = Expression.path("META().id").like(Expression.s(key + "%"));
+			Expression scopeExpression = createKeyRangeExpression();
 			finalExpression = scopeExpression.and(expression);
+			deleteParameters = createKeyParameters(queryParameters, key);
         }
 
-        MutateLimitPath deleteQuery = Delete.deleteFrom(Expression.i(bucketMapping.getBucketName())).where(finalExpression);
+        MutateLimitPath deleteQuery = Delete.deleteFrom(Expression.i(bucketMapping.getBucketName())).as(CouchbaseOperationService.DOC_ALIAS).where(finalExpression);
         ReturningPath query = deleteQuery.limit(count);
         LOG.debug("Execution query: '" + query + "'");
 
-        N1qlQueryResult result = bucket.query(N1qlQuery.simple(query, N1qlParams.build().consistency(scanConsistency)));
+        N1qlQueryResult result = bucket.query(createN1qlQuery(bucketMapping.getBucketName(), query, deleteParameters, scanConsistency));
         if (!result.finalSuccess()) {
             throw new DeleteException(String.format("Failed to delete entries. Query: '%s'. Error: '%s', Error count: '%d'", query, result.errors(),
             		result.info().errorCount()), result.errors().get(0).getInt("code"));
@@ -356,9 +544,9 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 		try {
 	        if (enableScopeSupport) {
 	            MutateLimitPath deleteQuery = Delete.deleteFrom(Expression.i(bucketMapping.getBucketName()))
-	                    .where(Expression.path("META().id").like(Expression.s(key + "%")));
+	                    .where(createKeyRangeExpression());
 	
-	            N1qlQueryResult result = bucketMapping.getBucket().query(deleteQuery);
+	            N1qlQueryResult result = bucketMapping.getBucket().query(N1qlQuery.parameterized(deleteQuery, createKeyParameters(null, key)));
 	            if (!result.finalSuccess()) {
                     throw new SearchException(String.format("Failed to delete entries. Query: '%s'. Error: '%s', Error count: '%d'", deleteQuery, result.errors(),
                     		result.info().errorCount()), result.errors().get(0).getInt("code"));
@@ -410,6 +598,65 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         return result;
     }
 
+    @Override
+    public Set<String> findExistingKeys(Collection<String> keys) throws SearchException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        Set<String> result = findExistingKeysImpl(keys);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("Couchbase operation: find_existing_keys, duration: {}, keys: {}, found: {}", duration, keys.size(), result.size());
+
+        return result;
+    }
+
+	private Set<String> findExistingKeysImpl(Collection<String> keys) throws SearchException {
+		// Keys can be stored in different buckets
+		Map<String, List<String>> bucketKeys = new HashMap<String, List<String>>();
+		Map<String, Bucket> buckets = new HashMap<String, Bucket>();
+		for (String key : keys) {
+			BucketMapping bucketMapping = connectionProvider.getBucketMappingByKey(key);
+			List<String> keysList = bucketKeys.get(bucketMapping.getBucketName());
+			if (keysList == null) {
+				keysList = new ArrayList<String>();
+				bucketKeys.put(bucketMapping.getBucketName(), keysList);
+				buckets.put(bucketMapping.getBucketName(), bucketMapping.getBucket());
+			}
+			keysList.add(key);
+		}
+
+		Set<String> result = new HashSet<String>();
+		try {
+			for (Entry<String, List<String>> bucketKeysEntry : bucketKeys.entrySet()) {
+				final AsyncBucket asyncBucket = buckets.get(bucketKeysEntry.getKey()).async();
+
+				// Send KV exists requests in parallel without loading documents
+				List<String> existingKeys = Observable.from(bucketKeysEntry.getValue()).flatMap(new Func1<String, Observable<String>>() {
+					@Override
+					public Observable<String> call(final String key) {
+						return asyncBucket.exists(key).filter(new Func1<Boolean, Boolean>() {
+							@Override
+							public Boolean call(Boolean exists) {
+								return exists;
+							}
+						}).map(new Func1<Boolean, String>() {
+							@Override
+							public String call(Boolean exists) {
+								return key;
+							}
+						});
+					}
+				}, MAX_PARALLEL_EXISTS_REQUESTS).toList().toBlocking().single();
+
+				result.addAll(existingKeys);
+			}
+		} catch (CouchbaseException ex) {
+			throw new SearchException(String.format("Failed to find existing keys: '%s'", keys), ex);
+		}
+
+		return result;
+	}
+
 	private JsonObject lookupImpl(BucketMapping bucketMapping, String key, ScanConsistency scanConsistency, String... attributes) throws SearchException {
 		try {
             Bucket bucket = bucketMapping.getBucket();
@@ -455,7 +702,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 	}
 
 	@Override
-    public <O> PagedResult<JsonObject> search(String key, ScanConsistency scanConsistency, Expression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
+    public <O> PagedResult<JsonObject> search(String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, SearchScope scope, String[] attributes, Sort[] orderBy,
                                               CouchbaseBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
         Instant startTime = OperationDurationUtil.instance().now();
 
@@ -468,7 +715,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         do {
 			attemps--;
 			try {
-				result = searchImpl(bucketMapping, key, useScanConsistency, expression, scope, attributes, orderBy, batchOperationWraper,
+				result = searchImpl(bucketMapping, key, useScanConsistency, expression, queryParameters, scope, attributes, orderBy, batchOperationWraper,
 						returnDataType, start, count, pageSize);
 				break;
 			} catch (SearchException ex) {
@@ -486,7 +733,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         	ScanConsistency useScanConsistency2 = getScanConsistency(scanConsistency, false);
         	if (!useScanConsistency2.equals(useScanConsistency)) {
         		useScanConsistency = useScanConsistency2;
-                result = searchImpl(bucketMapping, key, useScanConsistency, expression, scope, attributes, orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+                result = searchImpl(bucketMapping, key, useScanConsistency, expression, queryParameters, scope, attributes, orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
                 secondTry = true;
         	}
         }
@@ -499,7 +746,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         return result;
 	}
 
-	private <O> PagedResult<JsonObject> searchImpl(BucketMapping bucketMapping, String key, ScanConsistency scanConsistency, Expression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
+	private <O> PagedResult<JsonObject> searchImpl(BucketMapping bucketMapping, String key, ScanConsistency scanConsistency, Expression expression, JsonObject queryParameters, SearchScope scope, String[] attributes, Sort[] orderBy,
             CouchbaseBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
         Bucket bucket = bucketMapping.getBucket();
 
@@ -516,19 +763,25 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         }
 
         Expression finalExpression = expression;
-        if (enableScopeSupport) { 
+        JsonObject searchParameters = queryParameters;
+        boolean useKeyLookup = enableScopeSupport && enableBaseScopeKeyLookup && (SearchScope.BASE == scope);
+        if (useKeyLookup) {
+        	// Entry with this key only. Query service fetches it by key without index scan
+        	LOG.debug("Using key lookup for base scope search by key: " + key);
+        	searchParameters = createKeyParameters(queryParameters, key);
+        } else if (enableScopeSupport) { 
 			Expression scopeExpression;
 			if (scope == null) {
 				scopeExpression = null;
 			} else if (SearchScope.BASE == scope) {
-				scopeExpression = Expression.path("META().id").like(Expression.s(key + "%"))
-						.and(Expression.path("META().id").notLike(Expression.s(key + "\\\\_%\\\\_")));
+				scopeExpression = createBaseScopeExpression();
 			} else {
-				scopeExpression = Expression.path("META().id").like(Expression.s(key + "%"));
+				scopeExpression = createKeyRangeExpression();
 			}
 
 			if (scopeExpression != null) {
 				finalExpression = scopeExpression.and(expression);
+				searchParameters = createKeyParameters(queryParameters, key);
 			}
         } else {
             if (scope != null) {
@@ -538,7 +791,7 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 
         String[] select = attributes;
         if (select == null) {
-            select = new String[] { "gluu_doc.*", CouchbaseOperationService.DN };
+            select = new String[] { CouchbaseOperationService.DOC_ALIAS + ".*", CouchbaseOperationService.DN };
         } else if ((select.length == 1) && StringHelper.isEmpty(select[0])) {
         	// Compatibility with base persistence layer when application pass filter new String[] { "" }
             select = new String[] { CouchbaseOperationService.DN };
@@ -548,7 +801,12 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
                 select = ArrayHelper.arrayMerge(select, new String[] { CouchbaseOperationService.DN });
             }
         }
-        GroupByPath selectQuery = Select.select(select).from(Expression.i(bucketMapping.getBucketName())).as("gluu_doc").where(finalExpression);
+        GroupByPath selectQuery;
+        if (useKeyLookup) {
+        	selectQuery = Select.select(select).from(Expression.i(bucketMapping.getBucketName())).as(CouchbaseOperationService.DOC_ALIAS).useKeys(createKeysExpression()).where(finalExpression);
+        } else {
+        	selectQuery = Select.select(select).from(Expression.i(bucketMapping.getBucketName())).as(CouchbaseOperationService.DOC_ALIAS).where(finalExpression);
+        }
 
         LimitPath baseQuery = selectQuery;
         if (orderBy != null) {
@@ -557,106 +815,298 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
 
         List<N1qlQueryRow> searchResultList = new ArrayList<N1qlQueryRow>();
 
-        if ((SearchReturnDataType.SEARCH == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
-	        N1qlQueryResult lastResult = null;
-	        if (pageSize > 0) {
-	            boolean collectSearchResult;
+        // Sorted query reports number of sorted rows before limit and offset in metrics.
+        // Otherwise execute count query in parallel with search query
+        boolean combinedCount = SearchReturnDataType.SEARCH_COUNT_COMBINED == returnDataType;
+        long sortCount = -1;
+        Future<Integer> countFuture = null;
+        if (combinedCount && (orderBy == null)) {
+        	Statement countQuery = createCountQuery(bucketMapping.getBucketName(), finalExpression, useKeyLookup);
+        	N1qlQuery n1qlCountQuery = createN1qlQuery(bucketMapping.getBucketName(), countQuery, searchParameters, scanConsistency);
+			countFuture = countExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return executeCountQuery(bucket, n1qlCountQuery);
+				}
+			});
+        }
+
+        try {
+	        if ((SearchReturnDataType.SEARCH == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType) || combinedCount) {
+		        N1qlQueryResult lastResult = null;
+		        if (pageSize > 0) {
+		            boolean collectSearchResult;
 	
-	            Statement query = null;
-	            int currentLimit;
-	            try {
-	                List<N1qlQueryRow> lastSearchResultList;
-	                int resultCount = 0;
-	                do {
-	                    collectSearchResult = true;
+		            Statement query = null;
+		            int currentLimit;
+		            BatchOperationPipeline<List<N1qlQueryRow>> batchOperationPipeline = null;
+		            if (batchOperationWraper != null) {
+		            	batchOperationPipeline = batchOperationWraper.createBatchOperationPipeline();
+		            }
+		            try {
+		                List<N1qlQueryRow> lastSearchResultList;
+		                int resultCount = 0;
+		                do {
+		                    collectSearchResult = true;
 	
-	                    currentLimit = pageSize;
-	                    if (count > 0) {
-	                        currentLimit = Math.min(pageSize, count - resultCount);
-	                    }
+		                    currentLimit = pageSize;
+		                    if (count > 0) {
+		                        currentLimit = Math.min(pageSize, count - resultCount);
+		                    }
 	
-	                    query = baseQuery.limit(currentLimit).offset(start + resultCount);
-	                    LOG.debug("Execution query: '" + query + "'");
-	                    lastResult = bucket.query(N1qlQuery.simple(query, N1qlParams.build().consistency(scanConsistency)));
-	                    if (!lastResult.finalSuccess()) {
-		                    throw new SearchException(String.format("Failed to search entries. Query: '%s'. Error: '%s', Error count: '%d'", query, lastResult.errors(),
-		                            lastResult.info().errorCount()), lastResult.errors().get(0).getInt("code"));
-	                    }
+		                    N1qlQuery n1qlQuery;
+		                    if (usePreparedStatements) {
+		                    	n1qlQuery = createN1qlQuery(bucketMapping.getBucketName(), baseQuery, currentLimit, start + resultCount, searchParameters, scanConsistency);
+		                    } else {
+		                    	n1qlQuery = createN1qlQuery(bucketMapping.getBucketName(), baseQuery.limit(currentLimit).offset(start + resultCount), searchParameters, scanConsistency);
+		                    }
+		                    query = n1qlQuery.statement();
+		                    LOG.debug("Execution query: '" + query + "'");
+		                    lastResult = bucket.query(n1qlQuery);
+		                    if (!lastResult.finalSuccess()) {
+			                    throw new SearchException(String.format("Failed to search entries. Query: '%s'. Error: '%s', Error count: '%d'", query, lastResult.errors(),
+			                            lastResult.info().errorCount()), lastResult.errors().get(0).getInt("code"));
+		                    }
 	
-	                    lastSearchResultList = lastResult.allRows();
+		                    lastSearchResultList = lastResult.allRows();
+		                    if (resultCount == 0) {
+		                    	sortCount = lastResult.info().sortCount();
+		                    }
 	
-	                    if (batchOperation != null) {
-	                        collectSearchResult = batchOperation.collectSearchResult(lastSearchResultList.size());
-	                    }
-	                    if (collectSearchResult) {
-	                        searchResultList.addAll(lastSearchResultList);
-	                    }
+		                    if (batchOperation != null) {
+		                        collectSearchResult = batchOperation.collectSearchResult(lastSearchResultList.size());
+		                    }
+		                    if (collectSearchResult) {
+		                        searchResultList.addAll(lastSearchResultList);
+		                    }
 	
-	                    if (batchOperation != null) {
-	                        List<O> entries = batchOperationWraper.createEntities(lastSearchResultList);
-	                        batchOperation.performAction(entries);
-	                    }
+		                    if (batchOperationPipeline != null) {
+		                    	// Process page in worker thread and load next page
+		                    	batchOperationPipeline.submit(lastSearchResultList);
+		                    } else if (batchOperation != null) {
+		                        List<O> entries = batchOperationWraper.createEntities(lastSearchResultList);
+		                        batchOperation.performAction(entries);
+		                    }
 	
-	                    resultCount += lastSearchResultList.size();
+		                    resultCount += lastSearchResultList.size();
 	
-	                    if ((count > 0) && (resultCount >= count)) {
-	                        break;
-	                    }
-	                } while (lastSearchResultList.size() > 0);
-	            } catch (CouchbaseException ex) {
-	                throw new SearchException("Failed to search entries. Query: '" + query + "'", ex);
-	            }
-	        } else {
-	            try {
-	                Statement query = baseQuery;
-	                if (count > 0) {
-	                    query = ((LimitPath) query).limit(count);
-	                }
-	                if (start > 0) {
-	                    query = ((OffsetPath) query).offset(start);
-	                }
+		                    if ((count > 0) && (resultCount >= count)) {
+		                        break;
+		                    }
+		                } while (lastSearchResultList.size() > 0);
+
+		                if (batchOperationPipeline != null) {
+		                	batchOperationPipeline.finish();
+		                }
+		            } catch (CouchbaseException ex) {
+		                throw new SearchException("Failed to search entries. Query: '" + query + "'", ex);
+		            } finally {
+		            	if (batchOperationPipeline != null) {
+		            		batchOperationPipeline.close();
+		            	}
+		            }
+		        } else {
+		            try {
+		                N1qlQuery n1qlQuery;
+		                if (usePreparedStatements) {
+		                	n1qlQuery = createN1qlQuery(bucketMapping.getBucketName(), baseQuery, count, start > 0 ? start : -1, searchParameters, scanConsistency);
+		                } else {
+			                Statement query = baseQuery;
+			                if (count > 0) {
+			                    query = ((LimitPath) query).limit(count);
+			                }
+			                if (start > 0) {
+			                    query = ((OffsetPath) query).offset(start);
+			                }
+			                n1qlQuery = createN1qlQuery(bucketMapping.getBucketName(), query, searchParameters, scanConsistency);
+		                }
 	
-	                LOG.debug("Execution query: '" + query + "'");
-	                lastResult = bucket.query(N1qlQuery.simple(query, N1qlParams.build().consistency(scanConsistency)));
-	                if (!lastResult.finalSuccess()) {
-	                    throw new SearchException(String.format("Failed to search entries. Query: '%s'. Error: '%s', Error count: '%d'", baseQuery, lastResult.errors(),
-	                            lastResult.info().errorCount()), lastResult.errors().get(0).getInt("code"));
-	                }
+		                LOG.debug("Execution query: '" + n1qlQuery.statement() + "'");
+		                lastResult = bucket.query(n1qlQuery);
+		                if (!lastResult.finalSuccess()) {
+		                    throw new SearchException(String.format("Failed to search entries. Query: '%s'. Error: '%s', Error count: '%d'", baseQuery, lastResult.errors(),
+		                            lastResult.info().errorCount()), lastResult.errors().get(0).getInt("code"));
+		                }
 	
-	                searchResultList.addAll(lastResult.allRows());
-	            } catch (CouchbaseException ex) {
-	                throw new SearchException("Failed to search entries. Query: '" + baseQuery.toString() + "'", ex);
-	            }
+		                searchResultList.addAll(lastResult.allRows());
+		                sortCount = lastResult.info().sortCount();
+		            } catch (CouchbaseException ex) {
+		                throw new SearchException("Failed to search entries. Query: '" + baseQuery.toString() + "'", ex);
+		            }
+		        }
+	        }
+
+	        List<JsonObject> resultRows = new ArrayList<JsonObject>(searchResultList.size());
+	        for (N1qlQueryRow row : searchResultList) {
+	            resultRows.add(row.value());
+	        }
+
+	        PagedResult<JsonObject> result = new PagedResult<JsonObject>();
+	        result.setEntries(resultRows);
+	        result.setEntriesCount(resultRows.size());
+	        result.setStart(start);
+
+	        if ((SearchReturnDataType.COUNT == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
+	        	Statement countQuery = createCountQuery(bucketMapping.getBucketName(), finalExpression, useKeyLookup);
+	        	result.setTotalEntriesCount(executeCountQuery(bucket, createN1qlQuery(bucketMapping.getBucketName(), countQuery, searchParameters, scanConsistency)));
+	        } else if (countFuture != null) {
+	        	result.setTotalEntriesCount(getCount(countFuture));
+	        } else if (combinedCount) {
+	        	if (sortCount > 0) {
+	        		result.setTotalEntriesCount((int) sortCount);
+	        	} else if ((start == 0) && searchResultList.isEmpty()) {
+	        		result.setTotalEntriesCount(0);
+	        	} else {
+	        		// Sort was done by index and metrics has no sort count
+		        	Statement countQuery = createCountQuery(bucketMapping.getBucketName(), finalExpression, useKeyLookup);
+		        	result.setTotalEntriesCount(executeCountQuery(bucket, createN1qlQuery(bucketMapping.getBucketName(), countQuery, searchParameters, scanConsistency)));
+	        	}
 	        }
+
+	        return result;
+        } finally {
+        	// Count is not needed if search failed. Cancel of completed count is no-op
+        	if (countFuture != null) {
+        		countFuture.cancel(true);
+        	}
         }
+    }
 
-        List<JsonObject> resultRows = new ArrayList<JsonObject>(searchResultList.size());
-        for (N1qlQueryRow row : searchResultList) {
-            resultRows.add(row.value());
+    /*
+     * Count query has same keyspace alias as search query because expression can have qualified paths
+     */
+    public static Statement createCountQuery(String bucketName, Expression finalExpression, boolean useKeyLookup) {
+        if (useKeyLookup) {
+        	return Select.select("COUNT(*) as TOTAL").from(Expression.i(bucketName)).as(CouchbaseOperationService.DOC_ALIAS)
+        			.useKeys(createKeysExpression()).where(finalExpression);
         }
 
-        PagedResult<JsonObject> result = new PagedResult<JsonObject>();
-        result.setEntries(resultRows);
-        result.setEntriesCount(resultRows.size());
-        result.setStart(start);
+        return Select.select("COUNT(*) as TOTAL").from(Expression.i(bucketName)).as(CouchbaseOperationService.DOC_ALIAS)
+        		.where(finalExpression);
+    }
 
-        if ((SearchReturnDataType.COUNT == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
-            GroupByPath selectCountQuery = Select.select("COUNT(*) as TOTAL").from(Expression.i(bucketMapping.getBucketName()))
-                    .where(finalExpression);
-            try {
-                LOG.debug("Calculating count. Execution query: '" + selectCountQuery + "'");
-                N1qlQueryResult countResult = bucket.query(N1qlQuery.simple(selectCountQuery, N1qlParams.build().consistency(scanConsistency)));
-                if (!countResult.finalSuccess() || (countResult.info().resultCount() != 1)) {
-                    throw new SearchException(String.format("Failed to calculate count entries. Query: '%s'. Error: '%s', Error count: '%d'", selectCountQuery, countResult.errors(),
-                    		countResult.info().errorCount()), countResult.errors().get(0).getInt("code"));
-                }
-                result.setTotalEntriesCount(countResult.allRows().get(0).value().getInt("TOTAL"));
-            } catch (CouchbaseException ex) {
-                throw new SearchException("Failed to calculate count entries. Query: '" + selectCountQuery.toString() + "'", ex);
+    private int executeCountQuery(Bucket bucket, N1qlQuery countQuery) throws SearchException {
+        try {
+            LOG.debug("Calculating count. Execution query: '" + countQuery.statement() + "'");
+            N1qlQueryResult countResult = bucket.query(countQuery);
+            if (!countResult.finalSuccess() || (countResult.info().resultCount() != 1)) {
+                throw new SearchException(String.format("Failed to calculate count entries. Query: '%s'. Error: '%s', Error count: '%d'", countQuery.statement(), countResult.errors(),
+                		countResult.info().errorCount()), countResult.errors().get(0).getInt("code"));
             }
+
+            return countResult.allRows().get(0).value().getInt("TOTAL");
+        } catch (CouchbaseException ex) {
+            throw new SearchException("Failed to calculate count entries. Query: '" + countQuery.statement() + "'", ex);
         }
+    }
 
-        return result;
+	private int getCount(Future<Integer> countFuture) throws SearchException {
+		try {
+			return countFuture.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SearchException("Calculation of count entries was interrupted", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof SearchException) {
+				throw (SearchException) ex.getCause();
+			}
+			throw new SearchException("Failed to calculate count entries", ex.getCause());
+		}
+	}
+
+    /*
+     * Sargable equivalent of META().id LIKE 'key%'. Index scan is limited to keys range of sub-tree.
+     * Key bounds are named parameters from createKeyParameters, hence all keys share one prepared statement
+     */
+    public static Expression createKeyRangeExpression() {
+    	return Expression.path("META().id").gte(Expression.x("$" + KEY_RANGE_START_PARAMETER))
+    			.and(Expression.path("META().id").lt(Expression.x("$" + KEY_RANGE_END_PARAMETER)));
+    }
+
+    /*
+     * Key range without entries of sub-tree
+     */
+    public static Expression createBaseScopeExpression() {
+    	return createKeyRangeExpression().and(Expression.path("META().id").notLike(Expression.x("$" + KEY_SUB_TREE_PATTERN_PARAMETER)));
+    }
+
+    /*
+     * Value of USE KEYS clause
+     */
+    public static Expression createKeysExpression() {
+    	return Expression.x("$" + KEY_PARAMETER);
+    }
+
+    public static JsonObject createKeyParameters(JsonObject queryParameters, String key) {
+    	JsonObject keyParameters = JsonObject.create();
+    	if (queryParameters != null) {
+    		for (String name : queryParameters.getNames()) {
+    			keyParameters.put(name, queryParameters.get(name));
+    		}
+    	}
+
+    	keyParameters.put(KEY_PARAMETER, key);
+    	keyParameters.put(KEY_RANGE_START_PARAMETER, key);
+    	keyParameters.put(KEY_RANGE_END_PARAMETER, key + KEY_RANGE_END);
+    	keyParameters.put(KEY_SUB_TREE_PATTERN_PARAMETER, key + "\\_%\\_");
+
+    	return keyParameters;
+    }
+
+    private N1qlQuery createN1qlQuery(String bucketName, Statement statement, JsonObject queryParameters, ScanConsistency scanConsistency) {
+    	N1qlParams n1qlParams = createN1qlParams(bucketName, scanConsistency);
+    	if ((queryParameters == null) || (queryParameters.size() == 0)) {
+    		return N1qlQuery.simple(statement, n1qlParams);
+    	}
+
+    	return N1qlQuery.parameterized(statement, queryParameters, n1qlParams);
+    }
+
+    /*
+     * Pass limit and offset as parameters too. Otherwise each page of search has own statement text and plan
+     */
+    private N1qlQuery createN1qlQuery(String bucketName, Statement baseQuery, int limit, int offset, JsonObject queryParameters, ScanConsistency scanConsistency) {
+    	JsonObject pageParameters = JsonObject.create();
+    	if (queryParameters != null) {
+    		for (String name : queryParameters.getNames()) {
+    			pageParameters.put(name, queryParameters.get(name));
+    		}
+    	}
+
+    	StringBuilder statement = new StringBuilder(baseQuery.toString());
+    	if (limit > 0) {
+    		statement.append(" LIMIT $pageLimit");
+    		pageParameters.put("pageLimit", limit);
+    	}
+    	if (offset >= 0) {
+    		statement.append(" OFFSET $pageOffset");
+    		pageParameters.put("pageOffset", offset);
+    	}
+
+    	return N1qlQuery.parameterized(statement.toString(), pageParameters, createN1qlParams(bucketName, scanConsistency));
+    }
+
+    private N1qlParams createN1qlParams(String bucketName, ScanConsistency scanConsistency) {
+    	N1qlParams n1qlParams = N1qlParams.build();
+
+    	MutationState mutationState = null;
+    	if (readYourWrites && (ScanConsistency.NOT_BOUNDED == scanConsistency)) {
+    		mutationState = mutationStateTracker.getMutationState(bucketName);
+    	}
+
+    	if (mutationState == null) {
+    		n1qlParams.consistency(scanConsistency);
+    	} else {
+    		// Wait only for indexing of mutations which current thread did (AT_PLUS)
+    		n1qlParams.consistentWith(mutationState);
+    	}
+
+    	if (usePreparedStatements) {
+    		// Couchbase client prepares statement once and keeps prepared plan in cache by statement text
+    		n1qlParams.adhoc(false);
+    	}
+
+    	return n1qlParams;
     }
 
     public String[] createStoragePassword(String[] passwords) {
@@ -676,6 +1126,27 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
         return results;
     }
 
+    private void trackMutation(JsonDocument document) {
+    	if (readYourWrites) {
+    		mutationStateTracker.add(document);
+    	}
+    }
+
+    @Override
+    public void resetMutationState() {
+    	mutationStateTracker.reset();
+    }
+
+    @Override
+    public boolean isReadYourWrites() {
+        return readYourWrites;
+    }
+
+    @Override
+    public boolean isUsePreparedStatements() {
+        return usePreparedStatements;
+    }
+
     @Override
     public boolean isBinaryAttribute(String attribute) {
         return this.connectionProvider.isBinaryAttribute(attribute);
@@ -714,6 +1185,10 @@ public class CouchbaseOperationServiceImpl implements CouchbaseOperationService
     public boolean destroy() {
         boolean result = true;
 
+        if (countExecutor != null) {
+        	countExecutor.shutdownNow();
+        }
+
         if (connectionProvider != null) {
             try {
                 connectionProvider.destroy();
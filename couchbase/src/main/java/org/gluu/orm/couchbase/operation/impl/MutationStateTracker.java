@@ -0,0 +1,75 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.orm.couchbase.operation.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.couchbase.client.java.document.Document;
+import com.couchbase.client.java.document.MutationState;
+import com.couchbase.client.java.subdoc.DocumentFragment;
+
+/**
+ * Keeps mutation tokens of current thread writes per bucket. Searches can use them to wait
+ * only for own mutations (AT_PLUS) instead of all bucket mutations (REQUEST_PLUS)
+ *
+ * Requires enabled mutation tokens in Couchbase environment
+ */
+public class MutationStateTracker {
+
+	private final ThreadLocal<Map<String, MutationState>> mutationStates = new ThreadLocal<Map<String, MutationState>>() {
+		@Override
+		protected Map<String, MutationState> initialValue() {
+			return new HashMap<String, MutationState>();
+		}
+	};
+
+	public void add(Document<?> document) {
+		if ((document == null) || (document.mutationToken() == null)) {
+			return;
+		}
+
+		Map<String, MutationState> bucketMutationStates = mutationStates.get();
+		String bucketName = document.mutationToken().bucket();
+
+		// MutationState has no public constructor. First mutation creates it
+		MutationState mutationState = bucketMutationStates.get(bucketName);
+		if (mutationState == null) {
+			bucketMutationStates.put(bucketName, MutationState.from(document));
+		} else {
+			mutationState.add(document);
+		}
+	}
+
+	public void add(DocumentFragment<?> documentFragment) {
+		if ((documentFragment == null) || (documentFragment.mutationToken() == null)) {
+			return;
+		}
+
+		Map<String, MutationState> bucketMutationStates = mutationStates.get();
+		String bucketName = documentFragment.mutationToken().bucket();
+
+		MutationState mutationState = bucketMutationStates.get(bucketName);
+		if (mutationState == null) {
+			bucketMutationStates.put(bucketName, MutationState.from(documentFragment));
+		} else {
+			mutationState.add(documentFragment);
+		}
+	}
+
+	public MutationState getMutationState(String bucketName) {
+		return mutationStates.get().get(bucketName);
+	}
+
+	/*
+	 * Application should call it at the end of request to not wait for old mutations in next requests of this thread
+	 */
+	public void reset() {
+		mutationStates.remove();
+	}
+
+}
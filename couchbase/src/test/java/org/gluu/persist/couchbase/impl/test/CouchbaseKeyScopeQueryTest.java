@@ -0,0 +1,52 @@
+package org.gluu.persist.couchbase.impl.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.gluu.orm.couchbase.operation.impl.CouchbaseOperationServiceImpl;
+import org.testng.annotations.Test;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.Select;
+import com.couchbase.client.java.query.dsl.Expression;
+
+public class CouchbaseKeyScopeQueryTest {
+
+	private static final String KEY = "people_2a5f7c01";
+
+	@Test
+	public void checkKeyRangeIsParameterized() {
+		Expression keyRangeExpression = CouchbaseOperationServiceImpl.createKeyRangeExpression();
+		assertEquals(keyRangeExpression.toString(), "META().id >= $scopeKeyStart AND META().id < $scopeKeyEnd");
+
+		Expression baseScopeExpression = CouchbaseOperationServiceImpl.createBaseScopeExpression();
+		assertEquals(baseScopeExpression.toString(),
+				"META().id >= $scopeKeyStart AND META().id < $scopeKeyEnd AND META().id NOT LIKE $scopeKeySubTreePattern");
+	}
+
+	@Test
+	public void checkUseKeysIsParameterized() {
+		String query = Select.select("gluu_doc.*").from(Expression.i("gluu")).as("gluu_doc")
+				.useKeys(CouchbaseOperationServiceImpl.createKeysExpression()).where(Expression.path("uid").eq(Expression.x("$uid"))).toString();
+
+		assertTrue(query.contains("USE KEYS $scopeKey"), query);
+		assertFalse(query.contains(KEY), query);
+	}
+
+	@Test
+	public void checkKeyParameters() {
+		JsonObject queryParameters = JsonObject.create().put("uid", "test");
+		JsonObject keyParameters = CouchbaseOperationServiceImpl.createKeyParameters(queryParameters, KEY);
+
+		assertEquals(keyParameters.getString("uid"), "test");
+		assertEquals(keyParameters.getString("scopeKey"), KEY);
+		assertEquals(keyParameters.getString("scopeKeyStart"), KEY);
+		assertEquals(keyParameters.getString("scopeKeyEnd"), KEY + "\uffff");
+		assertEquals(keyParameters.getString("scopeKeySubTreePattern"), KEY + "\\_%\\_");
+
+		// Query parameters are not changed
+		assertEquals(queryParameters.size(), 1);
+	}
+
+}
@@ -0,0 +1,111 @@
+package org.gluu.persist.couchbase.impl.test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gluu.orm.couchbase.impl.CouchbaseFilterConverter;
+import org.gluu.orm.couchbase.model.ConvertedExpression;
+import org.gluu.orm.couchbase.operation.impl.CouchbaseOperationServiceImpl;
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.reflect.property.PropertyAnnotation;
+import org.gluu.search.filter.Filter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.query.Select;
+import com.couchbase.client.java.query.dsl.Expression;
+
+public class CouchbaseSubstringSearchFilterTest {
+
+	private CouchbaseFilterConverter searchConverter;
+	private CouchbaseFilterConverter simpleConverter;
+
+	private Map<String, PropertyAnnotation> propertiesAnnotationsMap;
+
+	@BeforeClass
+	public void init() throws NoSuchFieldException {
+		this.searchConverter = new CouchbaseFilterConverter(null);
+		this.searchConverter.setSubstringSearchIndex("gluu_substring");
+
+		// FTS index is not configured
+		this.simpleConverter = new CouchbaseFilterConverter(null);
+
+		this.propertiesAnnotationsMap = new HashMap<String, PropertyAnnotation>();
+		this.propertiesAnnotationsMap.put("uid", new PropertyAnnotation("uid", Arrays.asList(SubstringEntry.class.getDeclaredField("uid").getAnnotations())));
+		this.propertiesAnnotationsMap.put("displayName",
+				new PropertyAnnotation("displayName", Arrays.asList(SubstringEntry.class.getDeclaredField("displayName").getAnnotations())));
+	}
+
+	@Test
+	public void checkSearchWithQualifiedPath() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = searchConverter.convertToCouchbaseFilter(filterSub1, propertiesAnnotationsMap);
+		assertEquals(toSelectSQL(expressionSub1),
+				"SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE ( SEARCH(gluu_doc.uid, \"*test*\", {\"index\":\"gluu_substring\"}) AND uid LIKE \"%test%\" )");
+
+		Filter filterSub2 = Filter.createSubstringFilter("uid", "a", new String[] { "test" }, "z");
+		ConvertedExpression expressionSub2 = searchConverter.convertToCouchbaseFilter(filterSub2, propertiesAnnotationsMap);
+		assertEquals(toSelectSQL(expressionSub2),
+				"SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE ( SEARCH(gluu_doc.uid, \"a*test*z\", {\"index\":\"gluu_substring\"}) AND uid LIKE \"a%test%z\" )");
+	}
+
+	@Test
+	public void checkSearchWithQueryParameters() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		JsonObject queryParameters = JsonObject.create();
+		ConvertedExpression expressionSub1 = searchConverter.convertToCouchbaseFilter(filterSub1, propertiesAnnotationsMap, null, queryParameters);
+		assertEquals(toSelectSQL(expressionSub1),
+				"SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE ( SEARCH(gluu_doc.uid, $p2, {\"index\":\"gluu_substring\"}) AND uid LIKE $p1 )");
+		assertEquals(queryParameters.getString("p1"), "%test%");
+		assertEquals(queryParameters.getString("p2"), "*test*");
+	}
+
+	@Test
+	public void checkNoSearchWithoutIndex() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = simpleConverter.convertToCouchbaseFilter(filterSub1, propertiesAnnotationsMap);
+		assertEquals(toSelectSQL(expressionSub1), "SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE uid LIKE \"%test%\"");
+	}
+
+	@Test
+	public void checkNoSearchWithoutSubstringIndexAttribute() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("displayName", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = searchConverter.convertToCouchbaseFilter(filterSub1, propertiesAnnotationsMap);
+		assertEquals(toSelectSQL(expressionSub1), "SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE displayName LIKE \"%test%\"");
+
+		Filter filterSub2 = Filter.createSubstringFilter(Filter.createLowercaseFilter("uid"), null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub2 = searchConverter.convertToCouchbaseFilter(filterSub2, propertiesAnnotationsMap);
+		assertEquals(toSelectSQL(expressionSub2), "SELECT gluu_doc.* FROM `gluu` AS gluu_doc WHERE LOWER(uid) LIKE \"%test%\"");
+	}
+
+	@Test
+	public void checkCountQueryHasAlias() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = searchConverter.convertToCouchbaseFilter(filterSub1, propertiesAnnotationsMap);
+
+		assertEquals(CouchbaseOperationServiceImpl.createCountQuery("gluu", expressionSub1.expression(), false).toString(),
+				"SELECT COUNT(*) as TOTAL FROM `gluu` AS gluu_doc WHERE ( SEARCH(gluu_doc.uid, \"*test*\", {\"index\":\"gluu_substring\"}) AND uid LIKE \"%test%\" )");
+		assertEquals(CouchbaseOperationServiceImpl.createCountQuery("gluu", expressionSub1.expression(), true).toString(),
+				"SELECT COUNT(*) as TOTAL FROM `gluu` AS gluu_doc USE KEYS $scopeKey WHERE ( SEARCH(gluu_doc.uid, \"*test*\", {\"index\":\"gluu_substring\"}) AND uid LIKE \"%test%\" )");
+	}
+
+	private String toSelectSQL(ConvertedExpression convertedExpression) {
+		return Select.select("gluu_doc.*").from(Expression.i("gluu")).as("gluu_doc").where(convertedExpression.expression()).toString();
+	}
+
+	static class SubstringEntry {
+
+		@AttributeName(name = "uid", substringIndex = true)
+		private String uid;
+
+		@AttributeName(name = "displayName")
+		private String displayName;
+
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.search.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.gluu.orm.util.ArrayHelper;
+import org.gluu.orm.util.StringHelper;
+
+/**
+ * Backend independent filter optimizer. It flattens nested AND/OR filters, removes duplicate terms,
+ * groups OR of equalities by attribute (converters build IN from such groups), folds double NOT
+ * and orders AND terms by estimated selectivity. Input filter is not modified
+ */
+public class FilterOptimizer {
+
+	public static final String SELECTIVITY_PROPERTY_PREFIX = "filter.optimizer.selectivity.";
+
+	public static final double DEFAULT_EQUALITY_SELECTIVITY = 0.01;
+	public static final double DEFAULT_UNKNOWN_SELECTIVITY = 0.5;
+
+	private final Map<String, Double> selectivityHints;
+
+	public FilterOptimizer() {
+		this(Collections.<String, Double>emptyMap());
+	}
+
+	/*
+	 * Selectivity hints are attribute name to estimated fraction of entries which match equality filter
+	 */
+	public FilterOptimizer(Map<String, Double> selectivityHints) {
+		this.selectivityHints = new HashMap<String, Double>();
+		// Almost all entries in table/bucket have same objectClass
+		this.selectivityHints.put("objectclass", 0.5);
+		for (Entry<String, Double> selectivityHint : selectivityHints.entrySet()) {
+			this.selectivityHints.put(StringHelper.toLowerCase(selectivityHint.getKey()), selectivityHint.getValue());
+		}
+	}
+
+	/*
+	 * Returns null if optimizer is not enabled in configuration
+	 */
+	public static FilterOptimizer create(Properties props) {
+		if (!StringHelper.toBoolean(props.getProperty("filter.optimizer.enabled"), false)) {
+			return null;
+		}
+
+		Map<String, Double> selectivityHints = new HashMap<String, Double>();
+		for (String propertyName : props.stringPropertyNames()) {
+			if (!propertyName.startsWith(SELECTIVITY_PROPERTY_PREFIX)) {
+				continue;
+			}
+
+			String attributeName = propertyName.substring(SELECTIVITY_PROPERTY_PREFIX.length());
+			try {
+				double selectivity = Double.parseDouble(props.getProperty(propertyName));
+				if ((selectivity >= 0) && (selectivity <= 1)) {
+					selectivityHints.put(attributeName, selectivity);
+				}
+			} catch (NumberFormatException ex) {
+				// Skip invalid hint
+			}
+		}
+
+		return new FilterOptimizer(selectivityHints);
+	}
+
+	public Filter optimize(Filter filter) {
+		if (filter == null) {
+			return null;
+		}
+
+		FilterType type = filter.getType();
+		if (FilterType.NOT == type) {
+			return optimizeNot(filter);
+		}
+
+		if (((FilterType.AND != type) && (FilterType.OR != type)) || (filter.getFilters() == null)) {
+			return filter;
+		}
+
+		List<Filter> terms = new ArrayList<Filter>(filter.getFilters().length);
+		for (Filter childFilter : filter.getFilters()) {
+			collectTerms(filter, optimize(childFilter), terms);
+		}
+
+		if ((terms.size() == 1) && (filter.getMultiValued() == null)) {
+			return terms.get(0);
+		}
+
+		if (FilterType.OR == type) {
+			terms = groupEqualities(filter, terms);
+		} else {
+			Collections.sort(terms, (filter1, filter2) -> Double.compare(estimateSelectivity(filter1), estimateSelectivity(filter2)));
+		}
+
+		return copyFilter(filter, terms);
+	}
+
+	private Filter optimizeNot(Filter filter) {
+		if (ArrayHelper.isEmpty(filter.getFilters())) {
+			return filter;
+		}
+
+		Filter childFilter = optimize(filter.getFilters()[0]);
+		if (childFilter == null) {
+			return filter;
+		}
+
+		if ((FilterType.NOT == childFilter.getType()) && ArrayHelper.isNotEmpty(childFilter.getFilters())
+				&& (filter.getMultiValued() == null) && (childFilter.getMultiValued() == null)) {
+			// Child filter is optimized already
+			return childFilter.getFilters()[0];
+		}
+
+		if (childFilter == filter.getFilters()[0]) {
+			return filter;
+		}
+
+		return copyFilter(filter, Arrays.asList(childFilter));
+	}
+
+	/*
+	 * Adds term with flattening of nested filters with same type and skips duplicates
+	 */
+	private void collectTerms(Filter parentFilter, Filter filter, List<Filter> terms) {
+		if ((parentFilter.getType() == filter.getType()) && (filter.getFilters() != null) && isSameMultiValued(parentFilter, filter)) {
+			for (Filter childFilter : filter.getFilters()) {
+				collectTerms(parentFilter, childFilter, terms);
+			}
+			return;
+		}
+
+		for (Filter term : terms) {
+			if (isSameFilter(term, filter)) {
+				return;
+			}
+		}
+
+		terms.add(filter);
+	}
+
+	/*
+	 * Replaces equalities with same attribute in OR with OR group of them. Converters can build IN from it
+	 */
+	private List<Filter> groupEqualities(Filter parentFilter, List<Filter> terms) {
+		Map<String, List<Filter>> equalities = new LinkedHashMap<String, List<Filter>>();
+		for (Filter term : terms) {
+			if (isSimpleEquality(term)) {
+				List<Filter> attributeEqualities = equalities.get(term.getAttributeName());
+				if (attributeEqualities == null) {
+					attributeEqualities = new ArrayList<Filter>();
+					equalities.put(term.getAttributeName(), attributeEqualities);
+				}
+				attributeEqualities.add(term);
+			}
+		}
+
+		if ((equalities.size() == 1) && (equalities.values().iterator().next().size() == terms.size())) {
+			// It's OR of equalities already
+			return terms;
+		}
+
+		List<Filter> result = new ArrayList<Filter>(terms.size());
+		for (Filter term : terms) {
+			if (!isSimpleEquality(term)) {
+				result.add(term);
+				continue;
+			}
+
+			List<Filter> attributeEqualities = equalities.get(term.getAttributeName());
+			if (attributeEqualities.size() == 1) {
+				result.add(term);
+			} else if (attributeEqualities.get(0) == term) {
+				// Put group in place of first equality
+				result.add(copyFilter(parentFilter, attributeEqualities));
+			}
+		}
+
+		return result;
+	}
+
+	protected double estimateSelectivity(Filter filter) {
+		FilterType type = filter.getType();
+		if (FilterType.EQUALITY == type) {
+			if (filter.getAttributeName() == null) {
+				// Equality with function
+				return DEFAULT_EQUALITY_SELECTIVITY * 5;
+			}
+			return getSelectivityHint(filter.getAttributeName(), DEFAULT_EQUALITY_SELECTIVITY);
+		}
+
+		if (FilterType.SUBSTRING == type) {
+			return filter.getSubInitial() != null ? 0.1 : 0.3;
+		}
+
+		if ((FilterType.LESS_OR_EQUAL == type) || (FilterType.GREATER_OR_EQUAL == type) || (FilterType.APPROXIMATE_MATCH == type)) {
+			return 0.3;
+		}
+
+		if (FilterType.PRESENCE == type) {
+			return 0.9;
+		}
+
+		Filter[] filters = filter.getFilters();
+		if (ArrayHelper.isEmpty(filters)) {
+			return DEFAULT_UNKNOWN_SELECTIVITY;
+		}
+
+		if (FilterType.NOT == type) {
+			return 1 - estimateSelectivity(filters[0]);
+		}
+
+		if (FilterType.AND == type) {
+			double selectivity = 1;
+			for (Filter childFilter : filters) {
+				selectivity = Math.min(selectivity, estimateSelectivity(childFilter));
+			}
+			return selectivity;
+		}
+
+		if (FilterType.OR == type) {
+			double selectivity = 0;
+			for (Filter childFilter : filters) {
+				selectivity += estimateSelectivity(childFilter);
+			}
+			return Math.min(1, selectivity);
+		}
+
+		return DEFAULT_UNKNOWN_SELECTIVITY;
+	}
+
+	private double getSelectivityHint(String attributeName, double defaultSelectivity) {
+		Double selectivity = selectivityHints.get(StringHelper.toLowerCase(attributeName));
+		if (selectivity == null) {
+			return defaultSelectivity;
+		}
+
+		return selectivity;
+	}
+
+	private boolean isSimpleEquality(Filter filter) {
+		return (FilterType.EQUALITY == filter.getType()) && (filter.getFilters() == null) && (filter.getAttributeName() != null)
+				&& (filter.getMultiValued() == null);
+	}
+
+	private Filter copyFilter(Filter filter, List<Filter> filters) {
+		Filter resultFilter = filter.clone();
+		resultFilter.setFilters(filters.toArray(new Filter[filters.size()]));
+
+		return resultFilter;
+	}
+
+	private boolean isSameMultiValued(Filter filter1, Filter filter2) {
+		return Objects.equals(filter1.getMultiValued(), filter2.getMultiValued()) && (filter1.getMultiValuedCount() == filter2.getMultiValuedCount());
+	}
+
+	private boolean isSameFilter(Filter filter1, Filter filter2) {
+		if (filter1 == filter2) {
+			return true;
+		}
+
+		if ((filter1.getType() != filter2.getType()) || !isSameMultiValued(filter1, filter2)) {
+			return false;
+		}
+
+		if (!Objects.equals(filter1.getAttributeName(), filter2.getAttributeName()) || !Objects.equals(filter1.getFilterString(), filter2.getFilterString())
+				|| !Objects.deepEquals(filter1.getAssertionValue(), filter2.getAssertionValue())) {
+			return false;
+		}
+
+		if (!Objects.equals(filter1.getSubInitial(), filter2.getSubInitial()) || !Arrays.equals(filter1.getSubAny(), filter2.getSubAny())
+				|| !Objects.equals(filter1.getSubFinal(), filter2.getSubFinal())) {
+			return false;
+		}
+
+		Filter[] filters1 = filter1.getFilters();
+		Filter[] filters2 = filter2.getFilters();
+		if ((filters1 == null) || (filters2 == null)) {
+			return filters1 == filters2;
+		}
+
+		if (filters1.length != filters2.length) {
+			return false;
+		}
+
+		for (int i = 0; i < filters1.length; i++) {
+			if (!isSameFilter(filters1[i], filters2[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+}
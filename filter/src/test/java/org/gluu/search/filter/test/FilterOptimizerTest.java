@@ -0,0 +1,215 @@
+package org.gluu.search.filter.test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
+import org.gluu.search.filter.FilterType;
+import org.testng.annotations.Test;
+
+public class FilterOptimizerTest {
+
+	private static final String[] ATTRIBUTES = { "uid", "mail", "gluuStatus" };
+	private static final String[] VALUES = { "1", "2", "3" };
+
+	private final FilterOptimizer filterOptimizer = new FilterOptimizer();
+
+	@Test
+	public void checkFlattening() {
+		Filter filter = Filter.createANDFilter(Filter.createEqualityFilter("uid", "1"),
+				Filter.createANDFilter(Filter.createEqualityFilter("mail", "2"), Filter.createANDFilter(Filter.createEqualityFilter("gluuStatus", "3"))));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(&(uid=1)(mail=2)(gluuStatus=3))");
+	}
+
+	@Test
+	public void checkFlatteningKeepsMultiValuedFilter() {
+		Filter filter = Filter.createORFilter(Filter.createEqualityFilter("uid", "1"),
+				Filter.createORFilter(Filter.createEqualityFilter("mail", "2"), Filter.createEqualityFilter("mail", "3")).multiValued());
+
+		Filter optimizedFilter = filterOptimizer.optimize(filter);
+		assertEquals(optimizedFilter.getFilters().length, 2);
+		assertEquals(optimizedFilter.getFilters()[1].getMultiValued(), Boolean.TRUE);
+	}
+
+	@Test
+	public void checkSingleTermCollapse() {
+		Filter filter = Filter.createANDFilter(Filter.createORFilter(Filter.createEqualityFilter("uid", "1")));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(uid=1)");
+	}
+
+	@Test
+	public void checkDeduplication() {
+		Filter filter = Filter.createORFilter(Filter.createEqualityFilter("uid", "1"), Filter.createEqualityFilter("mail", "2"),
+				Filter.createEqualityFilter("uid", "1"));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(|(uid=1)(mail=2))");
+	}
+
+	@Test
+	public void checkDeduplicationAfterFlattening() {
+		Filter filter = Filter.createANDFilter(Filter.createEqualityFilter("uid", "1"),
+				Filter.createANDFilter(Filter.createEqualityFilter("uid", "1"), Filter.createEqualityFilter("mail", "2")));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(&(uid=1)(mail=2))");
+	}
+
+	@Test
+	public void checkDoubleNotFolding() {
+		Filter filter = Filter.createNOTFilter(Filter.createNOTFilter(Filter.createEqualityFilter("uid", "1")));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(uid=1)");
+	}
+
+	@Test
+	public void checkTripleNotFolding() {
+		Filter filter = Filter.createNOTFilter(Filter.createNOTFilter(Filter.createNOTFilter(Filter.createEqualityFilter("uid", "1"))));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(!(uid=1))");
+	}
+
+	@Test
+	public void checkOrGrouping() {
+		Filter filter = Filter.createORFilter(Filter.createEqualityFilter("uid", "1"), Filter.createEqualityFilter("mail", "2"),
+				Filter.createEqualityFilter("uid", "3"));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(|(|(uid=1)(uid=3))(mail=2))");
+	}
+
+	@Test
+	public void checkOrOfSameAttributeIsNotGrouped() {
+		Filter filter = Filter.createORFilter(Filter.createEqualityFilter("uid", "1"), Filter.createEqualityFilter("uid", "2"));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(|(uid=1)(uid=2))");
+	}
+
+	@Test
+	public void checkSelectivityOrdering() {
+		Filter filter = Filter.createANDFilter(Filter.createPresenceFilter("mail"), Filter.createEqualityFilter("objectClass", "gluuPerson"),
+				Filter.createSubstringFilter("displayName", "test", null, null), Filter.createEqualityFilter("uid", "1"));
+
+		assertEquals(filterOptimizer.optimize(filter).toString(), "(&(uid=1)(displayName=test*)(objectClass=gluuPerson)(mail=*))");
+	}
+
+	@Test
+	public void checkSelectivityHints() {
+		FilterOptimizer hintedFilterOptimizer = new FilterOptimizer(Collections.singletonMap("UID", 0.95));
+		Filter filter = Filter.createANDFilter(Filter.createEqualityFilter("uid", "1"), Filter.createPresenceFilter("mail"));
+
+		assertEquals(hintedFilterOptimizer.optimize(filter).toString(), "(&(mail=*)(uid=1))");
+	}
+
+	@Test
+	public void checkInputFilterIsNotModified() {
+		Filter filter = Filter.createANDFilter(Filter.createPresenceFilter("mail"),
+				Filter.createANDFilter(Filter.createEqualityFilter("uid", "1"), Filter.createEqualityFilter("uid", "1")));
+		String filterString = filter.toString();
+
+		filterOptimizer.optimize(filter);
+		assertEquals(filter.toString(), filterString);
+	}
+
+	@Test
+	public void checkOptimizedFilterHasSameMeaning() {
+		List<Map<String, List<String>>> entries = createEntries();
+
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			Filter filter = createRandomFilter(random, 4);
+			Filter optimizedFilter = filterOptimizer.optimize(filter);
+			for (Map<String, List<String>> entry : entries) {
+				assertEquals(matches(optimizedFilter, entry), matches(filter, entry),
+						String.format("Filter '%s' optimized to '%s' gives different result for entry %s", filter, optimizedFilter, entry));
+			}
+		}
+	}
+
+	private List<Map<String, List<String>>> createEntries() {
+		List<Map<String, List<String>>> entries = new ArrayList<Map<String, List<String>>>();
+		entries.add(new HashMap<String, List<String>>());
+		for (String attribute : ATTRIBUTES) {
+			for (String value : VALUES) {
+				Map<String, List<String>> entry = new HashMap<String, List<String>>();
+				entry.put(attribute, Arrays.asList(value));
+				entries.add(entry);
+			}
+		}
+
+		// Entries with few attributes and multi-valued attributes
+		for (int i = 0; i < VALUES.length; i++) {
+			Map<String, List<String>> entry = new HashMap<String, List<String>>();
+			entry.put(ATTRIBUTES[0], Arrays.asList(VALUES[i]));
+			entry.put(ATTRIBUTES[1], Arrays.asList(VALUES[(i + 1) % VALUES.length], VALUES[(i + 2) % VALUES.length]));
+			entry.put(ATTRIBUTES[2], Arrays.asList(VALUES[(i + 2) % VALUES.length]));
+			entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	private Filter createRandomFilter(Random random, int depth) {
+		int kind = depth == 0 ? random.nextInt(2) : random.nextInt(5);
+		if (kind == 0) {
+			return Filter.createEqualityFilter(ATTRIBUTES[random.nextInt(ATTRIBUTES.length)], VALUES[random.nextInt(VALUES.length)]);
+		}
+		if (kind == 1) {
+			return Filter.createPresenceFilter(ATTRIBUTES[random.nextInt(ATTRIBUTES.length)]);
+		}
+		if (kind == 2) {
+			return Filter.createNOTFilter(createRandomFilter(random, depth - 1));
+		}
+
+		Filter[] filters = new Filter[1 + random.nextInt(4)];
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] = createRandomFilter(random, depth - 1);
+		}
+
+		return kind == 3 ? Filter.createANDFilter(filters) : Filter.createORFilter(filters);
+	}
+
+	private boolean matches(Filter filter, Map<String, List<String>> entry) {
+		FilterType type = filter.getType();
+		if (FilterType.EQUALITY == type) {
+			List<String> values = entry.get(filter.getAttributeName());
+			return (values != null) && values.contains(filter.getAssertionValue());
+		}
+
+		if (FilterType.PRESENCE == type) {
+			return entry.containsKey(filter.getAttributeName());
+		}
+
+		if (FilterType.NOT == type) {
+			return !matches(filter.getFilters()[0], entry);
+		}
+
+		if (FilterType.AND == type) {
+			for (Filter childFilter : filter.getFilters()) {
+				if (!matches(childFilter, entry)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		if (FilterType.OR == type) {
+			for (Filter childFilter : filter.getFilters()) {
+				if (matches(childFilter, entry)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		throw new IllegalArgumentException("Unsupported filter type " + type);
+	}
+
+}
@@ -7,30 +7,45 @@
 package org.gluu.orm.hybrid.impl;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import org.gluu.persist.PersistenceEntryManager;
 import org.gluu.persist.event.DeleteNotifier;
-import org.gluu.persist.exception.KeyConversionException;
+import org.gluu.persist.exception.EntryPersistenceException;
 import org.gluu.persist.exception.MappingException;
 import org.gluu.persist.exception.operation.ConfigurationException;
 import org.gluu.persist.impl.BaseEntryManager;
-import org.gluu.persist.impl.GenericKeyConverter;
-import org.gluu.persist.impl.model.ParsedKey;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
 import org.gluu.persist.model.SortOrder;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
 import org.gluu.search.filter.Filter;
-import org.gluu.orm.util.ArrayHelper;
 import org.gluu.orm.util.StringHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,22 +61,38 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 
     private static final Logger LOG = LoggerFactory.getLogger(HybridEntryManager.class);
 
-    private static final GenericKeyConverter KEY_CONVERTER = new GenericKeyConverter();
+    public static final int DEFAULT_SCATTER_GATHER_THREADS = 16;
 
 	private Properties mappingProperties;
-	private HashMap<String, PersistenceEntryManager> persistenceEntryManagers;
+	private Map<String, PersistenceEntryManager> persistenceEntryManagers;
+	private Map<String, CompletableFuture<PersistenceEntryManager>> pendingEntryManagers;
 	private HybridPersistenceOperationService operationService;
 
-	private PersistenceEntryManager defaultPersistenceEntryManager;
-	private HashMap<String, PersistenceEntryManager> baseNameToEntryManagerMapping;
+	private HybridRoutingTable routingTable;
+	private long pendingTimeout;
+
+	private boolean scatterGather;
+	private ExecutorService scatterGatherExecutor;
+
+	private List<DeleteNotifier> deleteSubscribers;
 
     public HybridEntryManager() {
     }
 
     public HybridEntryManager(Properties mappingProperties, HashMap<String, PersistenceEntryManager> persistenceEntryManagers, HybridPersistenceOperationService operationService) {
+    	this(mappingProperties, persistenceEntryManagers, new HashMap<String, CompletableFuture<PersistenceEntryManager>>(), operationService);
+    }
+
+    /*
+     * Pending entry managers are connecting in background. Operations with them wait for connection
+     */
+    public HybridEntryManager(Properties mappingProperties, HashMap<String, PersistenceEntryManager> persistenceEntryManagers,
+    		Map<String, CompletableFuture<PersistenceEntryManager>> pendingEntryManagers, HybridPersistenceOperationService operationService) {
     	this.mappingProperties = mappingProperties;
-    	this.persistenceEntryManagers = persistenceEntryManagers;
+    	this.persistenceEntryManagers = new ConcurrentHashMap<String, PersistenceEntryManager>(persistenceEntryManagers);
+    	this.pendingEntryManagers = new ConcurrentHashMap<String, CompletableFuture<PersistenceEntryManager>>(pendingEntryManagers);
     	this.operationService = operationService;
+    	this.deleteSubscribers = new ArrayList<DeleteNotifier>();
 
     	init();
 	}
@@ -71,24 +102,99 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
         if (StringHelper.isEmpty(defaultPersistenceType) || (persistenceEntryManagers.get(defaultPersistenceType) == null)) {
             throw new ConfigurationException("Default persistence type is not defined!");
         }
-        this.defaultPersistenceEntryManager = persistenceEntryManagers.get(defaultPersistenceType);
 
-        this.baseNameToEntryManagerMapping = new HashMap<String, PersistenceEntryManager>();
-        for (Entry<String, PersistenceEntryManager> persistenceTypeEntry : persistenceEntryManagers.entrySet()) {
-        	String mapping = mappingProperties.getProperty(String.format("storage.%s.mapping", persistenceTypeEntry.getKey()), "");
+        Set<String> persistenceTypes = new HashSet<String>(persistenceEntryManagers.keySet());
+        persistenceTypes.addAll(pendingEntryManagers.keySet());
+
+        Map<String, String> baseNameToPersistenceTypeMapping = new HashMap<String, String>();
+        for (String persistenceType : persistenceTypes) {
+        	String mapping = mappingProperties.getProperty(String.format("storage.%s.mapping", persistenceType), "");
             String[] baseNames = StringHelper.split(mapping, ",");
             for (String baseName : baseNames) {
-            	baseNameToEntryManagerMapping.put(baseName, persistenceTypeEntry.getValue());
+            	baseNameToPersistenceTypeMapping.put(baseName, persistenceType);
             }
         }
+
+        int routingCacheSize = StringHelper.toInteger(mappingProperties.getProperty("storage.routing-cache-size"), HybridRoutingTable.DEFAULT_CACHE_SIZE);
+        LOG.info("Option storage.routing-cache-size: " + routingCacheSize);
+        this.routingTable = new HybridRoutingTable(defaultPersistenceType, baseNameToPersistenceTypeMapping, routingCacheSize);
+
+        this.scatterGather = StringHelper.toBoolean(mappingProperties.getProperty("storage.scatter-gather"), false);
+        LOG.info("Option storage.scatter-gather: " + scatterGather);
+        if (this.scatterGather) {
+        	int scatterGatherThreads = StringHelper.toInteger(mappingProperties.getProperty("storage.scatter-gather-threads"), DEFAULT_SCATTER_GATHER_THREADS);
+        	LOG.info("Option storage.scatter-gather-threads: " + scatterGatherThreads);
+
+        	// Backend operation is executed in caller thread if all scatter-gather threads are busy
+        	ThreadPoolExecutor scatterGatherThreadPool = new ThreadPoolExecutor(scatterGatherThreads, scatterGatherThreads, 60, TimeUnit.SECONDS,
+        			new SynchronousQueue<Runnable>(), new ThreadFactory() {
+    			@Override
+    			public Thread newThread(Runnable runnable) {
+    				Thread thread = new Thread(runnable, "hybrid-scatter-gather");
+    				thread.setDaemon(true);
+    				return thread;
+    			}
+    		}, new ThreadPoolExecutor.CallerRunsPolicy());
+        	scatterGatherThreadPool.allowCoreThreadTimeOut(true);
+    		this.scatterGatherExecutor = scatterGatherThreadPool;
+        }
+
+        this.pendingTimeout = StringHelper.toLong(mappingProperties.getProperty("storage.pending-timeout"), HybridEntryManagerFactory.DEFAULT_STARTUP_TIMEOUT);
+        LOG.info("Option storage.pending-timeout: " + pendingTimeout);
+
+        for (Entry<String, CompletableFuture<PersistenceEntryManager>> pendingEntryManagerEntry : new ArrayList<Entry<String, CompletableFuture<PersistenceEntryManager>>>(pendingEntryManagers.entrySet())) {
+        	String persistenceType = pendingEntryManagerEntry.getKey();
+        	CompletableFuture<PersistenceEntryManager> pendingEntryManager = pendingEntryManagerEntry.getValue();
+
+        	// Waiting operations should get entry manager only after registration of delete subscribers
+        	CompletableFuture<PersistenceEntryManager> registeredEntryManager = pendingEntryManager.thenApply(persistenceEntryManager -> {
+        		registerEntryManager(persistenceType, persistenceEntryManager);
+        		return persistenceEntryManager;
+        	});
+        	registeredEntryManager.whenComplete((persistenceEntryManager, ex) -> {
+        		if (ex != null) {
+        			LOG.error("Failed to create persistence type '{}'", persistenceType, ex);
+        		}
+        	});
+
+        	// Entry manager can be registered already if it was created before this call
+        	pendingEntryManagers.replace(persistenceType, pendingEntryManager, registeredEntryManager);
+        }
+    }
+
+    private synchronized void registerEntryManager(String persistenceType, PersistenceEntryManager persistenceEntryManager) {
+    	for (DeleteNotifier subscriber : deleteSubscribers) {
+    		persistenceEntryManager.addDeleteSubscriber(subscriber);
+    	}
+
+    	persistenceEntryManagers.put(persistenceType, persistenceEntryManager);
+    	operationService.addPersistenceOperationService(persistenceEntryManager.getOperationService());
+    	pendingEntryManagers.remove(persistenceType);
+    	LOG.info("Persistence type '{}' is ready", persistenceType);
+    }
+
+    /*
+     * Persistence type to readiness state
+     */
+    public Map<String, Boolean> getReadiness() {
+    	Map<String, Boolean> readiness = new HashMap<String, Boolean>();
+    	for (String persistenceType : pendingEntryManagers.keySet()) {
+    		readiness.put(persistenceType, Boolean.FALSE);
+    	}
+    	for (String persistenceType : persistenceEntryManagers.keySet()) {
+    		readiness.put(persistenceType, Boolean.TRUE);
+    	}
+
+    	return readiness;
     }
 
     @Override
-    public void addDeleteSubscriber(DeleteNotifier subscriber) {
+    public synchronized void addDeleteSubscriber(DeleteNotifier subscriber) {
         if (this.persistenceEntryManagers == null) {
             return;
         }
 
+        deleteSubscribers.add(subscriber);
         for (PersistenceEntryManager persistenceEntryManager : persistenceEntryManagers.values()) {
     		persistenceEntryManager.addDeleteSubscriber(subscriber);
         }
@@ -132,6 +238,32 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 		return persistenceEntryManager.contains(baseDN, entryClass, filter);
 	}
 
+	@Override
+	public <T> Set<String> findExistingKeys(Class<T> entryClass, Collection<String> primaryKeys) {
+		Set<String> result = new HashSet<String>();
+		if ((primaryKeys == null) || primaryKeys.isEmpty()) {
+			return result;
+		}
+
+		// Send one request per persistence layer
+		Map<PersistenceEntryManager, List<String>> entryManagerKeys = new HashMap<PersistenceEntryManager, List<String>>();
+		for (String primaryKey : primaryKeys) {
+			PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(primaryKey);
+			List<String> keys = entryManagerKeys.get(persistenceEntryManager);
+			if (keys == null) {
+				keys = new ArrayList<String>();
+				entryManagerKeys.put(persistenceEntryManager, keys);
+			}
+			keys.add(primaryKey);
+		}
+
+		for (Entry<PersistenceEntryManager, List<String>> entryManagerKeysEntry : entryManagerKeys.entrySet()) {
+			result.addAll(entryManagerKeysEntry.getKey().findExistingKeys(entryClass, entryManagerKeysEntry.getValue()));
+		}
+
+		return result;
+	}
+
 	@Override
     public <T> int countEntries(Object entry) {
         Class<?> entryClass = entry.getClass();
@@ -143,12 +275,20 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 
     @Override
     public <T> int countEntries(String baseDN, Class<T> entryClass, Filter filter) {
+    	if (isScatterGather(baseDN)) {
+    		return sumCounts(scatter(persistenceEntryManager -> persistenceEntryManager.countEntries(baseDN, entryClass, filter)));
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
     	return persistenceEntryManager.countEntries(baseDN, entryClass, filter);
     }
 
 	@Override
     public <T> int countEntries(String baseDN, Class<T> entryClass, Filter filter, SearchScope scope) {
+    	if (isScatterGather(baseDN)) {
+    		return sumCounts(scatter(persistenceEntryManager -> persistenceEntryManager.countEntries(baseDN, entryClass, filter, scope)));
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
     	return persistenceEntryManager.countEntries(baseDN, entryClass, filter, scope);
     }
@@ -165,6 +305,15 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
             return true;
         }
 
+        if (this.scatterGatherExecutor != null) {
+        	this.scatterGatherExecutor.shutdownNow();
+        }
+
+        for (CompletableFuture<PersistenceEntryManager> pendingEntryManager : pendingEntryManagers.values()) {
+        	// Destroy it when it will be created
+        	pendingEntryManager.thenAccept(persistenceEntryManager -> persistenceEntryManager.destroy());
+        }
+
         boolean result = true;
         for (PersistenceEntryManager persistenceEntryManager : persistenceEntryManagers.values()) {
         	try {
@@ -177,6 +326,13 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
         return result;
     }
 
+	@Override
+    public void flush() {
+        for (PersistenceEntryManager persistenceEntryManager : persistenceEntryManagers.values()) {
+        	persistenceEntryManager.flush();
+        }
+    }
+
 	@Override
     public String encodeTime(String baseDN, Date date) {
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
@@ -226,12 +382,22 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 
     @Override
 	public <T> List<T> findEntries(String baseDN, Class<T> entryClass, Filter filter) {
+    	if (isScatterGather(baseDN)) {
+    		return gather(scatter(persistenceEntryManager -> persistenceEntryManager.findEntries(baseDN, entryClass, filter)),
+    				getEntrySortComparator(entryClass), 0, 0);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findEntries(baseDN, entryClass, filter);
 	}
 
     @Override
 	public <T> List<T> findEntries(String baseDN, Class<T> entryClass, Filter filter, int count) {
+    	if (isScatterGather(baseDN)) {
+    		return gather(scatter(persistenceEntryManager -> persistenceEntryManager.findEntries(baseDN, entryClass, filter, count)),
+    				getEntrySortComparator(entryClass), 0, count);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findEntries(baseDN, entryClass, filter, count);
 	}
@@ -244,31 +410,58 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 				chunkSize);
 	}
 
+	@Override
+	public <T> void findEntriesParallel(String baseDN, Class<T> entryClass, Filter filter, BatchOperation<T> batchOperation, int parallelism) {
+    	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
+		persistenceEntryManager.findEntriesParallel(baseDN, entryClass, filter, batchOperation, parallelism);
+	}
+
 	@Override
 	public <T> List<T> findEntries(String baseDN, Class<T> entryClass, Filter filter, SearchScope scope, String[] ldapReturnAttributes,
 			int start, int count, int chunkSize) {
+    	if (isScatterGather(baseDN)) {
+    		// Each backend should return all entries before end of requested window
+    		int backendCount = count > 0 ? start + count : 0;
+    		return gather(scatter(persistenceEntryManager -> persistenceEntryManager.findEntries(baseDN, entryClass, filter, scope, ldapReturnAttributes,
+    				0, backendCount, chunkSize)), getEntrySortComparator(entryClass), start, count);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findEntries(baseDN, entryClass, filter, scope, ldapReturnAttributes, start, count, chunkSize);
 	}
 
 	@Override
 	public <T> List<T> findEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes) {
+    	if (isScatterGather(baseDN)) {
+    		return gather(scatter(persistenceEntryManager -> persistenceEntryManager.findEntries(baseDN, entryClass, filter, ldapReturnAttributes)),
+    				getEntrySortComparator(entryClass), 0, 0);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findEntries(baseDN, entryClass, filter, ldapReturnAttributes);
 	}
 
     @Override
 	public <T> List<T> findEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, int count) {
+    	if (isScatterGather(baseDN)) {
+    		return gather(scatter(persistenceEntryManager -> persistenceEntryManager.findEntries(baseDN, entryClass, filter, ldapReturnAttributes, count)),
+    				getEntrySortComparator(entryClass), 0, count);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findEntries(baseDN, entryClass, filter, ldapReturnAttributes, count);
 	}
 
     @Override
     public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
-            SortOrder sortOrder, int start, int count, int chunkSize) {
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
+    	if (isScatterGather(baseDN)) {
+    		return findPagedEntriesScatterGather(baseDN, entryClass, filter, ldapReturnAttributes, sortBy, sortOrder, start, count, chunkSize, countMode);
+    	}
+
     	PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(baseDN);
 		return persistenceEntryManager.findPagedEntries(baseDN, entryClass, filter, ldapReturnAttributes, sortBy,
-	            sortOrder, start, count, chunkSize);
+	            sortOrder, start, count, chunkSize, countMode);
     }
 
 	@Override
@@ -296,7 +489,7 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 
 	@Override
 	public PersistenceEntryManager getPersistenceEntryManager(String persistenceType) {
-		PersistenceEntryManager persistenceEntryManager = persistenceEntryManagers.get(persistenceType);
+		PersistenceEntryManager persistenceEntryManager = getEntryManagerByType(persistenceType);
 		if (persistenceEntryManager != null) {
 			return persistenceEntryManager;
 		}
@@ -308,22 +501,30 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 		return null;
 	}
 
-    private PersistenceEntryManager getPersistenceEntryManagerByKey(String key) {
-        if ("_".equals(key)) {
-            return defaultPersistenceEntryManager;
-        }
-
-        String[] baseNameParts = key.split("_");
-        if (ArrayHelper.isEmpty(baseNameParts)) {
-            throw new KeyConversionException("Failed to determine base key part!");
-        }
+    /*
+     * Waits for entry manager which is connecting in background
+     */
+    private PersistenceEntryManager getEntryManagerByType(String persistenceType) {
+		PersistenceEntryManager persistenceEntryManager = persistenceEntryManagers.get(persistenceType);
+		if (persistenceEntryManager != null) {
+			return persistenceEntryManager;
+		}
 
-        PersistenceEntryManager persistenceEntryManager = baseNameToEntryManagerMapping.get(baseNameParts[0]);
-        if (persistenceEntryManager != null) {
-            return persistenceEntryManager;
-        }
+		CompletableFuture<PersistenceEntryManager> pendingEntryManager = pendingEntryManagers.get(persistenceType);
+		if (pendingEntryManager == null) {
+			return null;
+		}
 
-        return defaultPersistenceEntryManager;
+		try {
+			return pendingEntryManager.get(pendingTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			throw new EntryPersistenceException(String.format("Persistence type '%s' is not ready after %d milliseconds", persistenceType, pendingTimeout));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConfigurationException(String.format("Waiting for persistence type '%s' was interrupted", persistenceType), ex);
+		} catch (ExecutionException ex) {
+			throw new ConfigurationException(String.format("Persistence type '%s' is not available", persistenceType), ex.getCause());
+		}
     }
 
     private PersistenceEntryManager getEntryManagerForDn(Object baseDn) {
@@ -339,9 +540,171 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
         	throw new MappingException("Entry DN is null");
         }
 
-        ParsedKey parsedKey = KEY_CONVERTER.convertToKey(baseDn);
-		return getPersistenceEntryManagerByKey(parsedKey.getKey());
-	}
+        return getEntryManagerByType(routingTable.route(baseDn));
+	}
+
+    private <T> PagedResult<T> findPagedEntriesScatterGather(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
+		Comparator<T> comparator = null;
+		if (StringHelper.isNotEmpty(sortBy)) {
+			String sortByProperty = getPropertyNameByAttributeName(entryClass, sortBy);
+			if (sortByProperty == null) {
+				throw new MappingException(String.format("Entry should has property for sort attribute '%s' to merge results", sortBy));
+			}
+			comparator = getPropertyComparator(entryClass, false, sortByProperty);
+			if (SortOrder.DESCENDING == sortOrder) {
+				comparator = comparator.reversed();
+			}
+		}
+
+		// Each backend should return all entries before end of requested page
+		int backendCount = count > 0 ? start + count : 0;
+		List<PagedResult<T>> pagedResults = scatter(persistenceEntryManager -> persistenceEntryManager.findPagedEntries(baseDN, entryClass, filter,
+				ldapReturnAttributes, sortBy, sortOrder, 0, backendCount, chunkSize, countMode));
+
+		List<List<T>> results = new ArrayList<List<T>>(pagedResults.size());
+		int totalEntriesCount = 0;
+		for (PagedResult<T> pagedResult : pagedResults) {
+			results.add(pagedResult.getEntries());
+			if ((totalEntriesCount == -1) || (pagedResult.getTotalEntriesCount() == -1)) {
+				// Some backends didn't calculate it
+				totalEntriesCount = -1;
+			} else {
+				totalEntriesCount += pagedResult.getTotalEntriesCount();
+			}
+		}
+
+		List<T> entries = gather(results, comparator, start, count);
+
+		PagedResult<T> result = new PagedResult<T>();
+		result.setEntries(entries);
+		result.setEntriesCount(entries.size());
+		result.setStart(start);
+		result.setTotalEntriesCount(totalEntriesCount);
+
+		return result;
+    }
+
+    private boolean isScatterGather(String baseDN) {
+    	return scatterGather && StringHelper.isNotEmpty(baseDN) && routingTable.isRootDn(baseDN);
+    }
+
+    /*
+     * Executes operation in all backends in parallel
+     */
+    private <R> List<R> scatter(Function<PersistenceEntryManager, R> operation) {
+    	String[] persistenceTypes = routingTable.getPersistenceTypes();
+    	List<Future<R>> futures = new ArrayList<Future<R>>(persistenceTypes.length);
+    	for (String persistenceType : persistenceTypes) {
+    		futures.add(scatterGatherExecutor.submit(() -> operation.apply(getEntryManagerByType(persistenceType))));
+    	}
+
+    	List<R> results = new ArrayList<R>(persistenceTypes.length);
+    	for (int i = 0; i < futures.size(); i++) {
+    		try {
+    			results.add(futures.get(i).get());
+    		} catch (InterruptedException ex) {
+    			cancel(futures);
+    			Thread.currentThread().interrupt();
+    			throw new EntryPersistenceException("Scatter-gather operation was interrupted", ex);
+    		} catch (ExecutionException ex) {
+    			cancel(futures);
+    			if (ex.getCause() instanceof RuntimeException) {
+    				throw (RuntimeException) ex.getCause();
+    			}
+    			throw new EntryPersistenceException(String.format("Failed to execute operation in persistence type '%s'", persistenceTypes[i]), ex.getCause());
+    		}
+    	}
+
+    	return results;
+    }
+
+    private <R> void cancel(List<Future<R>> futures) {
+    	for (Future<R> future : futures) {
+    		future.cancel(true);
+    	}
+    }
+
+    private int sumCounts(List<Integer> counts) {
+    	int result = 0;
+    	for (Integer count : counts) {
+    		result += count;
+    	}
+
+    	return result;
+    }
+
+    /*
+     * Merges sorted results with k-way merge. Without comparator results are concatenated.
+     * Backends sort with own collation which can differ from comparator. Because of this each
+     * result is sorted with comparator before merge. Backend returns first start + count entries
+     * in own order, so with different collations page borders can differ from single backend
+     */
+    private <T> List<T> gather(List<List<T>> results, Comparator<T> comparator, int start, int count) {
+    	int limit = count > 0 ? count : Integer.MAX_VALUE;
+    	int skip = start;
+
+    	List<T> merged = new ArrayList<T>();
+    	if (comparator == null) {
+    		for (List<T> result : results) {
+    			for (T entry : result) {
+    				if (merged.size() >= limit) {
+    					return merged;
+    				}
+    				if (skip > 0) {
+    					skip--;
+    				} else {
+    					merged.add(entry);
+    				}
+    			}
+    		}
+
+    		return merged;
+    	}
+
+    	final Comparator<T> entryComparator = comparator;
+    	PriorityQueue<MergeCursor<T>> cursors = new PriorityQueue<MergeCursor<T>>(Math.max(1, results.size()),
+    			(cursor1, cursor2) -> entryComparator.compare(cursor1.current(), cursor2.current()));
+    	for (List<T> result : results) {
+    		if (!result.isEmpty()) {
+    			List<T> sortedResult = new ArrayList<T>(result);
+    			sortedResult.sort(entryComparator);
+    			cursors.add(new MergeCursor<T>(sortedResult));
+    		}
+    	}
+
+    	while (!cursors.isEmpty() && (merged.size() < limit)) {
+    		MergeCursor<T> cursor = cursors.poll();
+    		T entry = cursor.next();
+    		if (skip > 0) {
+    			skip--;
+    		} else {
+    			merged.add(entry);
+    		}
+
+    		if (cursor.hasNext()) {
+    			cursors.add(cursor);
+    		}
+    	}
+
+    	return merged;
+    }
+
+    private <T> Comparator<T> getEntrySortComparator(Class<T> entryClass) {
+		String[] sortByProperties = getEntrySortByProperties(entryClass);
+		if ((sortByProperties == null) || (sortByProperties.length == 0)) {
+			return null;
+		}
+
+		return getPropertyComparator(entryClass, false, sortByProperties);
+    }
+
+    /*
+     * Number of operations routed to each persistence type
+     */
+    public Map<String, Long> getRoutingCounters() {
+    	return routingTable.getRoutingCounters();
+    }
 
 	public HybridPersistenceOperationService getOperationService() {
         return operationService;
@@ -356,6 +719,12 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
     	return persistenceEntryManager.merge(entry);
     }
 
+	@Override
+	public <T> void updateAttributes(String primaryKey, Class<T> entryClass, Map<String, Object> changes) {
+		PersistenceEntryManager persistenceEntryManager = getEntryManagerForDn(primaryKey);
+		persistenceEntryManager.updateAttributes(primaryKey, entryClass, changes);
+	}
+
 	@Override
     public void persist(Object entry) {
         Class<?> entryClass = entry.getClass();
@@ -387,11 +756,12 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 	}
 
 	@Override
-    public void removeDeleteSubscriber(DeleteNotifier subscriber) {
+    public synchronized void removeDeleteSubscriber(DeleteNotifier subscriber) {
         if (this.persistenceEntryManagers == null) {
             return;
         }
 
+        deleteSubscribers.remove(subscriber);
         for (PersistenceEntryManager persistenceEntryManager : persistenceEntryManagers.values()) {
     		persistenceEntryManager.removeDeleteSubscriber(subscriber);
         }
@@ -413,7 +783,8 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 	}
 
     @Override
-	protected void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration) {
+	protected void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration,
+			AttributeData expectedVersion) {
         throw new UnsupportedOperationException("Method not implemented.");
 	}
 
@@ -438,7 +809,7 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
 	}
 
 	@Override
-	protected <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass,
+	protected void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass,
 			Map<String, AttributeData> attributesFromLdapMap, List<AttributeDataModification> attributeDataModifications, boolean forceUpdate) {
         throw new UnsupportedOperationException("Method not implemented.");
 	}
@@ -448,4 +819,27 @@ public class HybridEntryManager extends BaseEntryManager implements Serializable
         throw new UnsupportedOperationException("Method not implemented.");
 	}
 
+    private static final class MergeCursor<T> {
+
+    	private final List<T> entries;
+    	private int position;
+
+    	private MergeCursor(List<T> entries) {
+    		this.entries = entries;
+    	}
+
+    	public T current() {
+    		return entries.get(position);
+    	}
+
+    	public T next() {
+    		return entries.get(position++);
+    	}
+
+    	public boolean hasNext() {
+    		return position < entries.size();
+    	}
+
+    }
+
 }
@@ -7,11 +7,19 @@
 package org.gluu.orm.hybrid.impl;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -54,6 +62,8 @@ public class HybridEntryManagerFactory implements PersistenceEntryManagerFactory
     public static final String PERSISTENCE_TYPE = PersistenceEntryManager.PERSITENCE_TYPES.hybrid.name();
     public static final String PROPERTIES_FILE = "gluu-hybrid%s.properties";
 
+    public static final long DEFAULT_STARTUP_TIMEOUT = 5 * 60 * 1000L;
+
 	private static final Logger LOG = LoggerFactory.getLogger(HybridEntryManagerFactory.class);
 	
 	@Inject
@@ -114,7 +124,7 @@ public class HybridEntryManagerFactory implements PersistenceEntryManagerFactory
     @Override
     public HybridEntryManager createEntryManager(Properties conf) {
     	HashMap<String, PersistenceEntryManager> persistenceEntryManagers = new HashMap<String, PersistenceEntryManager>();
-    	List<PersistenceOperationService> operationServices = new ArrayList<PersistenceOperationService>();
+    	List<PersistenceOperationService> operationServices = new CopyOnWriteArrayList<PersistenceOperationService>();
 
     	if (persistenceTypes == null) {
     		Properties hybridProperties = PropertiesHelper.findProperties(conf, PERSISTENCE_TYPE, "#");
@@ -127,29 +137,114 @@ public class HybridEntryManagerFactory implements PersistenceEntryManagerFactory
     		this.persistenceTypes = StringHelper.split(storagesList, ",");
     	}
 
-    	for (String persistenceType : persistenceTypes) {
-			PersistenceEntryManagerFactory persistenceEntryManagerFactory = persistanceFactoryService.getPersistenceEntryManagerFactory(persistenceType);
-			if (persistenceEntryManagerFactory == null) {
-				throw new ConfigurationException(String.format("Unable to get Persistence Entry Manager Factory by type '%s'", persistenceType));
+		this.hybridMappingProperties = PropertiesHelper.filterProperties(conf, "#");
+
+		long startupTimeout = StringHelper.toLong(hybridMappingProperties.getProperty("storage.startup-timeout"), DEFAULT_STARTUP_TIMEOUT);
+		boolean lazyStartup = StringHelper.toBoolean(hybridMappingProperties.getProperty("storage.lazy-startup"), false);
+		String defaultPersistenceType = hybridMappingProperties.getProperty("storage.default", null);
+		LOG.info("Option storage.startup-timeout: " + startupTimeout);
+		LOG.info("Option storage.lazy-startup: " + lazyStartup);
+
+		// Create all entry managers concurrently. Each of them can wait for connection
+		Map<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutures = new HashMap<String, CompletableFuture<PersistenceEntryManager>>();
+		ExecutorService executorService = Executors.newFixedThreadPool(persistenceTypes.length, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "hybrid-persistence-startup");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+	    	for (String persistenceType : persistenceTypes) {
+				PersistenceEntryManagerFactory persistenceEntryManagerFactory = persistanceFactoryService.getPersistenceEntryManagerFactory(persistenceType);
+				if (persistenceEntryManagerFactory == null) {
+					throw new ConfigurationException(String.format("Unable to get Persistence Entry Manager Factory by type '%s'", persistenceType));
+				}
+	
+				Properties entryManagerConf = PropertiesHelper.findProperties(conf, persistenceType, "#");
+				entryManagerFutures.put(persistenceType, CompletableFuture.supplyAsync(() -> {
+					long takes = System.currentTimeMillis();
+					PersistenceEntryManager persistenceEntryManager = persistenceEntryManagerFactory.createEntryManager(entryManagerConf);
+					LOG.info("Persistence type '{}' is ready in {} milliseconds", persistenceType, System.currentTimeMillis() - takes);
+
+					return persistenceEntryManager;
+				}, executorService));
+	    	}
+		} finally {
+			// Allow to finish already submitted tasks
+			executorService.shutdown();
+		}
+
+		long deadline = System.currentTimeMillis() + startupTimeout;
+		Map<String, CompletableFuture<PersistenceEntryManager>> pendingEntryManagers = new HashMap<String, CompletableFuture<PersistenceEntryManager>>();
+		for (Entry<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutureEntry : entryManagerFutures.entrySet()) {
+			String persistenceType = entryManagerFutureEntry.getKey();
+			CompletableFuture<PersistenceEntryManager> entryManagerFuture = entryManagerFutureEntry.getValue();
+			if (lazyStartup && !StringHelper.equals(persistenceType, defaultPersistenceType) && !entryManagerFuture.isDone()) {
+				LOG.info("Persistence type '{}' will finish connecting in background", persistenceType);
+				pendingEntryManagers.put(persistenceType, entryManagerFuture);
+				continue;
 			}
 
-			Properties entryManagerConf = PropertiesHelper.findProperties(conf, persistenceType, "#");
-    		PersistenceEntryManager persistenceEntryManager = persistenceEntryManagerFactory.createEntryManager(entryManagerConf);
-    		
+			PersistenceEntryManager persistenceEntryManager = waitForEntryManager(persistenceType, entryManagerFuture, deadline, entryManagerFutures);
     		persistenceEntryManagers.put(persistenceType, persistenceEntryManager);
     		operationServices.add(persistenceEntryManager.getOperationService());
-    	}
+		}
 
-		this.hybridMappingProperties = PropertiesHelper.filterProperties(conf, "#");
-		
 		HybridPersistenceOperationService hybridOperationService = new HybridPersistenceOperationService(operationServices);
     	
-        HybridEntryManager hybridEntryManager = new HybridEntryManager(hybridMappingProperties, persistenceEntryManagers, hybridOperationService);
+        HybridEntryManager hybridEntryManager = new HybridEntryManager(hybridMappingProperties, persistenceEntryManagers, pendingEntryManagers, hybridOperationService);
         LOG.info("Created HybridEntryManager: {}", hybridOperationService);
 
         return hybridEntryManager;
     }
 
+	private PersistenceEntryManager waitForEntryManager(String persistenceType, CompletableFuture<PersistenceEntryManager> entryManagerFuture, long deadline,
+			Map<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutures) {
+		try {
+			long timeout = Math.max(0, deadline - System.currentTimeMillis());
+			return entryManagerFuture.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			cancelEntryManagers(entryManagerFutures);
+			throw new ConfigurationException(String.format("Persistence type '%s' is not ready after startup timeout. Readiness: %s", persistenceType,
+					getReadiness(entryManagerFutures)));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			cancelEntryManagers(entryManagerFutures);
+			throw new ConfigurationException(String.format("Creation of persistence type '%s' was interrupted", persistenceType), ex);
+		} catch (ExecutionException ex) {
+			cancelEntryManagers(entryManagerFutures);
+			throw new ConfigurationException(String.format("Failed to create persistence type '%s'. Readiness: %s", persistenceType,
+					getReadiness(entryManagerFutures)), ex.getCause());
+		}
+	}
+
+	private void cancelEntryManagers(Map<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutures) {
+		for (CompletableFuture<PersistenceEntryManager> entryManagerFuture : entryManagerFutures.values()) {
+			// Destroy entry managers which were created already or will be created later
+			entryManagerFuture.thenAccept(persistenceEntryManager -> persistenceEntryManager.destroy());
+		}
+	}
+
+	private Map<String, String> getReadiness(Map<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutures) {
+		Map<String, String> readiness = new HashMap<String, String>();
+		for (Entry<String, CompletableFuture<PersistenceEntryManager>> entryManagerFutureEntry : entryManagerFutures.entrySet()) {
+			CompletableFuture<PersistenceEntryManager> entryManagerFuture = entryManagerFutureEntry.getValue();
+			String state;
+			if (!entryManagerFuture.isDone()) {
+				state = "connecting";
+			} else if (entryManagerFuture.isCompletedExceptionally()) {
+				state = "failed";
+			} else {
+				state = "ready";
+			}
+			readiness.put(entryManagerFutureEntry.getKey(), state);
+		}
+
+		return readiness;
+	}
+
 	@Override
 	public void initStandalone(BaseFactoryService persistanceFactoryService) {
 		this.persistanceFactoryService = persistanceFactoryService;
@@ -38,6 +38,10 @@ public class HybridPersistenceOperationService implements PersistenceOperationSe
 		return true;
 	}
 
+	public void addPersistenceOperationService(PersistenceOperationService persistenceOperationService) {
+		this.persistenceOperationServices.add(persistenceOperationService);
+	}
+
 	public List<PersistenceOperationService> getPersistenceOperationServices() {
 		return persistenceOperationServices;
 	}
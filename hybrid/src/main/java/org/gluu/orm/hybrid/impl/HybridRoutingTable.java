@@ -0,0 +1,240 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.orm.hybrid.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.gluu.persist.exception.KeyConversionException;
+
+/**
+ * Precompiled DN to persistence type routing table. It resolves base name of DN in place without
+ * splitting DN and allocating intermediate keys. Base name is value of top RDN except "o" RDNs
+ * up to first "_". Resolution is compatible with GenericKeyConverter based routing
+ */
+public class HybridRoutingTable {
+
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	private final String[] persistenceTypes;
+	private final int defaultPersistenceTypeIndex;
+
+	// Open addressing hash table: base name -> persistence type index
+	private final String[] baseNames;
+	private final int[] baseNameTypeIndexes;
+	private final int baseNamesMask;
+
+	// Direct mapped cache of recent decisions. Entries are immutable, so it's safe without locks
+	private final CachedRoute[] cache;
+	private final int cacheMask;
+
+	private final LongAdder[] routingCounters;
+
+	public HybridRoutingTable(String defaultPersistenceType, Map<String, String> baseNameToPersistenceTypeMapping, int cacheSize) {
+		List<String> types = new ArrayList<String>();
+		types.add(defaultPersistenceType);
+		Map<String, Integer> typeIndexes = new HashMap<String, Integer>();
+		typeIndexes.put(defaultPersistenceType, 0);
+		for (String persistenceType : baseNameToPersistenceTypeMapping.values()) {
+			if (!typeIndexes.containsKey(persistenceType)) {
+				typeIndexes.put(persistenceType, types.size());
+				types.add(persistenceType);
+			}
+		}
+		this.persistenceTypes = types.toArray(new String[types.size()]);
+		this.defaultPersistenceTypeIndex = 0;
+
+		int capacity = tableSizeFor(Math.max(2, baseNameToPersistenceTypeMapping.size() * 2));
+		this.baseNames = new String[capacity];
+		this.baseNameTypeIndexes = new int[capacity];
+		this.baseNamesMask = capacity - 1;
+		for (Entry<String, String> baseNameEntry : baseNameToPersistenceTypeMapping.entrySet()) {
+			String baseName = baseNameEntry.getKey();
+			int slot = hash(baseName, 0, baseName.length()) & baseNamesMask;
+			while (baseNames[slot] != null) {
+				slot = (slot + 1) & baseNamesMask;
+			}
+			baseNames[slot] = baseName;
+			baseNameTypeIndexes[slot] = typeIndexes.get(baseNameEntry.getValue());
+		}
+
+		if (cacheSize > 0) {
+			this.cache = new CachedRoute[tableSizeFor(cacheSize)];
+			this.cacheMask = cache.length - 1;
+		} else {
+			this.cache = null;
+			this.cacheMask = 0;
+		}
+
+		this.routingCounters = new LongAdder[persistenceTypes.length];
+		for (int i = 0; i < routingCounters.length; i++) {
+			routingCounters[i] = new LongAdder();
+		}
+	}
+
+	public String route(String dn) {
+		int persistenceTypeIndex;
+		if (cache == null) {
+			persistenceTypeIndex = resolve(dn);
+		} else {
+			int slot = spread(dn.hashCode()) & cacheMask;
+			CachedRoute cachedRoute = cache[slot];
+			if ((cachedRoute != null) && cachedRoute.dn.equals(dn)) {
+				persistenceTypeIndex = cachedRoute.persistenceTypeIndex;
+			} else {
+				persistenceTypeIndex = resolve(dn);
+				cache[slot] = new CachedRoute(dn, persistenceTypeIndex);
+			}
+		}
+
+		routingCounters[persistenceTypeIndex].increment();
+
+		return persistenceTypes[persistenceTypeIndex];
+	}
+
+	private int resolve(String dn) {
+		int end = dn.length();
+		// Trailing empty RDNs are ignored like in String.split
+		while ((end > 0) && (dn.charAt(end - 1) == ',')) {
+			end--;
+		}
+		if (end == 0) {
+			return defaultPersistenceTypeIndex;
+		}
+
+		// Scan RDNs from the top one. All of them should have attribute name
+		int valueStart = -1, valueEnd = -1;
+		int tokenEnd = end;
+		for (int i = end - 1; i >= -1; i--) {
+			if ((i >= 0) && (dn.charAt(i) != ',')) {
+				continue;
+			}
+
+			int tokenStart = i + 1;
+			int pos = indexOf(dn, '=', tokenStart, tokenEnd);
+			if (pos == -1) {
+				throw new KeyConversionException("Failed to convert empty DN to Key");
+			}
+
+			if ((valueStart == -1) && !isOrganization(dn, tokenStart, pos)) {
+				valueStart = pos + 1;
+				valueEnd = tokenEnd;
+			}
+			tokenEnd = i;
+		}
+
+		if (valueStart == -1) {
+			return defaultPersistenceTypeIndex;
+		}
+
+		int baseNameEnd = indexOf(dn, '_', valueStart, valueEnd);
+		if (baseNameEnd == -1) {
+			baseNameEnd = valueEnd;
+		}
+
+		int slot = hash(dn, valueStart, baseNameEnd) & baseNamesMask;
+		while (baseNames[slot] != null) {
+			String baseName = baseNames[slot];
+			if ((baseName.length() == baseNameEnd - valueStart) && dn.regionMatches(valueStart, baseName, 0, baseName.length())) {
+				return baseNameTypeIndexes[slot];
+			}
+			slot = (slot + 1) & baseNamesMask;
+		}
+
+		return defaultPersistenceTypeIndex;
+	}
+
+	/*
+	 * Returns true if DN is above split of backends, e.g. "o=gluu". Entries of all backends are under it
+	 */
+	public boolean isRootDn(String dn) {
+		int tokenEnd = dn.length();
+		for (int i = tokenEnd - 1; i >= -1; i--) {
+			if ((i >= 0) && (dn.charAt(i) != ',')) {
+				continue;
+			}
+
+			int tokenStart = i + 1;
+			if (tokenStart < tokenEnd) {
+				int pos = indexOf(dn, '=', tokenStart, tokenEnd);
+				if ((pos == -1) || !isOrganization(dn, tokenStart, pos)) {
+					return false;
+				}
+			}
+			tokenEnd = i;
+		}
+
+		return true;
+	}
+
+	public String[] getPersistenceTypes() {
+		return persistenceTypes.clone();
+	}
+
+	public Map<String, Long> getRoutingCounters() {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (int i = 0; i < persistenceTypes.length; i++) {
+			result.put(persistenceTypes[i], routingCounters[i].sum());
+		}
+
+		return result;
+	}
+
+	private static boolean isOrganization(String dn, int nameStart, int nameEnd) {
+		if (nameEnd - nameStart != 1) {
+			return false;
+		}
+
+		char ch = dn.charAt(nameStart);
+		return (ch == 'o') || (ch == 'O');
+	}
+
+	private static int indexOf(String str, char ch, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (str.charAt(i) == ch) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static int hash(String str, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + str.charAt(i);
+		}
+
+		return spread(h);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static int tableSizeFor(int size) {
+		int n = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		return Math.min(n, 1 << 30);
+	}
+
+	private static final class CachedRoute {
+
+		private final String dn;
+		private final int persistenceTypeIndex;
+
+		private CachedRoute(String dn, int persistenceTypeIndex) {
+			this.dn = dn;
+			this.persistenceTypeIndex = persistenceTypeIndex;
+		}
+
+	}
+
+}
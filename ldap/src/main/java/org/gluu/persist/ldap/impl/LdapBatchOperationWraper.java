@@ -12,6 +12,7 @@ import com.unboundid.ldap.sdk.SearchResultEntry;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.BatchOperation;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
 
@@ -54,4 +55,16 @@ public class LdapBatchOperationWraper<T> {
         return ldapEntryManager.createEntities(entryClass, propertiesAnnotations, searchResultEntry);
     }
 
+    /*
+     * Returns null if batch operation should be processed synchronously
+     */
+    public BatchOperationPipeline<SearchResult> createBatchOperationPipeline() {
+        return BatchOperationPipeline.create(batchOperation, new BatchOperationPipeline.PageProcessor<SearchResult>() {
+            @Override
+            public void process(SearchResult page) {
+                batchOperation.performAction(createEntities(page));
+            }
+        });
+    }
+
 }
@@ -10,6 +10,7 @@ import java.io.Serializable;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -19,6 +20,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.codec.binary.Base64;
@@ -27,16 +29,21 @@ import org.gluu.persist.event.DeleteNotifier;
 import org.gluu.persist.exception.AuthenticationException;
 import org.gluu.persist.exception.EntryDeleteException;
 import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.exception.EntryVersionConflictException;
 import org.gluu.persist.exception.MappingException;
 import org.gluu.persist.exception.operation.ConnectionException;
 import org.gluu.persist.exception.operation.SearchException;
 import org.gluu.persist.exception.operation.SearchScopeException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.impl.BaseEntryManager;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.TtlSweeper;
 import org.gluu.persist.ldap.operation.LdapOperationService;
 import org.gluu.persist.ldap.operation.impl.LdapOperationServiceImpl;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.DefaultBatchOperation;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
@@ -50,9 +57,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
 import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.ldap.sdk.Modification;
 import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.RDN;
 import com.unboundid.ldap.sdk.ResultCode;
 import com.unboundid.ldap.sdk.SearchResult;
 import com.unboundid.ldap.sdk.SearchResultEntry;
@@ -69,11 +79,18 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(LdapEntryManager.class);
 
-    private static final LdapFilterConverter LDAP_FILTER_CONVERTER = new LdapFilterConverter();
     private static final LdapSearchScopeConverter LDAP_SEARCH_SCOPE_CONVERTER = new LdapSearchScopeConverter();
 
+    private static final int MAX_EXISTING_KEYS_FILTER_SIZE = 100;
+
+    private static final String ENTRY_UUID_BOUND_SUFFIX = "0000000-0000-0000-0000-000000000000";
+
+    private final LdapFilterConverter filterConverter = new LdapFilterConverter();
+
     private List<DeleteNotifier> subscribers;
 
+    private LdapExpiredEntriesRemover expiredEntriesRemover;
+
     public LdapEntryManager() {
     }
 
@@ -82,12 +99,45 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         this.subscribers = new LinkedList<DeleteNotifier>();
     }
 
+    @Override
+    public void initFilterOptimizer(Properties props) {
+    	super.initFilterOptimizer(props);
+    	filterConverter.setFilterOptimizer(filterOptimizer);
+    }
+
+    @Override
+    protected IndexAdvisor.IndexDefinitionBuilder createIndexDefinitionBuilder(Properties props) {
+    	return new LdapIndexDefinitionBuilder(props.getProperty("indexAdvisor.backendName", LdapIndexDefinitionBuilder.DEFAULT_BACKEND_NAME));
+    }
+
+    @Override
+    protected TtlSweeper.ExpiredEntriesRemover createExpiredEntriesRemover(Properties props) {
+    	if (!StringHelper.toBoolean(props.getProperty("ttl.sweeper.enabled"), false)) {
+    		return null;
+    	}
+
+    	// Container is base DN of branch with expiring entries
+    	int threads = StringHelper.toInteger(props.getProperty("ttl.sweeper.threads"), LdapExpiredEntriesRemover.DEFAULT_THREADS);
+    	LOG.info("Option ttl.sweeper.threads: " + threads);
+
+    	this.expiredEntriesRemover = new LdapExpiredEntriesRemover(this, threads);
+    	return expiredEntriesRemover;
+    }
+
     @Override
     public boolean destroy() {
         if (this.operationService == null) {
             return true;
         }
 
+        destroyWriteBehind();
+        destroyIndexAdvisor();
+        destroyNegativeLookupCache();
+        destroyTtlSweeper();
+        if (this.expiredEntriesRemover != null) {
+        	this.expiredEntriesRemover.destroy();
+        }
+
         return getOperationService().destroy();
     }
 
@@ -122,12 +172,11 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
     }
 
     @Override
-    protected <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromLdapMap,
+    protected void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromLdapMap,
             List<AttributeDataModification> attributeDataModifications, boolean forceUpdate) {
         // Update object classes if entry contains custom object classes
         if (getSupportedLDAPVersion() > 2) {
             if (!isConfigurationUpdate) {
-                String[] objectClasses = getObjectClasses(entry, entryClass);
                 String[] objectClassesFromLdap = attributesFromLdapMap.get(OBJECT_CLASS.toLowerCase()).getStringValues();
 
                 if (!Arrays.equals(objectClassesFromLdap, objectClasses)) {
@@ -190,7 +239,8 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
     }
 
     @Override
-    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration) {
+    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expiration,
+    		AttributeData expectedVersion) {
         // Update entry
         try {
             List<Modification> modifications = new ArrayList<Modification>(attributeDataModifications.size());
@@ -215,9 +265,16 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
                 Modification modification = null;
                 if (AttributeModificationType.ADD.equals(attributeDataModification.getModificationType())) {
                     modification = createModification(ModificationType.ADD, attributeName, attributeValues);
+                } else if (AttributeModificationType.FORCE_UPDATE.equals(attributeDataModification.getModificationType())) {
+                    modification = createModification(ModificationType.REPLACE, attributeName, attributeValues);
                 } else {
                     if (AttributeModificationType.REMOVE.equals(attributeDataModification.getModificationType())) {
-                        modification = createModification(ModificationType.DELETE, oldAttributeName, oldAttributeValues);
+                        if (ArrayHelper.isEmpty(oldAttributeValues)) {
+                            // Replace without values removes attribute and it's no-op if entry has no such attribute
+                            modification = createModification(ModificationType.REPLACE, oldAttributeName);
+                        } else {
+                            modification = createModification(ModificationType.DELETE, oldAttributeName, oldAttributeValues);
+                        }
                     } else if (AttributeModificationType.REPLACE.equals(attributeDataModification.getModificationType())) {
                         if (attributeValues.length == 1) {
                             modification = createModification(ModificationType.REPLACE, attributeName, attributeValues);
@@ -280,13 +337,22 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
             }
 
             if (modifications.size() > 0) {
-                boolean result = getOperationService().updateEntry(dn, modifications);
+                boolean result;
+                if (expectedVersion == null) {
+                    result = getOperationService().updateEntry(dn, modifications);
+                } else {
+                    com.unboundid.ldap.sdk.Filter assertionFilter = com.unboundid.ldap.sdk.Filter.createEqualityFilter(expectedVersion.getName(),
+                            String.valueOf(expectedVersion.getValue()));
+                    result = getOperationService().updateEntry(dn, modifications, assertionFilter);
+                }
                 if (!result) {
                     throw new EntryPersistenceException(String.format("Failed to update entry: %s", dn));
                 }
             }
         } catch (ConnectionException ex) {
             throw new EntryPersistenceException(String.format("Failed to update entry: %s", dn), ex.getCause());
+        } catch (VersionConflictException ex) {
+            throw new EntryVersionConflictException(String.format("Failed to update entry: %s", dn), ex);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to update entry: %s", dn), ex);
         }
@@ -308,6 +374,104 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         }
     }
 
+    @Override
+    protected <T> Set<String> findExistingKeys(Class<T> entryClass, String[] objectClasses, List<String> primaryKeys) {
+        // Parent DN -> normalized DN -> DNs
+        Map<DN, Map<DN, List<String>>> parentDns = new LinkedHashMap<DN, Map<DN, List<String>>>();
+        for (String primaryKey : primaryKeys) {
+            DN dn;
+            try {
+                dn = new DN(primaryKey);
+            } catch (LDAPException ex) {
+                throw new MappingException(String.format("Failed to parse DN: '%s'", primaryKey), ex);
+            }
+
+            DN parentDn = dn.getParent();
+            if (parentDn == null) {
+                // Root entries can't be found with one level search
+                parentDn = DN.NULL_DN;
+            }
+
+            Map<DN, List<String>> dns = parentDns.get(parentDn);
+            if (dns == null) {
+                dns = new LinkedHashMap<DN, List<String>>();
+                parentDns.put(parentDn, dns);
+            }
+
+            List<String> dnPrimaryKeys = dns.get(dn);
+            if (dnPrimaryKeys == null) {
+                dnPrimaryKeys = new ArrayList<String>(1);
+                dns.put(dn, dnPrimaryKeys);
+            }
+            dnPrimaryKeys.add(primaryKey);
+        }
+
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<DN, Map<DN, List<String>>> parentDnEntry : parentDns.entrySet()) {
+            if (DN.NULL_DN.equals(parentDnEntry.getKey())) {
+                result.addAll(super.findExistingKeys(entryClass, objectClasses, toPrimaryKeys(parentDnEntry.getValue().values())));
+                continue;
+            }
+
+            // One level search with OR of RDN equality filters returns only DNs
+            List<DN> dns = new ArrayList<DN>(parentDnEntry.getValue().keySet());
+            for (int i = 0; i < dns.size(); i += MAX_EXISTING_KEYS_FILTER_SIZE) {
+                List<DN> dnsChunk = dns.subList(i, Math.min(i + MAX_EXISTING_KEYS_FILTER_SIZE, dns.size()));
+                List<com.unboundid.ldap.sdk.Filter> rdnFilters = new ArrayList<com.unboundid.ldap.sdk.Filter>(dnsChunk.size());
+                for (DN dn : dnsChunk) {
+                    rdnFilters.add(toLdapFilter(dn.getRDN()));
+                }
+
+                String parentDn = parentDnEntry.getKey().toString();
+                try {
+                    SearchResult searchResult = getOperationService().search(parentDn, com.unboundid.ldap.sdk.Filter.createORFilter(rdnFilters),
+                            com.unboundid.ldap.sdk.SearchScope.ONE, null, 0, 0, 0, null, LdapOperationService.DN);
+                    for (SearchResultEntry searchResultEntry : searchResult.getSearchEntries()) {
+                        List<String> dnPrimaryKeys = parentDnEntry.getValue().get(searchResultEntry.getParsedDN());
+                        if (dnPrimaryKeys != null) {
+                            result.addAll(dnPrimaryKeys);
+                        }
+                    }
+                } catch (SearchException ex) {
+                    if (ex.getErrorCode() == ResultCode.NO_SUCH_OBJECT_INT_VALUE) {
+                        // Parent entry doesn't exist
+                        break;
+                    }
+                    throw new EntryPersistenceException(String.format("Failed to find existing entries under: '%s'", parentDn), ex);
+                } catch (LDAPException ex) {
+                    throw new EntryPersistenceException(String.format("Failed to find existing entries under: '%s'", parentDn), ex);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private com.unboundid.ldap.sdk.Filter toLdapFilter(RDN rdn) {
+        String[] attributeNames = rdn.getAttributeNames();
+        String[] attributeValues = rdn.getAttributeValues();
+        if (attributeNames.length == 1) {
+            return com.unboundid.ldap.sdk.Filter.createEqualityFilter(attributeNames[0], attributeValues[0]);
+        }
+
+        // Multi-valued RDN
+        com.unboundid.ldap.sdk.Filter[] filters = new com.unboundid.ldap.sdk.Filter[attributeNames.length];
+        for (int i = 0; i < attributeNames.length; i++) {
+            filters[i] = com.unboundid.ldap.sdk.Filter.createEqualityFilter(attributeNames[i], attributeValues[i]);
+        }
+
+        return com.unboundid.ldap.sdk.Filter.createANDFilter(filters);
+    }
+
+    private List<String> toPrimaryKeys(Collection<List<String>> primaryKeysLists) {
+        List<String> result = new ArrayList<String>();
+        for (List<String> primaryKeys : primaryKeysLists) {
+            result.addAll(primaryKeys);
+        }
+
+        return result;
+    }
+
     @Override
 	public <T> int remove(String baseDN, Class<T> entryClass, Filter filter, int count) {
         if (StringHelper.isEmptyString(baseDN)) {
@@ -332,8 +496,10 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         try {
             LdapBatchOperationWraper<T> batchOperationWraper = new LdapBatchOperationWraper<T>(batchOperation, this, entryClass,
                     propertiesAnnotations);
+            long searchStart = System.nanoTime();
             searchResult = getOperationService().search(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(SearchScope.SUB), batchOperationWraper,
                     0, 100, count, null, LdapOperationService.DN);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
 
         } catch (Exception ex) {
             throw new EntryDeleteException(String.format("Failed to delete entries with baseDN: %s, filter: %s", baseDN, searchFilter), ex);
@@ -365,6 +531,25 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         }
     }
 
+    /*
+     * Remove entry only if it still matches assertion filter at time of removal. Returns false if it doesn't.
+     * Subscribers are notified only about removed entries because entry can stay after failed assertion
+     */
+    public boolean removeRecursivelyWithAssertion(String dn, Filter assertionFilter) {
+        try {
+            boolean removed = getOperationService().deleteRecursively(dn, toLdapFilter(assertionFilter));
+            if (removed) {
+                for (DeleteNotifier subscriber : subscribers) {
+                    subscriber.onAfterRemove(dn);
+                }
+            }
+
+            return removed;
+        } catch (Exception ex) {
+            throw new EntryDeleteException(String.format("Failed to remove entry: %s", dn), ex);
+        }
+    }
+
     private void removeSubtreeThroughIteration(String dn) {
     	SearchScope scope = SearchScope.SUB;
 
@@ -435,8 +620,10 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         try {
             LdapBatchOperationWraper<T> batchOperationWraper = new LdapBatchOperationWraper<T>(batchOperation, this, entryClass,
                     propertiesAnnotations);
+            long searchStart = System.nanoTime();
             searchResult = getOperationService().search(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(scope), batchOperationWraper,
                     start, chunkSize, count, null, currentLdapReturnAttributes);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to find entries with baseDN: %s, filter: %s", baseDN, searchFilter), ex);
         }
@@ -460,7 +647,7 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 
     @Override
     public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
-            SortOrder sortOrder, int start, int count, int chunkSize) {
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
         if (StringHelper.isEmptyString(baseDN)) {
             throw new MappingException("Base DN to find entries is null");
         }
@@ -482,11 +669,16 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
             searchFilter = filter;
         }
 
+        Integer cachedTotalCount = getCachedTotalCount(countMode, baseDN, entryClass, filter);
+        CountMode searchCountMode = (cachedTotalCount == null) ? countMode : CountMode.NONE;
+
         List<SearchResultEntry> searchResultEntries;
         PagedResult<T> vlvResponse = new PagedResult<T>();
         try {
+            long searchStart = System.nanoTime();
             searchResultEntries = getOperationService().searchSearchResultEntryList(baseDN, toLdapFilter(searchFilter),
-                    toLdapSearchScope(SearchScope.SUB), start, count, chunkSize, sortBy, sortOrder, vlvResponse, currentLdapReturnAttributes);
+                    toLdapSearchScope(SearchScope.SUB), start, count, chunkSize, sortBy, sortOrder, vlvResponse, searchCountMode, currentLdapReturnAttributes);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to find entries with baseDN: %s, filter: %s", baseDN, searchFilter), ex);
         }
@@ -497,6 +689,12 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         }
         vlvResponse.setEntries(entries);
 
+        if (cachedTotalCount != null) {
+        	vlvResponse.setTotalEntriesCount(cachedTotalCount);
+        } else {
+        	putCachedTotalCount(countMode, baseDN, entryClass, filter, vlvResponse.getTotalEntriesCount());
+        }
+
         return vlvResponse;
 
     }
@@ -529,8 +727,10 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         SearchResult searchResult = null;
         try {
 
+            long searchStart = System.nanoTime();
             searchResult = getOperationService().searchVirtualListView(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(SearchScope.SUB),
                     start, count, sortBy, sortOrder, vlvResponse, currentLdapReturnAttributes);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
 
             if (!ResultCode.SUCCESS.equals(searchResult.getResultCode())) {
                 throw new EntryPersistenceException(String.format("Failed to find entries with baseDN: %s, filter: %s", baseDN, searchFilter));
@@ -568,7 +768,9 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 
         SearchResult searchResult = null;
         try {
+            long searchStart = System.nanoTime();
             searchResult = getOperationService().search(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(scope), null, 0, 1, 1, null, ldapReturnAttributes);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
             if ((searchResult == null) || !ResultCode.SUCCESS.equals(searchResult.getResultCode())) {
                 throw new EntryPersistenceException(String.format("Failed to find entry with baseDN: %s, filter: %s", baseDN, searchFilter));
             }
@@ -716,7 +918,9 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 
     	SearchScope scope = SearchScope.SUB;
         try {
+            long searchStart = System.nanoTime();
             SearchResult searchResult = getOperationService().search(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(scope), null, 0, 1, 1, null, LdapOperationService.UID_ARRAY);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
             if ((searchResult == null) || (searchResult.getEntryCount() != 1)) {
                 return false;
             }
@@ -792,8 +996,10 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
             if (batchOperation != null) {
                 batchOperationWraper = new LdapBatchOperationWraper<T>(batchOperation);
             }
+            long searchStart = System.nanoTime();
             searchResult = getOperationService().search(baseDN, toLdapFilter(searchFilter), toLdapSearchScope(searchScope), batchOperationWraper, 0, 100, 0, null,
                     ldapReturnAttributes);
+            recordLdapFilterShape(baseDN, searchFilter, searchStart);
         } catch (Exception ex) {
             throw new EntryPersistenceException(
                     String.format("Failed to calculate the number of entries with baseDN: %s, filter: %s", baseDN, searchFilter), ex);
@@ -897,8 +1103,23 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
         return new Modification(modificationType, realAttributeName, attributeValues);
     }
 
+    private void recordLdapFilterShape(String baseDN, Filter searchFilter, long startTime) {
+    	if (indexAdvisor == null) {
+    		return;
+    	}
+
+    	// Indexes are per backend. Use branch instead of entry DN to limit number of shapes
+    	String branch = baseDN;
+    	int branchStart = StringHelper.toLowerCase(baseDN).indexOf(",ou=");
+    	if (branchStart != -1) {
+    		branch = baseDN.substring(branchStart + 1);
+    	}
+
+    	recordFilterShape(branch, searchFilter, startTime);
+    }
+
     private com.unboundid.ldap.sdk.Filter toLdapFilter(Filter genericFilter) throws SearchException {
-        return LDAP_FILTER_CONVERTER.convertToLdapFilter(genericFilter);
+        return filterConverter.convertToLdapFilter(genericFilter);
     }
 
     private com.unboundid.ldap.sdk.SearchScope toLdapSearchScope(SearchScope scope) throws SearchScopeException {
@@ -912,6 +1133,13 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 
 	@Override
 	public boolean hasExpirationSupport(String primaryKey) {
+		// Expired entries are removed by TTL sweeper only from configured branches
+		return (ttlSweeper != null) && TtlSweeper.isInBranches(primaryKey, ttlSweeper.getContainers());
+	}
+
+	@Override
+	protected boolean isSupportLowercaseAttributes() {
+		// Matching rules are case insensitive already
 		return false;
 	}
 
@@ -946,6 +1174,12 @@ public class LdapEntryManager extends BaseEntryManager implements Serializable {
 		return objecClassSet.toArray(new String[0]);
 	}
 
+    @Override
+	protected <T> Filter[] createPartitionFilters(String baseDN, Class<T> entryClass, int parallelism) {
+		// Server should support ordering matching rule for entryUUID. Bounds should be full UUIDs
+		return createKeyRangeFilters("entryUUID", "", KEY_RANGE_ALPHABET, ENTRY_UUID_BOUND_SUFFIX, parallelism);
+	}
+
     @Override
 	protected Object getNativeDateAttributeValue(Date dateValue) {
 		return encodeTime(dateValue);
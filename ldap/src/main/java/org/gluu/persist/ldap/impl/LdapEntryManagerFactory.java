@@ -74,6 +74,12 @@ public class LdapEntryManagerFactory implements PersistenceEntryManagerFactory {
         LOG.debug("Created bindConnectionProvider '{}' with code '{}'", bindConnectionProvider, bindConnectionProvider.getCreationResultCode());
 
         LdapEntryManager ldapEntryManager = new LdapEntryManager(new LdapOperationServiceImpl(connectionProvider, bindConnectionProvider));
+        ldapEntryManager.initWriteBehind(entryManagerConf);
+        ldapEntryManager.initTotalCountCache(entryManagerConf);
+        ldapEntryManager.initFilterOptimizer(entryManagerConf);
+        ldapEntryManager.initIndexAdvisor(entryManagerConf);
+        ldapEntryManager.initNegativeLookupCache(entryManagerConf);
+        ldapEntryManager.initExpiration(entryManagerConf);
         LOG.info("Created LdapEntryManager: {}", ldapEntryManager.getOperationService());
 
         return ldapEntryManager;
@@ -0,0 +1,101 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.ldap.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.gluu.persist.impl.TtlSweeper;
+import org.gluu.persist.ldap.operation.LdapOperationService;
+import org.gluu.search.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+
+/**
+ * Removes expired entries from LDAP branch. It loads DNs of expired entries with one paged search
+ * and removes them in parallel with connections from pool
+ */
+public class LdapExpiredEntriesRemover implements TtlSweeper.ExpiredEntriesRemover {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LdapExpiredEntriesRemover.class);
+
+	public static final int DEFAULT_THREADS = 4;
+
+	private final LdapEntryManager ldapEntryManager;
+	private final LdapFilterConverter filterConverter = new LdapFilterConverter();
+	private final ExecutorService executorService;
+
+	public LdapExpiredEntriesRemover(LdapEntryManager ldapEntryManager, int threads) {
+		this.ldapEntryManager = ldapEntryManager;
+		this.executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "persistence-ttl-sweeper-remove");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@Override
+	public int removeExpired(String baseDN, String expirationAttribute, String deletableAttribute, Date now, int count) throws Exception {
+		// Expiration attribute should have ordering index
+		Filter filter = Filter.createLessOrEqualFilter(expirationAttribute, ldapEntryManager.encodeTime(baseDN, now));
+		if (deletableAttribute != null) {
+			filter = Filter.createANDFilter(Filter.createEqualityFilter(deletableAttribute, "TRUE"), filter);
+		}
+
+		SearchResult searchResult = ldapEntryManager.getOperationService().search(baseDN, filterConverter.convertToLdapFilter(filter), SearchScope.SUB,
+				null, 0, 0, count, null, LdapOperationService.DN);
+		List<SearchResultEntry> searchResultEntries = searchResult.getSearchEntries();
+		if (searchResultEntries.isEmpty()) {
+			return 0;
+		}
+
+		// Entry can be updated after search. Server removes it only if it's still expired
+		final Filter assertionFilter = filter;
+		List<Future<Boolean>> removeResults = new ArrayList<Future<Boolean>>(searchResultEntries.size());
+		for (SearchResultEntry searchResultEntry : searchResultEntries) {
+			final String dn = searchResultEntry.getDN();
+			removeResults.add(executorService.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return ldapEntryManager.removeRecursivelyWithAssertion(dn, assertionFilter);
+				}
+			}));
+		}
+
+		int removed = 0;
+		for (Future<Boolean> removeResult : removeResults) {
+			try {
+				if (removeResult.get()) {
+					removed++;
+				}
+			} catch (ExecutionException ex) {
+				LOG.error("Failed to remove expired entry from '{}'", baseDN, ex.getCause());
+			}
+		}
+
+		return removed;
+	}
+
+	public void destroy() {
+		executorService.shutdownNow();
+	}
+
+}
@@ -10,6 +10,7 @@ import javax.enterprise.context.ApplicationScoped;
 
 import org.gluu.persist.exception.operation.SearchException;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.gluu.search.filter.FilterType;
 import org.gluu.orm.util.ArrayHelper;
 
@@ -21,7 +22,19 @@ import org.gluu.orm.util.ArrayHelper;
 @ApplicationScoped
 public class LdapFilterConverter {
 
+	private FilterOptimizer filterOptimizer;
+
+	public void setFilterOptimizer(FilterOptimizer filterOptimizer) {
+		this.filterOptimizer = filterOptimizer;
+	}
+
     public com.unboundid.ldap.sdk.Filter convertToLdapFilter(Filter genericFilter) throws SearchException {
+    	Filter optimizedFilter = filterOptimizer == null ? genericFilter : filterOptimizer.optimize(genericFilter);
+
+    	return convertToLdapFilterImpl(optimizedFilter);
+    }
+
+    private com.unboundid.ldap.sdk.Filter convertToLdapFilterImpl(Filter genericFilter) throws SearchException {
         FilterType type = genericFilter.getType();
         if (FilterType.RAW == type) {
             try {
@@ -37,7 +50,7 @@ public class LdapFilterConverter {
 
             if (genericFilters != null) {
                 for (int i = 0; i < genericFilters.length; i++) {
-                    ldapFilters[i] = convertToLdapFilter(genericFilters[i]);
+                    ldapFilters[i] = convertToLdapFilterImpl(genericFilters[i]);
                 }
 
                 if (FilterType.NOT == type) {
@@ -55,7 +68,7 @@ public class LdapFilterConverter {
         	if (ArrayHelper.isEmpty(genericFilter.getFilters())) {
         		attributeName = genericFilter.getAttributeName();
         	} else {
-        		attributeName = convertToLdapFilter(genericFilter.getFilters()[0]).getAttributeName();
+        		attributeName = convertToLdapFilterImpl(genericFilter.getFilters()[0]).getAttributeName();
         	}
             return com.unboundid.ldap.sdk.Filter.createEqualityFilter(attributeName, String.valueOf(genericFilter.getAssertionValue()));
         }
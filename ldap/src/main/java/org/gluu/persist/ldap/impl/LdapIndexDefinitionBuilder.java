@@ -0,0 +1,94 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.ldap.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.IndexAdvisor.FilterShape;
+
+/**
+ * Builds OpenDJ backend index configuration commands for index advisor
+ */
+public class LdapIndexDefinitionBuilder implements IndexAdvisor.IndexDefinitionBuilder {
+
+	public static final String DEFAULT_BACKEND_NAME = "userRoot";
+
+	private final String backendName;
+
+	public LdapIndexDefinitionBuilder(String backendName) {
+		this.backendName = backendName;
+	}
+
+	@Override
+	public List<String> buildIndexDefinitions(FilterShape filterShape) {
+		// Lower case attribute name -> index types
+		Map<String, Set<String>> indexTypes = new LinkedHashMap<String, Set<String>>();
+		Map<String, String> attributeNames = new LinkedHashMap<String, String>();
+		addIndexType(indexTypes, attributeNames, filterShape.getEqualityAttributes(), "equality");
+		addIndexType(indexTypes, attributeNames, filterShape.getRangeAttributes(), "ordering");
+		addIndexType(indexTypes, attributeNames, filterShape.getPrefixAttributes(), "substring");
+		addIndexType(indexTypes, attributeNames, filterShape.getSubstringAttributes(), "substring");
+		addIndexType(indexTypes, attributeNames, filterShape.getPresenceAttributes(), "presence");
+		addIndexType(indexTypes, attributeNames, filterShape.getApproximateAttributes(), "approximate");
+
+		// It's indexed in default configuration
+		indexTypes.remove("objectclass");
+
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String, Set<String>> indexTypesEntry : indexTypes.entrySet()) {
+			String attributeName = attributeNames.get(indexTypesEntry.getKey());
+
+			StringBuilder command = new StringBuilder("dsconfig create-backend-index --backend-name ").append(backendName)
+					.append(" --index-name ").append(attributeName);
+			for (String indexType : indexTypesEntry.getValue()) {
+				command.append(" --set index-type:").append(indexType);
+			}
+			result.add(command.append(" --no-prompt").toString());
+			result.add(String.format("rebuild-index --baseDN %s --index %s", getSuffix(filterShape.getContainer()), attributeName));
+		}
+
+		return result;
+	}
+
+	private void addIndexType(Map<String, Set<String>> indexTypes, Map<String, String> attributeNames, List<String> attributes, String indexType) {
+		for (String attributeName : attributes) {
+			String key = StringHelper.toLowerCase(attributeName);
+			Set<String> attributeIndexTypes = indexTypes.get(key);
+			if (attributeIndexTypes == null) {
+				attributeIndexTypes = new LinkedHashSet<String>();
+				indexTypes.put(key, attributeIndexTypes);
+				attributeNames.put(key, attributeName);
+			}
+			attributeIndexTypes.add(indexType);
+		}
+	}
+
+	/*
+	 * Backend suffix of branch, e.g. "o=gluu" for "ou=people,o=gluu"
+	 */
+	private String getSuffix(String branch) {
+		String[] rdns = branch.split(",");
+		int start = 0;
+		for (int i = 0; i < rdns.length; i++) {
+			if (StringHelper.toLowerCase(rdns[i].trim()).startsWith("o=")) {
+				start = i;
+				break;
+			}
+		}
+
+		return String.join(",", Arrays.copyOfRange(rdns, start, rdns.length)).trim();
+	}
+
+}
@@ -12,8 +12,10 @@ import java.util.List;
 import org.gluu.persist.exception.operation.ConnectionException;
 import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.ldap.impl.LdapBatchOperationWraper;
 import org.gluu.persist.ldap.operation.impl.LdapConnectionProvider;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SortOrder;
 import org.gluu.persist.operation.PersistenceOperationService;
@@ -61,6 +63,10 @@ public interface LdapOperationService extends PersistenceOperationService {
                                                         int count, int pageSize, String sortBy, SortOrder sortOrder,
                                                         PagedResult vlvResponse, String... attributes) throws Exception;
 
+    List<SearchResultEntry> searchSearchResultEntryList(String dn, Filter filter, SearchScope scope, int startIndex,
+                                                        int count, int pageSize, String sortBy, SortOrder sortOrder,
+                                                        PagedResult vlvResponse, CountMode countMode, String... attributes) throws Exception;
+
     SearchResult searchVirtualListView(String dn, Filter filter, SearchScope scope, int start, int count,
             String sortBy, SortOrder sortOrder, PagedResult vlvResponse, String... attributes)
             throws Exception;
@@ -102,6 +108,19 @@ public interface LdapOperationService extends PersistenceOperationService {
      */
     boolean updateEntry(String dn, List<Modification> modifications) throws DuplicateEntryException, ConnectionException;
 
+    /**
+     * This method is used to update set of attributes for an entry if entry matches assertion filter
+     *
+     * @param dn
+     * @param modifications
+     * @param assertionFilter
+     * @return
+     * @throws ConnectionException
+     * @throws DuplicateEntryException
+     * @throws VersionConflictException
+     */
+    boolean updateEntry(String dn, List<Modification> modifications, Filter assertionFilter) throws DuplicateEntryException, ConnectionException, VersionConflictException;
+
     /**
      * Delete entry from the directory
      *
@@ -119,6 +138,16 @@ public interface LdapOperationService extends PersistenceOperationService {
      */
     boolean deleteRecursively(String dn) throws ConnectionException;
 
+    /**
+     * Delete entry from the directory if entry matches assertion filter
+     *
+     * @param dn
+     * @param assertionFilter
+     * @return false if entry doesn't match assertion filter
+     * @throws ConnectionException
+     */
+    boolean deleteRecursively(String dn, Filter assertionFilter) throws ConnectionException;
+
     boolean processChange(LDIFChangeRecord ldifRecord) throws LDAPException;
 
     int getSupportedLDAPVersion();
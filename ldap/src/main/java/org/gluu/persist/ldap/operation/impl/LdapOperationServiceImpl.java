@@ -26,11 +26,14 @@ import org.gluu.persist.exception.extension.PersistenceExtension;
 import org.gluu.persist.exception.operation.ConnectionException;
 import org.gluu.persist.exception.operation.DuplicateEntryException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.ldap.exception.InvalidSimplePageControlException;
 import org.gluu.persist.ldap.impl.LdapBatchOperationWraper;
 import org.gluu.persist.ldap.operation.LdapOperationService;
 import org.gluu.persist.ldap.operation.watch.OperationDurationUtil;
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SortOrder;
 import org.gluu.persist.operation.auth.PasswordEncryptionHelper;
@@ -61,6 +64,7 @@ import com.unboundid.ldap.sdk.SearchResult;
 import com.unboundid.ldap.sdk.SearchResultEntry;
 import com.unboundid.ldap.sdk.SearchResultReference;
 import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.AssertionRequestControl;
 import com.unboundid.ldap.sdk.controls.ServerSideSortRequestControl;
 import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
 import com.unboundid.ldap.sdk.controls.SortKey;
@@ -302,6 +306,10 @@ public class LdapOperationServiceImpl implements LdapOperationService {
             boolean collectSearchResult;
 
             LDAPConnection ldapConnection = null;
+            BatchOperationPipeline<SearchResult> batchOperationPipeline = null;
+            if (batchOperationWraper != null) {
+                batchOperationPipeline = batchOperationWraper.createBatchOperationPipeline();
+            }
             try {
                 ldapConnection = getConnectionPool().getConnection();
                 ASN1OctetString cookie = null;
@@ -339,7 +347,10 @@ public class LdapOperationServiceImpl implements LdapOperationService {
                         searchResultReferences.addAll(searchResult.getSearchReferences());
                     }
 
-                    if (ldapBatchOperation != null) {
+                    if (batchOperationPipeline != null) {
+                        // Process page in worker thread and load next page
+                        batchOperationPipeline.submit(searchResult);
+                    } else if (ldapBatchOperation != null) {
                         List<T> entries = batchOperationWraper.createEntities(searchResult);
                         ldapBatchOperation.performAction(entries);
                     }
@@ -357,9 +368,16 @@ public class LdapOperationServiceImpl implements LdapOperationService {
                         break;
                     }
                 } while ((cookie != null) && (cookie.getValueLength() > 0));
+
+                if (batchOperationPipeline != null) {
+                    batchOperationPipeline.finish();
+                }
             } catch (LDAPException ex) {
                 throw new SearchException("Failed to scroll to specified start", ex, ex.getResultCode().intValue());
             } finally {
+                if (batchOperationPipeline != null) {
+                    batchOperationPipeline.close();
+                }
                 if (ldapConnection != null) {
                     getConnectionPool().releaseConnection(ldapConnection);
                 }
@@ -421,9 +439,16 @@ public class LdapOperationServiceImpl implements LdapOperationService {
     public List<SearchResultEntry> searchSearchResultEntryList(String dn, Filter filter, SearchScope scope, int startIndex,
                                                                int count, int pageSize, String sortBy, SortOrder sortOrder,
                                                                PagedResult vlvResponse, String... attributes) throws Exception {
+    	return searchSearchResultEntryList(dn, filter, scope, startIndex, count, pageSize, sortBy, sortOrder, vlvResponse, CountMode.EXACT, attributes);
+    }
+
+    @Override
+    public List<SearchResultEntry> searchSearchResultEntryList(String dn, Filter filter, SearchScope scope, int startIndex,
+                                                               int count, int pageSize, String sortBy, SortOrder sortOrder,
+                                                               PagedResult vlvResponse, CountMode countMode, String... attributes) throws Exception {
         Instant startTime = OperationDurationUtil.instance().now();
         
-        List<SearchResultEntry> result = searchSearchResultEntryListImpl(dn, filter, scope, startIndex, count, pageSize, sortBy, sortOrder, vlvResponse, attributes);
+        List<SearchResultEntry> result = searchSearchResultEntryListImpl(dn, filter, scope, startIndex, count, pageSize, sortBy, sortOrder, vlvResponse, countMode, attributes);
 
         Duration duration = OperationDurationUtil.instance().duration(startTime);
         OperationDurationUtil.instance().logDebug("LDAP operation: search_result_list, duration: {}, dn: {}, filter: {}, scope: {}, startIndex: {}, count: {}, pageSize: {}, sortBy: {}, sortOrder: {}, vlvResponse: {}, attributes: {}", duration, dn, filter, scope, startIndex, count, pageSize, sortBy, sortOrder, vlvResponse, attributes);
@@ -432,7 +457,7 @@ public class LdapOperationServiceImpl implements LdapOperationService {
     }
 
     private List<SearchResultEntry> searchSearchResultEntryListImpl(String dn, Filter filter, SearchScope scope, int start, int count,
-            int pageSize, String sortBy, SortOrder sortOrder, PagedResult vlvResponse, String... attributes) throws LDAPException, Exception {
+            int pageSize, String sortBy, SortOrder sortOrder, PagedResult vlvResponse, CountMode countMode, String... attributes) throws LDAPException, Exception {
         //This method does not assume that count <= pageSize as occurs in SCIM, but it's more general
 
         //Why this?
@@ -446,10 +471,11 @@ public class LdapOperationServiceImpl implements LdapOperationService {
         SearchRequest searchRequest = new SearchRequest(dn, scope, filter, attributes);
 
         int totalResults = 0;
+        SearchResult searchResult;
 
         do {
             //Keep searching while we reach start index...
-            SearchResult searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
+            searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
             searchEntries = searchResult.getSearchEntries();
             totalResults += searchEntries.size();
 
@@ -467,7 +493,7 @@ public class LdapOperationServiceImpl implements LdapOperationService {
 
         //Continue adding results till reaching count if needed
         while (resumeCookie != null && totalResults < count + start) {
-            SearchResult searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
+            searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
             searchEntries = searchResult.getSearchEntries();
             searchResultEntryList.addAll(searchEntries);
             totalResults += searchEntries.size();
@@ -480,9 +506,23 @@ public class LdapOperationServiceImpl implements LdapOperationService {
             searchResultEntryList = searchResultEntryList.subList(0, count);
         }
 
+        if (CountMode.NONE == countMode) {
+        	// Caller doesn't need total results
+        	resumeCookie = null;
+        	totalResults = -1;
+        } else if ((CountMode.APPROXIMATE == countMode) && (resumeCookie != null)) {
+        	// Use server estimation of result set size if it's provided
+        	SimplePagedResultsControl responseControl = SimplePagedResultsControl.get(searchResult);
+        	int estimatedSize = (responseControl == null) ? 0 : responseControl.getSize();
+        	if (estimatedSize > 0) {
+        		resumeCookie = null;
+        		totalResults = Math.max(totalResults, estimatedSize);
+        	}
+        }
+
         //skip the rest and update the number of total results only
         while (resumeCookie != null) {
-            SearchResult searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
+            searchResult = nextSearchResult(conn, searchRequest, pageSize, resumeCookie);
             searchEntries = searchResult.getSearchEntries();
             totalResults += searchEntries.size();
 
@@ -714,6 +754,41 @@ public class LdapOperationServiceImpl implements LdapOperationService {
         return modifyEntry(modifyRequest);
     }
 
+    @Override
+    public boolean updateEntry(String dn, List<Modification> modifications, Filter assertionFilter) throws DuplicateEntryException, ConnectionException, VersionConflictException {
+        Instant startTime = OperationDurationUtil.instance().now();
+        
+        boolean result = updateEntryImpl(dn, modifications, assertionFilter);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("LDAP operation: modify, duration: {}, dn: {}, modifications: {}, assertion: {}", duration, dn, modifications, assertionFilter);
+
+        return result;
+    }
+
+    private boolean updateEntryImpl(String dn, List<Modification> modifications, Filter assertionFilter) throws DuplicateEntryException, ConnectionException, VersionConflictException {
+    	if (assertionFilter == null) {
+    		return updateEntryImpl(dn, modifications);
+    	}
+
+    	if (this.persistenceExtension != null) {
+    		updateUserPasswordModification(modifications);
+    	}
+
+    	// Server applies modifications only if entry matches assertion filter
+    	ModifyRequest modifyRequest = new ModifyRequest(dn, modifications);
+    	modifyRequest.addControl(new AssertionRequestControl(assertionFilter));
+    	try {
+    		return modifyEntry(modifyRequest);
+    	} catch (ConnectionException ex) {
+    		if ((ex.getCause() instanceof LDAPException) && ResultCode.ASSERTION_FAILED.equals(((LDAPException) ex.getCause()).getResultCode())) {
+    			throw new VersionConflictException(String.format("Entry '%s' was modified concurrently. Assertion: '%s'", dn, assertionFilter), ex.getCause());
+    		}
+
+    		throw ex;
+    	}
+    }
+
     /**
      * Use this method to add / replace / delete attribute from entry
      *
@@ -777,6 +852,39 @@ public class LdapOperationServiceImpl implements LdapOperationService {
         return result;
     }
 
+    @Override
+    public boolean deleteRecursively(String dn, Filter assertionFilter) throws ConnectionException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        boolean result = deleteRecursivelyImpl(dn, assertionFilter);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("LDAP operation: delete_tree, duration: {}, dn: {}, assertion: {}", duration, dn, assertionFilter);
+
+        return result;
+    }
+
+    private boolean deleteRecursivelyImpl(String dn, Filter assertionFilter) {
+    	// Server removes entry only if it still matches assertion filter
+        final DeleteRequest deleteRequest = new DeleteRequest(dn);
+        deleteRequest.addControl(new AssertionRequestControl(assertionFilter));
+        if (connectionProvider.isSupportsSubtreeDeleteRequestControl()) {
+        	deleteRequest.addControl(new SubtreeDeleteRequestControl());
+        }
+
+        try {
+            LDAPResult result = getConnectionPool().delete(deleteRequest);
+
+            return ResultCode.SUCCESS.equals(result.getResultCode());
+        } catch (LDAPException ex) {
+        	if (ResultCode.ASSERTION_FAILED.equals(ex.getResultCode())) {
+        		return false;
+        	}
+
+            throw new ConnectionException("Failed to delete entry", ex);
+        }
+    }
+
     protected boolean deleteRecursivelyImpl(String dn) {
         try {
             final DeleteRequest deleteRequest = new DeleteRequest(dn);
@@ -0,0 +1,129 @@
+package org.gluu.persist.ldap.impl.test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.annotation.DN;
+import org.gluu.persist.annotation.DataEntry;
+import org.gluu.persist.annotation.ObjectClass;
+import org.gluu.persist.ldap.impl.LdapEntryManager;
+import org.gluu.persist.ldap.operation.impl.LdapConnectionProvider;
+import org.gluu.persist.ldap.operation.impl.LdapOperationServiceImpl;
+import org.gluu.persist.model.DefaultBatchOperation;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+
+public class LdapPartitionedSearchTest {
+
+	private static final String BASE_DN = "ou=people,o=gluu";
+	private static final int ENTRIES_COUNT = 200;
+
+	private InMemoryDirectoryServer directoryServer;
+	private LdapEntryManager entryManager;
+
+	@BeforeClass
+	public void init() throws LDAPException {
+		InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig("o=gluu");
+		config.addAdditionalBindCredentials("cn=Directory Manager", "secret");
+		config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+
+		this.directoryServer = new InMemoryDirectoryServer(config);
+		this.directoryServer.startListening();
+
+		this.directoryServer.add("dn: o=gluu", "objectClass: top", "objectClass: organization", "o: gluu");
+		this.directoryServer.add("dn: " + BASE_DN, "objectClass: top", "objectClass: organizationalUnit", "ou: people");
+		for (int i = 0; i < ENTRIES_COUNT; i++) {
+			this.directoryServer.add("dn: uid=user" + i + "," + BASE_DN, "objectClass: top", "objectClass: person", "objectClass: organizationalPerson",
+					"objectClass: inetOrgPerson", "uid: user" + i, "cn: user" + i, "sn: user" + i);
+		}
+
+		Properties props = new Properties();
+		props.setProperty("servers", "localhost:" + this.directoryServer.getListenPort());
+		props.setProperty("bindDN", "cn=Directory Manager");
+		props.setProperty("bindPassword", "secret");
+		props.setProperty("useSSL", "false");
+		props.setProperty("maxconnections", "5");
+
+		LdapConnectionProvider connectionProvider = new LdapConnectionProvider(props);
+		connectionProvider.create();
+
+		this.entryManager = new LdapEntryManager(new LdapOperationServiceImpl(connectionProvider));
+	}
+
+	@AfterClass
+	public void destroy() {
+		if (this.entryManager != null) {
+			this.entryManager.destroy();
+		}
+		if (this.directoryServer != null) {
+			this.directoryServer.shutDown(true);
+		}
+	}
+
+	@Test
+	public void checkPartitionsUnionEqualsPlainSearch() {
+		Set<String> expectedDns = new TreeSet<String>();
+		for (PartitionEntry entry : entryManager.findEntries(BASE_DN, PartitionEntry.class, null)) {
+			expectedDns.add(entry.getDn());
+		}
+		assertEquals(expectedDns.size(), ENTRIES_COUNT);
+
+		for (int parallelism : new int[] { 2, 3, 4, 16 }) {
+			final List<String> foundDns = Collections.synchronizedList(new ArrayList<String>());
+			entryManager.findEntriesParallel(BASE_DN, PartitionEntry.class, null, new DefaultBatchOperation<PartitionEntry>() {
+				@Override
+				public void performAction(List<PartitionEntry> entries) {
+					for (PartitionEntry entry : entries) {
+						foundDns.add(entry.getDn());
+					}
+				}
+			}, parallelism);
+
+			// Partitions should be disjoint
+			assertEquals(foundDns.size(), expectedDns.size());
+			assertEquals(new TreeSet<String>(foundDns), expectedDns);
+		}
+	}
+
+	@DataEntry
+	@ObjectClass(value = "inetOrgPerson")
+	public static class PartitionEntry {
+
+		@DN
+		private String dn;
+
+		@AttributeName(name = "uid")
+		private String uid;
+
+		public String getDn() {
+			return dn;
+		}
+
+		public void setDn(String dn) {
+			this.dn = dn;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public void setUid(String uid) {
+			this.uid = uid;
+		}
+
+	}
+
+}
@@ -10,10 +10,13 @@ import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -23,18 +26,25 @@ import org.gluu.persist.cloud.spanner.model.ConvertedExpression;
 import org.gluu.persist.cloud.spanner.model.SearchReturnDataType;
 import org.gluu.persist.cloud.spanner.model.TableMapping;
 import org.gluu.persist.cloud.spanner.operation.SpannerOperationService;
+import org.gluu.persist.cloud.spanner.operation.impl.SpannerConnectionProvider;
 import org.gluu.persist.event.DeleteNotifier;
 import org.gluu.persist.exception.AuthenticationException;
 import org.gluu.persist.exception.EntryDeleteException;
 import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.exception.EntryVersionConflictException;
 import org.gluu.persist.exception.MappingException;
+import org.gluu.persist.exception.operation.ConnectionException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.impl.BaseEntryManager;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.TtlSweeper;
 import org.gluu.persist.impl.GenericKeyConverter;
 import org.gluu.persist.impl.model.ParsedKey;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.EntryData;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
@@ -49,6 +59,9 @@ import org.gluu.orm.util.StringHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.cloud.spanner.Type.Code;
+import com.google.cloud.spanner.Type.StructField;
+
 /**
  * SQL Entry Manager
  *
@@ -72,6 +85,9 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
     private List<DeleteNotifier> subscribers;
 
+    private Set<String> rowDeletionPolicyTables = new HashSet<String>();
+    private Map<String, String> tableExpirationBranches = new HashMap<String, String>();
+
     protected SpannerEntryManager(SpannerOperationService operationService) {
         this.operationService = operationService;
         this.filterConverter = new SpannerFilterConverter(operationService);
@@ -79,12 +95,94 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
         subscribers = new LinkedList<DeleteNotifier>();
     }
 
+    @Override
+    public void initFilterOptimizer(Properties props) {
+    	super.initFilterOptimizer(props);
+    	filterConverter.setFilterOptimizer(filterOptimizer);
+    }
+
+    @Override
+    protected IndexAdvisor.IndexDefinitionBuilder createIndexDefinitionBuilder(Properties props) {
+    	return new SpannerIndexDefinitionBuilder(getOperationService());
+    }
+
+    /*
+     * Spanner removes expired rows in background with row deletion policy. Verify or create it for tables with expiring entries
+     */
+    @Override
+    public void initExpiration(Properties props) {
+    	List<String> tableNames = TtlSweeper.getContainers(props);
+    	if (tableNames.isEmpty()) {
+    		return;
+    	}
+
+    	// Table can't be determined by DN. Entries have expiration support only under ttl.branch.<table>
+    	for (String tableName : tableNames) {
+    		String branch = TtlSweeper.getBranch(props, tableName);
+    		if (branch == null) {
+    			LOG.warn("There is no option {}{}. Entries of table '{}' are reported without expiration support", TtlSweeper.BRANCH_OPTION_PREFIX, tableName, tableName);
+    		} else {
+    			tableExpirationBranches.put(tableName, branch);
+    		}
+    	}
+
+    	SpannerConnectionProvider connectionProvider = getOperationService().getConnectionProvider();
+    	String expirationColumn = getOperationService().toInternalAttribute(TtlSweeper.getExpirationAttribute(props));
+    	boolean applyRowDeletionPolicy = StringHelper.toBoolean(props.getProperty("ttl.rowDeletionPolicy.apply"), false);
+    	LOG.info("Option ttl.rowDeletionPolicy.apply: " + applyRowDeletionPolicy);
+
+    	List<String> statements = new ArrayList<String>();
+    	List<String> statementTableNames = new ArrayList<String>();
+    	for (String tableName : tableNames) {
+    		Map<String, StructField> columnTypes = connectionProvider.getDatabaseMetaData().get(tableName);
+    		StructField expirationField = (columnTypes == null) ? null : columnTypes.get(StringHelper.toLowerCase(expirationColumn));
+    		if ((expirationField == null) || (Code.TIMESTAMP != expirationField.getType().getCode())) {
+    			LOG.warn("Table '{}' has no TIMESTAMP column '{}' for row deletion policy", tableName, expirationColumn);
+    			continue;
+    		}
+
+    		String rowDeletionPolicy = connectionProvider.getRowDeletionPolicy(tableName);
+    		if (rowDeletionPolicy == null) {
+    			// Policy removes row after expiration even if "del" flag is not set
+    			statements.add(String.format("ALTER TABLE %s ADD ROW DELETION POLICY (OLDER_THAN(%s, INTERVAL 0 DAY))", tableName, expirationField.getName()));
+    			statementTableNames.add(tableName);
+    			continue;
+    		}
+
+    		if (!StringHelper.toLowerCase(rowDeletionPolicy).contains(StringHelper.toLowerCase(expirationColumn))) {
+    			LOG.warn("Table '{}' row deletion policy '{}' doesn't use column '{}'", tableName, rowDeletionPolicy, expirationColumn);
+    		}
+    		rowDeletionPolicyTables.add(tableName);
+    	}
+
+    	if (statements.isEmpty()) {
+    		return;
+    	}
+
+    	if (!applyRowDeletionPolicy) {
+    		LOG.warn("Expired entries are not removed. Add row deletion policies: {}", statements);
+    		return;
+    	}
+
+    	try {
+    		connectionProvider.updateDatabaseDdl(statements);
+    		rowDeletionPolicyTables.addAll(statementTableNames);
+    		LOG.info("Added row deletion policies: {}", statements);
+    	} catch (ConnectionException ex) {
+    		LOG.error("Failed to add row deletion policies: {}", statements, ex);
+    	}
+    }
+
     @Override
     public boolean destroy() {
         if (this.operationService == null) {
             return true;
         }
 
+        destroyWriteBehind();
+        destroyIndexAdvisor();
+        destroyNegativeLookupCache();
+
         return ((SpannerOperationService) this.operationService).destroy();
     }
 
@@ -125,7 +223,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 	}
 
     @Override
-    protected <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
+    protected void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
             List<AttributeDataModification> attributeDataModifications, boolean forceUpdate) {
     	if (forceUpdate) {
     		// SQL ORM can't update objectClass because it select table by objectClass name  
@@ -134,24 +232,23 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
     	// Update object classes if entry contains custom object classes
         if (!isConfigurationUpdate) {
-            String[] objectClasses = getObjectClasses(entry, entryClass);
             if (ArrayHelper.isEmpty(objectClasses)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", baseDn));
             }
 
             AttributeData objectClassAttributeData = attributesFromDbMap.get(OBJECT_CLASS.toLowerCase());
             if (objectClassAttributeData == null) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
 
             String[] objectClassesFromDb = objectClassAttributeData.getStringValues();
             if (ArrayHelper.isEmpty(objectClassesFromDb)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
             
             // We need to check only first element of each array because objectCLass in SQL is single value attribute
             if (!StringHelper.equals(getBaseObjectClass(entryClass, objectClassesFromDb), getBaseObjectClass(entryClass, objectClasses))) {
-            	throw new UnsupportedOperationException(String.format("It's not possible to change objectClasses of already persisted entry! Entry is invalid: '%s'", entry));
+            	throw new UnsupportedOperationException(String.format("It's not possible to change objectClasses of already persisted entry! Entry is invalid: '%s'", baseDn));
             }
         }
     }
@@ -224,7 +321,8 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
     }
 
     @Override
-    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue) {
+    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue,
+    		AttributeData expectedVersion) {
         // Update entry
         try {
             List<AttributeDataModification> modifications = new ArrayList<AttributeDataModification>(attributeDataModifications.size());
@@ -271,11 +369,18 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
             }
 
             if (modifications.size() > 0) {
-                boolean result = getOperationService().updateEntry(toSQLKey(dn).getKey(), getBaseObjectClass(objectClasses), modifications);
+                AttributeData expectedInternalVersion = null;
+                if (expectedVersion != null) {
+                	expectedInternalVersion = new AttributeData(toInternalAttribute(expectedVersion.getName()), expectedVersion.getValues());
+                }
+
+                boolean result = getOperationService().updateEntry(toSQLKey(dn).getKey(), getBaseObjectClass(objectClasses), modifications, expectedInternalVersion);
                 if (!result) {
                     throw new EntryPersistenceException(String.format("Failed to update entry: '%s'", dn));
                 }
             }
+        } catch (VersionConflictException ex) {
+            throw new EntryVersionConflictException(String.format("Failed to update entry: '%s'", dn), ex);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to update entry: '%s'", dn), ex);
         }
@@ -322,6 +427,35 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
         }
     }
 
+    @Override
+    protected <T> Set<String> findExistingKeys(Class<T> entryClass, String[] objectClasses, List<String> primaryKeys) {
+        // Table key -> DNs
+        Map<String, List<String>> keys = new HashMap<String, List<String>>();
+        for (String primaryKey : primaryKeys) {
+            String key = toSQLKey(primaryKey).getKey();
+            List<String> keyPrimaryKeys = keys.get(key);
+            if (keyPrimaryKeys == null) {
+                keyPrimaryKeys = new ArrayList<String>(1);
+                keys.put(key, keyPrimaryKeys);
+            }
+            keyPrimaryKeys.add(primaryKey);
+        }
+
+        Set<String> result = new HashSet<String>();
+        try {
+            for (String existingKey : getOperationService().findExistingKeys(getBaseObjectClass(objectClasses), keys.keySet())) {
+                List<String> keyPrimaryKeys = keys.get(existingKey);
+                if (keyPrimaryKeys != null) {
+                    result.addAll(keyPrimaryKeys);
+                }
+            }
+        } catch (Exception ex) {
+            throw new EntryPersistenceException(String.format("Failed to find existing entries: '%s'", primaryKeys), ex);
+        }
+
+        return result;
+    }
+
     @Override
 	public <T> int remove(String dn, Class<T> entryClass, Filter filter, int count) {
 		if (StringHelper.isEmptyString(dn)) {
@@ -409,18 +543,35 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
     @Override
     public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
-            SortOrder sortOrder, int start, int count, int chunkSize) {
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
         if (StringHelper.isEmptyString(baseDN)) {
             throw new MappingException("Base DN to find entries is null");
         }
 
+        Integer cachedTotalCount = getCachedTotalCount(countMode, baseDN, entryClass, filter);
+
+        // Spanner has no statistics API for filtered row estimation. APPROXIMATE mode calculates exact count
+        SearchReturnDataType returnDataType;
+        if ((cachedTotalCount != null) || (CountMode.NONE == countMode)) {
+        	returnDataType = SearchReturnDataType.SEARCH;
+        } else {
+        	returnDataType = SearchReturnDataType.SEARCH_COUNT;
+        }
+
         PagedResult<EntryData> searchResult = findEntriesImpl(baseDN, entryClass, filter, SearchScope.SUB, ldapReturnAttributes, sortBy, sortOrder,
-                null, SearchReturnDataType.SEARCH_COUNT, start, count, chunkSize);
+                null, returnDataType, start, count, chunkSize);
 
         PagedResult<T> result = new PagedResult<T>();
         result.setEntriesCount(searchResult.getEntriesCount());
         result.setStart(searchResult.getStart());
-        result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        if (cachedTotalCount != null) {
+        	result.setTotalEntriesCount(cachedTotalCount);
+        } else if (CountMode.NONE == countMode) {
+        	result.setTotalEntriesCount(-1);
+        } else {
+        	result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        	putCachedTotalCount(countMode, baseDN, entryClass, filter, searchResult.getTotalEntriesCount());
+        }
 
         if (searchResult.getEntriesCount() == 0) {
             result.setEntries(new ArrayList<T>(0));
@@ -490,7 +641,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
             if (batchOperation != null) {
                 batchOperationWraper = new SpannerBatchOperationWraper<T>(batchOperation, this, entryClass, propertiesAnnotations);
             }
-            searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), convertedExpression, scope, currentLdapReturnAttributes,
+            searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, scope, currentLdapReturnAttributes,
                     defaultSort, batchOperationWraper, returnDataType, start, count, chunkSize);
 
             if (searchResult == null) {
@@ -533,7 +684,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
         PagedResult<EntryData> searchResult = null;
         try {
-            searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), convertedExpression, SearchScope.SUB, ldapReturnAttributes, null,
+            searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, SearchScope.SUB, ldapReturnAttributes, null,
                     null, SearchReturnDataType.SEARCH, 0, 1, 0);
             if (searchResult == null) {
                 throw new EntryPersistenceException(String.format("Failed to find entry with baseDN: '%s', filter: '%s'", baseDN, searchFilter));
@@ -545,9 +696,13 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
         return (searchResult != null) && (searchResult.getEntriesCount() > 0);
     }
 
-	private <O> PagedResult<EntryData> searchImpl(String key, String objectClass, ConvertedExpression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
+	private <O> PagedResult<EntryData> searchImpl(String key, String objectClass, Filter searchFilter, ConvertedExpression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
             SpannerBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
-		return getOperationService().search(key, objectClass, expression, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		long startTime = System.nanoTime();
+		PagedResult<EntryData> searchResult = getOperationService().search(key, objectClass, expression, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		recordFilterShape(objectClass, searchFilter, startTime);
+
+		return searchResult;
 	}
 
     protected <T> List<T> createEntities(String baseDN, Class<T> entryClass, PagedResult<EntryData> searchResult) {
@@ -627,7 +782,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 		}
 
 		try {
-			PagedResult<EntryData> searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), convertedExpression,
+			PagedResult<EntryData> searchResult = searchImpl(key, getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression,
                     SearchScope.SUB, SpannerOperationService.UID_ARRAY, null, null, SearchReturnDataType.SEARCH, 0, 1, 1);
             if ((searchResult == null) || (searchResult.getEntriesCount() != 1)) {
                 return false;
@@ -709,7 +864,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
         PagedResult<EntryData> searchResult;
         try {
-            searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), convertedExpression, scope, null, null,
+            searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, scope, null, null,
                     null, SearchReturnDataType.COUNT, 0, 0, 0);
         } catch (Exception ex) {
             throw new EntryPersistenceException(
@@ -793,7 +948,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
             throw new MappingException(String.format("Failed to get table mapping by key '%s' and objectClass '%s'", key, objectClass));
     	}
 
-    	return filterConverter.convertToSqlFilter(tableMapping, excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap);
+    	return filterConverter.convertToSqlFilter(tableMapping, excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap);
     }
 
     private ConvertedExpression toSqlFilterWithEmptyAlias(String key, String objectClass, Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
@@ -802,7 +957,7 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
             throw new MappingException(String.format("Failed to get table mapping by key '%s' and objectClass '%s'", key, objectClass));
     	}
 
-    	return filterConverter.convertToSqlFilter(tableMapping, excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap, true);
+    	return filterConverter.convertToSqlFilter(tableMapping, excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap, true);
     }
 
 	private Filter excludeObjectClassFilters(Filter genericFilter) {
@@ -875,7 +1030,16 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
 
 	@Override
 	public boolean hasExpirationSupport(String primaryKey) {
-		return false;
+		// Expired rows are removed by row deletion policies only from tables which have it
+		List<String> expirationBranches = new ArrayList<String>();
+		for (String tableName : rowDeletionPolicyTables) {
+			String branch = tableExpirationBranches.get(tableName);
+			if (branch != null) {
+				expirationBranches.add(branch);
+			}
+		}
+
+		return TtlSweeper.isInBranches(primaryKey, expirationBranches);
 	}
 
 	@Override
@@ -902,6 +1066,11 @@ public class SpannerEntryManager extends BaseEntryManager implements Serializabl
     	return super.convertJsonToValue(parameterType, propertyValue);
 	}
 
+    @Override
+	protected <T> Filter[] createPartitionFilters(String baseDN, Class<T> entryClass, int parallelism) {
+		return createKeyRangeFilters(SpannerOperationService.DOC_ID, "", KEY_RANGE_ALPHABET, parallelism);
+	}
+
     @Override
 	protected Object getNativeDateAttributeValue(Date dateValue) {
 		return dateValue;
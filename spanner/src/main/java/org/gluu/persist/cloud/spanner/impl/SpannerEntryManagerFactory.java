@@ -75,6 +75,13 @@ public class SpannerEntryManagerFactory implements PersistenceEntryManagerFactor
 
         
         SpannerEntryManager sqlEntryManager = new SpannerEntryManager(new SpannerOperationServiceImpl(entryManagerConf, connectionProvider));
+        sqlEntryManager.initWriteBehind(entryManagerConf);
+        sqlEntryManager.initTotalCountCache(entryManagerConf);
+        sqlEntryManager.initFilterOptimizer(entryManagerConf);
+        sqlEntryManager.initIndexAdvisor(entryManagerConf);
+        sqlEntryManager.initNegativeLookupCache(entryManagerConf);
+        sqlEntryManager.initLowercaseAttributes(entryManagerConf);
+        sqlEntryManager.initExpiration(entryManagerConf);
         LOG.info("Created SpannerEntryManager: {}", sqlEntryManager.getOperationService());
 
         return sqlEntryManager;
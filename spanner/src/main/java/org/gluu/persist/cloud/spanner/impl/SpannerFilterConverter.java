@@ -10,9 +10,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 import org.gluu.persist.annotation.AttributeEnum;
+import org.gluu.persist.annotation.AttributeName;
 import org.gluu.persist.cloud.spanner.model.ConvertedExpression;
 import org.gluu.persist.cloud.spanner.model.TableMapping;
 import org.gluu.persist.cloud.spanner.model.ValueWithStructField;
@@ -22,6 +24,7 @@ import org.gluu.persist.ldap.impl.LdapFilterConverter;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
 import org.gluu.persist.reflect.util.ReflectHelper;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.gluu.search.filter.FilterType;
 import org.gluu.orm.util.ArrayHelper;
 import org.gluu.orm.util.StringHelper;
@@ -65,14 +68,32 @@ public class SpannerFilterConverter {
     
     private static final LdapFilterConverter ldapFilterConverter = new LdapFilterConverter();
 
+    // TOKENLIST column with TOKENIZE_SUBSTRING(column) for search index
+    public static final String SUBSTRING_TOKENS_SUFFIX = "_Tokens";
+
 	private SpannerOperationService operationService;
 
 	private Table tableAlias = new Table(SpannerOperationService.DOC_ALIAS);
 
+	private FilterOptimizer filterOptimizer;
+
+	private Map<String, Set<String>> searchIndexColumns;
+
 	public SpannerFilterConverter(SpannerOperationService operationService) {
     	this.operationService = operationService;
 	}
 
+	public void setFilterOptimizer(FilterOptimizer filterOptimizer) {
+		this.filterOptimizer = filterOptimizer;
+	}
+
+	/*
+	 * Search indexes TOKENLIST columns by table name. Used only if there is no operation service
+	 */
+	public void setSearchIndexColumns(Map<String, Set<String>> searchIndexColumns) {
+		this.searchIndexColumns = searchIndexColumns;
+	}
+
 	public ConvertedExpression convertToSqlFilter(TableMapping tableMapping, Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
     	return convertToSqlFilter(tableMapping, genericFilter, propertiesAnnotationsMap, false);
     }
@@ -88,7 +109,8 @@ public class SpannerFilterConverter {
 	public ConvertedExpression convertToSqlFilter(TableMapping tableMapping, Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor, boolean skipAlias) throws SearchException {
     	Map<String, ValueWithStructField> queryParameters = new HashMap<>();
     	Map<String, Join> joinTables = new HashMap<>();
-    	ConvertedExpression convertedExpression = convertToSqlFilterImpl(tableMapping, genericFilter, propertiesAnnotationsMap, queryParameters, joinTables, processor, skipAlias);
+    	Filter optimizedFilter = filterOptimizer == null ? genericFilter : filterOptimizer.optimize(genericFilter);
+    	ConvertedExpression convertedExpression = convertToSqlFilterImpl(tableMapping, optimizedFilter, propertiesAnnotationsMap, queryParameters, joinTables, processor, skipAlias);
     	
     	return convertedExpression;
     }
@@ -294,6 +316,21 @@ public class SpannerFilterConverter {
 
     			return ConvertedExpression.build(expression, queryParameters, joinTables);
             }
+
+    		String tokensColumn = internalAttribute + SUBSTRING_TOKENS_SUFFIX;
+    		if (isSubstringIndex(currentGenericFilter, propertiesAnnotationsMap) && hasSearchIndex(tableMapping.getTableName(), tokensColumn)) {
+    			String searchQuery = buildSearchSubstringQuery(currentGenericFilter);
+    			if (searchQuery != null) {
+    				// Search index narrows down rows, LIKE keeps exact substring semantic
+    				net.sf.jsqlparser.expression.Function searchFunction = new net.sf.jsqlparser.expression.Function();
+    				searchFunction.setName("SEARCH_SUBSTRING");
+    				searchFunction.setParameters(new ExpressionList(buildColumnExpression(tokensColumn, skipAlias),
+    						buildVariableExpression(tableMapping, internalAttribute, searchQuery, queryParameters)));
+
+    				expression = new Parenthesis(new AndExpression(searchFunction, expression));
+    			}
+    		}
+
         	return ConvertedExpression.build(expression, queryParameters, joinTables);
         }
 
@@ -383,6 +420,16 @@ public class SpannerFilterConverter {
 		return toInternalAttribute(attributeName);
 	}
 
+	private boolean hasSearchIndex(String tableName, String tokensColumn) {
+		if (operationService == null) {
+			Set<String> tokensColumns = searchIndexColumns == null ? null : searchIndexColumns.get(tableName);
+
+			return (tokensColumns != null) && tokensColumns.contains(tokensColumn);
+		}
+
+		return operationService.getConnectionProvider().hasSearchIndex(tableName, tokensColumn);
+	}
+
 	private String toInternalAttribute(String attributeName) {
 		if (operationService == null) {
 			return attributeName;
@@ -405,6 +452,45 @@ public class SpannerFilterConverter {
 		return new UserVariable(usedAttributeName);
 	}
 
+	private String buildSearchSubstringQuery(Filter filter) {
+		List<String> parts = new ArrayList<String>();
+		if (StringHelper.isNotEmpty(filter.getSubInitial())) {
+			parts.add(filter.getSubInitial());
+		}
+		if (filter.getSubAny() != null) {
+			for (String any : filter.getSubAny()) {
+				if (StringHelper.isNotEmpty(any)) {
+					parts.add(any);
+				}
+			}
+		}
+		if (StringHelper.isNotEmpty(filter.getSubFinal())) {
+			parts.add(filter.getSubFinal());
+		}
+
+		if (parts.isEmpty()) {
+			return null;
+		}
+
+		return String.join(" ", parts);
+	}
+
+	private boolean isSubstringIndex(Filter filter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if ((propertiesAnnotationsMap == null) || (filter.getAttributeName() == null)) {
+			return false;
+		}
+
+		PropertyAnnotation propertyAnnotation = propertiesAnnotationsMap.get(filter.getAttributeName());
+		if (propertyAnnotation == null) {
+			return false;
+		}
+
+		AttributeName attributeNameAnnotation = (AttributeName) ReflectHelper.getAnnotationByType(propertyAnnotation.getAnnotations(),
+				AttributeName.class);
+
+		return (attributeNameAnnotation != null) && attributeNameAnnotation.substringIndex();
+	}
+
 	private Expression buildExistsInArrayExpression(String attributeName, Expression whereExpression) {
 		PlainSelect arrayQuery = new PlainSelect();
 		String columnAlias = "_" + attributeName;
@@ -0,0 +1,139 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.cloud.spanner.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.cloud.spanner.operation.SpannerOperationService;
+import org.gluu.persist.cloud.spanner.operation.impl.SpannerConnectionProvider;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.IndexAdvisor.FilterShape;
+
+import com.google.cloud.spanner.Type.Code;
+import com.google.cloud.spanner.Type.StructField;
+
+/**
+ * Builds Spanner secondary index DDL for index advisor
+ */
+public class SpannerIndexDefinitionBuilder implements IndexAdvisor.IndexDefinitionBuilder {
+
+	private static final int MAX_INDEX_NAME_LENGTH = 128;
+
+	private final SpannerOperationService operationService;
+
+	public SpannerIndexDefinitionBuilder(SpannerOperationService operationService) {
+		this.operationService = operationService;
+	}
+
+	@Override
+	public List<String> buildIndexDefinitions(FilterShape filterShape) {
+		SpannerConnectionProvider connectionProvider = operationService.getConnectionProvider();
+		String tableName = filterShape.getContainer();
+		Map<String, StructField> columnTypes = connectionProvider.getTableMappingByKey("_", tableName).getColumTypes();
+
+		Set<String> childAttributes = new HashSet<String>();
+		Set<String> tableChildAttributes = connectionProvider.getTableChildAttributes(tableName);
+		if (tableChildAttributes != null) {
+			for (String childAttribute : tableChildAttributes) {
+				childAttributes.add(StringHelper.toLowerCase(childAttribute));
+			}
+		}
+
+		List<String> result = new ArrayList<String>();
+		// Table contains entries with one objectClass only
+		for (List<String> indexKey : filterShape.getIndexKeys(Collections.singleton(StringHelper.toLowerCase(SpannerOperationService.OBJECT_CLASS)))) {
+			List<String> columns = new ArrayList<String>();
+			for (String attributeName : indexKey) {
+				String column = operationService.toInternalAttribute(attributeName);
+				if (filterShape.isLowercase(attributeName)) {
+					// Index on expression needs stored lower case copy of column
+					result.add(String.format("-- Search by LOWER(%s) of %s can't use secondary index, declare lower case copy with @AttributeName(lowercaseName) and list it in lowercaseAttributes.backfilled", column, tableName));
+					continue;
+				}
+
+				if (isMultiValuedColumn(columnTypes, childAttributes, column)) {
+					continue;
+				}
+
+				columns.add(column);
+			}
+
+			if (!columns.isEmpty()) {
+				result.add(String.format("CREATE INDEX %s ON %s (%s);", buildIndexName(tableName, columns), tableName, String.join(", ", columns)));
+			}
+		}
+
+		// Multi-valued attributes values are stored in interleaved child tables
+		for (String attributeName : filterShape.getAttributes()) {
+			String column = operationService.toInternalAttribute(attributeName);
+			if (childAttributes.contains(StringHelper.toLowerCase(column))) {
+				String childTableName = tableName + "_" + column;
+				result.add(String.format("CREATE INDEX %s ON %s (%s);", buildIndexName(childTableName, Collections.singletonList(column)), childTableName, column));
+			} else if (isMultiValuedColumn(columnTypes, childAttributes, column)) {
+				result.add(String.format("-- ARRAY column %s of %s can't be indexed, move it to child table %s_%s", column, tableName, tableName, column));
+			}
+		}
+
+		// Substring without initial part can use only search index
+		for (String attributeName : filterShape.getSubstringAttributes()) {
+			String column = operationService.toInternalAttribute(attributeName);
+			if (isMultiValuedColumn(columnTypes, childAttributes, column)) {
+				continue;
+			}
+
+			// Filter converter uses it for attributes with @AttributeName(substringIndex = true)
+			String tokensColumn = column + SpannerFilterConverter.SUBSTRING_TOKENS_SUFFIX;
+			if (!connectionProvider.hasTokenListColumn(tableName, tokensColumn)) {
+				result.add(String.format("ALTER TABLE %s ADD COLUMN %s TOKENLIST AS (TOKENIZE_SUBSTRING(%s)) HIDDEN;", tableName, tokensColumn, column));
+			}
+			if (!connectionProvider.hasSearchIndex(tableName, tokensColumn)) {
+				result.add(String.format("CREATE SEARCH INDEX %s ON %s (%s);", buildIndexName(tableName, Arrays.asList(column, "search")), tableName, tokensColumn));
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isMultiValuedColumn(Map<String, StructField> columnTypes, Set<String> childAttributes, String column) {
+		String columnKey = StringHelper.toLowerCase(column);
+		if (childAttributes.contains(columnKey)) {
+			return true;
+		}
+
+		if (columnTypes == null) {
+			return false;
+		}
+
+		StructField structField = columnTypes.get(columnKey);
+		return (structField != null) && (Code.ARRAY == structField.getType().getCode());
+	}
+
+	private String buildIndexName(String tableName, List<String> columns) {
+		StringBuilder indexName = new StringBuilder(tableName);
+		for (String column : columns) {
+			indexName.append("_").append(column);
+		}
+		indexName.append("_idx");
+
+		if (indexName.length() > MAX_INDEX_NAME_LENGTH) {
+			// Keep name unique after truncation
+			String hash = Integer.toHexString(indexName.toString().hashCode());
+			indexName.setLength(MAX_INDEX_NAME_LENGTH - hash.length() - 1);
+			indexName.append("_").append(hash);
+		}
+
+		return indexName.toString();
+	}
+
+}
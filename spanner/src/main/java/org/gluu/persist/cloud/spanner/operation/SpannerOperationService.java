@@ -58,6 +58,7 @@ public interface SpannerOperationService extends PersistenceOperationService {
     boolean addEntry(String key, String objectClass, Collection<AttributeData> attributes) throws DuplicateEntryException, PersistenceException;
 
     boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods) throws UnsupportedOperationException, PersistenceException;
+    boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException;
 
     boolean delete(String key, String objectClass) throws EntryNotFoundException;
 	long delete(String key, String objectClass, ConvertedExpression expression, int count) throws DeleteException;
@@ -66,6 +67,8 @@ public interface SpannerOperationService extends PersistenceOperationService {
 
 	List<AttributeData> lookup(String key, String objectClass, String... attributes) throws SearchException, EntryConvertationException;
 
+	Set<String> findExistingKeys(String objectClass, Collection<String> keys) throws SearchException;
+
     <O> PagedResult<EntryData> search(String key, String objectClass, ConvertedExpression expression, SearchScope scope,
             String[] attributes, Sort[] orderBy, SpannerBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType,
             int start, int count, int pageSize) throws SearchException;
@@ -13,10 +13,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import org.gluu.persist.cloud.spanner.model.ResultCode;
 import org.gluu.persist.cloud.spanner.model.TableMapping;
@@ -37,6 +40,7 @@ import com.google.cloud.NoCredentials;
 import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.DatabaseId;
 import com.google.cloud.spanner.ResultSet;
+import com.google.cloud.spanner.SessionPoolOptions;
 import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerException;
 import com.google.cloud.spanner.SpannerOptions;
@@ -59,8 +63,13 @@ public class SpannerConnectionProvider {
     		"SELECT TABLE_NAME, PARENT_TABLE_NAME FROM information_schema.tables WHERE table_catalog = '' and table_schema = '' and parent_table_name is NOT NULL";
     private static final String QUERY_TABLE_SCHEMA =
     		"SELECT TABLE_NAME, COLUMN_NAME, SPANNER_TYPE, IS_NULLABLE FROM information_schema.columns WHERE table_catalog = '' and table_schema = ''";
+    private static final String QUERY_ROW_DELETION_POLICY =
+    		"SELECT TABLE_NAME, ROW_DELETION_POLICY_EXPRESSION FROM information_schema.tables WHERE table_catalog = '' and table_schema = '' and row_deletion_policy_expression is NOT NULL";
+    private static final String QUERY_SEARCH_INDEX_COLUMNS =
+    		"SELECT TABLE_NAME, COLUMN_NAME FROM information_schema.index_columns WHERE table_catalog = '' and table_schema = '' and index_type = 'SEARCH'";
 
     private static final String CLIENT_PROPERTIES_PREFIX = "connection.client-property";
+    private static final String SPANNER_TYPE_TOKENLIST = "tokenlist";
 
     private Properties props;
 
@@ -82,10 +91,27 @@ public class SpannerConnectionProvider {
 
 	private long defaultMaximumResultSize;
 	private long maximumResultDeleteSize;
+
+	private boolean childTablesBatchFetch;
+
+	private Integer minSessions;
+	private Integer maxSessions;
+	private Integer maxIdleSessions;
+	private Float writeSessionsFraction;
+	private Integer keepAliveIntervalMinutes;
+	private boolean failIfPoolExhausted;
+	private Integer numChannels;
+	private int warmUpSessions;
+
+	private int warmedUpSessions;
+	private long warmUpTimeMillis;
 	
 	private Map<String, Map<String, StructField>> tableColumnsMap;
 	private Map<String, Set<String>> tableNullableColumnsSet;
 	private Map<String, Set<String>> tableChildAttributesMap;
+	private Map<String, Set<String>> tableTokenListColumnsMap;
+	private Map<String, Set<String>> tableSearchIndexColumnsMap;
+	private Map<String, String> tableRowDeletionPolicyMap;
 
 	private DatabaseClient dbClient;
 	private Spanner spanner;
@@ -98,6 +124,9 @@ public class SpannerConnectionProvider {
         this.tableColumnsMap = new HashMap<>();
         this.tableNullableColumnsSet = new HashMap<>();
         this.tableChildAttributesMap = new HashMap<>();
+        this.tableTokenListColumnsMap = new HashMap<>();
+        this.tableSearchIndexColumnsMap = new HashMap<>();
+        this.tableRowDeletionPolicyMap = new HashMap<>();
     }
 
     public void create() {
@@ -149,6 +178,22 @@ public class SpannerConnectionProvider {
             this.maximumResultDeleteSize = StringHelper.toLong(props.getProperty("statement.limit.maximum-result-delete-size"), 10000);
         }
 
+		// Session pool and gRPC channels. Client library defaults are used for not specified options
+		this.minSessions = toInteger(props.getProperty("connection.client.min-sessions"));
+		this.maxSessions = toInteger(props.getProperty("connection.client.max-sessions"));
+		this.maxIdleSessions = toInteger(props.getProperty("connection.client.max-idle-sessions"));
+		this.writeSessionsFraction = toFloat(props.getProperty("connection.client.write-sessions-fraction"));
+		this.keepAliveIntervalMinutes = toInteger(props.getProperty("connection.client.keep-alive-interval-minutes"));
+		this.failIfPoolExhausted = StringHelper.toBoolean(props.getProperty("connection.client.fail-if-pool-exhausted"), false);
+		this.numChannels = toInteger(props.getProperty("connection.client.num-channels"));
+		this.warmUpSessions = StringHelper.toInt(props.getProperty("connection.client.warm-up-sessions"), 0);
+		LOG.info("Using session pool options, minSessions: '{}', maxSessions: '{}', maxIdleSessions: '{}', writeSessionsFraction: '{}', keepAliveIntervalMinutes: '{}', failIfPoolExhausted: '{}', numChannels: '{}', warmUpSessions: '{}'",
+				minSessions, maxSessions, maxIdleSessions, writeSessionsFraction, keepAliveIntervalMinutes, failIfPoolExhausted, numChannels, warmUpSessions);
+
+		// Load child tables rows of result page with one read per child table instead of subquery per row
+		this.childTablesBatchFetch = StringHelper.toBoolean(props.getProperty("connection.child-tables-batch-fetch"), false);
+		LOG.info("Using child tables batch fetch: '{}'", childTablesBatchFetch);
+
 		this.connectionCredentialsFile = null;
         if (props.containsKey("connection.credentials-file")) {
         	this.connectionCredentialsFile = props.getProperty("connection.credentials-file");
@@ -179,6 +224,8 @@ public class SpannerConnectionProvider {
 
         loadTableMetaData();
 
+        warmUpSessionPool();
+
         this.creationResultCode = ResultCode.SUCCESS_INT_VALUE;
     }
 
@@ -237,6 +284,17 @@ public class SpannerConnectionProvider {
 	        		}
 
 	        		String comparebleType = toComparableType(spannerType);
+	        		if (SPANNER_TYPE_TOKENLIST.equals(comparebleType)) {
+	        			// Search index columns can't be selected or updated
+	        			Set<String> tokenListColumns = tableTokenListColumnsMap.get(tableName);
+	        			if (tokenListColumns == null) {
+	        				tokenListColumns = new HashSet<>();
+	        				tableTokenListColumnsMap.put(tableName, tokenListColumns);
+	        			}
+	        			tokenListColumns.add(columnName.toLowerCase());
+	        			continue;
+	        		}
+
 	        		Type type = typeMap.get(comparebleType);
 	        		if (type == null) {
 	                	throw new ConnectionException(String.format("Failed to parse SPANNER_TYPE: '%s'", spannerType));
@@ -263,6 +321,32 @@ public class SpannerConnectionProvider {
         }
         LOG.debug("Build table columns map: '{}'.", tableColumnsMap);
 
+        try (ResultSet resultSet = executeQuery(QUERY_SEARCH_INDEX_COLUMNS)) {
+        	while (resultSet.next()) {
+        		String tableName = resultSet.getString("TABLE_NAME");
+    			Set<String> searchIndexColumns = tableSearchIndexColumnsMap.get(tableName);
+    			if (searchIndexColumns == null) {
+    				searchIndexColumns = new HashSet<>();
+    				tableSearchIndexColumnsMap.put(tableName, searchIndexColumns);
+    			}
+    			searchIndexColumns.add(resultSet.getString("COLUMN_NAME").toLowerCase());
+        	}
+        } catch (SpannerException ex) {
+        	// Emulator doesn't support search indexes
+        	LOG.warn("Failed to get search indexes columns", ex);
+        }
+        LOG.debug("Build table search indexes columns map: '{}'.", tableSearchIndexColumnsMap);
+
+        try (ResultSet resultSet = executeQuery(QUERY_ROW_DELETION_POLICY)) {
+        	while (resultSet.next()) {
+        		tableRowDeletionPolicyMap.put(resultSet.getString("TABLE_NAME"), resultSet.getString("ROW_DELETION_POLICY_EXPRESSION"));
+        	}
+        } catch (SpannerException ex) {
+        	// Emulator doesn't support row deletion policies
+        	LOG.warn("Failed to get tables row deletion policies", ex);
+        }
+        LOG.debug("Build table row deletion policies map: '{}'.", tableRowDeletionPolicyMap);
+
         takes = System.currentTimeMillis() - takes;
         LOG.info("Metadata scan finisehd in {} milliseconds", takes);
    	}
@@ -357,6 +441,10 @@ public class SpannerConnectionProvider {
         }
 
         optionsBuilder.setProjectId(connectionProject);
+        optionsBuilder.setSessionPoolOption(buildSessionPoolOptions());
+        if (numChannels != null) {
+        	optionsBuilder.setNumChannels(numChannels);
+        }
 
         DatabaseId databaseId = DatabaseId.of(connectionProject, connectionInstance, connectionDatabase);
 
@@ -364,6 +452,100 @@ public class SpannerConnectionProvider {
         this.dbClient = spanner.getDatabaseClient(databaseId);
     }
 
+	private SessionPoolOptions buildSessionPoolOptions() {
+		SessionPoolOptions.Builder sessionPoolOptionsBuilder = SessionPoolOptions.newBuilder();
+		if (minSessions != null) {
+			sessionPoolOptionsBuilder.setMinSessions(minSessions);
+		}
+		if (maxSessions != null) {
+			sessionPoolOptionsBuilder.setMaxSessions(maxSessions);
+		}
+		if (maxIdleSessions != null) {
+			sessionPoolOptionsBuilder.setMaxIdleSessions(maxIdleSessions);
+		}
+		if (writeSessionsFraction != null) {
+			sessionPoolOptionsBuilder.setWriteSessionsFraction(writeSessionsFraction);
+		}
+		if (keepAliveIntervalMinutes != null) {
+			sessionPoolOptionsBuilder.setKeepAliveIntervalMinutes(keepAliveIntervalMinutes);
+		}
+		if (failIfPoolExhausted) {
+			sessionPoolOptionsBuilder.setFailIfPoolExhausted();
+		}
+
+		return sessionPoolOptionsBuilder.build();
+	}
+
+	/*
+	 * Keep required number of queries open at the same time to force session pool create sessions
+	 * before first application request
+	 */
+	private void warmUpSessionPool() {
+		int sessionsCount = warmUpSessions;
+		if ((maxSessions != null) && (sessionsCount > maxSessions)) {
+			// Pool blocks or fails when there are no free sessions
+			sessionsCount = maxSessions;
+		}
+
+		if (sessionsCount <= 0) {
+			return;
+		}
+
+		long takes = System.currentTimeMillis();
+		List<ResultSet> resultSets = new ArrayList<ResultSet>(sessionsCount);
+		try {
+			for (int i = 0; i < sessionsCount; i++) {
+				ResultSet resultSet = executeQuery(QUERY_HEALTH_CHECK);
+				resultSets.add(resultSet);
+				resultSet.next();
+			}
+		} catch (SpannerException ex) {
+			LOG.warn("Failed to warm up session pool", ex);
+		} finally {
+			for (ResultSet resultSet : resultSets) {
+				resultSet.close();
+			}
+		}
+
+		this.warmedUpSessions = resultSets.size();
+		this.warmUpTimeMillis = System.currentTimeMillis() - takes;
+		LOG.info("Session pool warm up created '{}' sessions in {} milliseconds", warmedUpSessions, warmUpTimeMillis);
+	}
+
+	/*
+	 * Live pool utilization (in use, max in use, acquired and released sessions) is published
+	 * by client library metrics
+	 */
+	public Map<String, Object> getSessionPoolStatistics() {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("minSessions", minSessions);
+		statistics.put("maxSessions", maxSessions);
+		statistics.put("maxIdleSessions", maxIdleSessions);
+		statistics.put("writeSessionsFraction", writeSessionsFraction);
+		statistics.put("numChannels", numChannels);
+		statistics.put("warmedUpSessions", warmedUpSessions);
+		statistics.put("warmUpTimeMillis", warmUpTimeMillis);
+
+		return statistics;
+	}
+
+	private static Integer toInteger(String value) {
+		return StringHelper.toInteger(value, (Integer) null);
+	}
+
+	private static Float toFloat(String value) {
+		if (StringHelper.isEmpty(value)) {
+			return null;
+		}
+
+		try {
+			return Float.valueOf(value.trim());
+		} catch (NumberFormatException ex) {
+			LOG.error("Failed to parse float value: '{}'", value);
+			return null;
+		}
+	}
+
 	public boolean destroy() {
 		boolean result = true;
 		if (this.spanner != null) {
@@ -471,6 +653,43 @@ public class SpannerConnectionProvider {
 		return tableChildAttributesMap.get(objectClass);
 	}
 
+	public boolean hasTokenListColumn(String tableName, String columnName) {
+		Set<String> tokenListColumns = tableTokenListColumnsMap.get(tableName);
+
+		return (tokenListColumns != null) && tokenListColumns.contains(StringHelper.toLowerCase(columnName));
+	}
+
+	/*
+	 * SEARCH functions need TOKENLIST column which is part of search index
+	 */
+	public boolean hasSearchIndex(String tableName, String tokenListColumnName) {
+		if (!hasTokenListColumn(tableName, tokenListColumnName)) {
+			return false;
+		}
+
+		Set<String> searchIndexColumns = tableSearchIndexColumnsMap.get(tableName);
+
+		return (searchIndexColumns != null) && searchIndexColumns.contains(StringHelper.toLowerCase(tokenListColumnName));
+	}
+
+	/*
+	 * Returns expression of row deletion policy, e.g. "OLDER_THAN(exp, INTERVAL 0 DAY)" or null
+	 */
+	public String getRowDeletionPolicy(String tableName) {
+		return tableRowDeletionPolicyMap.get(tableName);
+	}
+
+	public void updateDatabaseDdl(List<String> statements) {
+		try {
+			spanner.getDatabaseAdminClient().updateDatabaseDdl(connectionInstance, connectionDatabase, statements, null).get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while updating database schema", ex);
+		} catch (ExecutionException | SpannerException ex) {
+			throw new ConnectionException(String.format("Failed to update database schema: '%s'", statements), ex);
+		}
+	}
+
 	public Map<String, TableMapping> getChildTablesMapping(String key, TableMapping tableMapping) {
 		Set<String> childAttributes = tableChildAttributesMap.get(tableMapping.getObjectClass());
 		if (childAttributes == null) {
@@ -506,6 +725,10 @@ public class SpannerConnectionProvider {
 		return tableColumnsMap;
 	}
 
+	public boolean isChildTablesBatchFetch() {
+		return childTablesBatchFetch;
+	}
+
 	public long getDefaultMaximumResultSize() {
 		return defaultMaximumResultSize;
 	}
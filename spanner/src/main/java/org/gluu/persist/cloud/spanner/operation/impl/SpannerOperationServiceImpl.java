@@ -17,6 +17,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +42,8 @@ import org.gluu.persist.exception.operation.EntryNotFoundException;
 import org.gluu.persist.exception.operation.IncompatibleTypeException;
 import org.gluu.persist.exception.operation.PersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
@@ -58,13 +61,16 @@ import org.slf4j.LoggerFactory;
 
 import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
 import com.google.cloud.spanner.KeySet;
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Mutation.WriteBuilder;
+import com.google.cloud.spanner.ReadContext;
 import com.google.cloud.spanner.ResultSet;
 import com.google.cloud.spanner.SpannerException;
 import com.google.cloud.spanner.Statement;
 import com.google.cloud.spanner.Statement.Builder;
+import com.google.cloud.spanner.Struct;
 import com.google.cloud.spanner.TransactionContext;
 import com.google.cloud.spanner.TransactionRunner.TransactionCallable;
 import com.google.cloud.spanner.Type;
@@ -104,6 +110,8 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 
 	public static final Object[] NO_OBJECTS = new Object[0];
 
+	private static final int MAX_READ_KEYS = 1000;
+
     private Properties props;
     private SpannerConnectionProvider connectionProvider;
 
@@ -248,10 +256,15 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 
 	@Override
     public boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods) throws UnsupportedOperationException, PersistenceException {
+    	return updateEntry(key, objectClass, mods, null);
+    }
+
+    @Override
+    public boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException {
         Instant startTime = OperationDurationUtil.instance().now();
         
         TableMapping tableMapping = connectionProvider.getTableMappingByKey(key, objectClass);
-        boolean result = updateEntryImpl(tableMapping, key, mods);
+        boolean result = updateEntryImpl(tableMapping, key, mods, expectedVersion);
 
         Duration duration = OperationDurationUtil.instance().duration(startTime);
         OperationDurationUtil.instance().logDebug("SQL operation: modify, duration: {}, table: {}, key: {}, mods: {}", duration, tableMapping.getTableName(), key, mods);
@@ -259,7 +272,7 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
         return result;
     }
 
-	private boolean updateEntryImpl(TableMapping tableMapping, String key, List<AttributeDataModification> mods)
+	private boolean updateEntryImpl(TableMapping tableMapping, String key, List<AttributeDataModification> mods, AttributeData expectedVersion)
 			throws PersistenceException {
 		try {
 			MessageDigest messageDigest = getMessageDigestInstance();
@@ -298,6 +311,11 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 					
 					if ((AttributeModificationType.ADD == type) ||
 							(AttributeModificationType.FORCE_UPDATE == type) || (AttributeModificationType.REPLACE == type)) {
+						if ((AttributeModificationType.FORCE_UPDATE == type) && (oldValues == null)) {
+							// Old values are unknown. Remove all child rows before adding new values
+							mutations.add(Mutation.delete(childTableMapping.getTableName(), KeySet.prefixRange(Key.of(key))));
+						}
+
 						for (Object value : attribute.getValues()) {
 							WriteBuilder childMutationBuilder = Mutation.newInsertOrUpdateBuilder(childTableMapping.getTableName());
 
@@ -316,13 +334,20 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 						}
 					} else if (AttributeModificationType.REMOVE == type) {
 						// Build Mutation for child table
-						com.google.cloud.spanner.KeySet.Builder keySetBuilder = KeySet.newBuilder();
-						for (Object value : attribute.getValues()) {
-							String dictDocId = getStringUniqueKey(messageDigest, value);
-							keySetBuilder.addKey(Key.of(key, dictDocId));
+						KeySet keySet;
+						if (ArrayHelper.isEmpty(attribute.getValues())) {
+							// Values are not specified. Remove all child rows
+							keySet = KeySet.prefixRange(Key.of(key));
+						} else {
+							com.google.cloud.spanner.KeySet.Builder keySetBuilder = KeySet.newBuilder();
+							for (Object value : attribute.getValues()) {
+								String dictDocId = getStringUniqueKey(messageDigest, value);
+								keySetBuilder.addKey(Key.of(key, dictDocId));
+							}
+							keySet = keySetBuilder.build();
 						}
 
-						Mutation childMutation = Mutation.delete(childTableMapping.getTableName(), keySetBuilder.build());
+						Mutation childMutation = Mutation.delete(childTableMapping.getTableName(), keySet);
 
 						mutations.add(childMutation);
 					} else {
@@ -353,14 +378,62 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 			}
 			mutations.add(0, mutationBuilder.build());
 
-			databaseClient.write(mutations);
+			if (expectedVersion == null) {
+				databaseClient.write(mutations);
+			} else {
+				// Optimistic lock: apply mutations only if entry has expected version
+				final String versionColumn = expectedVersion.getName();
+				final StructField versionType = columTypes.get(versionColumn.toLowerCase());
+				if (versionType == null) {
+					throw new PersistenceException(String.format("Failed to update entry. Version column '%s' is undefined", versionColumn));
+				}
+
+				databaseClient.readWriteTransaction().run(new TransactionCallable<Void>() {
+					@Override
+					public Void run(TransactionContext transaction) throws Exception {
+						Struct row = transaction.readRow(tableMapping.getTableName(), Key.of(key), Arrays.asList(versionColumn));
+						if (row == null) {
+							throw new EntryNotFoundException(String.format("Failed to find entry '%s'", key));
+						}
+
+						Object currentVersion = getVersionValue(row, versionType);
+						if ((currentVersion == null) || !StringHelper.equals(String.valueOf(currentVersion), String.valueOf(expectedVersion.getValue()))) {
+							throw new VersionConflictException(String.format("Entry '%s' was modified concurrently. Expected version: '%s', current version: '%s'",
+									key, expectedVersion.getValue(), currentVersion));
+						}
+
+						transaction.buffer(mutations);
+						return null;
+					}
+				});
+			}
 
 			return true;
-		} catch (SpannerException | IllegalStateException ex) {
+		} catch (SpannerException ex) {
+			if (ex.getCause() instanceof VersionConflictException) {
+				throw (VersionConflictException) ex.getCause();
+			}
+			if (ex.getCause() instanceof EntryNotFoundException) {
+				throw (EntryNotFoundException) ex.getCause();
+			}
+			throw new PersistenceException("Failed to update entry", ex);
+		} catch (IllegalStateException ex) {
 			throw new PersistenceException("Failed to update entry", ex);
 		}
 	}
 
+	private Object getVersionValue(Struct row, StructField versionType) {
+		if ((row == null) || row.isNull(versionType.getName())) {
+			return null;
+		}
+
+		if (Code.INT64 == versionType.getType().getCode()) {
+			return row.getLong(versionType.getName());
+		}
+
+		return row.getString(versionType.getName());
+	}
+
 	@Override
     public boolean delete(String key, String objectClass) throws EntryNotFoundException {
         Instant startTime = OperationDurationUtil.instance().now();
@@ -547,6 +620,44 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 		throw new SearchException(String.format("Failed to lookup entry by key: '%s'", key));
 	}
 
+    @Override
+    public Set<String> findExistingKeys(String objectClass, Collection<String> keys) throws SearchException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        TableMapping tableMapping = connectionProvider.getTableMappingByKey("_", objectClass);
+
+        Set<String> result = findExistingKeysImpl(tableMapping, keys);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("SQL operation: find_existing_keys, duration: {}, table: {}, keys: {}, found: {}", duration, tableMapping.getTableName(), keys.size(), result.size());
+
+        return result;
+    }
+
+	private Set<String> findExistingKeysImpl(TableMapping tableMapping, Collection<String> keys) throws SearchException {
+		Set<String> result = new HashSet<String>();
+		try {
+			// Read only primary key column of rows in key set
+			List<String> keysList = new ArrayList<String>(keys);
+			for (int i = 0; i < keysList.size(); i += MAX_READ_KEYS) {
+				KeySet.Builder keySetBuilder = KeySet.newBuilder();
+				for (String key : keysList.subList(i, Math.min(i + MAX_READ_KEYS, keysList.size()))) {
+					keySetBuilder.addKey(Key.of(key));
+				}
+
+				try (ResultSet resultSet = databaseClient.singleUse().read(tableMapping.getTableName(), keySetBuilder.build(), Arrays.asList(DOC_ID))) {
+					while (resultSet.next()) {
+						result.add(resultSet.getString(DOC_ID));
+					}
+				}
+			}
+		} catch (SpannerException ex) {
+			throw new SearchException(String.format("Failed to find existing keys in table: '%s'", tableMapping.getTableName()), ex);
+		}
+
+		return result;
+	}
+
 	@Override
     public <O> PagedResult<EntryData> search(String key, String objectClass, ConvertedExpression expression, SearchScope scope, String[] attributes, Sort[] orderBy,
                                               SpannerBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
@@ -575,7 +686,13 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 		PlainSelect sqlSelectQuery = new PlainSelect();
 		sqlSelectQuery.setFromItem(table);
 
-		List<SelectItem> selectItems = buildSelectAttributes(tableMapping, key, attributes);
+		// Child tables rows are loaded for whole page by primary key prefix
+		List<String> batchChildAttributes = null;
+		if (connectionProvider.isChildTablesBatchFetch() && (connectionProvider.getTableChildAttributes(tableMapping.getTableName()) != null)) {
+			batchChildAttributes = new ArrayList<String>();
+		}
+
+		List<SelectItem> selectItems = buildSelectAttributes(tableMapping, key, batchChildAttributes, attributes);
 		sqlSelectQuery.addSelectItems(selectItems);
 		
 		if (expression != null) {
@@ -610,6 +727,10 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 	    		sqlSelectQuery.setOffset(offset);
 	
 	            int currentLimit;
+	            BatchOperationPipeline<List<EntryData>> batchOperationPipeline = null;
+	            if (batchOperationWraper != null) {
+	            	batchOperationPipeline = batchOperationWraper.createBatchOperationPipeline();
+	            }
 	    		try {
 	                int resultCount = 0;
 	                int lastCountRows = 0;
@@ -631,8 +752,9 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 	    				Statement statement = statementBuilder.build();
 	                    LOG.debug("Executing query: '{}'", statement);
 
-	                    try (ResultSet resultSet = databaseClient.singleUse().executeQuery(statement)) {
-	                    	lastResult = getEntryDataList(tableMapping.getObjectClass(), resultSet);
+	                    try (ReadContext readContext = createPageReadContext(batchChildAttributes);
+	                    		ResultSet resultSet = readContext.executeQuery(statement)) {
+	                    	lastResult = getEntryDataList(readContext, tableMapping, resultSet, batchChildAttributes);
 	                    }
 
 		    			lastCountRows = lastResult.size();
@@ -644,7 +766,10 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 	                        searchResultList.addAll(lastResult);
 	                    }
 	
-	                    if (batchOperation != null) {
+	                    if (batchOperationPipeline != null) {
+	                    	// Process page in worker thread and load next page
+	                    	batchOperationPipeline.submit(lastResult);
+	                    } else if (batchOperation != null) {
 	                        List<O> entries = batchOperationWraper.createEntities(lastResult);
 	                        batchOperation.performAction(entries);
 	                    }
@@ -655,9 +780,17 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 	                        break;
 	                    }
 	                } while (lastCountRows > 0);
+
+	                if (batchOperationPipeline != null) {
+	                	batchOperationPipeline.finish();
+	                }
 	    		} catch (SpannerException | EntryConvertationException | IncompatibleTypeException ex) {
 	    			LOG.error("Failed to execute query with expression: '{}'", expression);
 	    			throw new SearchException(String.format("Failed to execute query '%s'  with key: '%s'", sqlSelectQuery, key), ex);
+	    		} finally {
+	    			if (batchOperationPipeline != null) {
+	    				batchOperationPipeline.close();
+	    			}
 	    		}
 	        } else {
 	    		try {
@@ -682,8 +815,9 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
     				Statement statement = statementBuilder.build();
                     LOG.debug("Executing query: '{}'", statement);
 
-                    try (ResultSet resultSet = databaseClient.singleUse().executeQuery(statement)) {
-		    			lastResult = getEntryDataList(tableMapping.getObjectClass(), resultSet);
+                    try (ReadContext readContext = createPageReadContext(batchChildAttributes);
+                    		ResultSet resultSet = readContext.executeQuery(statement)) {
+		    			lastResult = getEntryDataList(readContext, tableMapping, resultSet, batchChildAttributes);
 		    			searchResultList.addAll(lastResult);
                     }
 	            } catch (SpannerException | EntryConvertationException | IncompatibleTypeException ex) {
@@ -838,6 +972,89 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
         }
     }
 
+    /*
+     * Page query and child tables reads should see the same snapshot. Without child tables reads
+     * single use read context is enough
+     */
+    private ReadContext createPageReadContext(List<String> batchChildAttributes) {
+    	if ((batchChildAttributes == null) || batchChildAttributes.isEmpty()) {
+    		return databaseClient.singleUse();
+    	}
+
+    	return databaseClient.readOnlyTransaction();
+    }
+
+    private List<EntryData> getEntryDataList(ReadContext readContext, TableMapping tableMapping, ResultSet resultSet, List<String> batchChildAttributes)
+    		throws EntryConvertationException {
+    	if ((batchChildAttributes == null) || batchChildAttributes.isEmpty()) {
+    		return getEntryDataList(tableMapping.getObjectClass(), resultSet);
+    	}
+
+    	List<EntryData> entryDataList = new LinkedList<>();
+    	Map<String, EntryData> entryDataByDocId = new HashMap<>();
+
+    	List<AttributeData> attributeDataList = null;
+    	do  {
+    		attributeDataList = getAttributeDataList(tableMapping.getObjectClass(), resultSet, false);
+    		if (attributeDataList != null) {
+        		EntryData entryData = new EntryData(attributeDataList);
+        		entryDataList.add(entryData);
+        		entryDataByDocId.put(resultSet.getString(DOC_ID), entryData);
+    		}
+    	} while (attributeDataList != null);
+
+    	if (!entryDataByDocId.isEmpty()) {
+    		for (String childAttribute : batchChildAttributes) {
+    			fetchChildTableAttribute(readContext, tableMapping, childAttribute, entryDataByDocId);
+    		}
+    	}
+
+    	return entryDataList;
+	}
+
+	/*
+	 * Read child table rows of all page entries with one read by interleaved primary key prefixes.
+	 * Read context should be the same as in page query
+	 */
+	private void fetchChildTableAttribute(ReadContext readContext, TableMapping tableMapping, String childAttribute, Map<String, EntryData> entryDataByDocId)
+			throws EntryConvertationException {
+		String childTableName = tableMapping.getTableName() + "_" + childAttribute;
+
+		KeySet.Builder keySetBuilder = KeySet.newBuilder();
+		for (String docId : entryDataByDocId.keySet()) {
+			keySetBuilder.addRange(KeyRange.prefix(Key.of(docId)));
+		}
+
+		Map<String, List<Object>> valuesByDocId = new HashMap<>();
+		try (ResultSet resultSet = readContext.read(childTableName, keySetBuilder.build(), Arrays.asList(DOC_ID, childAttribute))) {
+			List<AttributeData> attributeDataList = null;
+			do {
+				attributeDataList = getAttributeDataList(childTableName, resultSet, true);
+				if (attributeDataList != null) {
+					String docId = resultSet.getString(DOC_ID);
+					List<Object> values = valuesByDocId.get(docId);
+					if (values == null) {
+						values = new ArrayList<>();
+						valuesByDocId.put(docId, values);
+					}
+
+					for (AttributeData attributeData : attributeDataList) {
+						values.addAll(Arrays.asList(attributeData.getValues()));
+					}
+				}
+			} while (attributeDataList != null);
+		} catch (SpannerException ex) {
+			throw new EntryConvertationException(String.format("Failed to read child table '%s'", childTableName), ex);
+		}
+
+		// Entries without child rows get empty array like ARRAY subquery returns
+		for (Entry<String, EntryData> entryDataEntry : entryDataByDocId.entrySet()) {
+			List<Object> values = valuesByDocId.get(entryDataEntry.getKey());
+			Object[] attributeValues = values == null ? NO_OBJECTS : values.toArray(NO_OBJECTS);
+			entryDataEntry.getValue().getAttributeData().add(new AttributeData(childAttribute, attributeValues, Boolean.TRUE));
+		}
+	}
+
     private List<EntryData> getEntryDataList(String objectClass, ResultSet resultSet) throws EntryConvertationException {
     	List<EntryData> entryDataList = new LinkedList<>();
 
@@ -925,6 +1142,13 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 	}
 
 	private List<SelectItem> buildSelectAttributes(TableMapping tableMapping, String key, String ... attributes) throws SearchException {
+		return buildSelectAttributes(tableMapping, key, null, attributes);
+	}
+
+	/*
+	 * If batchChildAttributes is not null child attributes are added to it instead of ARRAY subquery per row
+	 */
+	private List<SelectItem> buildSelectAttributes(TableMapping tableMapping, String key, List<String> batchChildAttributes, String ... attributes) throws SearchException {
 		String tableName = tableMapping.getTableName();
 		Map<String, StructField> columTypes = tableMapping.getColumTypes();
 
@@ -944,17 +1168,15 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 			selectColumns.add(allColumns);
 
 			// Add columns from child tables
-			List<SelectExpressionItem> selectChildColumns = buildSelectAttributeFromChildTables(tableName);
-			selectColumns.addAll(selectChildColumns);
+			addSelectAttributesFromChildTables(selectColumns, tableName, batchChildAttributes);
 
 			return selectColumns;
 		} else if ((attributes.length == 1) && StringHelper.isEmpty(attributes[0])) {
         	// Compatibility with base persistence layer when application pass attributes new String[] { "" }
-			List<SelectItem> selectColumns = Arrays.asList(selectDnItem, selectDocIdItem);
+			List<SelectItem> selectColumns = new ArrayList<SelectItem>(Arrays.asList(selectDnItem, selectDocIdItem));
 
 			// Add columns from child tables
-			List<SelectExpressionItem> selectChildColumns = buildSelectAttributeFromChildTables(tableName);
-			selectColumns.addAll(selectChildColumns);
+			addSelectAttributesFromChildTables(selectColumns, tableName, batchChildAttributes);
 
 			return selectColumns;
 		}
@@ -973,6 +1195,12 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 		            throw new SearchException(String.format("Failed to build select attributes. Column '%s' is undefined", attributeName));
 				}
 
+				if (batchChildAttributes != null) {
+					// Child table rows will be loaded after main query
+					batchChildAttributes.add(childTableMapping.getTableName().substring(tableName.length() + 1));
+					continue;
+				}
+
 				// Add columns from child table
 				selectExpressionItem = buildSelectAttributeFromChildTable(tableName, attributeName);
 			} else {
@@ -1001,6 +1229,18 @@ public class SpannerOperationServiceImpl implements SpannerOperationService {
 		return tableRelationalPath;
 	}
 
+	private void addSelectAttributesFromChildTables(List<SelectItem> selectColumns, String tableName, List<String> batchChildAttributes) {
+		if (batchChildAttributes == null) {
+			selectColumns.addAll(buildSelectAttributeFromChildTables(tableName));
+			return;
+		}
+
+		Set<String> childAttributes = connectionProvider.getTableChildAttributes(tableName);
+		if (childAttributes != null) {
+			batchChildAttributes.addAll(childAttributes);
+		}
+	}
+
 	private List<SelectExpressionItem> buildSelectAttributeFromChildTables(String tableName) {
 		List<SelectExpressionItem> selectChildColumns = new ArrayList<>();
 		Set<String> childAttributes = connectionProvider.getTableChildAttributes(tableName);
@@ -0,0 +1,92 @@
+package org.gluu.persist.cloud.spanner.impl.test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.gluu.persist.annotation.AttributeName;
+import org.gluu.persist.cloud.spanner.impl.SpannerFilterConverter;
+import org.gluu.persist.cloud.spanner.model.ConvertedExpression;
+import org.gluu.persist.cloud.spanner.model.TableMapping;
+import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.reflect.property.PropertyAnnotation;
+import org.gluu.search.filter.Filter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Type.StructField;
+
+public class SpannerSubstringSearchFilterTest {
+
+	private SpannerFilterConverter searchConverter;
+	private SpannerFilterConverter simpleConverter;
+
+	private TableMapping tableMapping;
+	private Map<String, PropertyAnnotation> propertiesAnnotationsMap;
+
+	@BeforeClass
+	public void init() throws NoSuchFieldException {
+		Map<String, StructField> columTypes = new HashMap<String, StructField>();
+		columTypes.put("uid", StructField.of("uid", Type.string()));
+		columTypes.put("displayname", StructField.of("displayName", Type.string()));
+		this.tableMapping = new TableMapping("people", "gluuPerson", "gluuPerson", columTypes);
+
+		this.searchConverter = new SpannerFilterConverter(null);
+		this.searchConverter.setSearchIndexColumns(Collections.<String, Set<String>>singletonMap("gluuPerson", new HashSet<String>(Arrays.asList("uid_Tokens"))));
+
+		// TOKENLIST column without search index
+		this.simpleConverter = new SpannerFilterConverter(null);
+
+		this.propertiesAnnotationsMap = new HashMap<String, PropertyAnnotation>();
+		this.propertiesAnnotationsMap.put("uid", new PropertyAnnotation("uid", Arrays.asList(SubstringEntry.class.getDeclaredField("uid").getAnnotations())));
+		this.propertiesAnnotationsMap.put("displayName",
+				new PropertyAnnotation("displayName", Arrays.asList(SubstringEntry.class.getDeclaredField("displayName").getAnnotations())));
+	}
+
+	@Test
+	public void checkSearchSubstringWithSearchIndex() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = searchConverter.convertToSqlFilter(tableMapping, filterSub1, propertiesAnnotationsMap);
+		assertEquals(expressionSub1.expression().toString(), "(SEARCH_SUBSTRING(doc.uid_Tokens, @uid0) AND doc.uid LIKE @uid)");
+		assertEquals(expressionSub1.queryParameters().get("uid").getValue(), "%test%");
+		assertEquals(expressionSub1.queryParameters().get("uid0").getValue(), "test");
+
+		Filter filterSub2 = Filter.createSubstringFilter("uid", "a", new String[] { "test" }, "z");
+		ConvertedExpression expressionSub2 = searchConverter.convertToSqlFilter(tableMapping, filterSub2, propertiesAnnotationsMap);
+		assertEquals(expressionSub2.expression().toString(), "(SEARCH_SUBSTRING(doc.uid_Tokens, @uid0) AND doc.uid LIKE @uid)");
+		assertEquals(expressionSub2.queryParameters().get("uid").getValue(), "a%test%z");
+		assertEquals(expressionSub2.queryParameters().get("uid0").getValue(), "a test z");
+	}
+
+	@Test
+	public void checkNoSearchSubstringWithoutSearchIndex() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("uid", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = simpleConverter.convertToSqlFilter(tableMapping, filterSub1, propertiesAnnotationsMap);
+		assertEquals(expressionSub1.expression().toString(), "doc.uid LIKE @uid");
+		assertEquals(expressionSub1.queryParameters().size(), 1);
+	}
+
+	@Test
+	public void checkNoSearchSubstringWithoutSubstringIndexAttribute() throws SearchException {
+		Filter filterSub1 = Filter.createSubstringFilter("displayName", null, new String[] { "test" }, null);
+		ConvertedExpression expressionSub1 = searchConverter.convertToSqlFilter(tableMapping, filterSub1, propertiesAnnotationsMap);
+		assertEquals(expressionSub1.expression().toString(), "doc.displayName LIKE @displayName");
+	}
+
+	static class SubstringEntry {
+
+		@AttributeName(name = "uid", substringIndex = true)
+		private String uid;
+
+		@AttributeName(name = "displayName")
+		private String displayName;
+
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.gluu.persist.sql.dsl.template;
+
+import org.gluu.persist.sql.impl.SqlOps;
+
+import com.querydsl.sql.SQLTemplates;
+
+/**
+ * MySQL 8 DSL templates for JSON support. Multi-valued equality uses MEMBER OF() which
+ * can use multi-valued index, e.g. INDEX ((CAST(attr->'$.v' AS CHAR(128) ARRAY)))
+ */
+public class SqlJsonMySQL8Templates extends SqlJsonMySQLTemplates {
+	
+    public static Builder builder() {
+        return new Builder() {
+            @Override
+            protected SQLTemplates build(char escape, boolean quote) {
+                return new SqlJsonMySQL8Templates(escape, quote);
+            }
+        };
+    }
+
+    public SqlJsonMySQL8Templates(char escape, boolean quote) {
+		super(escape, quote);
+
+		add(SqlOps.JSON_MEMBER_OF, "{1} MEMBER OF({0}->{2})");
+	}
+
+}
@@ -26,6 +26,7 @@ public class SqlJsonMySQLTemplates extends MySQLTemplates {
 
 		add(SqlOps.JSON_CONTAINS, "JSON_CONTAINS({0}->{2}, CAST({1} AS JSON))");
 		add(SqlOps.JSON_EXTRACT, "{0}->{1}");
+		add(SqlOps.FULLTEXT_MATCH, "MATCH({0}) AGAINST({1} IN BOOLEAN MODE)");
 	}
 
 }
\ No newline at end of file
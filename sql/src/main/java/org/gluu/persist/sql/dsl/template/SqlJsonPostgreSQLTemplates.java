@@ -0,0 +1,32 @@
+package org.gluu.persist.sql.dsl.template;
+
+import org.gluu.persist.sql.impl.SqlOps;
+
+import com.querydsl.sql.PostgreSQLTemplates;
+import com.querydsl.sql.SQLTemplates;
+
+/**
+ * PostgreSQL DSL templates for JSONB support. Multi-valued equality uses containment operator @>
+ * which can use GIN index on attribute column. Other multi-valued predicates use jsonb_path_exists
+ */
+public class SqlJsonPostgreSQLTemplates extends PostgreSQLTemplates {
+	
+    public static Builder builder() {
+        return new Builder() {
+            @Override
+            protected SQLTemplates build(char escape, boolean quote) {
+                return new SqlJsonPostgreSQLTemplates(escape, quote);
+            }
+        };
+    }
+
+    public SqlJsonPostgreSQLTemplates(char escape, boolean quote) {
+		super(escape, quote);
+
+		add(SqlOps.JSON_CONTAINS, "{0} @> jsonb_build_object('v', jsonb_build_array({1}))");
+		add(SqlOps.JSON_EXTRACT, "jsonb_path_query_first({0}, CAST({1} AS jsonpath))");
+		add(SqlOps.JSON_PATH_EXISTS, "jsonb_path_exists({0}, CAST({1} AS jsonpath))");
+		add(SqlOps.JSON_PATH_COMPARE, "jsonb_path_exists({0}, CAST({1} AS jsonpath), jsonb_build_object('value', {2}))");
+	}
+
+}
@@ -9,6 +9,7 @@ package org.gluu.persist.sql.impl;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.BatchOperation;
 import org.gluu.persist.model.EntryData;
 import org.gluu.persist.reflect.property.PropertyAnnotation;
@@ -50,4 +51,16 @@ public class SqlBatchOperationWraper<T> {
         return SqlEntryManager.createEntities(entryClass, propertiesAnnotations, null, entryDataList.toArray(new EntryData[entryDataList.size()]));
     }
 
+    /*
+     * Returns null if batch operation should be processed synchronously
+     */
+    public BatchOperationPipeline<List<EntryData>> createBatchOperationPipeline() {
+        return BatchOperationPipeline.create(batchOperation, new BatchOperationPipeline.PageProcessor<List<EntryData>>() {
+            @Override
+            public void process(List<EntryData> page) {
+                batchOperation.performAction(createEntities(page));
+            }
+        });
+    }
+
 }
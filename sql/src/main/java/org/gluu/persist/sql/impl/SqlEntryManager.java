@@ -12,10 +12,14 @@ import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.function.Function;
 
 import javax.inject.Inject;
@@ -27,15 +31,20 @@ import org.gluu.persist.event.DeleteNotifier;
 import org.gluu.persist.exception.AuthenticationException;
 import org.gluu.persist.exception.EntryDeleteException;
 import org.gluu.persist.exception.EntryPersistenceException;
+import org.gluu.persist.exception.EntryVersionConflictException;
 import org.gluu.persist.exception.MappingException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
 import org.gluu.persist.impl.BaseEntryManager;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.TtlSweeper;
 import org.gluu.persist.impl.GenericKeyConverter;
 import org.gluu.persist.impl.model.ParsedKey;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.AttributeDataModification.AttributeModificationType;
 import org.gluu.persist.model.BatchOperation;
+import org.gluu.persist.model.CountMode;
 import org.gluu.persist.model.EntryData;
 import org.gluu.persist.model.PagedResult;
 import org.gluu.persist.model.SearchScope;
@@ -76,6 +85,8 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 
     private List<DeleteNotifier> subscribers;
 
+    private List<String> expirationBranches = new ArrayList<String>();
+
     protected SqlEntryManager(SqlOperationService operationService) {
         this.operationService = operationService;
         this.filterConverter = new SqlFilterConverter(operationService);
@@ -83,12 +94,55 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
         subscribers = new LinkedList<DeleteNotifier>();
     }
 
+    @Override
+    public void initFilterOptimizer(Properties props) {
+    	super.initFilterOptimizer(props);
+    	filterConverter.setFilterOptimizer(filterOptimizer);
+    }
+
+    @Override
+    protected IndexAdvisor.IndexDefinitionBuilder createIndexDefinitionBuilder(Properties props) {
+    	return new SqlIndexDefinitionBuilder(getOperationService());
+    }
+
+    /*
+     * Table can't be determined by DN. Entries have expiration support only under ttl.branch.<table> of swept tables
+     */
+    @Override
+    public void initExpiration(Properties props) {
+    	super.initExpiration(props);
+    	if (ttlSweeper == null) {
+    		return;
+    	}
+
+    	for (String tableName : ttlSweeper.getContainers()) {
+    		String branch = TtlSweeper.getBranch(props, tableName);
+    		if (branch == null) {
+    			LOG.warn("There is no option {}{}. Entries of table '{}' are reported without expiration support", TtlSweeper.BRANCH_OPTION_PREFIX, tableName, tableName);
+    		} else {
+    			expirationBranches.add(branch);
+    		}
+    	}
+    }
+
+    @Override
+    protected TtlSweeper.ExpiredEntriesRemover createExpiredEntriesRemover(Properties props) {
+    	// Container is table name
+    	return (container, expirationAttribute, deletableAttribute, now, count) ->
+    		(int) getOperationService().deleteExpired(container, expirationAttribute, deletableAttribute, now, count);
+    }
+
     @Override
     public boolean destroy() {
         if (this.operationService == null) {
             return true;
         }
 
+        destroyWriteBehind();
+        destroyIndexAdvisor();
+        destroyNegativeLookupCache();
+        destroyTtlSweeper();
+
         return ((SqlOperationService) this.operationService).destroy();
     }
 
@@ -118,7 +172,7 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
     }
 
     @Override
-    protected <T> void updateMergeChanges(String baseDn, T entry, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
+    protected void updateMergeChanges(String baseDn, String[] objectClasses, boolean isConfigurationUpdate, Class<?> entryClass, Map<String, AttributeData> attributesFromDbMap,
             List<AttributeDataModification> attributeDataModifications, boolean forceUpdate) {
     	if (forceUpdate) {
     		// SQL ORM can't update objectClass because it select table by objectClass name  
@@ -127,24 +181,23 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 
     	// Update object classes if entry contains custom object classes
         if (!isConfigurationUpdate) {
-            String[] objectClasses = getObjectClasses(entry, entryClass);
             if (ArrayHelper.isEmpty(objectClasses)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses to persist! Entry is invalid: '%s'", baseDn));
             }
 
             AttributeData objectClassAttributeData = attributesFromDbMap.get(OBJECT_CLASS.toLowerCase());
             if (objectClassAttributeData == null) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
 
             String[] objectClassesFromDb = objectClassAttributeData.getStringValues();
             if (ArrayHelper.isEmpty(objectClassesFromDb)) {
-                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", entry));
+                throw new UnsupportedOperationException(String.format("There is no attribute with objectClasses in DB! Entry is invalid: '%s'", baseDn));
             }
             
             // We need to check only first element of each array because objectCLass in SQL is single value attribute
             if (!StringHelper.equals(getBaseObjectClass(entryClass, objectClassesFromDb), getBaseObjectClass(entryClass, objectClasses))) {
-            	throw new UnsupportedOperationException(String.format("It's not possible to change objectClasses of already persisted entry! Entry is invalid: '%s'", entry));
+            	throw new UnsupportedOperationException(String.format("It's not possible to change objectClasses of already persisted entry! Entry is invalid: '%s'", baseDn));
             }
         }
     }
@@ -217,7 +270,8 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
     }
 
     @Override
-    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue) {
+    public void merge(String dn, String[] objectClasses, List<AttributeDataModification> attributeDataModifications, Integer expirationValue,
+    		AttributeData expectedVersion) {
         // Update entry
         try {
             List<AttributeDataModification> modifications = new ArrayList<AttributeDataModification>(attributeDataModifications.size());
@@ -264,11 +318,18 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
             }
 
             if (modifications.size() > 0) {
-                boolean result = getOperationService().updateEntry(toSQLKey(dn).getKey(), getBaseObjectClass(objectClasses), modifications);
+                AttributeData expectedInternalVersion = null;
+                if (expectedVersion != null) {
+                	expectedInternalVersion = new AttributeData(toInternalAttribute(expectedVersion.getName()), expectedVersion.getValues());
+                }
+
+                boolean result = getOperationService().updateEntry(toSQLKey(dn).getKey(), getBaseObjectClass(objectClasses), modifications, expectedInternalVersion);
                 if (!result) {
                     throw new EntryPersistenceException(String.format("Failed to update entry: '%s'", dn));
                 }
             }
+        } catch (VersionConflictException ex) {
+            throw new EntryVersionConflictException(String.format("Failed to update entry: '%s'", dn), ex);
         } catch (Exception ex) {
             throw new EntryPersistenceException(String.format("Failed to update entry: '%s'", dn), ex);
         }
@@ -315,6 +376,35 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
         }
     }
 
+    @Override
+    protected <T> Set<String> findExistingKeys(Class<T> entryClass, String[] objectClasses, List<String> primaryKeys) {
+        // Table key -> DNs
+        Map<String, List<String>> keys = new HashMap<String, List<String>>();
+        for (String primaryKey : primaryKeys) {
+            String key = toSQLKey(primaryKey).getKey();
+            List<String> keyPrimaryKeys = keys.get(key);
+            if (keyPrimaryKeys == null) {
+                keyPrimaryKeys = new ArrayList<String>(1);
+                keys.put(key, keyPrimaryKeys);
+            }
+            keyPrimaryKeys.add(primaryKey);
+        }
+
+        Set<String> result = new HashSet<String>();
+        try {
+            for (String existingKey : getOperationService().findExistingKeys(getBaseObjectClass(objectClasses), keys.keySet())) {
+                List<String> keyPrimaryKeys = keys.get(existingKey);
+                if (keyPrimaryKeys != null) {
+                    result.addAll(keyPrimaryKeys);
+                }
+            }
+        } catch (Exception ex) {
+            throw new EntryPersistenceException(String.format("Failed to find existing entries: '%s'", primaryKeys), ex);
+        }
+
+        return result;
+    }
+
     @Override
 	public <T> int remove(String dn, Class<T> entryClass, Filter filter, int count) {
 		if (StringHelper.isEmptyString(dn)) {
@@ -402,18 +492,36 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 
     @Override
     public <T> PagedResult<T> findPagedEntries(String baseDN, Class<T> entryClass, Filter filter, String[] ldapReturnAttributes, String sortBy,
-            SortOrder sortOrder, int start, int count, int chunkSize) {
+            SortOrder sortOrder, int start, int count, int chunkSize, CountMode countMode) {
         if (StringHelper.isEmptyString(baseDN)) {
             throw new MappingException("Base DN to find entries is null");
         }
 
+        Integer cachedTotalCount = getCachedTotalCount(countMode, baseDN, entryClass, filter);
+
+        SearchReturnDataType returnDataType;
+        if ((cachedTotalCount != null) || (CountMode.NONE == countMode)) {
+        	returnDataType = SearchReturnDataType.SEARCH;
+        } else if (CountMode.APPROXIMATE == countMode) {
+        	returnDataType = SearchReturnDataType.SEARCH_COUNT_APPROXIMATE;
+        } else {
+        	returnDataType = SearchReturnDataType.SEARCH_COUNT_COMBINED;
+        }
+
         PagedResult<EntryData> searchResult = findEntriesImpl(baseDN, entryClass, filter, SearchScope.SUB, ldapReturnAttributes, sortBy, sortOrder,
-                null, SearchReturnDataType.SEARCH_COUNT, start, count, chunkSize);
+                null, returnDataType, start, count, chunkSize);
 
         PagedResult<T> result = new PagedResult<T>();
         result.setEntriesCount(searchResult.getEntriesCount());
         result.setStart(searchResult.getStart());
-        result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        if (cachedTotalCount != null) {
+        	result.setTotalEntriesCount(cachedTotalCount);
+        } else if (CountMode.NONE == countMode) {
+        	result.setTotalEntriesCount(-1);
+        } else {
+        	result.setTotalEntriesCount(searchResult.getTotalEntriesCount());
+        	putCachedTotalCount(countMode, baseDN, entryClass, filter, searchResult.getTotalEntriesCount());
+        }
 
         if (searchResult.getEntriesCount() == 0) {
             result.setEntries(new ArrayList<T>(0));
@@ -483,7 +591,7 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
             if (batchOperation != null) {
                 batchOperationWraper = new SqlBatchOperationWraper<T>(batchOperation, this, entryClass, propertiesAnnotations);
             }
-            searchResult = searchImpl(keyWithInum.getKey(), getBaseObjectClass(entryClass, objectClasses), convertedExpression, scope, currentLdapReturnAttributes,
+            searchResult = searchImpl(keyWithInum.getKey(), getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, scope, currentLdapReturnAttributes,
                     defaultSort, batchOperationWraper, returnDataType, start, count, chunkSize);
 
             if (searchResult == null) {
@@ -525,7 +633,7 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
         PagedResult<EntryData> searchResult = null;
         try {
             ParsedKey keyWithInum = toSQLKey(baseDN);
-            searchResult = searchImpl(keyWithInum.getKey(), getBaseObjectClass(entryClass, objectClasses), convertedExpression, SearchScope.SUB, ldapReturnAttributes, null,
+            searchResult = searchImpl(keyWithInum.getKey(), getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, SearchScope.SUB, ldapReturnAttributes, null,
                     null, SearchReturnDataType.SEARCH, 0, 1, 0);
             if (searchResult == null) {
                 throw new EntryPersistenceException(String.format("Failed to find entry with baseDN: '%s', filter: '%s'", baseDN, searchFilter));
@@ -537,9 +645,13 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
         return (searchResult != null) && (searchResult.getEntriesCount() > 0);
     }
 
-	private <O> PagedResult<EntryData> searchImpl(String key, String objectClass, ConvertedExpression expression, SearchScope scope, String[] attributes, OrderSpecifier<?>[] orderBy,
+	private <O> PagedResult<EntryData> searchImpl(String key, String objectClass, Filter searchFilter, ConvertedExpression expression, SearchScope scope, String[] attributes, OrderSpecifier<?>[] orderBy,
             SqlBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
-		return getOperationService().search(key, objectClass, expression, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		long startTime = System.nanoTime();
+		PagedResult<EntryData> searchResult = getOperationService().search(key, objectClass, expression, scope, toInternalAttributes(attributes), orderBy, batchOperationWraper, returnDataType, start, count, pageSize);
+		recordFilterShape(objectClass, searchFilter, startTime);
+
+		return searchResult;
 	}
 
     protected <T> List<T> createEntities(String baseDN, Class<T> entryClass, PagedResult<EntryData> searchResult) {
@@ -615,7 +727,7 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 		}
 
 		try {
-            PagedResult<EntryData> searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), convertedExpression,
+            PagedResult<EntryData> searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression,
                     SearchScope.SUB, SqlOperationService.UID_ARRAY, null, null, SearchReturnDataType.SEARCH, 0, 1, 1);
             if ((searchResult == null) || (searchResult.getEntriesCount() != 1)) {
                 return false;
@@ -695,7 +807,7 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 
         PagedResult<EntryData> searchResult;
         try {
-            searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), convertedExpression, scope, null, null,
+            searchResult = searchImpl(toSQLKey(baseDN).getKey(), getBaseObjectClass(entryClass, objectClasses), searchFilter, convertedExpression, scope, null, null,
                     null, SearchReturnDataType.COUNT, 0, 0, 0);
         } catch (Exception ex) {
             throw new EntryPersistenceException(
@@ -774,18 +886,18 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
     }
 
     private ConvertedExpression toSqlFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
-        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap);
+        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap);
     }
 
     private ConvertedExpression toSqlFilterWithEmptyAlias(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
-        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap, true);
+        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap, true);
     }
 
     private ConvertedExpression toSqlFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor) throws SearchException {
-        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap, processor);
+        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap, processor);
     }
     private ConvertedExpression toSqlFilterWithEmptyAlias(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor) throws SearchException {
-        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(genericFilter), propertiesAnnotationsMap, processor, true);
+        return filterConverter.convertToSqlFilter(excludeObjectClassFilters(replaceLowercaseFilters(genericFilter, propertiesAnnotationsMap)), propertiesAnnotationsMap, processor, true);
     }
 
 	private Filter excludeObjectClassFilters(Filter genericFilter) {
@@ -864,7 +976,8 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
 
 	@Override
 	public boolean hasExpirationSupport(String primaryKey) {
-		return false;
+		// Expired entries are removed by TTL sweeper only from configured tables
+		return TtlSweeper.isInBranches(primaryKey, expirationBranches);
 	}
 
 	@Override
@@ -891,6 +1004,11 @@ public class SqlEntryManager extends BaseEntryManager implements Serializable {
     	return super.convertJsonToValue(parameterType, propertyValue);
 	}
 
+    @Override
+	protected <T> Filter[] createPartitionFilters(String baseDN, Class<T> entryClass, int parallelism) {
+		return createKeyRangeFilters(SqlOperationService.DOC_ID, "", KEY_RANGE_ALPHABET, parallelism);
+	}
+
     @Override
 	protected Object getNativeDateAttributeValue(Date dateValue) {
 		return dateValue;
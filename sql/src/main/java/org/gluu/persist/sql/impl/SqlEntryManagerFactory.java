@@ -75,6 +75,13 @@ public class SqlEntryManagerFactory implements PersistenceEntryManagerFactory {
 
         
         SqlEntryManager sqlEntryManager = new SqlEntryManager(new SqlOperationServiceImpl(entryManagerConf, connectionProvider));
+        sqlEntryManager.initWriteBehind(entryManagerConf);
+        sqlEntryManager.initTotalCountCache(entryManagerConf);
+        sqlEntryManager.initFilterOptimizer(entryManagerConf);
+        sqlEntryManager.initIndexAdvisor(entryManagerConf);
+        sqlEntryManager.initNegativeLookupCache(entryManagerConf);
+        sqlEntryManager.initLowercaseAttributes(entryManagerConf);
+        sqlEntryManager.initExpiration(entryManagerConf);
         LOG.info("Created SqlEntryManager: {}", sqlEntryManager.getOperationService());
 
         return sqlEntryManager;
@@ -25,6 +25,7 @@ import org.gluu.persist.reflect.util.ReflectHelper;
 import org.gluu.persist.sql.model.ConvertedExpression;
 import org.gluu.persist.sql.operation.SqlOperationService;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.gluu.search.filter.FilterType;
 import org.gluu.orm.util.ArrayHelper;
 import org.gluu.orm.util.StringHelper;
@@ -61,10 +62,28 @@ public class SqlFilterConverter {
 	private Path<Long> longDocAlias = ExpressionUtils.path(Long.class, "doc");
 	private Path<Object> objectDocAlias = ExpressionUtils.path(Object.class, "doc");
 
+	private FilterOptimizer filterOptimizer;
+
+	// Dialect options of converter without operation service
+	private boolean supportJsonMemberOf;
+	private boolean postgreSqlJson;
+
     public SqlFilterConverter(SqlOperationService operationService) {
     	this.operationService = operationService;
 	}
 
+	public void setFilterOptimizer(FilterOptimizer filterOptimizer) {
+		this.filterOptimizer = filterOptimizer;
+	}
+
+	public void setSupportJsonMemberOf(boolean supportJsonMemberOf) {
+		this.supportJsonMemberOf = supportJsonMemberOf;
+	}
+
+	public void setPostgreSqlJson(boolean postgreSqlJson) {
+		this.postgreSqlJson = postgreSqlJson;
+	}
+
 	public ConvertedExpression convertToSqlFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) throws SearchException {
     	return convertToSqlFilter(genericFilter, propertiesAnnotationsMap, false);
     }
@@ -80,7 +99,8 @@ public class SqlFilterConverter {
     @SuppressWarnings({ "unchecked", "rawtypes" })
 	public ConvertedExpression convertToSqlFilter(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap, Function<? super Filter, Boolean> processor, boolean skipAlias) throws SearchException {
     	Map<String, Class<?>> jsonAttributes = new HashMap<>();
-    	ConvertedExpression convertedExpression = convertToSqlFilterImpl(genericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias);
+    	Filter optimizedFilter = filterOptimizer == null ? genericFilter : filterOptimizer.optimize(genericFilter);
+    	ConvertedExpression convertedExpression = convertToSqlFilterImpl(optimizedFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias);
     	
     	return convertedExpression;
     }
@@ -181,6 +201,20 @@ public class SqlFilterConverter {
     		if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
     			Expression expression = buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias);
 
+    			if (isSupportJsonMemberOf()) {
+    				// Can use multi-valued index
+    				Operation<Boolean> operation = ExpressionUtils.predicate(SqlOps.JSON_MEMBER_OF, expression,
+    						buildScalarExpression(currentGenericFilter), Expressions.constant("$.v"));
+
+            		return ConvertedExpression.build(operation, jsonAttributes);
+    			} else if (isPostgreSqlJson()) {
+    				// Can use GIN index
+    				Operation<Boolean> operation = ExpressionUtils.predicate(SqlOps.JSON_CONTAINS, expression,
+    						buildScalarExpression(currentGenericFilter));
+
+            		return ConvertedExpression.build(operation, jsonAttributes);
+    			}
+
 				Operation<Boolean> operation = ExpressionUtils.predicate(SqlOps.JSON_CONTAINS, expression,
 						buildTypedExpression(currentGenericFilter, true), Expressions.constant("$.v"));
 
@@ -195,6 +229,14 @@ public class SqlFilterConverter {
 
         if (FilterType.LESS_OR_EQUAL == type) {
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
+            	if (isPostgreSqlJson()) {
+            		Predicate predicate = ExpressionUtils.predicate(SqlOps.JSON_PATH_COMPARE,
+            				buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias),
+            				Expressions.constant("$.v[*] ? (@ <= $value)"), buildScalarExpression(currentGenericFilter));
+
+            		return ConvertedExpression.build(predicate, jsonAttributes);
+            	}
+
             	if (currentGenericFilter.getMultiValuedCount() > 1) {
                 	Collection<Predicate> expressions = new ArrayList<>(currentGenericFilter.getMultiValuedCount());
             		for (int i = 0; i < currentGenericFilter.getMultiValuedCount(); i++) {
@@ -222,6 +264,14 @@ public class SqlFilterConverter {
 
         if (FilterType.GREATER_OR_EQUAL == type) {
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
+            	if (isPostgreSqlJson()) {
+            		Predicate predicate = ExpressionUtils.predicate(SqlOps.JSON_PATH_COMPARE,
+            				buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias),
+            				Expressions.constant("$.v[*] ? (@ >= $value)"), buildScalarExpression(currentGenericFilter));
+
+            		return ConvertedExpression.build(predicate, jsonAttributes);
+            	}
+
             	if (currentGenericFilter.getMultiValuedCount() > 1) {
                 	Collection<Predicate> expressions = new ArrayList<>(currentGenericFilter.getMultiValuedCount());
             		for (int i = 0; i < currentGenericFilter.getMultiValuedCount(); i++) {
@@ -249,6 +299,13 @@ public class SqlFilterConverter {
         if (FilterType.PRESENCE == type) {
         	Expression expression;
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
+            	if (isPostgreSqlJson()) {
+            		Predicate predicate = ExpressionUtils.predicate(SqlOps.JSON_PATH_EXISTS,
+            				buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias), Expressions.constant("$.v[*]"));
+
+            		return ConvertedExpression.build(predicate, jsonAttributes);
+            	}
+
             	if (currentGenericFilter.getMultiValuedCount() > 1) {
                 	Collection<Predicate> expressions = new ArrayList<>(currentGenericFilter.getMultiValuedCount());
             		for (int i = 0; i < currentGenericFilter.getMultiValuedCount(); i++) {
@@ -295,6 +352,14 @@ public class SqlFilterConverter {
 
             Expression expression;
             if (isMultiValue(currentGenericFilter, propertiesAnnotationsMap)) {
+            	if (isPostgreSqlJson()) {
+            		Predicate predicate = ExpressionUtils.predicate(SqlOps.JSON_PATH_EXISTS,
+            				buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias),
+            				Expressions.constant("$.v[*] ? (@ like_regex \"" + escapeJsonPathString(buildSubstringRegex(currentGenericFilter)) + "\")"));
+
+            		return ConvertedExpression.build(predicate, jsonAttributes);
+            	}
+
             	if (currentGenericFilter.getMultiValuedCount() > 1) {
                 	Collection<Predicate> expressions = new ArrayList<>(currentGenericFilter.getMultiValuedCount());
             		for (int i = 0; i < currentGenericFilter.getMultiValuedCount(); i++) {
@@ -313,6 +378,16 @@ public class SqlFilterConverter {
         				buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias), Expressions.constant("$.v[0]"));
             } else {
             	expression = buildTypedPath(currentGenericFilter, propertiesAnnotationsMap, jsonAttributes, processor, skipAlias);
+
+            	String fullTextQuery = buildNgramFullTextQuery(currentGenericFilter, propertiesAnnotationsMap);
+            	if (fullTextQuery != null) {
+            		// Full text index narrows down rows, LIKE keeps exact substring semantic
+            		Predicate predicate = ExpressionUtils.and(
+            				ExpressionUtils.predicate(SqlOps.FULLTEXT_MATCH, expression, Expressions.constant(fullTextQuery)),
+            				Expressions.booleanOperation(Ops.LIKE, expression, Expressions.constant(like.toString())));
+
+            		return ConvertedExpression.build(predicate, jsonAttributes);
+            	}
             }
 
             return ConvertedExpression.build(Expressions.booleanOperation(Ops.LIKE, expression, Expressions.constant(like.toString())), jsonAttributes);
@@ -334,6 +409,113 @@ public class SqlFilterConverter {
 		return false;
 	}
 
+	private boolean isSupportJsonMemberOf() {
+		if (operationService == null) {
+			return supportJsonMemberOf;
+		}
+
+		return operationService.getConnectionProvider().isSupportJsonMemberOf();
+	}
+
+	private boolean isPostgreSqlJson() {
+		if (operationService == null) {
+			return postgreSqlJson;
+		}
+
+		return operationService.getConnectionProvider().isPostgreSql();
+	}
+
+	/*
+	 * Build boolean mode query for MySQL ngram FULLTEXT index. Parts shorter than ngram_token_size
+	 * can't be found in index. Returns null if index can't be used
+	 */
+	private String buildNgramFullTextQuery(Filter filter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if ((operationService == null) || !operationService.getConnectionProvider().isSupportNgramFullText()
+				|| !isSubstringIndex(filter, propertiesAnnotationsMap)) {
+			return null;
+		}
+
+		List<String> parts = new ArrayList<String>();
+		parts.add(filter.getSubInitial());
+		if (filter.getSubAny() != null) {
+			parts.addAll(Arrays.asList(filter.getSubAny()));
+		}
+		parts.add(filter.getSubFinal());
+
+		int ngramTokenSize = operationService.getConnectionProvider().getNgramTokenSize();
+		StringBuilder query = new StringBuilder();
+		for (String part : parts) {
+			if ((part == null) || (part.trim().length() < ngramTokenSize) || (part.indexOf('"') != -1)) {
+				continue;
+			}
+
+			if (query.length() > 0) {
+				query.append(' ');
+			}
+			query.append("+\"").append(part).append('"');
+		}
+
+		if (query.length() == 0) {
+			return null;
+		}
+
+		return query.toString();
+	}
+
+	private boolean isSubstringIndex(Filter filter, Map<String, PropertyAnnotation> propertiesAnnotationsMap) {
+		if ((propertiesAnnotationsMap == null) || (filter.getAttributeName() == null)) {
+			return false;
+		}
+
+		PropertyAnnotation propertyAnnotation = propertiesAnnotationsMap.get(filter.getAttributeName());
+		if (propertyAnnotation == null) {
+			return false;
+		}
+
+		AttributeName attributeNameAnnotation = (AttributeName) ReflectHelper.getAnnotationByType(propertyAnnotation.getAnnotations(),
+				AttributeName.class);
+
+		return (attributeNameAnnotation != null) && attributeNameAnnotation.substringIndex();
+	}
+
+	private String buildSubstringRegex(Filter filter) {
+		StringBuilder regex = new StringBuilder();
+		if (filter.getSubInitial() != null) {
+			regex.append('^').append(escapeRegex(filter.getSubInitial()));
+		}
+		regex.append(".*");
+
+		String[] subAny = filter.getSubAny();
+		if (subAny != null) {
+			for (String any : subAny) {
+				regex.append(escapeRegex(any)).append(".*");
+			}
+		}
+
+		if (filter.getSubFinal() != null) {
+			regex.append(escapeRegex(filter.getSubFinal())).append('$');
+		}
+
+		return regex.toString();
+	}
+
+	private String escapeRegex(String value) {
+		StringBuilder result = new StringBuilder(value.length() + 8);
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (".^$*+?()[]{}|\\".indexOf(ch) != -1) {
+				result.append('\\');
+			}
+			result.append(ch);
+		}
+
+		return result.toString();
+	}
+
+	private String escapeJsonPathString(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
 	private String toInternalAttribute(Filter filter) {
 		String attributeName = filter.getAttributeName();
 
@@ -363,13 +545,7 @@ public class SqlFilterConverter {
 	}
 
 	private Expression buildTypedExpression(Filter filter, boolean isArray) throws SearchException {
-		Object assertionValue = filter.getAssertionValue();
-		if (assertionValue instanceof AttributeEnum) {
-			assertionValue = ((AttributeEnum) assertionValue).getValue();
-		} else if (assertionValue instanceof Date) {
-	        SimpleDateFormat jsonDateFormat = new SimpleDateFormat(SQL_DATA_FORMAT);
-	        assertionValue = jsonDateFormat.format(filter.getAssertionValue());
-		}
+		Object assertionValue = getTypedAssertionValue(filter);
 
 		if (Boolean.TRUE.equals(filter.getMultiValued())) {
 			assertionValue = convertValueToJson(Arrays.asList(assertionValue));
@@ -382,6 +558,25 @@ public class SqlFilterConverter {
 		return Expressions.constant(assertionValue);
 	}
 
+	/*
+	 * Single value for JSON predicates which compare each element of multi-valued attribute
+	 */
+	private Expression buildScalarExpression(Filter filter) {
+		return Expressions.constant(getTypedAssertionValue(filter));
+	}
+
+	private Object getTypedAssertionValue(Filter filter) {
+		Object assertionValue = filter.getAssertionValue();
+		if (assertionValue instanceof AttributeEnum) {
+			assertionValue = ((AttributeEnum) assertionValue).getValue();
+		} else if (assertionValue instanceof Date) {
+	        SimpleDateFormat jsonDateFormat = new SimpleDateFormat(SQL_DATA_FORMAT);
+	        assertionValue = jsonDateFormat.format(filter.getAssertionValue());
+		}
+
+		return assertionValue;
+	}
+
 	private Expression buildTypedPath(Filter genericFilter, Map<String, PropertyAnnotation> propertiesAnnotationsMap,
 			Map<String, Class<?>> jsonAttributes, Function<? super Filter, Boolean> processor, boolean skipAlias) throws SearchException {
     	boolean hasSubFilters = ArrayHelper.isNotEmpty(genericFilter.getFilters());
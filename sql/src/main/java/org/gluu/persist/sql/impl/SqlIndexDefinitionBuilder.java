@@ -0,0 +1,132 @@
+/*
+ * oxCore is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2014, Gluu
+ */
+
+package org.gluu.persist.sql.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.gluu.orm.util.StringHelper;
+import org.gluu.persist.impl.IndexAdvisor;
+import org.gluu.persist.impl.IndexAdvisor.FilterShape;
+import org.gluu.persist.sql.operation.SqlOperationService;
+import org.gluu.persist.sql.operation.impl.SqlConnectionProvider;
+
+/**
+ * Builds MySQL and PostgreSQL CREATE INDEX statements for index advisor
+ */
+public class SqlIndexDefinitionBuilder implements IndexAdvisor.IndexDefinitionBuilder {
+
+	private static final int MAX_INDEX_NAME_LENGTH = 63;
+
+	private final SqlOperationService operationService;
+
+	public SqlIndexDefinitionBuilder(SqlOperationService operationService) {
+		this.operationService = operationService;
+	}
+
+	@Override
+	public List<String> buildIndexDefinitions(FilterShape filterShape) {
+		SqlConnectionProvider connectionProvider = operationService.getConnectionProvider();
+		boolean postgreSql = connectionProvider.isPostgreSql();
+		String tableName = filterShape.getContainer();
+		Map<String, String> columnTypes = connectionProvider.getTableMappingByKey("_", tableName).getColumTypes();
+
+		List<String> result = new ArrayList<String>();
+		// Table contains entries with one objectClass only
+		for (List<String> indexKey : filterShape.getIndexKeys(Collections.singleton(StringHelper.toLowerCase(SqlOperationService.OBJECT_CLASS)))) {
+			List<String> keyParts = new ArrayList<String>();
+			List<String> columns = new ArrayList<String>();
+			for (String attributeName : indexKey) {
+				String column = operationService.toInternalAttribute(attributeName);
+				if (isJsonColumn(columnTypes, column)) {
+					continue;
+				}
+
+				columns.add(column);
+				if (filterShape.isLowercase(attributeName)) {
+					keyParts.add(postgreSql ? "LOWER(" + quote(column, true) + ")" : "(LOWER(" + quote(column, false) + "))");
+				} else {
+					keyParts.add(quote(column, postgreSql));
+				}
+			}
+
+			if (!keyParts.isEmpty()) {
+				result.add(String.format("CREATE INDEX %s ON %s (%s);", quote(buildIndexName(tableName, columns), postgreSql),
+						quote(tableName, postgreSql), String.join(", ", keyParts)));
+			}
+		}
+
+		// Multi-valued attributes are stored in JSON columns
+		for (String attributeName : filterShape.getAttributes()) {
+			String column = operationService.toInternalAttribute(attributeName);
+			if (!filterShape.isMultiValued(attributeName) && !isJsonColumn(columnTypes, column)) {
+				continue;
+			}
+
+			String indexName = quote(buildIndexName(tableName, Collections.singletonList(column)), postgreSql);
+			if (postgreSql) {
+				result.add(String.format("CREATE INDEX %s ON %s USING GIN (%s jsonb_path_ops);", indexName, quote(tableName, true), quote(column, true)));
+			} else if (connectionProvider.isSupportJsonMemberOf()) {
+				result.add(String.format("CREATE INDEX %s ON %s ((CAST(%s->'$.v' AS CHAR(128) ARRAY)));", indexName, quote(tableName, false), quote(column, false)));
+			} else {
+				result.add(String.format("-- Multi-valued column %s of %s can't be indexed before MySQL 8.0.17", column, tableName));
+			}
+		}
+
+		// Substring without initial part can use only trigram or ngram full text index
+		for (String attributeName : filterShape.getSubstringAttributes()) {
+			String column = operationService.toInternalAttribute(attributeName);
+			if (isJsonColumn(columnTypes, column)) {
+				continue;
+			}
+
+			if (postgreSql) {
+				result.add(String.format("CREATE INDEX %s ON %s USING GIN (%s gin_trgm_ops);", quote(buildIndexName(tableName, Arrays.asList(column, "trgm")), true),
+						quote(tableName, true), quote(column, true)));
+			} else if (connectionProvider.isSupportNgramFullText()) {
+				// Filter converter uses it for attributes with @AttributeName(substringIndex = true)
+				result.add(String.format("CREATE FULLTEXT INDEX %s ON %s (%s) WITH PARSER ngram;", quote(buildIndexName(tableName, Arrays.asList(column, "ngram")), false),
+						quote(tableName, false), quote(column, false)));
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isJsonColumn(Map<String, String> columnTypes, String column) {
+		if (columnTypes == null) {
+			return false;
+		}
+
+		String columnType = columnTypes.get(StringHelper.toLowerCase(column));
+		return (columnType != null) && columnType.startsWith("json");
+	}
+
+	private String buildIndexName(String tableName, List<String> columns) {
+		StringBuilder indexName = new StringBuilder("idx_").append(tableName);
+		for (String column : columns) {
+			indexName.append("_").append(column);
+		}
+
+		if (indexName.length() > MAX_INDEX_NAME_LENGTH) {
+			// Keep name unique after truncation
+			String hash = Integer.toHexString(indexName.toString().hashCode());
+			indexName.setLength(MAX_INDEX_NAME_LENGTH - hash.length() - 1);
+			indexName.append("_").append(hash);
+		}
+
+		return indexName.toString();
+	}
+
+	private String quote(String name, boolean postgreSql) {
+		return postgreSql ? "\"" + name + "\"" : "`" + name + "`";
+	}
+
+}
@@ -5,7 +5,11 @@ import com.querydsl.core.types.Operator;
 public enum SqlOps implements Operator {
 
 	JSON_CONTAINS(Object.class),
-	JSON_EXTRACT(Object.class);
+	JSON_EXTRACT(Object.class),
+	JSON_MEMBER_OF(Object.class),
+	JSON_PATH_EXISTS(Object.class),
+	JSON_PATH_COMPARE(Object.class),
+	FULLTEXT_MATCH(Boolean.class);
 
     private final Class<?> type;
 
@@ -20,7 +20,11 @@ public enum SearchReturnDataType implements AttributeEnum {
 
     SEARCH("search"),
     COUNT("count"),
-    SEARCH_COUNT("search_count");    
+    SEARCH_COUNT("search_count"),
+    // Load page and total count in one round trip if backend allows it or in parallel
+    SEARCH_COUNT_COMBINED("search_count_combined"),
+    // Load page and total count estimation from database statistics
+    SEARCH_COUNT_APPROXIMATE("search_count_approximate");
 
     private String value;
 
@@ -9,7 +9,9 @@ package org.gluu.persist.sql.operation;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 import org.gluu.persist.exception.operation.DeleteException;
 import org.gluu.persist.exception.operation.DuplicateEntryException;
@@ -55,14 +57,18 @@ public interface SqlOperationService extends PersistenceOperationService {
     boolean addEntry(String key, String objectClass, Collection<AttributeData> attributes) throws DuplicateEntryException, PersistenceException;
 
     boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods) throws UnsupportedOperationException, PersistenceException;
+    boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException;
 
     boolean delete(String key, String objectClass) throws EntryNotFoundException;
 	long delete(String key, String objectClass, ConvertedExpression expression, int count) throws DeleteException;
+	long deleteExpired(String objectClass, String expirationAttribute, String deletableAttribute, Date now, int count) throws DeleteException;
 
 	boolean deleteRecursively(String key, String objectClass) throws EntryNotFoundException, SearchException;
 
 	List<AttributeData> lookup(String key, String objectClass, String... attributes) throws SearchException, EntryConvertationException;
 
+	Set<String> findExistingKeys(String objectClass, Collection<String> keys) throws SearchException;
+
     <O> PagedResult<EntryData> search(String key, String objectClass, ConvertedExpression expression, SearchScope scope,
             String[] attributes, OrderSpecifier<?>[] orderBy, SqlBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType,
             int start, int count, int pageSize) throws SearchException;
@@ -29,7 +29,9 @@ import org.gluu.persist.exception.KeyConversionException;
 import org.gluu.persist.exception.operation.ConfigurationException;
 import org.gluu.persist.exception.operation.ConnectionException;
 import org.gluu.persist.operation.auth.PasswordEncryptionMethod;
+import org.gluu.persist.sql.dsl.template.SqlJsonMySQL8Templates;
 import org.gluu.persist.sql.dsl.template.SqlJsonMySQLTemplates;
+import org.gluu.persist.sql.dsl.template.SqlJsonPostgreSQLTemplates;
 import org.gluu.persist.sql.model.ResultCode;
 import org.gluu.persist.sql.model.TableMapping;
 import org.gluu.orm.util.ArrayHelper;
@@ -40,6 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import com.querydsl.sql.Configuration;
 import com.querydsl.sql.MySQLTemplates;
+import com.querydsl.sql.PostgreSQLTemplates;
 import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.SQLTemplates;
 import com.querydsl.sql.SQLTemplatesRegistry;
@@ -70,6 +73,10 @@ public class SqlConnectionProvider {
     private PasswordEncryptionMethod passwordEncryptionMethod;
 
 	private String dbType;
+	private boolean supportWindowFunctions;
+	private boolean supportJsonMemberOf;
+	private boolean supportNgramFullText;
+	private int ngramTokenSize;
 	private String schemaName;
 
 	private SQLTemplates sqlTemplates;
@@ -183,6 +190,16 @@ public class SqlConnectionProvider {
         	DatabaseMetaData databaseMetaData = con.getMetaData();
         	this.dbType = databaseMetaData.getDatabaseProductName().toLowerCase();
             LOG.debug("Database product name: '{}'", dbType);
+            this.supportWindowFunctions = isSupportWindowFunctions(databaseMetaData);
+            LOG.debug("Database supports window functions: '{}'", supportWindowFunctions);
+            this.supportJsonMemberOf = StringHelper.toBoolean(props.getProperty("connection.json-member-of"), true) && isSupportJsonMemberOf(databaseMetaData);
+            LOG.info("Database supports JSON MEMBER OF: '{}'", supportJsonMemberOf);
+            // MariaDB has no ngram full text parser
+            this.supportNgramFullText = dbType.contains("mysql") && !dbType.contains("mariadb")
+            		&& !StringHelper.toLowerCase(databaseMetaData.getDatabaseProductVersion()).contains("mariadb");
+            // Should be equal to server ngram_token_size
+            this.ngramTokenSize = StringHelper.toInteger(props.getProperty("connection.ngram-token-size"), 2);
+            LOG.info("Database supports ngram full text search: '{}', token size: '{}'", supportNgramFullText, ngramTokenSize);
             loadTableMetaData(databaseMetaData);
         } catch (Exception ex) {
             throw new ConnectionException("Failed to detect database product name", ex);
@@ -191,6 +208,42 @@ public class SqlConnectionProvider {
         this.creationResultCode = ResultCode.SUCCESS_INT_VALUE;
     }
 
+    private boolean isSupportWindowFunctions(DatabaseMetaData databaseMetaData) throws SQLException {
+    	int majorVersion = databaseMetaData.getDatabaseMajorVersion();
+    	int minorVersion = databaseMetaData.getDatabaseMinorVersion();
+    	if (dbType.contains("mariadb")) {
+    		return (majorVersion > 10) || ((majorVersion == 10) && (minorVersion >= 2));
+    	} else if (dbType.contains("mysql")) {
+    		return majorVersion >= 8;
+    	} else if (dbType.contains("postgresql")) {
+    		return (majorVersion > 8) || ((majorVersion == 8) && (minorVersion >= 4));
+    	}
+
+    	return false;
+    }
+
+    /*
+     * MEMBER OF() and multi-valued indexes are available since MySQL 8.0.17
+     */
+    private boolean isSupportJsonMemberOf(DatabaseMetaData databaseMetaData) throws SQLException {
+    	if (!dbType.contains("mysql") || dbType.contains("mariadb")) {
+    		return false;
+    	}
+
+    	int[] version = new int[3];
+    	String[] versionParts = StringHelper.split(databaseMetaData.getDatabaseProductVersion(), ".");
+    	for (int i = 0; (i < versionParts.length) && (i < version.length); i++) {
+    		String versionPart = versionParts[i];
+    		int end = 0;
+    		while ((end < versionPart.length()) && Character.isDigit(versionPart.charAt(end))) {
+    			end++;
+    		}
+    		version[i] = StringHelper.toInteger(versionPart.substring(0, end), 0);
+    	}
+
+    	return (version[0] > 8) || ((version[0] == 8) && ((version[1] > 0) || (version[2] >= 17)));
+    }
+
     private void loadTableMetaData(DatabaseMetaData databaseMetaData) throws SQLException {
         LOG.info("Scanning DB metadata...");
 
@@ -219,7 +272,13 @@ public class SqlConnectionProvider {
 			DatabaseMetaData databaseMetaData = con.getMetaData();
 			SQLTemplates.Builder sqlBuilder = templatesRegistry.getBuilder(databaseMetaData);
 			if (sqlBuilder instanceof MySQLTemplates.Builder) {
-				sqlBuilder = SqlJsonMySQLTemplates.builder();
+				if (supportJsonMemberOf) {
+					sqlBuilder = SqlJsonMySQL8Templates.builder();
+				} else {
+					sqlBuilder = SqlJsonMySQLTemplates.builder();
+				}
+			} else if (sqlBuilder instanceof PostgreSQLTemplates.Builder) {
+				sqlBuilder = SqlJsonPostgreSQLTemplates.builder();
 			}
 			this.sqlTemplates = sqlBuilder.printSchema().build();
 			Configuration configuration = new Configuration(sqlTemplates);
@@ -348,6 +407,30 @@ public class SqlConnectionProvider {
         return passwordEncryptionMethod;
     }
 
+	public String getDbType() {
+		return dbType;
+	}
+
+	public boolean isSupportWindowFunctions() {
+		return supportWindowFunctions;
+	}
+
+	public boolean isSupportJsonMemberOf() {
+		return supportJsonMemberOf;
+	}
+
+	public boolean isSupportNgramFullText() {
+		return supportNgramFullText;
+	}
+
+	public int getNgramTokenSize() {
+		return ngramTokenSize;
+	}
+
+	public boolean isPostgreSql() {
+		return (dbType != null) && dbType.contains("postgresql");
+	}
+
 	public String getSchemaName() {
 		return schemaName;
 	}
@@ -6,21 +6,34 @@
 
 package org.gluu.persist.sql.operation.impl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.gluu.persist.exception.MappingException;
 import org.gluu.persist.exception.extension.PersistenceExtension;
@@ -30,6 +43,8 @@ import org.gluu.persist.exception.operation.EntryConvertationException;
 import org.gluu.persist.exception.operation.EntryNotFoundException;
 import org.gluu.persist.exception.operation.PersistenceException;
 import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.exception.operation.VersionConflictException;
+import org.gluu.persist.impl.BatchOperationPipeline;
 import org.gluu.persist.model.AttributeData;
 import org.gluu.persist.model.AttributeDataModification;
 import org.gluu.persist.model.BatchOperation;
@@ -50,6 +65,7 @@ import org.gluu.orm.util.StringHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.querydsl.core.QueryException;
 import com.querydsl.core.types.Expression;
@@ -58,8 +74,10 @@ import com.querydsl.core.types.OrderSpecifier;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.StringPath;
 import com.querydsl.core.types.dsl.Wildcard;
 import com.querydsl.sql.RelationalPathBase;
+import com.querydsl.sql.SQLExpressions;
 import com.querydsl.sql.SQLQuery;
 import com.querydsl.sql.SQLQueryFactory;
 import com.querydsl.sql.dml.SQLDeleteClause;
@@ -77,6 +95,12 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 
 	private static final ObjectMapper JSON_OBJECT_MAPPER = new ObjectMapper();
 
+	private static final String TOTAL_COUNT_ALIAS = "gluu_total_count";
+
+	private static final int MAX_IN_KEYS = 1000;
+
+	public static final int DEFAULT_COUNT_THREADS = 8;
+
     private Properties props;
     private SqlConnectionProvider connectionProvider;
 
@@ -90,6 +114,8 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 
 	private Path<String> docAlias = ExpressionUtils.path(String.class, DOC_ALIAS);
 
+	private ExecutorService countExecutor;
+
     @SuppressWarnings("unused")
     private SqlOperationServiceImpl() {
     }
@@ -103,6 +129,25 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 	private void init() {
 		this.sqlQueryFactory = connectionProvider.getSqlQueryFactory();
 		this.schemaName = connectionProvider.getSchemaName();
+
+		int countThreads = DEFAULT_COUNT_THREADS;
+		if (props.containsKey("connection.count-threads")) {
+			countThreads = StringHelper.toInteger(props.get("connection.count-threads").toString(), DEFAULT_COUNT_THREADS);
+		}
+		LOG.info("Option countThreads: " + countThreads);
+
+		// Count query is executed in caller thread before search query if all count threads are busy
+		ThreadPoolExecutor countThreadPool = new ThreadPoolExecutor(countThreads, countThreads, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "sql-search-count");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		countThreadPool.allowCoreThreadTimeOut(true);
+		this.countExecutor = countThreadPool;
 	}
 
     @Override
@@ -198,10 +243,15 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 
     @Override
     public boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods) throws UnsupportedOperationException, PersistenceException {
+    	return updateEntry(key, objectClass, mods, null);
+    }
+
+    @Override
+    public boolean updateEntry(String key, String objectClass, List<AttributeDataModification> mods, AttributeData expectedVersion) throws UnsupportedOperationException, PersistenceException {
         Instant startTime = OperationDurationUtil.instance().now();
         
         TableMapping tableMapping = connectionProvider.getTableMappingByKey(key, objectClass);
-        boolean result = updateEntryImpl(tableMapping, key, mods);
+        boolean result = updateEntryImpl(tableMapping, key, mods, expectedVersion);
 
         Duration duration = OperationDurationUtil.instance().duration(startTime);
         OperationDurationUtil.instance().logDebug("SQL operation: modify, duration: {}, table: {}, key: {}, mods: {}", duration, tableMapping.getTableName(), key, mods);
@@ -209,7 +259,7 @@ public class SqlOperationServiceImpl implements SqlOperationService {
         return result;
     }
 
-	private boolean updateEntryImpl(TableMapping tableMapping, String key, List<AttributeDataModification> mods) throws PersistenceException {
+	private boolean updateEntryImpl(TableMapping tableMapping, String key, List<AttributeDataModification> mods, AttributeData expectedVersion) throws PersistenceException {
 		try {
 			Map<String, String> columTypes = tableMapping.getColumTypes();
 
@@ -245,8 +295,23 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 
 			Predicate whereExp = ExpressionUtils.eq(Expressions.stringPath(SqlOperationService.DOC_ID),
 					Expressions.constant(key));
+			if (expectedVersion != null) {
+				// Optimistic lock: update entry only if it has expected version
+				Predicate versionExp = ExpressionUtils.eq(Expressions.path(Object.class, expectedVersion.getName()),
+						Expressions.constant(expectedVersion.getValue()));
+				whereExp = ExpressionUtils.and(whereExp, versionExp);
+			}
 
 			long rowInserted = sqlUpdateQuery.where(whereExp).execute();
+			if ((rowInserted == 0) && (expectedVersion != null)) {
+				// No updated rows means that there is either no entry or entry has another version
+				Predicate keyExp = ExpressionUtils.eq(Expressions.stringPath(SqlOperationService.DOC_ID), Expressions.constant(key));
+				if (this.sqlQueryFactory.select(Expressions.ONE).from(tableRelationalPath).where(keyExp).fetchFirst() == null) {
+					throw new EntryNotFoundException(String.format("Failed to find entry '%s'", key));
+				}
+
+				throw new VersionConflictException(String.format("Entry '%s' was modified concurrently. Expected version: '%s'", key, expectedVersion.getValue()));
+			}
 
 			return rowInserted == 1;
         } catch (QueryException ex) {
@@ -317,6 +382,51 @@ public class SqlOperationServiceImpl implements SqlOperationService {
         }
 	}
 
+    @Override
+    public long deleteExpired(String objectClass, String expirationAttribute, String deletableAttribute, Date now, int count) throws DeleteException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        TableMapping tableMapping = connectionProvider.getTableMappingByKey("_", objectClass);
+
+        long result = deleteExpiredImpl(tableMapping, expirationAttribute, deletableAttribute, now, count);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("SQL operation: delete_expired, duration: {}, table: {}, count: {}, deleted: {}", duration, tableMapping.getTableName(), count, result);
+
+        return result;
+    }
+
+	private long deleteExpiredImpl(TableMapping tableMapping, String expirationAttribute, String deletableAttribute, Date now, int count) throws DeleteException {
+		try {
+			RelationalPathBase<Object> tableRelationalPath = buildTableRelationalPath(tableMapping);
+			StringPath docIdPath = Expressions.stringPath(DOC_ID);
+
+			// Expiration column should be indexed to avoid full table scan
+			Predicate exp = Expressions.dateTimePath(Timestamp.class, toInternalAttribute(expirationAttribute)).loe(new Timestamp(now.getTime()));
+			if (StringHelper.isNotEmpty(deletableAttribute)) {
+				String deletableColumn = toInternalAttribute(deletableAttribute);
+				if ((tableMapping.getColumTypes() != null) && tableMapping.getColumTypes().containsKey(StringHelper.toLowerCase(deletableColumn))) {
+					exp = ExpressionUtils.and(exp, Expressions.booleanPath(deletableColumn).isTrue());
+				}
+			}
+
+			// Select keys first to delete small batch in primary key order and keep locks short
+			List<String> keys = this.sqlQueryFactory.select(docIdPath).from(tableRelationalPath).where(exp)
+					.orderBy(docIdPath.asc()).limit(count).fetch();
+			if (keys.isEmpty()) {
+				return 0;
+			}
+
+			// Entry can be updated after select. Repeat expiration check to not delete it
+			SQLDeleteClause sqlDeleteQuery = this.sqlQueryFactory.delete(tableRelationalPath);
+			sqlDeleteQuery.where(docIdPath.in(keys), exp);
+
+			return sqlDeleteQuery.execute();
+		} catch (QueryException ex) {
+			throw new DeleteException(String.format("Failed to delete expired entries from table '%s'", tableMapping.getTableName()), ex);
+		}
+	}
+
     @Override
     public boolean deleteRecursively(String key, String objectClass) throws EntryNotFoundException, SearchException {
         Instant startTime = OperationDurationUtil.instance().now();
@@ -373,6 +483,39 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 		throw new SearchException(String.format("Failed to lookup entry by key: '%s'", key));
 	}
 
+    @Override
+    public Set<String> findExistingKeys(String objectClass, Collection<String> keys) throws SearchException {
+        Instant startTime = OperationDurationUtil.instance().now();
+
+        TableMapping tableMapping = connectionProvider.getTableMappingByKey("_", objectClass);
+
+        Set<String> result = findExistingKeysImpl(tableMapping, keys);
+
+        Duration duration = OperationDurationUtil.instance().duration(startTime);
+        OperationDurationUtil.instance().logDebug("SQL operation: find_existing_keys, duration: {}, table: {}, keys: {}, found: {}", duration, tableMapping.getTableName(), keys.size(), result.size());
+
+        return result;
+    }
+
+	private Set<String> findExistingKeysImpl(TableMapping tableMapping, Collection<String> keys) throws SearchException {
+		Set<String> result = new HashSet<String>();
+		try {
+			RelationalPathBase<Object> tableRelationalPath = buildTableRelationalPath(tableMapping);
+			StringPath docIdPath = Expressions.stringPath(DOC_ID);
+
+			// Keep IN list size below driver and optimizer limits
+			List<String> keysList = new ArrayList<String>(keys);
+			for (int i = 0; i < keysList.size(); i += MAX_IN_KEYS) {
+				List<String> keysChunk = keysList.subList(i, Math.min(i + MAX_IN_KEYS, keysList.size()));
+				result.addAll(this.sqlQueryFactory.select(docIdPath).from(tableRelationalPath).where(docIdPath.in(keysChunk)).fetch());
+			}
+		} catch (QueryException ex) {
+			throw new SearchException(String.format("Failed to find existing keys in table: '%s'", tableMapping.getTableName()), ex);
+		}
+
+		return result;
+	}
+
 	@Override
     public <O> PagedResult<EntryData> search(String key, String objectClass, ConvertedExpression expression, SearchScope scope, String[] attributes, OrderSpecifier<?>[] orderBy,
                                               SqlBatchOperationWraper<O> batchOperationWraper, SearchReturnDataType returnDataType, int start, int count, int pageSize) throws SearchException {
@@ -398,140 +541,271 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 
         RelationalPathBase<Object> tableRelationalPath = buildTableRelationalPath(tableMapping);
 
+        PagedResult<EntryData> result = new PagedResult<EntryData>();
+
+        // Load total count with window function in same query or in parallel with search query
+        boolean combinedCount = SearchReturnDataType.SEARCH_COUNT_COMBINED == returnDataType;
+        boolean windowCount = combinedCount && connectionProvider.isSupportWindowFunctions();
+
 		Expression<?> attributesExp = buildSelectAttributes(attributes);
+		if (windowCount) {
+			attributesExp = Expressions.list(attributesExp, Expressions.as(SQLExpressions.count().over(), TOTAL_COUNT_ALIAS));
+			result.setTotalEntriesCount(-1);
+		}
 
-		SQLQuery<?> sqlSelectQuery;
-		if (expression == null) {
-			sqlSelectQuery = sqlQueryFactory.select(attributesExp).from(tableRelationalPath);
-		} else {
-			Predicate whereExp = (Predicate) expression.expression();
-			sqlSelectQuery = sqlQueryFactory.select(attributesExp).from(tableRelationalPath).where(whereExp);
+		Future<Integer> countFuture = null;
+		if (combinedCount && !windowCount) {
+			countFuture = countExecutor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return countImpl(tableRelationalPath, key, expression);
+				}
+			});
 		}
 
-        SQLQuery<?> baseQuery = sqlSelectQuery;
-        if (orderBy != null) {
-            baseQuery = sqlSelectQuery.orderBy(orderBy);
-        }
+		try {
+			SQLQuery<?> sqlSelectQuery;
+			if (expression == null) {
+				sqlSelectQuery = sqlQueryFactory.select(attributesExp).from(tableRelationalPath);
+			} else {
+				Predicate whereExp = (Predicate) expression.expression();
+				sqlSelectQuery = sqlQueryFactory.select(attributesExp).from(tableRelationalPath).where(whereExp);
+			}
+
+	        SQLQuery<?> baseQuery = sqlSelectQuery;
+	        if (orderBy != null) {
+	            baseQuery = sqlSelectQuery.orderBy(orderBy);
+	        }
 
-        List<EntryData> searchResultList = new LinkedList<EntryData>();
+	        List<EntryData> searchResultList = new LinkedList<EntryData>();
 
-        String queryStr = null;
-        if ((SearchReturnDataType.SEARCH == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
-        	List<EntryData> lastResult = null;
-	        if (pageSize > 0) {
-	            boolean collectSearchResult;
+	        String queryStr = null;
+	        if ((SearchReturnDataType.SEARCH == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType) || combinedCount
+	        		|| (SearchReturnDataType.SEARCH_COUNT_APPROXIMATE == returnDataType)) {
+	        	List<EntryData> lastResult = null;
+		        if (pageSize > 0) {
+		            boolean collectSearchResult;
 	
-	            SQLQuery<?> query;
-	            int currentLimit;
-	    		try {
-	                int resultCount = 0;
-	                int lastCountRows = 0;
-	                do {
-	                    collectSearchResult = true;
+		            SQLQuery<?> query;
+		            int currentLimit;
+		            BatchOperationPipeline<List<EntryData>> batchOperationPipeline = null;
+		            if (batchOperationWraper != null) {
+		            	batchOperationPipeline = batchOperationWraper.createBatchOperationPipeline();
+		            }
+		    		try {
+		                int resultCount = 0;
+		                int lastCountRows = 0;
+		                do {
+		                    collectSearchResult = true;
 	
-	                    currentLimit = pageSize;
-	                    if (count > 0) {
-	                        currentLimit = Math.min(pageSize, count - resultCount);
-	                    }
+		                    currentLimit = pageSize;
+		                    if (count > 0) {
+		                        currentLimit = Math.min(pageSize, count - resultCount);
+		                    }
 	
-	                    query = baseQuery.limit(currentLimit).offset(start + resultCount);
+		                    query = baseQuery.limit(currentLimit).offset(start + resultCount);
 
-	                    queryStr = query.getSQL().getSQL();
-	                    LOG.debug("Executing query: '" + queryStr + "'");
+		                    queryStr = query.getSQL().getSQL();
+		                    LOG.debug("Executing query: '" + queryStr + "'");
 
-	                    try (ResultSet resultSet = query.getResults()) {
-	                    	lastResult = getEntryDataList(resultSet);
-	                    }
+		                    try (ResultSet resultSet = query.getResults()) {
+		                    	lastResult = getEntryDataList(resultSet, (windowCount && (resultCount == 0)) ? result : null);
+		                    }
 
-		    			lastCountRows = lastResult.size();
+			    			lastCountRows = lastResult.size();
 		    			
-	                    if (batchOperation != null) {
-	                        collectSearchResult = batchOperation.collectSearchResult(lastCountRows);
-	                    }
-	                    if (collectSearchResult) {
-	                        searchResultList.addAll(lastResult);
-	                    }
+		                    if (batchOperation != null) {
+		                        collectSearchResult = batchOperation.collectSearchResult(lastCountRows);
+		                    }
+		                    if (collectSearchResult) {
+		                        searchResultList.addAll(lastResult);
+		                    }
 	
-	                    if (batchOperation != null) {
-	                        List<O> entries = batchOperationWraper.createEntities(lastResult);
-	                        batchOperation.performAction(entries);
-	                    }
+		                    if (batchOperationPipeline != null) {
+		                    	// Process page in worker thread and load next page
+		                    	batchOperationPipeline.submit(lastResult);
+		                    } else if (batchOperation != null) {
+		                        List<O> entries = batchOperationWraper.createEntities(lastResult);
+		                        batchOperation.performAction(entries);
+		                    }
 	
-	                    resultCount += lastCountRows;
+		                    resultCount += lastCountRows;
 	
-	                    if (((count > 0) && (resultCount >= count)) || (lastCountRows < currentLimit)) {
-	                        break;
-	                    }
-	                } while (lastCountRows > 0);
-        		} catch (QueryException ex) {
-        			throw new SearchException(String.format("Failed to build search entries query. Key: '%s', expression: '%s'", key, expression.expression()), ex);
-	    		} catch (SQLException | EntryConvertationException ex) {
-	    			throw new SearchException(String.format("Failed to execute query '%s'  with key: '%s'", queryStr, key), ex);
-	    		}
-	        } else {
-	    		try {
-	                SQLQuery<?> query = baseQuery;
-	                if (count > 0) {
-	                    query = query.limit(count);
-	                }
-	                if (start > 0) {
-	                    query = query.offset(start);
-	                }
+		                    if (((count > 0) && (resultCount >= count)) || (lastCountRows < currentLimit)) {
+		                        break;
+		                    }
+		                } while (lastCountRows > 0);
+
+		                if (batchOperationPipeline != null) {
+		                	batchOperationPipeline.finish();
+		                }
+	        		} catch (QueryException ex) {
+	        			throw new SearchException(String.format("Failed to build search entries query. Key: '%s', expression: '%s'", key, expression.expression()), ex);
+		    		} catch (SQLException | EntryConvertationException ex) {
+		    			throw new SearchException(String.format("Failed to execute query '%s'  with key: '%s'", queryStr, key), ex);
+		    		} finally {
+		    			if (batchOperationPipeline != null) {
+		    				batchOperationPipeline.close();
+		    			}
+		    		}
+		        } else {
+		    		try {
+		                SQLQuery<?> query = baseQuery;
+		                if (count > 0) {
+		                    query = query.limit(count);
+		                }
+		                if (start > 0) {
+		                    query = query.offset(start);
+		                }
 	
-                    queryStr = query.getSQL().getSQL();
-
-                    LOG.debug("Execution query: '" + queryStr + "'");
-
-                    try (ResultSet resultSet = query.getResults()) {
-		    			lastResult = getEntryDataList(resultSet);
-		    			searchResultList.addAll(lastResult);
-                    }
-        		} catch (QueryException ex) {
-        			String sqlExpression = queryStr;
-        			if (StringHelper.isNotEmpty(sqlExpression)) {
-        				sqlExpression = expression.expression().toString();
-        			}
-					throw new SearchException(String.format("Failed to build search entries query. Key: '%s', expression: '%s'", key, sqlExpression), ex);
-	            } catch (SQLException | EntryConvertationException ex) {
-	                throw new SearchException("Failed to search entries. Query: '" + queryStr + "'", ex);
-	            }
+	                    queryStr = query.getSQL().getSQL();
+
+	                    LOG.debug("Execution query: '" + queryStr + "'");
+
+	                    try (ResultSet resultSet = query.getResults()) {
+			    			lastResult = getEntryDataList(resultSet, windowCount ? result : null);
+			    			searchResultList.addAll(lastResult);
+	                    }
+	        		} catch (QueryException ex) {
+	        			String sqlExpression = queryStr;
+	        			if (StringHelper.isNotEmpty(sqlExpression)) {
+	        				sqlExpression = expression.expression().toString();
+	        			}
+						throw new SearchException(String.format("Failed to build search entries query. Key: '%s', expression: '%s'", key, sqlExpression), ex);
+		            } catch (SQLException | EntryConvertationException ex) {
+		                throw new SearchException("Failed to search entries. Query: '" + queryStr + "'", ex);
+		            }
+		        }
 	        }
-        }
 
-        PagedResult<EntryData> result = new PagedResult<EntryData>();
-        result.setEntries(searchResultList);
-        result.setEntriesCount(searchResultList.size());
-        result.setStart(start);
-
-        if ((SearchReturnDataType.COUNT == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
-    		SQLQuery<?> sqlCountSelectQuery;
-    		if (expression == null) {
-    			sqlCountSelectQuery = sqlQueryFactory.select(Expressions.as(ExpressionUtils.count(Wildcard.all), "TOTAL")).from(tableRelationalPath);
-    		} else {
-    			Predicate whereExp = (Predicate) expression.expression();
-    			sqlCountSelectQuery = sqlQueryFactory.select(Expressions.as(ExpressionUtils.count(Wildcard.all), "TOTAL")).from(tableRelationalPath).where(whereExp);
-    		}
+	        result.setEntries(searchResultList);
+	        result.setEntriesCount(searchResultList.size());
+	        result.setStart(start);
+
+	        if ((SearchReturnDataType.COUNT == returnDataType) || (SearchReturnDataType.SEARCH_COUNT == returnDataType)) {
+	        	result.setTotalEntriesCount(countImpl(tableRelationalPath, key, expression));
+	        } else if (SearchReturnDataType.SEARCH_COUNT_APPROXIMATE == returnDataType) {
+	        	result.setTotalEntriesCount(estimateCountImpl(tableRelationalPath, key, expression));
+	        } else if (countFuture != null) {
+	        	result.setTotalEntriesCount(getCount(countFuture));
+	        } else if (windowCount && (result.getTotalEntriesCount() < 0)) {
+	        	// Window function returns count only with rows
+	        	if (start == 0) {
+	        		result.setTotalEntriesCount(0);
+	        	} else {
+	        		result.setTotalEntriesCount(countImpl(tableRelationalPath, key, expression));
+	        	}
+	        }
 
-    		try {
-                queryStr = sqlCountSelectQuery.getSQL().getSQL();
-                LOG.debug("Calculating count. Execution query: '" + queryStr + "'");
+	        return result;
+		} finally {
+			// Count is not needed if search failed. Cancel of completed count is no-op
+			if (countFuture != null) {
+				countFuture.cancel(true);
+			}
+		}
+    }
 
-                try (ResultSet countResult = sqlCountSelectQuery.getResults()) {
-                	if (!countResult.next()) {
-                        throw new SearchException("Failed to calculate count entries. Query: '" + queryStr + "'");
-                	}
+	private int countImpl(RelationalPathBase<Object> tableRelationalPath, String key, ConvertedExpression expression) throws SearchException {
+		SQLQuery<?> sqlCountSelectQuery;
+		if (expression == null) {
+			sqlCountSelectQuery = sqlQueryFactory.select(Expressions.as(ExpressionUtils.count(Wildcard.all), "TOTAL")).from(tableRelationalPath);
+		} else {
+			Predicate whereExp = (Predicate) expression.expression();
+			sqlCountSelectQuery = sqlQueryFactory.select(Expressions.as(ExpressionUtils.count(Wildcard.all), "TOTAL")).from(tableRelationalPath).where(whereExp);
+		}
 
-                	result.setTotalEntriesCount(countResult.getInt("TOTAL"));
-                }
-    		} catch (QueryException ex) {
-    			throw new SearchException(String.format("Failed to build count search entries query. Key: '%s', expression: '%s'", key, expression.expression()), ex);
-            } catch (SQLException ex) {
-                throw new SearchException("Failed to calculate count entries. Query: '" + queryStr + "'", ex);
+		String queryStr = null;
+		try {
+            queryStr = sqlCountSelectQuery.getSQL().getSQL();
+            LOG.debug("Calculating count. Execution query: '" + queryStr + "'");
+
+            try (ResultSet countResult = sqlCountSelectQuery.getResults()) {
+            	if (!countResult.next()) {
+                    throw new SearchException("Failed to calculate count entries. Query: '" + queryStr + "'");
+            	}
+
+            	return countResult.getInt("TOTAL");
             }
+		} catch (QueryException ex) {
+			throw new SearchException(String.format("Failed to build count search entries query. Key: '%s', expression: '%s'", key, expression.expression()), ex);
+        } catch (SQLException ex) {
+            throw new SearchException("Failed to calculate count entries. Query: '" + queryStr + "'", ex);
         }
+	}
 
-        return result;
-    }
+	/*
+	 * Estimates number of rows from execution plan. Calculates exact count if database is not supported
+	 */
+	private int estimateCountImpl(RelationalPathBase<Object> tableRelationalPath, String key, ConvertedExpression expression) throws SearchException {
+		String dbType = connectionProvider.getDbType();
+		boolean mySql = dbType.contains("mysql") || dbType.contains("mariadb");
+		boolean postgreSql = dbType.contains("postgresql");
+		if (!mySql && !postgreSql) {
+			return countImpl(tableRelationalPath, key, expression);
+		}
+
+		SQLQuery<?> sqlSelectQuery;
+		if (expression == null) {
+			sqlSelectQuery = sqlQueryFactory.select(Expressions.ONE).from(tableRelationalPath);
+		} else {
+			Predicate whereExp = (Predicate) expression.expression();
+			sqlSelectQuery = sqlQueryFactory.select(Expressions.ONE).from(tableRelationalPath).where(whereExp);
+		}
+
+		String queryStr = null;
+		try (Connection connection = connectionProvider.getConnection(); Statement statement = connection.createStatement()) {
+			// Execution plan can't be built for statements with parameters
+			sqlSelectQuery.setUseLiterals(true);
+			if (mySql) {
+				queryStr = "EXPLAIN " + sqlSelectQuery.getSQL().getSQL();
+			} else {
+				queryStr = "EXPLAIN (FORMAT JSON) " + sqlSelectQuery.getSQL().getSQL();
+			}
+            LOG.debug("Estimating count. Execution query: '" + queryStr + "'");
+
+			try (ResultSet resultSet = statement.executeQuery(queryStr)) {
+				if (!resultSet.next()) {
+                    throw new SearchException("Failed to estimate count entries. Query: '" + queryStr + "'");
+				}
+
+				if (mySql) {
+					// MySQL returns row per table access. Rows of outer query block (id = 1) are joined,
+					// rows of subqueries from filter don't change number of returned rows
+					double estimatedRows = 1;
+					do {
+						if (resultSet.getLong("id") == 1) {
+							estimatedRows *= resultSet.getLong("rows") * resultSet.getDouble("filtered") / 100;
+						}
+					} while (resultSet.next());
+
+					return (int) Math.min(Integer.MAX_VALUE, Math.round(estimatedRows));
+				}
+
+				// PostgreSQL returns one JSON document. Root plan node estimates rows of whole query
+				JsonNode plan = JSON_OBJECT_MAPPER.readTree(resultSet.getString(1));
+				return plan.get(0).get("Plan").get("Plan Rows").asInt();
+			}
+		} catch (QueryException ex) {
+			throw new SearchException(String.format("Failed to build estimate count query. Key: '%s', expression: '%s'", key, expression.expression()), ex);
+		} catch (SQLException | IOException | RuntimeException ex) {
+			throw new SearchException("Failed to estimate count entries. Query: '" + queryStr + "'", ex);
+		}
+	}
+
+	private int getCount(Future<Integer> countFuture) throws SearchException {
+		try {
+			return countFuture.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SearchException("Calculation of count entries was interrupted", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof SearchException) {
+				throw (SearchException) ex.getCause();
+			}
+			throw new SearchException("Failed to calculate count entries", ex.getCause());
+		}
+	}
 
 	public String[] createStoragePassword(String[] passwords) {
         if (ArrayHelper.isEmpty(passwords)) {
@@ -565,6 +839,11 @@ public class SqlOperationServiceImpl implements SqlOperationService {
 	        for (int i = 1; i <= columnsCount; i++) {
 	        	ResultSetMetaData metaData = resultSet.getMetaData();
 	        	String shortAttributeName = metaData.getColumnName(i);
+	        	if (TOTAL_COUNT_ALIAS.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+	        		// Skip total count column of combined search
+	        		continue;
+	        	}
+
 	        	String columnTypeName = metaData.getColumnTypeName(i).toLowerCase();
 	        	boolean isNullable = metaData.isNullable(i) == ResultSetMetaData.columnNullable;
 
@@ -640,7 +919,10 @@ public class SqlOperationServiceImpl implements SqlOperationService {
         }
     }
 
-    private List<EntryData> getEntryDataList(ResultSet resultSet) throws EntryConvertationException, SQLException {
+    /*
+     * Loads total count from window function column into countResult if it's not null
+     */
+    private List<EntryData> getEntryDataList(ResultSet resultSet, PagedResult<EntryData> countResult) throws EntryConvertationException, SQLException {
     	List<EntryData> entryDataList = new LinkedList<>();
 
     	List<AttributeData> attributeDataList = null;
@@ -650,6 +932,10 @@ public class SqlOperationServiceImpl implements SqlOperationService {
     			break;
     		}
 
+    		if ((countResult != null) && entryDataList.isEmpty()) {
+    			countResult.setTotalEntriesCount(resultSet.getInt(TOTAL_COUNT_ALIAS));
+    		}
+
     		EntryData entryData = new EntryData(attributeDataList);
     		entryDataList.add(entryData);
     	}
@@ -675,6 +961,10 @@ public class SqlOperationServiceImpl implements SqlOperationService {
     public boolean destroy() {
         boolean result = true;
 
+        if (countExecutor != null) {
+        	countExecutor.shutdownNow();
+        }
+
         if (connectionProvider != null) {
             try {
                 connectionProvider.destroy();
@@ -11,6 +11,7 @@ import org.gluu.persist.sql.dsl.template.SqlJsonMySQLTemplates;
 import org.gluu.persist.sql.impl.SqlFilterConverter;
 import org.gluu.persist.sql.model.ConvertedExpression;
 import org.gluu.search.filter.Filter;
+import org.gluu.search.filter.FilterOptimizer;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
@@ -28,6 +29,7 @@ import com.querydsl.sql.SQLTemplates;
 public class SqlFilterConverterTest {
 
 	private SqlFilterConverter simpleConverter;
+	private SqlFilterConverter optimizedConverter;
 	private Path<Object> tablePath;
 	private Path<Object> docAlias;
 	private SimpleExpression<Object> tableAlieasPath;
@@ -38,6 +40,8 @@ public class SqlFilterConverterTest {
 	@BeforeClass
 	public void init() {
 		this.simpleConverter = new SqlFilterConverter(null);
+		this.optimizedConverter = new SqlFilterConverter(null);
+		this.optimizedConverter.setFilterOptimizer(new FilterOptimizer());
 		this.tablePath = ExpressionUtils.path(Object.class, "table");
 		this.docAlias = ExpressionUtils.path(Object.class, "doc");
 		this.tableAlieasPath = Expressions.as(tablePath, docAlias);
@@ -456,6 +460,35 @@ public class SqlFilterConverterTest {
 		assertEquals(query, "select doc.`*` from `table` as doc where (lower(doc.description) like '%test_value%' or lower(doc.displayName) like '%test_value%') and doc.gluuScrTyp = 'person_authentication'");
 	}
 
+	@Test
+	public void checkOptimizedFilters() throws SearchException {
+		Filter filterPresence1 = Filter.createPresenceFilter("mail");
+		Filter filterEq1 = Filter.createEqualityFilter("uid", "test");
+		Filter filterEq2 = Filter.createEqualityFilter("uid", "test2");
+		Filter filterLe1 = Filter.createLessOrEqualFilter("age", 23);
+
+		// Flatten, remove duplicates and order by selectivity
+		Filter filterAnd1 = Filter.createANDFilter(filterPresence1, Filter.createANDFilter(filterEq1, filterEq1), filterLe1);
+		ConvertedExpression expressionAnd1 = optimizedConverter.convertToSqlFilter(filterAnd1, null, null);
+
+		String queryAnd1 = toSelectSQL(expressionAnd1);
+		assertEquals(queryAnd1, "select doc.`*` from `table` as doc where doc.uid = 'test' and doc.age <= 23 and doc.mail is not null");
+
+		// Fold NOT-NOT
+		Filter filterNot1 = Filter.createNOTFilter(Filter.createNOTFilter(filterEq1));
+		ConvertedExpression expressionNot1 = optimizedConverter.convertToSqlFilter(filterNot1, null, null);
+
+		String queryNot1 = toSelectSQL(expressionNot1);
+		assertEquals(queryNot1, "select doc.`*` from `table` as doc where doc.uid = 'test'");
+
+		// Group equalities to build IN
+		Filter filterOr1 = Filter.createORFilter(filterEq1, filterPresence1, filterEq2).multiValued(false);
+		ConvertedExpression expressionOr1 = optimizedConverter.convertToSqlFilter(filterOr1, null, null);
+
+		String queryOr1 = toSelectSQL(expressionOr1);
+		assertEquals(queryOr1, "select doc.`*` from `table` as doc where doc.uid in ('test', 'test2') or doc.mail is not null");
+	}
+
 	private String toSelectSQL(ConvertedExpression convertedExpression) {
 		SQLQuery sqlQuery = (SQLQuery) new SQLQuery(configuration).select(allPath).from(tableAlieasPath)
 				.where((Predicate) convertedExpression.expression());
@@ -0,0 +1,127 @@
+package org.gluu.persist.sql.impl.test;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.gluu.persist.exception.operation.SearchException;
+import org.gluu.persist.sql.dsl.template.SqlJsonMySQL8Templates;
+import org.gluu.persist.sql.dsl.template.SqlJsonMySQLTemplates;
+import org.gluu.persist.sql.dsl.template.SqlJsonPostgreSQLTemplates;
+import org.gluu.persist.sql.impl.SqlFilterConverter;
+import org.gluu.persist.sql.model.ConvertedExpression;
+import org.gluu.search.filter.Filter;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.SQLSerializer;
+
+public class SqlJsonFilterConverterTest {
+
+	private SqlFilterConverter mySqlConverter;
+	private SqlFilterConverter mySql8Converter;
+	private SqlFilterConverter postgreSqlConverter;
+
+	private Configuration mySqlConfiguration;
+	private Configuration mySql8Configuration;
+	private Configuration postgreSqlConfiguration;
+
+	@BeforeClass
+	public void init() {
+		// MySQL before 8.0.17 or connection.json-member-of=false
+		this.mySqlConverter = new SqlFilterConverter(null);
+		this.mySqlConfiguration = new Configuration(SqlJsonMySQLTemplates.builder().printSchema().build());
+
+		this.mySql8Converter = new SqlFilterConverter(null);
+		this.mySql8Converter.setSupportJsonMemberOf(true);
+		this.mySql8Configuration = new Configuration(SqlJsonMySQL8Templates.builder().printSchema().build());
+
+		this.postgreSqlConverter = new SqlFilterConverter(null);
+		this.postgreSqlConverter.setPostgreSqlJson(true);
+		this.postgreSqlConfiguration = new Configuration(SqlJsonPostgreSQLTemplates.builder().printSchema().build());
+	}
+
+	@Test
+	public void checkMySql8MemberOfFilters() throws SearchException {
+		Filter filterEq1 = Filter.createEqualityFilter("uid", "test").multiValued();
+		assertEquals(toWhereSQL(mySql8Converter, mySql8Configuration, filterEq1), "'test' MEMBER OF(doc.uid->'$.v')");
+
+		Filter filterEq2 = Filter.createEqualityFilter("age", 23).multiValued();
+		assertEquals(toWhereSQL(mySql8Converter, mySql8Configuration, filterEq2), "23 MEMBER OF(doc.age->'$.v')");
+
+		Filter filterEq3 = Filter.createEqualityFilter("added", getUtcDateFromMillis(1608130698398L)).multiValued();
+		assertEquals(toWhereSQL(mySql8Converter, mySql8Configuration, filterEq3), "'2020-12-16T14:58:18.398' MEMBER OF(doc.added->'$.v')");
+	}
+
+	@Test
+	public void checkMySql8SingleValuedFilters() throws SearchException {
+		Filter filterEq1 = Filter.createEqualityFilter("uid", "test");
+		assertEquals(toWhereSQL(mySql8Converter, mySql8Configuration, filterEq1), "doc.uid = 'test'");
+	}
+
+	@Test
+	public void checkMySqlWithoutMemberOfFilters() throws SearchException {
+		Filter filterEq1 = Filter.createEqualityFilter("uid", "test").multiValued();
+		assertEquals(toWhereSQL(mySqlConverter, mySqlConfiguration, filterEq1), "JSON_CONTAINS(doc.uid->'$.v', CAST('[\"[\"test\"]\"]' AS JSON))");
+
+		// Converter without MEMBER OF support should not use it with MySQL 8 templates too
+		assertEquals(toWhereSQL(mySqlConverter, mySql8Configuration, filterEq1), "JSON_CONTAINS(doc.uid->'$.v', CAST('[\"[\"test\"]\"]' AS JSON))");
+
+		Filter filterLe1 = Filter.createLessOrEqualFilter("age", 23).multiValued();
+		assertEquals(toWhereSQL(mySqlConverter, mySqlConfiguration, filterLe1), "doc.age->'$.v[0]' <= '[23]'");
+	}
+
+	@Test
+	public void checkPostgreSqlContainsFilters() throws SearchException {
+		Filter filterEq1 = Filter.createEqualityFilter("uid", "test").multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterEq1), "doc.uid @> jsonb_build_object('v', jsonb_build_array('test'))");
+
+		Filter filterEq2 = Filter.createEqualityFilter("age", 23).multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterEq2), "doc.age @> jsonb_build_object('v', jsonb_build_array(23))");
+	}
+
+	@Test
+	public void checkPostgreSqlPathFilters() throws SearchException {
+		Filter filterLe1 = Filter.createLessOrEqualFilter("age", 23).multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterLe1),
+				"jsonb_path_exists(doc.age, CAST('$.v[*] ? (@ <= $value)' AS jsonpath), jsonb_build_object('value', 23))");
+
+		Filter filterGe1 = Filter.createGreaterOrEqualFilter("added", getUtcDateFromMillis(1608130698398L)).multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterGe1),
+				"jsonb_path_exists(doc.added, CAST('$.v[*] ? (@ >= $value)' AS jsonpath), jsonb_build_object('value', '2020-12-16T14:58:18.398'))");
+
+		Filter filterPresence1 = Filter.createPresenceFilter("uid").multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterPresence1),
+				"jsonb_path_exists(doc.uid, CAST('$.v[*]' AS jsonpath))");
+
+		Filter filterSub1 = Filter.createSubstringFilter("uid", "a", new String[] { "test" }, null).multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterSub1),
+				"jsonb_path_exists(doc.uid, CAST('$.v[*] ? (@ like_regex \"^a.*test.*\")' AS jsonpath))");
+
+		Filter filterSub2 = Filter.createSubstringFilter("uid", null, new String[] { "te.st" }, "z").multiValued();
+		assertEquals(toWhereSQL(postgreSqlConverter, postgreSqlConfiguration, filterSub2),
+				"jsonb_path_exists(doc.uid, CAST('$.v[*] ? (@ like_regex \".*te\\\\.st.*z$\")' AS jsonpath))");
+	}
+
+	private String toWhereSQL(SqlFilterConverter converter, Configuration configuration, Filter filter) throws SearchException {
+		ConvertedExpression convertedExpression = converter.convertToSqlFilter(filter, null, null);
+
+		SQLSerializer serializer = new SQLSerializer(configuration);
+		serializer.setUseLiterals(true);
+		serializer.handle(convertedExpression.expression());
+
+		return serializer.toString();
+	}
+
+	private static Date getUtcDateFromMillis(long millis) {
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(millis);
+
+		return calendar.getTime();
+	}
+
+}